@@ -18,10 +18,15 @@ package com.facebook.buck.android;
 
 import com.facebook.buck.util.MoreSuppliers;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.function.Supplier;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -32,13 +37,16 @@ import org.objectweb.asm.tree.ClassNode;
 class ClassNodeListSupplier implements Supplier<ImmutableList<ClassNode>> {
 
   private final Iterable<Path> jarPaths;
+  private final ListeningExecutorService executorService;
 
-  private ClassNodeListSupplier(Iterable<Path> jarPaths) {
+  private ClassNodeListSupplier(Iterable<Path> jarPaths, ListeningExecutorService executorService) {
     this.jarPaths = jarPaths;
+    this.executorService = executorService;
   }
 
-  public static Supplier<ImmutableList<ClassNode>> createMemoized(Iterable<Path> jarPaths) {
-    return MoreSuppliers.memoize(new ClassNodeListSupplier(jarPaths));
+  public static Supplier<ImmutableList<ClassNode>> createMemoized(
+      Iterable<Path> jarPaths, ListeningExecutorService executorService) {
+    return MoreSuppliers.memoize(new ClassNodeListSupplier(jarPaths, executorService));
   }
 
   @Override
@@ -47,33 +55,35 @@ class ClassNodeListSupplier implements Supplier<ImmutableList<ClassNode>> {
   }
 
   private ImmutableList<ClassNode> loadAllClassNodes() {
-    ImmutableList.Builder<ClassNode> builder = ImmutableList.builder();
-
+    // Jars are read in parallel, the result keeps their order.
+    List<ListenableFuture<ImmutableList<ClassNode>>> futures = new ArrayList<>();
     for (Path jarPath : jarPaths) {
-      try (JarFile jarFile = new JarFile(jarPath.toFile())) {
-        loadClassNodes(jarFile, builder);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
+      futures.add(executorService.submit(() -> loadClassNodes(jarPath)));
     }
-
-    return builder.build();
+    return Futures.getUnchecked(Futures.allAsList(futures)).stream()
+        .flatMap(List::stream)
+        .collect(ImmutableList.toImmutableList());
   }
 
-  private void loadClassNodes(JarFile jarFile, ImmutableList.Builder<ClassNode> builder)
-      throws IOException {
-    for (JarEntry entry : Collections.list(jarFile.entries())) {
-      String name = entry.getName();
-      if (entry.isDirectory() || (name == null) || !name.endsWith(".class")) {
-        continue;
-      }
+  private static ImmutableList<ClassNode> loadClassNodes(Path jarPath) {
+    ImmutableList.Builder<ClassNode> builder = ImmutableList.builder();
+    try (JarFile jarFile = new JarFile(jarPath.toFile())) {
+      for (JarEntry entry : Collections.list(jarFile.entries())) {
+        String name = entry.getName();
+        if (entry.isDirectory() || (name == null) || !name.endsWith(".class")) {
+          continue;
+        }
 
-      ClassNode node = new ClassNode();
-      try (InputStream stream = jarFile.getInputStream(entry)) {
-        ClassReader reader = new ClassReader(stream);
-        reader.accept(node, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        ClassNode node = new ClassNode();
+        try (InputStream stream = jarFile.getInputStream(entry)) {
+          ClassReader reader = new ClassReader(stream);
+          reader.accept(node, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        }
+        builder.add(node);
       }
-      builder.add(node);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
+    return builder.build();
   }
 }
@@ -746,7 +746,8 @@ class NonPreDexedDexBuildable extends AbstractBuildRule implements HasDexFiles {
               additionalDexStoreToJarPathMap,
               apkModuleMap,
               rootAPKModule,
-              zipSplitReportDir);
+              zipSplitReportDir,
+              dxExecutorService);
       steps.add(splitZipCommand);
 
       // Add the secondary dex directory that has yet to be created, but will be by the
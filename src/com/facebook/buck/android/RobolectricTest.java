@@ -70,6 +70,7 @@ public class RobolectricTest extends JavaTest {
       ImmutableMap<String, Arg> env,
       boolean runTestSeparately,
       ForkMode forkMode,
+      int shards,
       Optional<Level> stdOutLogLevel,
       Optional<Level> stdErrLogLevel,
       Optional<SourcePath> unbundledResourcesRoot,
@@ -105,6 +106,7 @@ public class RobolectricTest extends JavaTest {
         env,
         runTestSeparately,
         forkMode,
+        shards,
         stdOutLogLevel,
         stdErrLogLevel,
         unbundledResourcesRoot);
@@ -40,6 +40,7 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Multimap;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -98,6 +99,7 @@ public class SplitZipStep implements Step {
 
   @Nullable private ImmutableMultimap<APKModule, Path> outputFiles;
   private ImmutableMap<APKModule, ImmutableSortedSet<APKModule>> apkModuleMap;
+  private final ListeningExecutorService executorService;
 
   /**
    * @param inputPathsToSplit Input paths that would otherwise have been passed to a single dx --dex
@@ -114,6 +116,8 @@ public class SplitZipStep implements Step {
    * @param proguardMappingFile Path to the mapping file generated by ProGuard's obfuscation.
    * @param apkModuleMap
    * @param rootAPKModule
+   * @param executorService Executor on which jars are read and classes are analyzed, shared with
+   *     the dexing steps of the rule.
    */
   public SplitZipStep(
       ProjectFilesystem filesystem,
@@ -135,7 +139,8 @@ public class SplitZipStep implements Step {
       ImmutableMultimap<APKModule, Path> apkModuleToJarPathMap,
       ImmutableSortedMap<APKModule, ImmutableSortedSet<APKModule>> apkModuleMap,
       APKModule rootAPKModule,
-      Path pathToReportDir) {
+      Path pathToReportDir,
+      ListeningExecutorService executorService) {
     this.filesystem = filesystem;
     this.inputPathsToSplit = ImmutableSet.copyOf(inputPathsToSplit);
     this.secondaryJarMetaPath = secondaryJarMetaPath;
@@ -156,6 +161,7 @@ public class SplitZipStep implements Step {
     this.pathToReportDir = pathToReportDir;
     this.rootAPKModule = rootAPKModule;
     this.apkModuleMap = apkModuleMap;
+    this.executorService = executorService;
 
     if (!skipProguard) {
       Preconditions.checkArgument(
@@ -169,7 +175,7 @@ public class SplitZipStep implements Step {
     Set<Path> inputJarPaths =
         inputPathsToSplit.stream().map(filesystem::resolve).collect(ImmutableSet.toImmutableSet());
     Supplier<ImmutableList<ClassNode>> classes =
-        ClassNodeListSupplier.createMemoized(inputJarPaths);
+        ClassNodeListSupplier.createMemoized(inputJarPaths, executorService);
     ProguardTranslatorFactory translatorFactory =
         ProguardTranslatorFactory.create(
             filesystem, proguardFullConfigFile, proguardMappingFile, skipProguard);
@@ -188,7 +194,9 @@ public class SplitZipStep implements Step {
     ZipSplitterFactory zipSplitterFactory;
     zipSplitterFactory =
         new DalvikAwareZipSplitterFactory(
-            dexSplitMode.getLinearAllocHardLimit(), wantedInPrimaryZip);
+            dexSplitMode.getLinearAllocHardLimit(),
+            wantedInPrimaryZip,
+            executorService);
 
     outputFiles =
         zipSplitterFactory
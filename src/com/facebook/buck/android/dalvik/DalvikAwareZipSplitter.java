@@ -41,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
@@ -72,6 +73,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
   private final Path reportDir;
   private final long linearAllocLimit;
   private final DalvikStatsCache dalvikStatsCache;
+  private final ExecutorService statsExecutor;
   private final DexSplitStrategy dexSplitStrategy;
   private final ImmutableSet<String> secondaryHeadSet;
   private final ImmutableSet<String> secondaryTailSet;
@@ -98,7 +100,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableMultimap<APKModule, String> additionalDexStoreSets,
       APKModule rootAPKModule,
       DexSplitStrategy dexSplitStrategy,
-      Path reportDir) {
+      Path reportDir,
+      ExecutorService statsExecutor) {
     if (linearAllocLimit <= 0) {
       throw new HumanReadableException("linear_alloc_hard_limit must be greater than zero.");
     }
@@ -127,7 +130,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.reportDir = reportDir;
     this.dexSplitStrategy = dexSplitStrategy;
     this.linearAllocLimit = linearAllocLimit;
-    this.dalvikStatsCache = new DalvikStatsCache();
+    this.dalvikStatsCache = new DalvikStatsCache(filesystem);
+    this.statsExecutor = statsExecutor;
   }
 
   public static DalvikAwareZipSplitter splitZip(
@@ -145,7 +149,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableMultimap<APKModule, String> additionalDexStoreSets,
       APKModule rootAPKModule,
       DexSplitStrategy dexSplitStrategy,
-      Path reportDir) {
+      Path reportDir,
+      ExecutorService statsExecutor) {
     return new DalvikAwareZipSplitter(
         filesystem,
         inFiles,
@@ -161,11 +166,17 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         additionalDexStoreSets,
         rootAPKModule,
         dexSplitStrategy,
-        reportDir);
+        reportDir,
+        statsExecutor);
   }
 
   @Override
   public ImmutableMultimap<APKModule, Path> execute() throws IOException {
+    // The traversals below are sequential, to keep the output deterministic, and spend most of
+    // their time analyzing classes: do that in parallel first.
+    LOG.verbose("Computing dalvik stats");
+    dalvikStatsCache.precompute(filesystem, inFiles, statsExecutor);
+
     ClasspathTraverser classpathTraverser = new DefaultClasspathTraverser();
     Set<String> secondaryTail = new HashSet<String>();
 
@@ -22,16 +22,24 @@ import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import java.nio.file.Path;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Predicate;
 
 public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
 
   private final long linearAllocLimit;
   private final Set<String> wantedInPrimaryZip;
+  private final ExecutorService statsExecutor;
 
-  public DalvikAwareZipSplitterFactory(long linearAllocLimit, Set<String> wantedInPrimaryZip) {
+  /**
+   * @param statsExecutor where classes are analyzed to estimate their dex weight, shared with the
+   *     other dexing work of the rule.
+   */
+  public DalvikAwareZipSplitterFactory(
+      long linearAllocLimit, Set<String> wantedInPrimaryZip, ExecutorService statsExecutor) {
     this.linearAllocLimit = linearAllocLimit;
     this.wantedInPrimaryZip = wantedInPrimaryZip;
+    this.statsExecutor = statsExecutor;
   }
 
   @Override
@@ -64,6 +72,7 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
         additionalDexStoreSets,
         rootAPKModule,
         dexSplitStrategy,
-        reportDir);
+        reportDir,
+        statsExecutor);
   }
 }
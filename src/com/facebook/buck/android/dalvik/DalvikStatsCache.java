@@ -16,19 +16,96 @@
 
 package com.facebook.buck.android.dalvik;
 
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.classes.ClasspathTraversal;
 import com.facebook.buck.jvm.java.classes.FileLike;
-import com.google.common.collect.MapMaker;
+import com.facebook.buck.jvm.java.classes.HashKeyedDiskCache;
+import com.facebook.buck.util.types.Pair;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
-/** Cache to memoize results from DalvikStatsTool. */
+/**
+ * Cache to memoize results from DalvikStatsTool.
+ *
+ * <p>Results are keyed by the hash of the class files, and shared by all the instances of this
+ * class, so that a daemon doesn't recompute the stats of the classes which haven't changed since
+ * the previous build. Each instance also remembers the hash of the entries it has seen, so that
+ * entries only have to be read and hashed once.
+ *
+ * <p>The stats of the classes of a jar can also be persisted under {@code buck-out/dalvikstats},
+ * in an entry keyed by the SHA-1 hash of the jar which lists the hash and stats of each of its
+ * classes, so that new daemons don't recompute them either. Directories are never persisted.
+ */
 class DalvikStatsCache {
 
-  private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
+  private static final Logger LOG = Logger.get(DalvikStatsCache.class);
+
+  private static final int MAGIC = 0x42445343; // "BDSC"
+  private static final int VERSION = 1;
+  private static final long DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+
+  private static final long MAX_SHARED_ENTRIES = 500_000;
+  private static final int MAX_PENDING_CLASSES = 1024;
+
+  private static final Cache<HashCode, DalvikStatsTool.Stats> STATS_BY_CONTENT_HASH =
+      CacheBuilder.newBuilder().maximumSize(MAX_SHARED_ENTRIES).softValues().build();
 
+  private final Optional<HashKeyedDiskCache> diskCache;
+
+  private final ConcurrentMap<Pair<Path, String>, HashCode> contentHashes =
+      new ConcurrentHashMap<>();
+
+  /** Creates a cache which doesn't persist stats. */
   DalvikStatsCache() {
-    cache = new MapMaker().weakKeys().makeMap();
+    this(Optional.empty());
+  }
+
+  /** Creates a cache which persists the stats of jars in the buck-out of {@code filesystem}. */
+  DalvikStatsCache(ProjectFilesystem filesystem) {
+    this(
+        Optional.of(
+            new HashKeyedDiskCache(
+                filesystem,
+                filesystem.getBuckPaths().getBuckOut().resolve("dalvikstats"),
+                DEFAULT_MAX_SIZE_BYTES,
+                MAGIC,
+                VERSION,
+                "dalvik stats cache")));
+  }
+
+  @VisibleForTesting
+  DalvikStatsCache(Optional<HashKeyedDiskCache> diskCache) {
+    this.diskCache = diskCache;
   }
 
   DalvikStatsTool.Stats getStats(FileLike entry) {
@@ -39,19 +116,251 @@ class DalvikStatsCache {
       return DalvikStatsTool.Stats.ZERO;
     }
 
-    DalvikStatsTool.Stats stats = cache.get(entry);
-    if (stats != null) {
-      return stats;
+    Pair<Path, String> key = new Pair<>(entry.getContainer(), name);
+    HashCode contentHash = contentHashes.get(key);
+    if (contentHash != null) {
+      DalvikStatsTool.Stats stats = STATS_BY_CONTENT_HASH.getIfPresent(contentHash);
+      if (stats != null) {
+        return stats;
+      }
+    }
+    return computeStats(key, readContents(entry));
+  }
+
+  /**
+   * Computes the stats of the classes in the given jars and directories ahead of {@link
+   * #getStats}, or loads the persisted stats of the jars. Class files are read in traversal order,
+   * and analyzed on {@code executor}.
+   */
+  void precompute(ProjectFilesystem filesystem, Collection<Path> inFiles, ExecutorService executor)
+      throws IOException {
+    // Bounds the memory used by the contents of the classes waiting to be analyzed.
+    Semaphore pendingClasses = new Semaphore(MAX_PENDING_CLASSES);
+    List<Future<?>> futures = new ArrayList<>();
+    Map<HashCode, Pair<Path, List<String>>> jarsToPersist = new LinkedHashMap<>();
+    try {
+      for (Path inFile : inFiles) {
+        Path container = filesystem.getPathForRelativePath(inFile);
+        Optional<HashCode> jarHash = Optional.empty();
+        if (diskCache.isPresent() && isJar(filesystem, container)) {
+          jarHash = Optional.of(filesystem.computeSha1(container).asHashCode());
+          if (loadPersistedStats(jarHash.get(), container)) {
+            continue;
+          }
+        }
+        List<String> classNames = new ArrayList<>();
+        new ClasspathTraversal(Collections.singleton(inFile), filesystem) {
+          @Override
+          public void visit(FileLike entry) throws IOException {
+            String name = entry.getRelativePath();
+            if (!name.endsWith(".class")) {
+              return;
+            }
+            classNames.add(name);
+            Pair<Path, String> key = new Pair<>(entry.getContainer(), name);
+            if (contentHashes.containsKey(key)) {
+              return;
+            }
+            byte[] contents = readContents(entry);
+            pendingClasses.acquireUninterruptibly();
+            futures.add(
+                executor.submit(
+                    () -> {
+                      try {
+                        computeStats(key, contents);
+                      } finally {
+                        pendingClasses.release();
+                      }
+                    }));
+          }
+        }.traverse();
+        if (jarHash.isPresent()) {
+          jarsToPersist.put(jarHash.get(), new Pair<>(container, classNames));
+        }
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      // The remaining stats will be computed when they are needed.
+      Thread.currentThread().interrupt();
+      return;
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+    for (Map.Entry<HashCode, Pair<Path, List<String>>> jar : jarsToPersist.entrySet()) {
+      persistStats(jar.getKey(), jar.getValue().getFirst(), jar.getValue().getSecond());
     }
+  }
+
+  private static boolean isJar(ProjectFilesystem filesystem, Path path) {
+    String fileName = path.getFileName().toString().toLowerCase();
+    return (fileName.endsWith(".jar") || fileName.endsWith(".zip")) && filesystem.isFile(path);
+  }
+
+  private DalvikStatsTool.Stats computeStats(Pair<Path, String> key, byte[] contents) {
+    HashCode contentHash = Hashing.murmur3_128().hashBytes(contents);
+    contentHashes.put(key, contentHash);
+    try {
+      return STATS_BY_CONTENT_HASH.get(
+          contentHash, () -> DalvikStatsTool.getEstimate(new ByteArrayInputStream(contents)));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw new RuntimeException(
+          String.format("Error calculating size for %s.", key.getSecond()), e.getCause());
+    }
+  }
+
+  /** @return whether the stats of the classes of the jar were persisted, and are now known. */
+  private boolean loadPersistedStats(HashCode jarHash, Path container) {
+    Optional<ByteBuffer> contents = diskCache.get().read(jarHash);
+    if (!contents.isPresent()) {
+      return false;
+    }
+    ByteBuffer buffer = contents.get();
+    try {
+      String[] strings = new String[buffer.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        byte[] string = new byte[buffer.getInt()];
+        buffer.get(string);
+        strings[i] = new String(string, StandardCharsets.UTF_8);
+      }
+      int classCount = buffer.getInt();
+      List<Pair<String, HashCode>> classes = new ArrayList<>(classCount);
+      List<DalvikStatsTool.Stats> stats = new ArrayList<>(classCount);
+      for (int i = 0; i < classCount; i++) {
+        String name = strings[buffer.getInt()];
+        byte[] hash = new byte[buffer.get()];
+        buffer.get(hash);
+        classes.add(new Pair<>(name, HashCode.fromBytes(hash)));
+        int estimatedLinearAllocSize = buffer.getInt();
+        ImmutableSet<DalvikMemberReference> methodReferences = readReferences(buffer, strings);
+        ImmutableSet<DalvikMemberReference> fieldReferences = readReferences(buffer, strings);
+        stats.add(
+            new DalvikStatsTool.Stats(
+                estimatedLinearAllocSize, methodReferences, fieldReferences));
+      }
+      for (int i = 0; i < classCount; i++) {
+        HashCode contentHash = classes.get(i).getSecond();
+        contentHashes.put(new Pair<>(container, classes.get(i).getFirst()), contentHash);
+        STATS_BY_CONTENT_HASH.asMap().putIfAbsent(contentHash, stats.get(i));
+      }
+      return true;
+    } catch (BufferUnderflowException
+        | IllegalArgumentException
+        | IndexOutOfBoundsException
+        | NegativeArraySizeException e) {
+      LOG.warn(
+          e,
+          "Ignoring truncated or corrupt dalvik stats cache entry %s",
+          diskCache.get().getEntryPath(jarHash));
+      return false;
+    }
+  }
+
+  private static ImmutableSet<DalvikMemberReference> readReferences(
+      ByteBuffer buffer, String[] strings) {
+    int count = buffer.getInt();
+    ImmutableSet.Builder<DalvikMemberReference> references =
+        ImmutableSet.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      references.add(
+          DalvikMemberReference.of(
+              strings[buffer.getInt()], strings[buffer.getInt()], strings[buffer.getInt()]));
+    }
+    return references.build();
+  }
+
+  private void persistStats(HashCode jarHash, Path container, List<String> classNames) {
+    ImmutableList.Builder<Pair<String, HashCode>> classes = ImmutableList.builder();
+    ImmutableList.Builder<DalvikStatsTool.Stats> stats = ImmutableList.builder();
+    for (String name : classNames) {
+      HashCode contentHash = contentHashes.get(new Pair<>(container, name));
+      DalvikStatsTool.Stats classStats =
+          contentHash == null ? null : STATS_BY_CONTENT_HASH.getIfPresent(contentHash);
+      if (classStats == null) {
+        // Evicted from memory already: the jar will be analyzed again by the next build.
+        return;
+      }
+      classes.add(new Pair<>(name, contentHash));
+      stats.add(classStats);
+    }
+    writeEntry(jarHash, classes.build(), stats.build());
+  }
+
+  private void writeEntry(
+      HashCode jarHash,
+      ImmutableList<Pair<String, HashCode>> classes,
+      ImmutableList<DalvikStatsTool.Stats> stats) {
+    // Class names and member references share a table of strings, as most of them repeat.
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    for (int i = 0; i < classes.size(); i++) {
+      strings.putIfAbsent(classes.get(i).getFirst(), strings.size());
+      addStrings(strings, stats.get(i).methodReferences);
+      addStrings(strings, stats.get(i).fieldReferences);
+    }
+    diskCache
+        .get()
+        .write(
+            jarHash,
+            out -> {
+              out.writeInt(strings.size());
+              for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+              }
+              out.writeInt(classes.size());
+              for (int i = 0; i < classes.size(); i++) {
+                out.writeInt(strings.get(classes.get(i).getFirst()));
+                byte[] hash = classes.get(i).getSecond().asBytes();
+                out.writeByte(hash.length);
+                out.write(hash);
+                out.writeInt(stats.get(i).estimatedLinearAllocSize);
+                writeReferences(out, stats.get(i).methodReferences, strings);
+                writeReferences(out, stats.get(i).fieldReferences, strings);
+              }
+            });
+  }
+
+  private static void addStrings(
+      Map<String, Integer> strings, ImmutableSet<DalvikMemberReference> references) {
+    for (DalvikMemberReference reference : references) {
+      strings.putIfAbsent(reference.getClassName(), strings.size());
+      strings.putIfAbsent(reference.getMemberName(), strings.size());
+      strings.putIfAbsent(reference.getDescriptor(), strings.size());
+    }
+  }
+
+  private static void writeReferences(
+      DataOutputStream out,
+      ImmutableSet<DalvikMemberReference> references,
+      Map<String, Integer> strings)
+      throws IOException {
+    out.writeInt(references.size());
+    for (DalvikMemberReference reference : references) {
+      out.writeInt(strings.get(reference.getClassName()));
+      out.writeInt(strings.get(reference.getMemberName()));
+      out.writeInt(strings.get(reference.getDescriptor()));
+    }
+  }
+
+  /** Forgets the stats shared by all the instances, as if the daemon had restarted. */
+  @VisibleForTesting
+  static void clearSharedStats() {
+    STATS_BY_CONTENT_HASH.invalidateAll();
+  }
 
+  private static byte[] readContents(FileLike entry) {
     try (InputStream is = entry.getInput()) {
-      stats = DalvikStatsTool.getEstimate(is);
-      cache.put(entry, stats);
-      return stats;
+      return ByteStreams.toByteArray(is);
     } catch (IOException e) {
-      throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
-    } catch (RuntimeException e) {
-      throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
+      throw new RuntimeException(
+          String.format("Error calculating size for %s.", entry.getRelativePath()), e);
     }
   }
 }
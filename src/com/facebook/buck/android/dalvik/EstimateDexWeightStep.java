@@ -18,6 +18,8 @@ package com.facebook.buck.android.dalvik;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.jvm.java.classes.ClassSummaryCache;
+import com.facebook.buck.jvm.java.classes.ClassSummaryCache.ClassSummary;
 import com.facebook.buck.jvm.java.classes.ClasspathTraversal;
 import com.facebook.buck.jvm.java.classes.DefaultClasspathTraverser;
 import com.facebook.buck.jvm.java.classes.FileLike;
@@ -27,9 +29,11 @@ import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
@@ -73,6 +77,22 @@ public class EstimateDexWeightStep implements Step, Supplier<Integer> {
   @Override
   public StepExecutionResult execute(ExecutionContext context) throws IOException {
     Path path = filesystem.resolve(pathToJarOrClassesDirectory);
+    if (dexWeightEstimator == DEFAULT_ESTIMATOR) {
+      // The size of each class is known without reading the jar if it was summarized before.
+      // Otherwise, the sizes in the jar's entries are cheaper than summarizing it.
+      Optional<ImmutableList<ClassSummary>> summaries =
+          new ClassSummaryCache(filesystem, context.getFileHashLoader())
+              .getCachedClassSummaries(path);
+      if (summaries.isPresent()) {
+        int totalWeightEstimate = 0;
+        for (ClassSummary summary : summaries.get()) {
+          totalWeightEstimate += (int) summary.getSize();
+        }
+        this.weightEstimate = totalWeightEstimate;
+        return StepExecutionResults.SUCCESS;
+      }
+    }
+
     AtomicInteger totalWeightEstimate = new AtomicInteger();
     ClasspathTraversal traversal =
         new ClasspathTraversal(Collections.singleton(path), filesystem) {
@@ -24,13 +24,16 @@ import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.EventDispatcher;
+import com.facebook.buck.io.file.LazyPath;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.NoHealthyServersException;
+import com.facebook.buck.util.function.ThrowingSupplier;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.regex.Matcher;
@@ -45,6 +48,7 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
   protected final HttpService fetchClient;
   protected final HttpService storeClient;
   private final ErrorReporter errorReporter;
+  private final boolean streamingFetchEnabled;
 
   public AbstractNetworkCache(NetworkCacheArgs args) {
     super(
@@ -66,6 +70,7 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
     this.fetchClient = args.getFetchClient();
     this.storeClient = args.getStoreClient();
     this.errorReporter = new ErrorReporter(args);
+    this.streamingFetchEnabled = args.isStreamingFetchEnabled();
   }
 
   private static boolean isNoHealthyServersException(Throwable exception) {
@@ -82,6 +87,13 @@ public abstract class AbstractNetworkCache extends AbstractAsynchronousCache {
     return repository;
   }
 
+  /** Creates the writer of the payload fetched into the given output. */
+  PayloadWriter newPayloadWriter(
+      LazyPath output, ThrowingSupplier<Path, IOException> tempFileSupplier) {
+    return new PayloadWriter(
+        getProjectFilesystem(), output, streamingFetchEnabled, tempFileSupplier);
+  }
+
   private static class NetworkEventListener implements CacheEventListener {
     private final Function<String, UnconfiguredBuildTargetView> unconfiguredBuildTargetFactory;
     private final TargetConfigurationSerializer targetConfigurationSerializer;
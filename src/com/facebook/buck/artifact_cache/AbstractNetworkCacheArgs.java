@@ -63,4 +63,10 @@ interface AbstractNetworkCacheArgs {
   int getErrorTextLimit();
 
   Optional<Long> getMaxStoreSizeBytes();
+
+  /** Whether fetched payloads may be streamed to outputs which support it. */
+  @Value.Default
+  default boolean isStreamingFetchEnabled() {
+    return false;
+  }
 }
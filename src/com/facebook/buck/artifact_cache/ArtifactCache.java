@@ -101,6 +101,15 @@ public interface ArtifactCache extends AutoCloseable {
   ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
       ImmutableSet<RuleKey> ruleKeys);
 
+  /**
+   * This method must return the same value over the lifetime of this object.
+   *
+   * @return whether {@link #multiContainsAsync} can be called on this {@link ArtifactCache}.
+   */
+  default boolean isMultiContainsSupported() {
+    return true;
+  }
+
   ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys);
 
   /**
@@ -128,6 +128,14 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             .build();
     managerScope.schedule(closeTask);
 
+    for (ArtifactCache cache : artifactCaches) {
+      ArtifactCache undecoratedCache = MultiArtifactCache.undecorate(cache);
+      if (undecoratedCache instanceof MultiArtifactCache) {
+        buckEventBus.post(
+            new MultiArtifactCacheLatencyEvent(
+                ((MultiArtifactCache) undecoratedCache).getTierLatencies()));
+      }
+    }
     buckEventBus.post(HttpArtifactCacheEvent.newShutdownEvent());
   }
 
@@ -384,7 +392,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
       // Don't bother wrapping a single artifact cache
       result = artifactCaches.get(0);
     } else {
-      result = new MultiArtifactCache(artifactCaches);
+      result = new MultiArtifactCache(artifactCaches, buckConfig.getMultiCacheFetchPolicy());
     }
 
     // Always support reading two-level cache stores (in case we performed any in the past).
@@ -498,7 +506,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
               dirCacheConfig.getMaxSizeBytes(),
-              storeExecutorService);
+              storeExecutorService,
+              dirCacheConfig.getIndexed());
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
@@ -702,6 +711,7 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
             .setHttpFetchExecutorService(httpFetchExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
             .setErrorTextLimit(cacheDescription.getErrorMessageLimit())
+            .setStreamingFetchEnabled(config.getStreamingFetchEnabled())
             .build());
   }
 
@@ -721,7 +731,8 @@ public class ArtifactCaches implements ArtifactCacheFactory, AutoCloseable {
               buckEventBus,
               cacheConfig.getMaxSizeBytes(),
               cacheConfig.getMaxInlinedSizeBytes(),
-              cacheConfig.getCacheReadMode());
+              cacheConfig.getCacheReadMode(),
+              cacheConfig.getPooledConnections());
 
       return new LoggingArtifactCacheDecorator(
           buckEventBus,
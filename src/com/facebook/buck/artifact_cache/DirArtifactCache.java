@@ -23,9 +23,11 @@ import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.file.BorrowablePath;
 import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.file.ParallelFileTreeWalker;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.DirectoryCleaner;
 import com.facebook.buck.util.DirectoryCleanerArgs;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
@@ -37,10 +39,13 @@ import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -48,12 +53,25 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 
+/**
+ * {@link ArtifactCache} storing artifacts and their metadata as files in a local directory.
+ *
+ * <p>When a maximum size is configured, old entries are trimmed in one of two ways. By default the
+ * whole directory is walked and the least recently accessed files are deleted. With an index, the
+ * cache maintains a persistent {@link DirArtifactCacheIndex} of entry sizes and access times, and
+ * evicts least recently used entries on a background thread as soon as the cache grows beyond its
+ * maximum size, without ever walking the directory.
+ */
 public class DirArtifactCache implements ArtifactCache {
 
   private static final Logger LOG = Logger.get(DirArtifactCache.class);
@@ -65,6 +83,7 @@ public class DirArtifactCache implements ArtifactCache {
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String METADATA_EXTENSION = ".metadata";
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -74,13 +93,18 @@ public class DirArtifactCache implements ArtifactCache {
   private final ListeningExecutorService storeExecutorService;
   private long bytesSinceLastDeleteOldFiles;
 
+  private final Optional<DirArtifactCacheIndex> index;
+  @Nullable private final ListeningExecutorService indexExecutorService;
+  private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+
   public DirArtifactCache(
       String name,
       ProjectFilesystem filesystem,
       Path cacheDir,
       CacheReadMode cacheReadMode,
       Optional<Long> maxCacheSizeBytes,
-      ListeningExecutorService storeExecutorService)
+      ListeningExecutorService storeExecutorService,
+      boolean indexed)
       throws IOException {
     this.name = name;
     this.filesystem = filesystem;
@@ -94,6 +118,26 @@ public class DirArtifactCache implements ArtifactCache {
     if (!filesystem.isDirectory(cacheDir)) {
       filesystem.mkdirs(cacheDir);
     }
+
+    // The index is only useful to decide what to evict, which writable caches with a size limit do.
+    if (indexed && maxCacheSizeBytes.isPresent() && cacheReadMode.isWritable()) {
+      DirArtifactCacheIndex index =
+          DirArtifactCacheIndex.open(filesystem.resolve(getPathToIndexFolder()));
+      this.index = Optional.of(index);
+      this.indexExecutorService =
+          MoreExecutors.listeningDecorator(
+              MostExecutors.newSingleThreadExecutor(
+                  new ThreadFactoryBuilder()
+                      .setNameFormat("dir-cache-index-%d")
+                      .setDaemon(true)
+                      .build()));
+      if (!index.isSeeded()) {
+        indexExecutorService.execute(this::seedIndex);
+      }
+    } else {
+      this.index = Optional.empty();
+      this.indexExecutorService = null;
+    }
   }
 
   @Override
@@ -115,7 +159,7 @@ public class DirArtifactCache implements ArtifactCache {
       try (DataInputStream in =
           new DataInputStream(
               filesystem.newFileInputStream(
-                  getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
+                  getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION))))) {
         int sz = in.readInt();
         metadata = ImmutableMap.builderWithExpectedSize(sz);
         for (int i = 0; i < sz; i++) {
@@ -132,6 +176,7 @@ public class DirArtifactCache implements ArtifactCache {
 
       result =
           CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
+      index.ifPresent(i -> i.recordAccess(ruleKey.toString()));
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
     } catch (IOException e) {
@@ -166,9 +211,10 @@ public class DirArtifactCache implements ArtifactCache {
       Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
       for (RuleKey ruleKey : info.getRuleKeys()) {
         Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
         if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
+          index.ifPresent(i -> i.recordAccess(ruleKey.toString()));
           continue;
         }
 
@@ -206,13 +252,25 @@ public class DirArtifactCache implements ArtifactCache {
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
+
+        if (index.isPresent()) {
+          index
+              .get()
+              .recordStore(
+                  ruleKey.toString(),
+                  filesystem.getFileSize(artifactPath) + filesystem.getFileSize(metadataPath));
+        }
       }
 
     } catch (IOException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
     }
 
-    if (maxCacheSizeBytes.isPresent()
+    if (index.isPresent()) {
+      if (index.get().getTotalBytes() > maxCacheSizeBytes.get()) {
+        scheduleEviction();
+      }
+    } else if (maxCacheSizeBytes.isPresent()
         && bytesSinceLastDeleteOldFiles
             > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
       bytesSinceLastDeleteOldFiles = 0L;
@@ -231,7 +289,7 @@ public class DirArtifactCache implements ArtifactCache {
 
     for (RuleKey ruleKey : ruleKeys) {
       Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+      Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
       boolean contains = filesystem.exists(artifactPath) && filesystem.exists(metadataPath);
       results.put(ruleKey, contains ? CacheResult.contains(name, CACHE_MODE) : CacheResult.miss());
@@ -244,12 +302,8 @@ public class DirArtifactCache implements ArtifactCache {
   }
 
   private void deleteSync(RuleKey ruleKey) {
-    Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-    Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
-
     try {
-      filesystem.deleteFileAtPathIfExists(metadataPath);
-      filesystem.deleteFileAtPathIfExists(artifactPath);
+      deleteEntry(ruleKey.toString());
     } catch (IOException e) {
       String message =
           String.format("Failed to delete artifact for rule key [%s] from local cache", ruleKey);
@@ -266,10 +320,20 @@ public class DirArtifactCache implements ArtifactCache {
     return Futures.immediateFuture(CacheDeleteResult.builder().setCacheNames(cacheNames).build());
   }
 
+  private void deleteEntry(String key) throws IOException {
+    filesystem.deleteFileAtPathIfExists(getPathForKey(key, Optional.of(METADATA_EXTENSION)));
+    filesystem.deleteFileAtPathIfExists(getPathForKey(key, Optional.empty()));
+    index.ifPresent(i -> i.recordRemove(key));
+  }
+
   private Path getPathToTempFolder() {
     return cacheDir.resolve("tmp");
   }
 
+  private Path getPathToIndexFolder() {
+    return cacheDir.resolve("index");
+  }
+
   private Path getPreparedTempFolder() throws IOException {
     Path tmp = getPathToTempFolder();
     if (!filesystem.exists(tmp)) {
@@ -278,23 +342,31 @@ public class DirArtifactCache implements ArtifactCache {
     return tmp;
   }
 
-  private ImmutableList<String> subfolders(RuleKey ruleKey) {
-    if (ruleKey.toString().length() < 4) {
+  private ImmutableList<String> subfolders(String key) {
+    if (key.length() < 4) {
       return ImmutableList.of();
     }
-    String first = ruleKey.toString().substring(0, 2);
-    String second = ruleKey.toString().substring(2, 4);
+    String first = key.substring(0, 2);
+    String second = key.substring(2, 4);
     return ImmutableList.of(first, second);
   }
 
   @VisibleForTesting
   Path getPathForRuleKey(RuleKey ruleKey, Optional<String> extension) {
-    return getParentDirForRuleKey(ruleKey).resolve(ruleKey + extension.orElse(""));
+    return getPathForKey(ruleKey.toString(), extension);
+  }
+
+  private Path getPathForKey(String key, Optional<String> extension) {
+    return getParentDirForKey(key).resolve(key + extension.orElse(""));
   }
 
   @VisibleForTesting
   Path getParentDirForRuleKey(RuleKey ruleKey) {
-    ImmutableList<String> folders = subfolders(ruleKey);
+    return getParentDirForKey(ruleKey.toString());
+  }
+
+  private Path getParentDirForKey(String key) {
+    ImmutableList<String> folders = subfolders(key);
     Path result = cacheDir;
     for (String f : folders) {
       result = result.resolve(f);
@@ -323,12 +395,111 @@ public class DirArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
+    if (index.isPresent()) {
+      // Eviction runs in the background, never hold up the command for it. Anything it does not
+      // get to is picked up by the next build from the persisted index.
+      try {
+        index.get().flush();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to persist dir cache index of %s.", cacheDir);
+      }
+      Objects.requireNonNull(indexExecutorService).shutdown();
+      return;
+    }
     // Do a cache clean up on exit only if cache was written to.
     if (bytesSinceLastDeleteOldFiles > 0) {
       deleteOldFiles();
     }
   }
 
+  private void scheduleEviction() {
+    if (evictionScheduled.compareAndSet(false, true)) {
+      Objects.requireNonNull(indexExecutorService)
+          .execute(
+              () -> {
+                evictionScheduled.set(false);
+                evictWithIndex();
+              });
+    }
+  }
+
+  /** Evicts least recently used entries recorded in the index until the cache fits again. */
+  private void evictWithIndex() {
+    DirArtifactCacheIndex index = this.index.get();
+    try {
+      // Persist our own records first, so replaying the journals cannot resurrect entries.
+      index.flush();
+      index.sync();
+      if (index.getTotalBytes() <= maxCacheSizeBytes.get()) {
+        return;
+      }
+      List<String> victims =
+          index.selectEvictionVictims((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO));
+      for (String key : victims) {
+        deleteEntry(key);
+      }
+      index.flush();
+      LOG.debug("Evicted %d entries from %s.", victims.size(), cacheDir);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to evict entries from %s.", cacheDir);
+    }
+  }
+
+  /**
+   * Adds the entries already present in the cache directory to a newly created index. This walks
+   * the whole cache once, in the background, and is done again by the next build if it doesn't
+   * complete. Entries are ordered by the latest of their access and modification times, as access
+   * times are not updated by all filesystems.
+   */
+  private void seedIndex() {
+    Map<String, long[]> sizesAndAccessTimes = new HashMap<>();
+    for (Path file : getAllFilesInCache()) {
+      String fileName = file.getFileName().toString();
+      Optional<String> extension = Optional.empty();
+      String key = fileName;
+      if (fileName.endsWith(METADATA_EXTENSION)) {
+        key = fileName.substring(0, fileName.length() - METADATA_EXTENSION.length());
+        extension = Optional.of(METADATA_EXTENSION);
+      }
+      if (!file.equals(filesystem.resolve(getPathForKey(key, extension)))) {
+        continue;
+      }
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long[] sizeAndAccessTime = sizesAndAccessTimes.computeIfAbsent(key, k -> new long[2]);
+        sizeAndAccessTime[0] += attributes.size();
+        sizeAndAccessTime[1] =
+            Math.max(
+                sizeAndAccessTime[1],
+                Math.max(
+                    attributes.lastAccessTime().toMillis(),
+                    attributes.lastModifiedTime().toMillis()));
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to read attributes of %s.", file);
+      }
+    }
+    DirArtifactCacheIndex index = this.index.get();
+    sizesAndAccessTimes.forEach((key, value) -> index.seed(key, value[0], value[1]));
+    try {
+      index.markSeeded();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to persist dir cache index of %s.", cacheDir);
+      return;
+    }
+    LOG.info("Seeded dir cache index of %s with %d entries.", cacheDir, sizesAndAccessTimes.size());
+    if (index.getTotalBytes() > maxCacheSizeBytes.get()) {
+      evictWithIndex();
+    }
+  }
+
+  /** Waits for background index work, such as seeding and eviction, scheduled so far. */
+  @VisibleForTesting
+  void waitForIndexWork() throws InterruptedException, ExecutionException {
+    if (indexExecutorService != null) {
+      indexExecutorService.submit(() -> {}).get();
+    }
+  }
+
   /** Deletes files that haven't been accessed recently from the directory cache. */
   @VisibleForTesting
   void deleteOldFiles() {
@@ -336,6 +507,13 @@ public class DirArtifactCache implements ArtifactCache {
       return;
     }
 
+    if (index.isPresent()) {
+      synchronized (this) {
+        evictWithIndex();
+      }
+      return;
+    }
+
     Path cacheDirInFs = filesystem.resolve(cacheDir);
     try {
       synchronized (this) {
@@ -349,31 +527,44 @@ public class DirArtifactCache implements ArtifactCache {
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     List<Path> allFiles = new ArrayList<>();
-    Path tempFolderPath = getPathToTempFolder();
-    try {
-      Files.walkFileTree(
-          filesystem.resolve(cacheDir),
-          ImmutableSet.of(),
-          Integer.MAX_VALUE,
-          new SimpleFileVisitor<Path>() {
-
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                throws IOException {
-              // do not work with files in temp folder as they will be moved later
-              if (dir.equals(tempFolderPath)) {
-                return FileVisitResult.SKIP_SUBTREE;
-              }
-              return super.preVisitDirectory(dir, attrs);
+    Path tempFolderPath = filesystem.resolve(getPathToTempFolder());
+    Path indexFolderPath = filesystem.resolve(getPathToIndexFolder());
+    FileVisitor<Path> visitor =
+        new SimpleFileVisitor<Path>() {
+
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            // do not work with files in temp folder as they will be moved later, nor with the
+            // index describing the cache
+            if (dir.equals(tempFolderPath) || dir.equals(indexFolderPath)) {
+              return FileVisitResult.SKIP_SUBTREE;
             }
+            return super.preVisitDirectory(dir, attrs);
+          }
 
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                throws IOException {
-              allFiles.add(file);
-              return super.visitFile(file, attrs);
-            }
-          });
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            allFiles.add(file);
+            return super.visitFile(file, attrs);
+          }
+        };
+    try {
+      Optional<ParallelFileTreeWalker> parallelWalker = filesystem.getParallelFileTreeWalker();
+      if (parallelWalker.isPresent()) {
+        // The cache dir is ignored by the filesystem, so walk it without its filters.
+        parallelWalker
+            .get()
+            .walk(
+                filesystem.resolve(cacheDir),
+                ImmutableSet.of(),
+                visitor,
+                path -> !path.equals(tempFolderPath) && !path.equals(indexFolderPath));
+      } else {
+        Files.walkFileTree(
+            filesystem.resolve(cacheDir), ImmutableSet.of(), Integer.MAX_VALUE, visitor);
+      }
     } catch (IOException e) {
       LOG.error(e, "Error getting a list of files in %s", tempFolderPath);
     }
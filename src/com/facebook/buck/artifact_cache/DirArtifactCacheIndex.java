@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.CountingInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Persistent access-time index of the entries of a {@link DirArtifactCache}.
+ *
+ * <p>Entries are split into shards by the first character of their rule key. Each shard keeps its
+ * entries ordered by their last access time in memory, whatever the order in which records are
+ * applied or replayed, and is backed by an append-only journal of
+ * store, access and remove records. Records are buffered and appended in batches; journals are
+ * replayed when the index is opened and re-read from the last known offset before evicting, so
+ * that several processes sharing a cache directory see each other's updates. Replaying a record
+ * twice is harmless, which lets a process simply re-read the records it appended itself.
+ *
+ * <p>Eviction repeatedly takes the least recently used head among all shards, so its cost is
+ * proportional to the number of evicted entries rather than the size of the cache.
+ *
+ * <p>Journals are read and written under a file lock, to coordinate with other processes, and
+ * under a lock shared by all the indexes of this process over the same directory, since file
+ * locks can't be held twice by the same process.
+ */
+class DirArtifactCacheIndex {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  @VisibleForTesting static final int SHARD_COUNT = 16;
+
+  private static final byte OP_STORE = 1;
+  private static final byte OP_ACCESS = 2;
+  private static final byte OP_REMOVE = 3;
+
+  // A shard journal gets rewritten once it holds this many more records than live entries.
+  private static final int COMPACTION_SLACK = 4096;
+
+  private static final String JOURNAL_PREFIX = "journal-";
+  private static final String LOCK_FILE_NAME = "lock";
+  private static final String SEEDED_FILE_NAME = "seeded";
+
+  // Keyed by the real path of the index directory.
+  private static final ConcurrentMap<Path, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+  private final Path indexDir;
+  private final Object processLock;
+  private final Shard[] shards;
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final AtomicLong lastTimestampMicros = new AtomicLong();
+
+  private DirArtifactCacheIndex(Path indexDir) throws IOException {
+    this.indexDir = indexDir;
+    this.processLock = PROCESS_LOCKS.computeIfAbsent(indexDir.toRealPath(), path -> new Object());
+    this.shards = new Shard[SHARD_COUNT];
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      shards[i] = new Shard(indexDir.resolve(JOURNAL_PREFIX + Integer.toHexString(i)));
+    }
+  }
+
+  /**
+   * Opens the index stored in {@code indexDir}, replaying all shard journals.
+   *
+   * @param indexDir absolute path of the directory holding the journals.
+   */
+  static DirArtifactCacheIndex open(Path indexDir) throws IOException {
+    Files.createDirectories(indexDir);
+    DirArtifactCacheIndex index = new DirArtifactCacheIndex(indexDir);
+    index.sync();
+    LOG.debug(
+        "Opened dir cache index %s with %d bytes in %d entries",
+        indexDir, index.getTotalBytes(), index.getEntryCount());
+    return index;
+  }
+
+  /**
+   * @return whether the index was completely seeded with the entries of the cache directory. Until
+   *     {@link #markSeeded()} is called, the index needs to be seeded with {@link #seed}, which
+   *     can safely be repeated if a previous seeding was interrupted.
+   */
+  boolean isSeeded() {
+    return Files.exists(indexDir.resolve(SEEDED_FILE_NAME));
+  }
+
+  long getTotalBytes() {
+    return totalBytes.get();
+  }
+
+  int getEntryCount() {
+    int count = 0;
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        count += shard.entries.size();
+      }
+    }
+    return count;
+  }
+
+  /** Records that {@code key} was stored with a total on-disk size of {@code sizeBytes}. */
+  void recordStore(String key, long sizeBytes) {
+    shardFor(key).apply(OP_STORE, key, nextTimestampMicros(), sizeBytes, true);
+  }
+
+  /** Records that {@code key} was read from the cache. */
+  void recordAccess(String key) {
+    shardFor(key).apply(OP_ACCESS, key, nextTimestampMicros(), 0, true);
+  }
+
+  /** Records that {@code key} was removed from the cache. */
+  void recordRemove(String key) {
+    shardFor(key).apply(OP_REMOVE, key, nextTimestampMicros(), 0, true);
+  }
+
+  /**
+   * Adds an entry found on disk that the index does not know about yet. Entries already present
+   * are left untouched, so seeding can run concurrently with regular stores.
+   */
+  void seed(String key, long sizeBytes, long lastAccessMillis) {
+    Shard shard = shardFor(key);
+    synchronized (shard) {
+      if (!shard.entries.containsKey(key)) {
+        shard.apply(
+            OP_STORE, key, TimeUnit.MILLISECONDS.toMicros(lastAccessMillis), sizeBytes, true);
+      }
+    }
+  }
+
+  /** Persists the seeded entries and records that seeding is complete. */
+  void markSeeded() throws IOException {
+    flush();
+    Path seeded = indexDir.resolve(SEEDED_FILE_NAME);
+    if (!Files.exists(seeded)) {
+      Files.createFile(seeded);
+    }
+  }
+
+  /**
+   * Removes least recently used entries from the index until at most {@code maxBytes} remain.
+   * The caller is responsible for deleting the returned entries from disk and then calling {@link
+   * #recordRemove} for each of them.
+   */
+  List<String> selectEvictionVictims(long maxBytes) {
+    List<String> victims = new ArrayList<>();
+    while (totalBytes.get() > maxBytes) {
+      Shard oldestShard = null;
+      long oldestAccess = Long.MAX_VALUE;
+      for (Shard shard : shards) {
+        synchronized (shard) {
+          if (!shard.byLastAccess.isEmpty()) {
+            long lastAccess = shard.byLastAccess.first().lastAccessMicros;
+            if (oldestShard == null || lastAccess < oldestAccess) {
+              oldestShard = shard;
+              oldestAccess = lastAccess;
+            }
+          }
+        }
+      }
+      if (oldestShard == null) {
+        break;
+      }
+      synchronized (oldestShard) {
+        if (oldestShard.byLastAccess.isEmpty()) {
+          continue;
+        }
+        IndexEntry eldest = oldestShard.byLastAccess.first();
+        oldestShard.remove(eldest.key);
+        victims.add(eldest.key);
+      }
+    }
+    return victims;
+  }
+
+  /**
+   * Picks up records appended by other processes since the last sync. Records appended by this
+   * process are replayed as well, which is a no-op.
+   */
+  synchronized void sync() throws IOException {
+    synchronized (processLock) {
+      try (FileChannel lockChannel = openLockChannel();
+          FileLock ignored = lockChannel.lock(0, Long.MAX_VALUE, true)) {
+        for (Shard shard : shards) {
+          shard.replay();
+        }
+      }
+    }
+  }
+
+  /**
+   * Appends all buffered records to the shard journals, compacting journals that mostly contain
+   * superseded records.
+   */
+  synchronized void flush() throws IOException {
+    synchronized (processLock) {
+      List<Shard> toCompact = new ArrayList<>();
+      try (FileChannel lockChannel = openLockChannel();
+          FileLock ignored = lockChannel.lock(0, Long.MAX_VALUE, true)) {
+        for (Shard shard : shards) {
+          shard.append();
+          if (shard.needsCompaction()) {
+            toCompact.add(shard);
+          }
+        }
+      }
+      if (toCompact.isEmpty()) {
+        return;
+      }
+      try (FileChannel lockChannel = openLockChannel();
+          FileLock ignored = lockChannel.lock()) {
+        for (Shard shard : toCompact) {
+          shard.replay();
+          shard.compact();
+        }
+      }
+    }
+  }
+
+  private FileChannel openLockChannel() throws IOException {
+    return FileChannel.open(
+        indexDir.resolve(LOCK_FILE_NAME),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Wall clock based, so that records of several processes can be ordered, but strictly increasing
+   * within this process so that its own accesses are never tied.
+   */
+  private long nextTimestampMicros() {
+    long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    return lastTimestampMicros.updateAndGet(last -> Math.max(now, last + 1));
+  }
+
+  private Shard shardFor(String key) {
+    int digit = key.isEmpty() ? -1 : Character.digit(key.charAt(0), 16);
+    return shards[digit >= 0 ? digit : Math.floorMod(key.hashCode(), SHARD_COUNT)];
+  }
+
+  private static class IndexEntry {
+    private static final Comparator<IndexEntry> BY_LAST_ACCESS =
+        Comparator.<IndexEntry>comparingLong(entry -> entry.lastAccessMicros)
+            .thenComparing(entry -> entry.key);
+
+    private final String key;
+    private final long sizeBytes;
+    // Only updated while the entry is out of its shard's byLastAccess set.
+    private long lastAccessMicros;
+
+    private IndexEntry(String key, long sizeBytes, long lastAccessMicros) {
+      this.key = key;
+      this.sizeBytes = sizeBytes;
+      this.lastAccessMicros = lastAccessMicros;
+    }
+  }
+
+  private class Shard {
+    private final Path journal;
+    private final Map<String, IndexEntry> entries = new HashMap<>();
+    // The same entries, the least recently used one first.
+    private final TreeSet<IndexEntry> byLastAccess = new TreeSet<>(IndexEntry.BY_LAST_ACCESS);
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pending = new DataOutputStream(pendingBytes);
+    @Nullable private Object journalFileKey = null;
+    private long journalOffset = 0;
+    private long journalRecords = 0;
+    private boolean corrupt = false;
+
+    private Shard(Path journal) {
+      this.journal = journal;
+    }
+
+    private synchronized void apply(
+        byte op, String key, long timestampMicros, long sizeBytes, boolean log) {
+      switch (op) {
+        case OP_STORE:
+          IndexEntry previous = remove(key);
+          IndexEntry stored =
+              new IndexEntry(
+                  key,
+                  sizeBytes,
+                  previous == null
+                      ? timestampMicros
+                      : Math.max(previous.lastAccessMicros, timestampMicros));
+          entries.put(key, stored);
+          byLastAccess.add(stored);
+          totalBytes.addAndGet(sizeBytes);
+          break;
+        case OP_ACCESS:
+          IndexEntry entry = entries.get(key);
+          if (entry == null) {
+            return;
+          }
+          byLastAccess.remove(entry);
+          entry.lastAccessMicros = Math.max(entry.lastAccessMicros, timestampMicros);
+          byLastAccess.add(entry);
+          break;
+        case OP_REMOVE:
+          remove(key);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown dir cache index op " + op);
+      }
+      if (log) {
+        try {
+          pending.writeByte(op);
+          pending.writeLong(timestampMicros);
+          pending.writeLong(sizeBytes);
+          pending.writeUTF(key);
+        } catch (IOException e) {
+          throw new IllegalStateException("Writing to memory cannot fail", e);
+        }
+      }
+    }
+
+    @Nullable
+    private synchronized IndexEntry remove(String key) {
+      IndexEntry removed = entries.remove(key);
+      if (removed != null) {
+        byLastAccess.remove(removed);
+        totalBytes.addAndGet(-removed.sizeBytes);
+      }
+      return removed;
+    }
+
+    private void append() throws IOException {
+      byte[] records;
+      synchronized (this) {
+        if (pendingBytes.size() == 0) {
+          return;
+        }
+        records = pendingBytes.toByteArray();
+        pendingBytes.reset();
+      }
+      // A single write in append mode, so records from concurrent processes never interleave.
+      try (FileChannel channel =
+          FileChannel.open(
+              journal,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND)) {
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    }
+
+    private void replay() throws IOException {
+      if (!Files.exists(journal)) {
+        return;
+      }
+      Object fileKey = Files.readAttributes(journal, BasicFileAttributes.class).fileKey();
+      try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+        if (channel.size() < journalOffset
+            || (fileKey != null && journalFileKey != null && !fileKey.equals(journalFileKey))) {
+          // The journal was compacted by another process, start over.
+          synchronized (this) {
+            for (IndexEntry entry : entries.values()) {
+              totalBytes.addAndGet(-entry.sizeBytes);
+            }
+            entries.clear();
+            byLastAccess.clear();
+          }
+          journalOffset = 0;
+          journalRecords = 0;
+        }
+        journalFileKey = fileKey;
+        channel.position(journalOffset);
+        long startOffset = journalOffset;
+        CountingInputStream counting =
+            new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        try (DataInputStream in = new DataInputStream(counting)) {
+          while (true) {
+            byte op;
+            try {
+              op = in.readByte();
+            } catch (EOFException e) {
+              break;
+            }
+            if (op < OP_STORE || op > OP_REMOVE) {
+              if (!corrupt) {
+                LOG.warn("Dir cache index journal %s is corrupt, it will be rewritten", journal);
+              }
+              corrupt = true;
+              break;
+            }
+            long timestampMicros;
+            long sizeBytes;
+            String key;
+            try {
+              timestampMicros = in.readLong();
+              sizeBytes = in.readLong();
+              key = in.readUTF();
+            } catch (EOFException e) {
+              // Either a record torn by a crash, or one still being appended by another process.
+              // Rewriting the journal waits for the latter and then re-reads it before compacting.
+              corrupt = true;
+              break;
+            }
+            apply(op, key, timestampMicros, sizeBytes, false);
+            journalOffset = startOffset + counting.getCount();
+            journalRecords++;
+          }
+        }
+      }
+    }
+
+    private boolean needsCompaction() {
+      synchronized (this) {
+        return corrupt || journalRecords > 2L * entries.size() + COMPACTION_SLACK;
+      }
+    }
+
+    private void compact() throws IOException {
+      Path tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+      long records = 0;
+      synchronized (this) {
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+          for (IndexEntry entry : byLastAccess) {
+            out.writeByte(OP_STORE);
+            out.writeLong(entry.lastAccessMicros);
+            out.writeLong(entry.sizeBytes);
+            out.writeUTF(entry.key);
+            records++;
+          }
+        }
+        Files.move(
+            tmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        BasicFileAttributes attributes = Files.readAttributes(journal, BasicFileAttributes.class);
+        journalFileKey = attributes.fileKey();
+        journalOffset = attributes.size();
+        journalRecords = records;
+        corrupt = false;
+      }
+    }
+  }
+}
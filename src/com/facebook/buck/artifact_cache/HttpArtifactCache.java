@@ -28,11 +28,9 @@ import com.google.common.io.ByteSource;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.function.Function;
 import javax.annotation.Nullable;
@@ -94,57 +92,61 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
           return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
         }
 
-        // Setup a temporary file, which sits next to the destination, to write to and
-        // make sure all parent dirs exist.
-        Path file = output.get();
-        getProjectFilesystem().createParentDirs(file);
-        Path temp =
-            getProjectFilesystem()
-                .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
-
-        FetchResponseReadResult fetchedData;
-        try (OutputStream tempFileOutputStream = getProjectFilesystem().newFileOutputStream(temp)) {
-          fetchedData =
-              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, tempFileOutputStream);
-        }
+        // Setup a writer, which writes to a temporary file that sits next to the destination, or
+        // streams the payload to it.
+        try (PayloadWriter writer =
+            newPayloadWriter(
+                output,
+                () -> {
+                  Path file = output.get();
+                  getProjectFilesystem().createParentDirs(file);
+                  return getProjectFilesystem()
+                      .createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+                })) {
+          FetchResponseReadResult fetchedData =
+              HttpArtifactCacheBinaryProtocol.readFetchResponse(input, writer::write);
+
+          resultBuilder
+              .setBuildTarget(
+                  AbstractArtifactCacheEventFactory.getTarget(
+                      unconfiguredBuildTargetFactory,
+                      targetConfigurationSerializer,
+                      fetchedData.getMetadata()))
+              .setResponseSizeBytes(fetchedData.getResponseSizeBytes())
+              .setArtifactContentHash(fetchedData.getArtifactOnlyHashCode().toString());
+
+          // Verify that we were one of the rule keys that stored this artifact.
+          if (!fetchedData.getRuleKeys().contains(ruleKey)) {
+            String msg = "incorrect key name";
+            reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
+            return resultBuilder
+                .setCacheResult(CacheResult.error(getName(), getMode(), msg))
+                .build();
+          }
 
-        resultBuilder
-            .setBuildTarget(
-                AbstractArtifactCacheEventFactory.getTarget(
-                    unconfiguredBuildTargetFactory,
-                    targetConfigurationSerializer,
-                    fetchedData.getMetadata()))
-            .setResponseSizeBytes(fetchedData.getResponseSizeBytes())
-            .setArtifactContentHash(fetchedData.getArtifactOnlyHashCode().toString());
-
-        // Verify that we were one of the rule keys that stored this artifact.
-        if (!fetchedData.getRuleKeys().contains(ruleKey)) {
-          String msg = "incorrect key name";
-          reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
-        }
+          // Now form the checksum on the file we got and compare it to the checksum form the
+          // the HTTP header.  If it's incorrect, log this and return a miss.
+          if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
+            String msg = "artifact had invalid checksum";
+            reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
+            return resultBuilder
+                .setCacheResult(CacheResult.error(getName(), getMode(), msg))
+                .build();
+          }
 
-        // Now form the checksum on the file we got and compare it to the checksum form the
-        // the HTTP header.  If it's incorrect, log this and return a miss.
-        if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
-          String msg = "artifact had invalid checksum";
-          reportFailureWithFormatKey("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          getProjectFilesystem().deleteFileAtPath(temp);
-          return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
+          // Finally, move the temp file into it's final place.
+          writer.commit();
+
+          LOG.info("fetch(%s, %s): cache hit", response.requestUrl(), ruleKey);
+          return resultBuilder
+              .setCacheResult(
+                  CacheResult.hit(
+                      getName(),
+                      getMode(),
+                      fetchedData.getMetadata(),
+                      fetchedData.getResponseSizeBytes()))
+              .build();
         }
-
-        // Finally, move the temp file into it's final place.
-        getProjectFilesystem().move(temp, file, StandardCopyOption.REPLACE_EXISTING);
-
-        LOG.info("fetch(%s, %s): cache hit", response.requestUrl(), ruleKey);
-        return resultBuilder
-            .setCacheResult(
-                CacheResult.hit(
-                    getName(),
-                    getMode(),
-                    fetchedData.getMetadata(),
-                    fetchedData.getResponseSizeBytes()))
-            .build();
       }
     }
   }
@@ -154,6 +156,11 @@ public final class HttpArtifactCache extends AbstractNetworkCache {
     throw new UnsupportedOperationException("multiContains is not supported");
   }
 
+  @Override
+  public boolean isMultiContainsSupported() {
+    return false;
+  }
+
   @Override
   protected StoreResult storeImpl(ArtifactInfo info, Path file) throws IOException {
     StoreResult.Builder resultBuilder = StoreResult.builder();
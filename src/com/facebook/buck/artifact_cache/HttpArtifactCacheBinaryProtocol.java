@@ -30,6 +30,7 @@ import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
@@ -53,9 +54,20 @@ public class HttpArtifactCacheBinaryProtocol {
 
   public static FetchResponseReadResult readFetchResponse(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readFetchResponse(
+        input, (metadata, payload) -> ByteStreams.copy(payload, payloadSink));
+  }
+
+  /**
+   * Reads a fetch response, passing its payload to the given consumer as soon as the metadata has
+   * been read. The checksums of the result are only valid once the payload has been read, so the
+   * consumer must not trust the payload until they have been checked.
+   */
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input, PayloadConsumer payloadConsumer) throws IOException {
 
     MetadataAndPayloadReadResultInternal resultInternal =
-        readMetadataAndPayload(input, payloadSink);
+        readMetadataAndPayload(input, payloadConsumer);
 
     FetchResponseReadResult.Builder result = FetchResponseReadResult.builder().from(resultInternal);
     return result.build();
@@ -79,6 +91,12 @@ public class HttpArtifactCacheBinaryProtocol {
 
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input, OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(
+        input, (metadata, payload) -> ByteStreams.copy(payload, payloadSink));
+  }
+
+  private static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input, PayloadConsumer payloadConsumer) throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -90,6 +108,7 @@ public class HttpArtifactCacheBinaryProtocol {
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
     byte[] rawMetadata = new byte[metadataSize];
     ByteStreams.readFully(input, rawMetadata);
     try (InputStream rawMetadataIn = new ByteArrayInputStream(rawMetadata)) {
@@ -112,7 +131,7 @@ public class HttpArtifactCacheBinaryProtocol {
           int valSize = metadataIn.readInt();
           byte[] val = new byte[valSize];
           ByteStreams.readFully(metadataIn, val);
-          result.putMetadata(key, new String(val, Charsets.UTF_8));
+          metadata.put(key, new String(val, Charsets.UTF_8));
         }
       }
 
@@ -123,12 +142,18 @@ public class HttpArtifactCacheBinaryProtocol {
       result.setExpectedHashCode(HashCode.fromBytes(hashCodeBytes));
     }
 
-    // The remaining data is the payload, which we write to the created file, and also include
-    // in our verification checksum.
+    ImmutableMap<String, String> builtMetadata = metadata.build();
+    result.putAllMetadata(builtMetadata);
+
+    // The remaining data is the payload, which we pass to the consumer, and also include in our
+    // verification checksum.
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
-    try (InputStream payload =
-        new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+    try (CountingInputStream payload =
+        new CountingInputStream(
+            new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input)))) {
+      payloadConsumer.accept(builtMetadata, payload);
+      ByteStreams.exhaust(payload);
+      result.setResponseSizeBytes(payload.getCount());
       result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     }
 
@@ -137,6 +162,13 @@ public class HttpArtifactCacheBinaryProtocol {
     return result.build();
   }
 
+  /** Receives the payload of a response, along with the metadata of its artifact. */
+  @FunctionalInterface
+  public interface PayloadConsumer {
+    /** Reads the payload, which doesn't need to be read entirely, and must not be closed. */
+    void accept(ImmutableMap<String, String> metadata, InputStream payload) throws IOException;
+  }
+
   @VisibleForTesting
   static byte[] createKeysHeader(ImmutableSet<RuleKey> ruleKeys) throws IOException {
     try (ByteArrayOutputStream out = new ByteArrayOutputStream();
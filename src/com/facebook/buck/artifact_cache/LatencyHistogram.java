@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies, with the buckets of {@link
+ * MultiArtifactCacheLatencyEvent#BUCKET_UPPER_BOUNDS_MILLIS}.
+ */
+class LatencyHistogram {
+  private final AtomicLongArray counts =
+      new AtomicLongArray(MultiArtifactCacheLatencyEvent.BUCKET_UPPER_BOUNDS_MILLIS.size() + 1);
+
+  void record(long latencyNanos) {
+    long latencyMillis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+    ImmutableList<Long> upperBounds = MultiArtifactCacheLatencyEvent.BUCKET_UPPER_BOUNDS_MILLIS;
+    int bucket = 0;
+    while (bucket < upperBounds.size() && latencyMillis >= upperBounds.get(bucket)) {
+      bucket++;
+    }
+    counts.incrementAndGet(bucket);
+  }
+
+  ImmutableList<Long> getBuckets() {
+    ImmutableList.Builder<Long> buckets = ImmutableList.builderWithExpectedSize(counts.length());
+    for (int i = 0; i < counts.length(); i++) {
+      buckets.add(counts.get(i));
+    }
+    return buckets.build();
+  }
+}
@@ -88,6 +88,11 @@ public class LoggingArtifactCacheDecorator implements ArtifactCache, CacheDecora
         MoreExecutors.directExecutor());
   }
 
+  @Override
+  public boolean isMultiContainsSupported() {
+    return delegate.isMultiContainsSupported();
+  }
+
   @Override
   public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
     return delegate.deleteAsync(ruleKeys);
@@ -17,6 +17,7 @@
 package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.MultiCacheFetchPolicy;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.io.file.BorrowablePath;
@@ -33,12 +34,15 @@ import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
-import java.util.ArrayList;
+import com.google.common.util.concurrent.SettableFuture;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 
 /**
@@ -51,9 +55,44 @@ public class MultiArtifactCache implements ArtifactCache {
   private final ImmutableList<ArtifactCache> artifactCaches;
   private final ImmutableList<ArtifactCache> writableArtifactCaches;
   private final boolean isStoreSupported;
+  private final MultiCacheFetchPolicy fetchPolicy;
+  private final ImmutableList<Integer> allTiers;
+  // The tiers after the first one, depending on whether they can be asked if they have an artifact.
+  private final ImmutableList<Integer> probedTiers;
+  private final ImmutableList<Integer> unprobedTiers;
+  private final ImmutableList<LatencyHistogram> fetchLatencies;
+  private final ImmutableList<LatencyHistogram> probeLatencies;
 
   public MultiArtifactCache(ImmutableList<ArtifactCache> artifactCaches) {
+    this(artifactCaches, MultiCacheFetchPolicy.DEFAULT);
+  }
+
+  public MultiArtifactCache(
+      ImmutableList<ArtifactCache> artifactCaches, MultiCacheFetchPolicy fetchPolicy) {
     this.artifactCaches = artifactCaches;
+    this.fetchPolicy = fetchPolicy;
+    this.allTiers =
+        IntStream.range(0, artifactCaches.size())
+            .boxed()
+            .collect(ImmutableList.toImmutableList());
+    this.probedTiers =
+        allTiers.stream()
+            .skip(1)
+            .filter(tier -> artifactCaches.get(tier).isMultiContainsSupported())
+            .collect(ImmutableList.toImmutableList());
+    this.unprobedTiers =
+        allTiers.stream()
+            .skip(1)
+            .filter(tier -> !artifactCaches.get(tier).isMultiContainsSupported())
+            .collect(ImmutableList.toImmutableList());
+    this.fetchLatencies =
+        artifactCaches.stream()
+            .map(cache -> new LatencyHistogram())
+            .collect(ImmutableList.toImmutableList());
+    this.probeLatencies =
+        artifactCaches.stream()
+            .map(cache -> new LatencyHistogram())
+            .collect(ImmutableList.toImmutableList());
     this.writableArtifactCaches =
         artifactCaches.stream()
             .filter(c -> c.getCacheReadMode().equals(CacheReadMode.READWRITE))
@@ -69,22 +108,19 @@ public class MultiArtifactCache implements ArtifactCache {
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
-    ListenableFuture<CacheResult> cacheResult = Futures.immediateFuture(CacheResult.miss());
     AtomicReference<ArtifactCache> lastCache = new AtomicReference<>();
-
-    for (ArtifactCache artifactCache : artifactCaches) {
+    ListenableFuture<CacheResult> cacheResult;
+    if (fetchPolicy == MultiCacheFetchPolicy.PROBE && artifactCaches.size() > 2) {
+      cacheResult = probeAndFetchAsync(target, ruleKey, output, lastCache);
+    } else {
       cacheResult =
-          Futures.transformAsync(
-              cacheResult,
-              (result) -> {
-                if (result.getType().isSuccess()) {
-                  return Futures.immediateFuture(result);
-                }
-
-                lastCache.set(artifactCache);
-                return artifactCache.fetchAsync(target, ruleKey, output);
-              },
-              MoreExecutors.directExecutor());
+          fetchSequentiallyAsync(
+              Futures.immediateFuture(CacheResult.miss()),
+              allTiers,
+              target,
+              ruleKey,
+              output,
+              lastCache);
     }
 
     // Propagate the artifact to previous writable caches.
@@ -122,6 +158,184 @@ public class MultiArtifactCache implements ArtifactCache {
         MoreExecutors.directExecutor());
   }
 
+  /** Fetches from each of {@code tiers} in turn, until one of them has the artifact. */
+  private ListenableFuture<CacheResult> fetchSequentiallyAsync(
+      ListenableFuture<CacheResult> cacheResult,
+      Iterable<Integer> tiers,
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      AtomicReference<ArtifactCache> lastCache) {
+    for (int tier : tiers) {
+      cacheResult =
+          Futures.transformAsync(
+              cacheResult,
+              (result) -> {
+                if (result.getType().isSuccess()) {
+                  return Futures.immediateFuture(result);
+                }
+
+                lastCache.set(artifactCaches.get(tier));
+                return fetchFromTierAsync(tier, target, ruleKey, output);
+              },
+              MoreExecutors.directExecutor());
+    }
+    return cacheResult;
+  }
+
+  /**
+   * Fetches from the first cache, and on a miss, asks all the other caches which support it
+   * whether they have the artifact. Meanwhile, fetches sequentially from the caches which can't be
+   * asked. If they miss, fetches from the first cache to answer that it has the artifact. If that
+   * fails, or if no cache answers positively, falls back to fetching sequentially from the caches
+   * which didn't answer negatively.
+   */
+  private ListenableFuture<CacheResult> probeAndFetchAsync(
+      @Nullable BuildTarget target,
+      RuleKey ruleKey,
+      LazyPath output,
+      AtomicReference<ArtifactCache> lastCache) {
+    lastCache.set(artifactCaches.get(0));
+    return Futures.transformAsync(
+        fetchFromTierAsync(0, target, ruleKey, output),
+        firstResult -> {
+          if (firstResult.getType().isSuccess()) {
+            return Futures.immediateFuture(firstResult);
+          }
+
+          Map<Integer, ListenableFuture<CacheResult>> probes = new HashMap<>();
+          SettableFuture<Integer> firstTierWithArtifact = SettableFuture.create();
+          AtomicInteger pendingProbes = new AtomicInteger(probedTiers.size());
+          for (int tier : probedTiers) {
+            ListenableFuture<CacheResult> probe = probeTierAsync(tier, ruleKey);
+            probes.put(tier, probe);
+            probe.addListener(
+                () -> {
+                  if (isHit(probe)) {
+                    firstTierWithArtifact.set(tier);
+                  }
+                  if (pendingProbes.decrementAndGet() == 0) {
+                    // No-op if a probe found the artifact.
+                    firstTierWithArtifact.set(-1);
+                  }
+                },
+                MoreExecutors.directExecutor());
+          }
+          if (probedTiers.isEmpty()) {
+            firstTierWithArtifact.set(-1);
+          }
+
+          return Futures.transformAsync(
+              fetchSequentiallyAsync(
+                  Futures.immediateFuture(firstResult),
+                  unprobedTiers,
+                  target,
+                  ruleKey,
+                  output,
+                  lastCache),
+              unprobedResult -> {
+                if (unprobedResult.getType().isSuccess()) {
+                  return Futures.immediateFuture(unprobedResult);
+                }
+                return Futures.transformAsync(
+                    firstTierWithArtifact,
+                    chosenTier -> {
+                      ListenableFuture<CacheResult> result =
+                          Futures.immediateFuture(unprobedResult);
+                      if (chosenTier > 0) {
+                        lastCache.set(artifactCaches.get(chosenTier));
+                        result = fetchFromTierAsync(chosenTier, target, ruleKey, output);
+                      }
+                      ImmutableList.Builder<Integer> fallbackTiers = ImmutableList.builder();
+                      for (int tier : probedTiers) {
+                        if (tier != chosenTier && !isMiss(probes.get(tier))) {
+                          fallbackTiers.add(tier);
+                        }
+                      }
+                      return fetchSequentiallyAsync(
+                          result, fallbackTiers.build(), target, ruleKey, output, lastCache);
+                    },
+                    MoreExecutors.directExecutor());
+              },
+              MoreExecutors.directExecutor());
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private ListenableFuture<CacheResult> fetchFromTierAsync(
+      int tier, @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    // Artifacts found in this tier are propagated from the output file to the previous writable
+    // tiers, so it has to be written even when the artifact is streamed.
+    if (output instanceof StreamingLazyPath
+        && artifactCaches.subList(0, tier).stream()
+            .anyMatch(cache -> cache.getCacheReadMode().isWritable())) {
+      output = ((StreamingLazyPath) output).withPathRequired();
+    }
+    return recordLatency(
+        artifactCaches.get(tier).fetchAsync(target, ruleKey, output), fetchLatencies.get(tier));
+  }
+
+  private ListenableFuture<CacheResult> probeTierAsync(int tier, RuleKey ruleKey) {
+    return recordLatency(
+        Futures.transform(
+            artifactCaches.get(tier).multiContainsAsync(ImmutableSet.of(ruleKey)),
+            resultsByRuleKey -> resultsByRuleKey.getOrDefault(ruleKey, CacheResult.miss()),
+            MoreExecutors.directExecutor()),
+        probeLatencies.get(tier));
+  }
+
+  private static <T> ListenableFuture<T> recordLatency(
+      ListenableFuture<T> future, LatencyHistogram histogram) {
+    long startNanos = System.nanoTime();
+    future.addListener(
+        () -> histogram.record(System.nanoTime() - startNanos), MoreExecutors.directExecutor());
+    return future;
+  }
+
+  private static boolean isHit(ListenableFuture<CacheResult> probe) {
+    CacheResult result = getProbeResult(probe);
+    return result != null && result.getType().isSuccess();
+  }
+
+  private static boolean isMiss(ListenableFuture<CacheResult> probe) {
+    CacheResult result = getProbeResult(probe);
+    return result != null && result.getType() == CacheResultType.MISS;
+  }
+
+  /** @return the result of a probe, or null if it is still running or couldn't be done. */
+  @Nullable
+  private static CacheResult getProbeResult(ListenableFuture<CacheResult> probe) {
+    if (!probe.isDone() || probe.isCancelled()) {
+      return null;
+    }
+    try {
+      return Futures.getDone(probe);
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
+  /** @return the latencies of each of the caches so far. */
+  public ImmutableList<MultiArtifactCacheLatencyEvent.TierLatencies> getTierLatencies() {
+    ImmutableList.Builder<MultiArtifactCacheLatencyEvent.TierLatencies> tierLatencies =
+        ImmutableList.builderWithExpectedSize(artifactCaches.size());
+    for (int tier = 0; tier < artifactCaches.size(); tier++) {
+      tierLatencies.add(
+          ImmutableTierLatencies.of(
+              tier + "_" + undecorate(artifactCaches.get(tier)).getClass().getSimpleName(),
+              fetchLatencies.get(tier).getBuckets(),
+              probeLatencies.get(tier).getBuckets()));
+    }
+    return tierLatencies.build();
+  }
+
+  /** @return the cache wrapped by {@code cache} if it is a {@link CacheDecorator}. */
+  static ArtifactCache undecorate(ArtifactCache cache) {
+    return cache instanceof CacheDecorator
+        ? undecorate(((CacheDecorator) cache).getDelegate())
+        : cache;
+  }
+
   @Override
   public void skipPendingAndFutureAsyncFetches() {
     for (ArtifactCache artifactCache : artifactCaches) {
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Reports how long each of the caches combined by a multi-cache took to answer, as histograms of
+ * the latencies of the fetches and of the checks for the presence of artifacts sent to it.
+ */
+public class MultiArtifactCacheLatencyEvent extends AbstractBuckEvent {
+
+  /**
+   * Upper bounds, in milliseconds, of the buckets of the histograms. The last bucket of each
+   * histogram, past these, counts all the longer latencies.
+   */
+  public static final ImmutableList<Long> BUCKET_UPPER_BOUNDS_MILLIS =
+      ImmutableList.of(1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1000L, 2000L, 5000L, 10000L);
+
+  /** Latencies of a single cache. */
+  @BuckStyleValue
+  public interface TierLatencies {
+    /** Position of the cache in the multi-cache, followed by its type. */
+    String getTierName();
+
+    /** One count per bucket, see {@link #BUCKET_UPPER_BOUNDS_MILLIS}. */
+    ImmutableList<Long> getFetchLatencyBuckets();
+
+    ImmutableList<Long> getProbeLatencyBuckets();
+  }
+
+  private final ImmutableList<TierLatencies> tierLatencies;
+
+  public MultiArtifactCacheLatencyEvent(ImmutableList<TierLatencies> tierLatencies) {
+    super(EventKey.unique());
+    this.tierLatencies = tierLatencies;
+  }
+
+  public ImmutableList<TierLatencies> getTierLatencies() {
+    return tierLatencies;
+  }
+
+  @Override
+  public String getEventName() {
+    return "MultiArtifactCacheLatency";
+  }
+
+  @Override
+  protected String getValueString() {
+    return tierLatencies.toString();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.TeeInputStream;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.function.ThrowingSupplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import javax.annotation.Nullable;
+
+/**
+ * Writes the payload of a fetched artifact to the output of the fetch.
+ *
+ * <p>The payload is downloaded to a temporary file, which only replaces the output once {@link
+ * #commit()} is called, after the payload was verified. When streaming is enabled and the output is
+ * a {@link StreamingLazyPath} which accepts the artifact, the payload is streamed to it instead,
+ * and only written to the temporary file if the output requires it. Closing the writer without
+ * committing discards the payload.
+ */
+class PayloadWriter implements Closeable {
+
+  private final ProjectFilesystem filesystem;
+  private final LazyPath output;
+  private final boolean streamingEnabled;
+  private final ThrowingSupplier<Path, IOException> tempFileSupplier;
+
+  @Nullable private Path tempFile;
+  private boolean streamed = false;
+  private boolean committed = false;
+
+  PayloadWriter(
+      ProjectFilesystem filesystem,
+      LazyPath output,
+      boolean streamingEnabled,
+      ThrowingSupplier<Path, IOException> tempFileSupplier) {
+    this.filesystem = filesystem;
+    this.output = output;
+    this.streamingEnabled = streamingEnabled;
+    this.tempFileSupplier = tempFileSupplier;
+  }
+
+  /** Reads the whole payload of the artifact with the given metadata. */
+  void write(ImmutableMap<String, String> metadata, InputStream payload) throws IOException {
+    if (streamingEnabled
+        && output instanceof StreamingLazyPath
+        && ((StreamingLazyPath) output).accepts(metadata)) {
+      StreamingLazyPath streamingOutput = (StreamingLazyPath) output;
+      streamed = true;
+      if (streamingOutput.isPathRequired()) {
+        try (OutputStream tempFileStream = newTempFileOutputStream()) {
+          consume(streamingOutput, new TeeInputStream(payload, tempFileStream));
+        }
+      } else {
+        consume(streamingOutput, payload);
+      }
+    } else {
+      try (OutputStream tempFileStream = newTempFileOutputStream()) {
+        ByteStreams.copy(payload, tempFileStream);
+      }
+    }
+  }
+
+  /** Moves the payload to the output, if it was written to a file. */
+  void commit() throws IOException {
+    committed = true;
+    if (tempFile != null) {
+      filesystem.move(tempFile, output.get(), StandardCopyOption.REPLACE_EXISTING);
+      tempFile = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (committed) {
+      return;
+    }
+    if (streamed) {
+      ((StreamingLazyPath) output).onPayloadRejected();
+    }
+    if (tempFile != null) {
+      filesystem.deleteFileAtPathIfExists(tempFile);
+    }
+  }
+
+  private OutputStream newTempFileOutputStream() throws IOException {
+    tempFile = tempFileSupplier.get();
+    return filesystem.newFileOutputStream(tempFile);
+  }
+
+  private static void consume(StreamingLazyPath output, InputStream payload) throws IOException {
+    output.consume(new UnclosableInputStream(payload));
+    ByteStreams.exhaust(payload);
+  }
+
+  /** Protects the payload from consumers closing it, and makes skipped bytes go through reads. */
+  private static class UnclosableInputStream extends FilterInputStream {
+    private UnclosableInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      return ByteStreams.exhaust(ByteStreams.limit(in, n));
+    }
+
+    @Override
+    public void close() {}
+  }
+}
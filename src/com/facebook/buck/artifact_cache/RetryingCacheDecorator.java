@@ -127,6 +127,11 @@ public class RetryingCacheDecorator implements ArtifactCache, CacheDecorator {
     return delegate.multiContainsAsync(ruleKeys);
   }
 
+  @Override
+  public boolean isMultiContainsSupported() {
+    return delegate.isMultiContainsSupported();
+  }
+
   @Override
   public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
     return delegate.deleteAsync(ruleKeys);
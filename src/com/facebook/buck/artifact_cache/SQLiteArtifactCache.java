@@ -60,12 +60,16 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 import org.sqlite.BusyHandler;
 import org.sqlite.SQLiteConfig;
@@ -76,6 +80,11 @@ import org.sqlite.SQLiteConfig;
  * <p>Cache entries are either metadata or content. All metadata contains a mapping to a content
  * entry. Content entries with sufficiently small content will have their artifacts inlined into the
  * database for improved performance.
+ *
+ * <p>By default all operations are serialized through a single connection. With pooled connections
+ * enabled, each fetching thread reads through its own connection (concurrent reads are safe since
+ * the database is in WAL mode), and access time updates are coalesced and written in batched
+ * transactions instead of one statement per fetch.
  */
 public class SQLiteArtifactCache implements ArtifactCache {
 
@@ -87,6 +96,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
   private static final String TMP_EXTENSION = ".tmp";
   private static final long DEFAULT_MAX_INLINED_BYTES = 40;
   private static final Duration DEFAULT_EVICTION_TIME = Duration.ofDays(7);
+  // Number of pending access time updates that triggers a batched flush in pooled mode.
+  private static final int ACCESS_TIME_FLUSH_THRESHOLD = 1000;
 
   private final String name;
   private final ProjectFilesystem filesystem;
@@ -99,6 +110,13 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
   private final ConnectionInfo db;
 
+  private final boolean pooledConnections;
+  private final ThreadLocal<ReadConnection> readConnections = new ThreadLocal<>();
+  private final Set<ReadConnection> openReadConnections = ConcurrentHashMap.newKeySet();
+  private final Set<RuleKey> pendingMetadataAccesses = ConcurrentHashMap.newKeySet();
+  private final Set<RuleKey> pendingContentAccesses = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger pendingAccessCount = new AtomicInteger();
+
   static {
     SQLiteUtils.initialize();
   }
@@ -110,7 +128,8 @@ public class SQLiteArtifactCache implements ArtifactCache {
       BuckEventBus eventBus,
       Optional<Long> maxCacheSizeBytes,
       Optional<Long> maxInlinedSizeBytes,
-      CacheReadMode cacheMode)
+      CacheReadMode cacheMode,
+      boolean pooledConnections)
       throws IOException, SQLException {
     this.name = name;
     this.filesystem = filesystem;
@@ -121,6 +140,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
         maxCacheSizeBytes.map(size -> (long) (size * MAX_BYTES_TRIM_RATIO));
     this.maxInlinedBytes = maxInlinedSizeBytes.orElse(DEFAULT_MAX_INLINED_BYTES);
     this.cacheMode = cacheMode;
+    this.pooledConnections = pooledConnections;
 
     try {
       Class.forName("org.sqlite.JDBC");
@@ -172,7 +192,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Artifact fetch(%s, %s) stopped unexpectedly", contentHash, output));
     try {
-      Optional<Content> content = db.selectContent(contentHash);
+      Optional<Content> content = selectContent(contentHash);
       if (content.isPresent()) {
         byte[] artifact = content.get().artifact;
         String filepath = content.get().filepath;
@@ -190,7 +210,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
         }
 
         long size = content.get().size;
-        db.accessContent(contentHash);
+        accessContent(contentHash);
 
         return result = CacheResult.hit(name, CACHE_MODE, ImmutableMap.of(), size);
       }
@@ -215,9 +235,9 @@ public class SQLiteArtifactCache implements ArtifactCache {
             CACHE_MODE,
             String.format("Metadata fetch(%s, %s) stopped unexpectedly", ruleKey, output));
     try {
-      Optional<byte[]> metadata = db.selectMetadata(ruleKey);
+      Optional<byte[]> metadata = selectMetadata(ruleKey);
       if (metadata.isPresent()) {
-        db.accessMetadata(ruleKey);
+        accessMetadata(ruleKey);
         output.get(); // for MultiArtifactCache, force evaluation of the output path
 
         return result = CacheResult.hit(name, CACHE_MODE, unmarshalMetadata(metadata.get()), 0);
@@ -264,6 +284,11 @@ public class SQLiteArtifactCache implements ArtifactCache {
     throw new UnsupportedOperationException("multiContains is not supported");
   }
 
+  @Override
+  public boolean isMultiContainsSupported() {
+    return false;
+  }
+
   @Override
   public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
     throw new RuntimeException("Delete operation is not yet supported");
@@ -325,14 +350,15 @@ public class SQLiteArtifactCache implements ArtifactCache {
       throws SQLException {
     ImmutableSet.Builder<RuleKey> builder = ImmutableSet.builder();
     for (RuleKey contentHash : contentHashes) {
-      // if the content already exists in the cache, skip it
+      // if the content already exists in the cache, skip it. This goes through the writing
+      // connection since the result decides what gets written next.
       Optional<Content> existingArtifact = db.selectContent(contentHash);
       if (existingArtifact.isPresent()) {
         byte[] inlined = existingArtifact.get().artifact;
         String artifactPath = existingArtifact.get().filepath;
 
         if (Objects.nonNull(inlined) || filesystem.exists(filesystem.resolve(artifactPath))) {
-          db.accessContent(contentHash);
+          accessContent(contentHash);
           continue;
         }
       }
@@ -343,6 +369,71 @@ public class SQLiteArtifactCache implements ArtifactCache {
     return builder.build();
   }
 
+  private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+    return pooledConnections
+        ? getReadConnection().selectMetadata(ruleKey)
+        : db.selectMetadata(ruleKey);
+  }
+
+  private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+    return pooledConnections
+        ? getReadConnection().selectContent(contentHash)
+        : db.selectContent(contentHash);
+  }
+
+  private void accessMetadata(RuleKey ruleKey) throws SQLException {
+    if (!pooledConnections) {
+      db.accessMetadata(ruleKey);
+    } else if (pendingMetadataAccesses.add(ruleKey)) {
+      onAccessTimeQueued();
+    }
+  }
+
+  private void accessContent(RuleKey contentHash) throws SQLException {
+    if (!pooledConnections) {
+      db.accessContent(contentHash);
+    } else if (pendingContentAccesses.add(contentHash)) {
+      onAccessTimeQueued();
+    }
+  }
+
+  private void onAccessTimeQueued() throws SQLException {
+    if (pendingAccessCount.incrementAndGet() >= ACCESS_TIME_FLUSH_THRESHOLD) {
+      flushAccessTimes();
+    }
+  }
+
+  /** Writes all coalesced access time updates in a single transaction. */
+  @VisibleForTesting
+  void flushAccessTimes() throws SQLException {
+    ImmutableList<RuleKey> metadataKeys = drain(pendingMetadataAccesses);
+    ImmutableList<RuleKey> contentHashes = drain(pendingContentAccesses);
+    pendingAccessCount.addAndGet(-(metadataKeys.size() + contentHashes.size()));
+    if (!metadataKeys.isEmpty() || !contentHashes.isEmpty()) {
+      db.accessAll(metadataKeys, contentHashes);
+    }
+  }
+
+  private static ImmutableList<RuleKey> drain(Set<RuleKey> keys) {
+    ImmutableList.Builder<RuleKey> drained = ImmutableList.builder();
+    Iterator<RuleKey> iterator = keys.iterator();
+    while (iterator.hasNext()) {
+      drained.add(iterator.next());
+      iterator.remove();
+    }
+    return drained.build();
+  }
+
+  private ReadConnection getReadConnection() throws SQLException {
+    ReadConnection connection = readConnections.get();
+    if (connection == null) {
+      connection = new ReadConnection(cacheDir);
+      readConnections.set(connection);
+      openReadConnections.add(connection);
+    }
+    return connection;
+  }
+
   @VisibleForTesting
   static byte[] marshalMetadata(ImmutableMap<String, String> metadata) throws IOException {
     ByteArrayOutputStream metadataStream = new ByteArrayOutputStream();
@@ -456,12 +547,22 @@ public class SQLiteArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
+    try {
+      // Eviction relies on access times being up to date.
+      flushAccessTimes();
+    } catch (SQLException e) {
+      LOG.error(e, "Failed to update SQLite cache access times");
+    }
+
     try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(eventBus, "sqlite_cache_clean")) {
       Futures.allAsList(removeOldMetadata(), removeOldContent()).get();
     } catch (ExecutionException | InterruptedException e) {
       LOG.error("Failed to clean SQLite cache");
     }
 
+    for (ReadConnection connection : openReadConnections) {
+      connection.close();
+    }
     db.close();
   }
 
@@ -562,14 +663,7 @@ public class SQLiteArtifactCache implements ArtifactCache {
     private final PreparedStatement contentSize;
 
     private ConnectionInfo(Path cacheDir) throws SQLException {
-      // date format must be set to match CURRENT_TIMESTAMP
-      Properties properties = new SQLiteConfig().toProperties();
-      properties.setProperty(
-          SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
-      connection =
-          DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
-      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
-      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+      connection = openConnection(cacheDir);
 
       /*
        * This cache is used for two different layers, so we use two separate databases to encode these
@@ -635,8 +729,6 @@ public class SQLiteArtifactCache implements ArtifactCache {
       deleteContentForHash = connection.prepareStatement("DELETE FROM content WHERE sha1 = ?");
 
       contentSize = connection.prepareStatement("SELECT sum(size) FROM content");
-
-      BusyHandler.setHandler(connection, new RetryBusyHandler());
     }
 
     private synchronized Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
@@ -663,6 +755,29 @@ public class SQLiteArtifactCache implements ArtifactCache {
       updateContentTime.executeUpdate();
     }
 
+    private synchronized void accessAll(
+        Iterable<RuleKey> ruleKeys, Iterable<RuleKey> contentHashes) throws SQLException {
+      connection.setAutoCommit(false);
+      try {
+        for (RuleKey ruleKey : ruleKeys) {
+          updateMetadataTime.setBytes(1, getBytes(ruleKey));
+          updateMetadataTime.addBatch();
+        }
+        updateMetadataTime.executeBatch();
+        for (RuleKey contentHash : contentHashes) {
+          updateContentTime.setBytes(1, getBytes(contentHash));
+          updateContentTime.addBatch();
+        }
+        updateContentTime.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    }
+
     private synchronized void storeMetadata(ImmutableSet<RuleKey> ruleKeys, byte[] metadata)
         throws SQLException {
       for (RuleKey ruleKey : ruleKeys) {
@@ -763,6 +878,66 @@ public class SQLiteArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Opens a connection to the cache database in {@code cacheDir}, configured for WAL mode and with
+   * a busy handler so that concurrent connections retry instead of failing on lock contention.
+   */
+  private static Connection openConnection(Path cacheDir) throws SQLException {
+    // date format must be set to match CURRENT_TIMESTAMP
+    Properties properties = new SQLiteConfig().toProperties();
+    properties.setProperty(
+        SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
+    Connection connection =
+        DriverManager.getConnection("jdbc:sqlite:" + cacheDir.resolve("dircache.db"), properties);
+    connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
+    connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+    BusyHandler.setHandler(connection, new RetryBusyHandler());
+    return connection;
+  }
+
+  /**
+   * A read-only connection confined to a single thread, used when pooled connections are enabled.
+   * The tables are created by {@link ConnectionInfo} before any read connection is opened.
+   */
+  private static class ReadConnection {
+    private final Connection connection;
+    private final PreparedStatement fetchMetadata;
+    private final PreparedStatement fetchContent;
+
+    private ReadConnection(Path cacheDir) throws SQLException {
+      connection = openConnection(cacheDir);
+      connection.createStatement().executeUpdate("PRAGMA QUERY_ONLY = ON");
+      fetchMetadata = connection.prepareStatement("SELECT data FROM metadata WHERE rulekey = ?");
+      fetchContent =
+          connection.prepareStatement(
+              "SELECT artifact, filepath, size FROM content WHERE sha1 = ?");
+    }
+
+    private Optional<byte[]> selectMetadata(RuleKey ruleKey) throws SQLException {
+      fetchMetadata.setBytes(1, ConnectionInfo.getBytes(ruleKey));
+      try (ResultSet rs = fetchMetadata.executeQuery()) {
+        return rs.next() ? Optional.of(rs.getBytes(1)) : Optional.empty();
+      }
+    }
+
+    private Optional<Content> selectContent(RuleKey contentHash) throws SQLException {
+      fetchContent.setBytes(1, ConnectionInfo.getBytes(contentHash));
+      try (ResultSet rs = fetchContent.executeQuery()) {
+        return rs.next()
+            ? Optional.of(new Content(rs.getBytes(1), rs.getString(2), rs.getLong(3)))
+            : Optional.empty();
+      }
+    }
+
+    private void close() {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        LOG.warn(e, "Failed to close SQLite read connection");
+      }
+    }
+  }
+
   private static class Content {
     private final byte[] artifact;
     private final String filepath;
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.file.LazyPath;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+/**
+ * A {@link LazyPath} for artifacts that can be consumed as they are downloaded.
+ *
+ * <p>Caches that read artifacts from the network may hand the payload of an accepted artifact to
+ * {@link #consume(InputStream)} instead of writing it to the path, which is then never created
+ * unless {@link #isPathRequired()}. Other caches ignore the streaming part and write to the path as
+ * usual. The payload is only verified by the cache once it has been fully read, so when a streamed
+ * payload turns out to be corrupt, {@link #onPayloadRejected()} is called and the fetch fails.
+ */
+public abstract class StreamingLazyPath extends LazyPath {
+
+  /** @return whether the artifact with the given metadata should be passed to {@link #consume}. */
+  public abstract boolean accepts(ImmutableMap<String, String> metadata);
+
+  /**
+   * Consumes the payload of an accepted artifact. The payload doesn't need to be read entirely, and
+   * must not be closed.
+   */
+  public abstract void consume(InputStream payload) throws IOException;
+
+  /** Called when the payload last passed to {@link #consume} was incomplete or corrupt. */
+  public void onPayloadRejected() {}
+
+  /** @return whether the payload must also be written to the path when it is consumed. */
+  public boolean isPathRequired() {
+    return false;
+  }
+
+  /** @return a view of this path which requires consumed payloads to also be written to it. */
+  public StreamingLazyPath withPathRequired() {
+    return new ForwardingStreamingLazyPath(this) {
+      @Override
+      public boolean isPathRequired() {
+        return true;
+      }
+    };
+  }
+
+  /** @return a view of this path which only accepts artifacts matching the given predicate. */
+  public StreamingLazyPath filter(Predicate<ImmutableMap<String, String>> predicate) {
+    return new ForwardingStreamingLazyPath(this) {
+      @Override
+      public boolean accepts(ImmutableMap<String, String> metadata) {
+        return predicate.test(metadata) && super.accepts(metadata);
+      }
+    };
+  }
+
+  /**
+   * @return a view of this path which decides whether to accept artifacts based on the given
+   *     metadata, for caches which store the metadata of an artifact apart from its payload.
+   */
+  public StreamingLazyPath withArtifactMetadata(ImmutableMap<String, String> artifactMetadata) {
+    return new ForwardingStreamingLazyPath(this) {
+      @Override
+      public boolean accepts(ImmutableMap<String, String> metadata) {
+        return super.accepts(artifactMetadata);
+      }
+    };
+  }
+
+  private static class ForwardingStreamingLazyPath extends StreamingLazyPath {
+    private final StreamingLazyPath delegate;
+
+    private ForwardingStreamingLazyPath(StreamingLazyPath delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected Path create() throws IOException {
+      return delegate.get();
+    }
+
+    @Override
+    public boolean accepts(ImmutableMap<String, String> metadata) {
+      return delegate.accepts(metadata);
+    }
+
+    @Override
+    public void consume(InputStream payload) throws IOException {
+      delegate.consume(payload);
+    }
+
+    @Override
+    public void onPayloadRejected() {
+      delegate.onPayloadRejected();
+    }
+
+    @Override
+    public boolean isPathRequired() {
+      return delegate.isPathRequired();
+    }
+  }
+}
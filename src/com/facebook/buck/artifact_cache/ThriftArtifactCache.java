@@ -187,90 +187,98 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
         }
 
         LOG.verbose("Got artifact.  Attempting to read payload.");
-        Path tmp = createTempFileForDownload();
-        ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult;
-        try (OutputStream tmpFile = getProjectFilesystem().newFileOutputStream(tmp)) {
+        try (PayloadWriter writer = newPayloadWriter(output, this::createTempFileForDownload)) {
+          ImmutableMap<String, String> artifactMetadata =
+              fetchResponse.isSetMetadata() && fetchResponse.getMetadata().isSetMetadata()
+                  ? ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata())
+                  : ImmutableMap.of();
+          ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult;
           try {
-            readResult = response.readPayload(tmpFile);
+            readResult = response.readPayload(payload -> writer.write(artifactMetadata, payload));
           } catch (IOException e) {
             LOG.debug(e, "encountered an exception while receiving the payload for %s", ruleKey);
             throw e;
           }
           LOG.verbose("Successfully read payload: %d bytes.", readResult.getBytesRead());
-        }
-
-        if (!fetchResponse.isSetMetadata()) {
-          String msg =
-              String.format(
-                  "ArtifactMetadata section is missing in the response. response=[%s]",
-                  ThriftUtil.thriftToDebugJson(fetchResponse));
-          return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
-        }
-        ArtifactMetadata metadata = fetchResponse.getMetadata();
-        if (LOG.isVerboseEnabled()) {
-          LOG.verbose(
-              String.format(
-                  "Fetched artifact with rule key [%s] contains the following metadata: [%s].",
-                  ruleKey, ThriftUtil.thriftToDebugJson(metadata)));
-        }
 
-        if (!metadata.isSetRuleKeys()) {
-          return resultBuilder
-              .setCacheResult(
-                  CacheResult.error(
-                      getName(), getMode(), "Rule key section in the metadata is not set."))
-              .build();
-        }
-        ImmutableSet<RuleKey> associatedRuleKeys = null;
-        try {
-          associatedRuleKeys = toImmutableSet(metadata.getRuleKeys());
-        } catch (IllegalArgumentException e) {
-          String msg =
-              String.format(
-                  "Exception parsing the rule keys in the metadata section [%s] with exception [%s].",
-                  ThriftUtil.thriftToDebugJson(metadata), e.toString());
-          return resultBuilder.setCacheResult(CacheResult.error(getName(), getMode(), msg)).build();
-        }
+          if (!fetchResponse.isSetMetadata()) {
+            String msg =
+                String.format(
+                    "ArtifactMetadata section is missing in the response. response=[%s]",
+                    ThriftUtil.thriftToDebugJson(fetchResponse));
+            return resultBuilder
+                .setCacheResult(CacheResult.error(getName(), getMode(), msg))
+                .build();
+          }
+          ArtifactMetadata metadata = fetchResponse.getMetadata();
+          if (LOG.isVerboseEnabled()) {
+            LOG.verbose(
+                String.format(
+                    "Fetched artifact with rule key [%s] contains the following metadata: [%s].",
+                    ruleKey, ThriftUtil.thriftToDebugJson(metadata)));
+          }
 
-        resultBuilder
-            .setBuildTarget(
-                AbstractArtifactCacheEventFactory.getTarget(
-                    unconfiguredBuildTargetFactory,
-                    metadata.getBuildTarget(),
-                    getTargetConfigurationFromMetadata(metadata)))
-            .setAssociatedRuleKeys(associatedRuleKeys)
-            .setArtifactSizeBytes(readResult.getBytesRead());
-        if (!metadata.isSetArtifactPayloadMd5()) {
-          String msg = "Fetched artifact is missing the MD5 hash.";
-          LOG.warn(msg);
-        } else {
-          resultBuilder.setArtifactContentHash(metadata.getArtifactPayloadMd5());
-          if (!readResult
-              .getMd5Hash()
-              .equals(fetchResponse.getMetadata().getArtifactPayloadMd5())) {
+          if (!metadata.isSetRuleKeys()) {
+            return resultBuilder
+                .setCacheResult(
+                    CacheResult.error(
+                        getName(), getMode(), "Rule key section in the metadata is not set."))
+                .build();
+          }
+          ImmutableSet<RuleKey> associatedRuleKeys = null;
+          try {
+            associatedRuleKeys = toImmutableSet(metadata.getRuleKeys());
+          } catch (IllegalArgumentException e) {
             String msg =
                 String.format(
-                    "The artifact fetched from cache for rule key [%s] is corrupted. ExpectedMD5=[%s] ActualMD5=[%s]",
-                    ruleKey,
-                    fetchResponse.getMetadata().getArtifactPayloadMd5(),
-                    readResult.getMd5Hash());
-            LOG.warn(msg);
+                    "Exception parsing the rule keys in the metadata section [%s] "
+                        + "with exception [%s].",
+                    ThriftUtil.thriftToDebugJson(metadata), e.toString());
             return resultBuilder
                 .setCacheResult(CacheResult.error(getName(), getMode(), msg))
                 .build();
           }
-        }
 
-        // This makes sure we don't have 'half downloaded files' in the dir cache.
-        getProjectFilesystem().move(tmp, output.get(), StandardCopyOption.REPLACE_EXISTING);
-        return resultBuilder
-            .setCacheResult(
-                CacheResult.hit(
-                    getName(),
-                    getMode(),
-                    ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata()),
-                    readResult.getBytesRead()))
-            .build();
+          resultBuilder
+              .setBuildTarget(
+                  AbstractArtifactCacheEventFactory.getTarget(
+                      unconfiguredBuildTargetFactory,
+                      metadata.getBuildTarget(),
+                      getTargetConfigurationFromMetadata(metadata)))
+              .setAssociatedRuleKeys(associatedRuleKeys)
+              .setArtifactSizeBytes(readResult.getBytesRead());
+          if (!metadata.isSetArtifactPayloadMd5()) {
+            String msg = "Fetched artifact is missing the MD5 hash.";
+            LOG.warn(msg);
+          } else {
+            resultBuilder.setArtifactContentHash(metadata.getArtifactPayloadMd5());
+            if (!readResult
+                .getMd5Hash()
+                .equals(fetchResponse.getMetadata().getArtifactPayloadMd5())) {
+              String msg =
+                  String.format(
+                      "The artifact fetched from cache for rule key [%s] is corrupted. ExpectedMD5=[%s] ActualMD5=[%s]",
+                      ruleKey,
+                      fetchResponse.getMetadata().getArtifactPayloadMd5(),
+                      readResult.getMd5Hash());
+              LOG.warn(msg);
+              return resultBuilder
+                  .setCacheResult(CacheResult.error(getName(), getMode(), msg))
+                  .build();
+            }
+          }
+
+          // This makes sure we don't have 'half downloaded files' in the dir cache.
+          writer.commit();
+          return resultBuilder
+              .setCacheResult(
+                  CacheResult.hit(
+                      getName(),
+                      getMode(),
+                      ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata()),
+                      readResult.getBytesRead()))
+              .build();
+        }
       }
     }
   }
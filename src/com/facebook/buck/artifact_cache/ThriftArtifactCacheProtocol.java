@@ -22,13 +22,16 @@ import com.facebook.buck.artifact_cache.thrift.PayloadInfo;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.slb.ThriftProtocol;
 import com.facebook.buck.slb.ThriftUtil;
+import com.facebook.buck.util.function.ThrowingConsumer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -182,6 +185,15 @@ public class ThriftArtifactCacheProtocol {
     }
 
     public ReadPayloadInfo readPayload(OutputStream outStream) throws IOException {
+      return readPayload(payload -> ByteStreams.copy(payload, outStream));
+    }
+
+    /**
+     * Reads the next payload through the given consumer, which doesn't need to read it entirely:
+     * the rest of the payload is skipped once the consumer returns.
+     */
+    public ReadPayloadInfo readPayload(ThrowingConsumer<InputStream, IOException> payloadConsumer)
+        throws IOException {
       assertTrue(
           nextPayloadToBeRead < thriftData.getPayloadsSize(),
           "Trying to download payload index=[%s] but the thriftData only contains [%s] payloads.",
@@ -192,12 +204,21 @@ public class ThriftArtifactCacheProtocol {
           assertNotNull(thriftData.getPayloads(), "Payloads[] cannot be null.")
               .get(nextPayloadToBeRead)
               .getSizeBytes();
-      try (HashingOutputStream wrappedOutputStream =
-          new HashingOutputStream(MD5_HASH_FUNCTION, outStream)) {
-        copyExactly(responseStream, wrappedOutputStream, payloadSizeBytes);
-        ++nextPayloadToBeRead;
-        return new ReadPayloadInfo(payloadSizeBytes, wrappedOutputStream.hash().toString());
+      CountingInputStream countingStream =
+          new CountingInputStream(ByteStreams.limit(responseStream, payloadSizeBytes));
+      HashingInputStream payload = new HashingInputStream(MD5_HASH_FUNCTION, countingStream);
+      payloadConsumer.accept(payload);
+      ByteStreams.exhaust(payload);
+      if (countingStream.getCount() < payloadSizeBytes) {
+        String msg =
+            String.format(
+                "InputStream was missing [%d] bytes. Expected to read a total of [%d] bytes.",
+                payloadSizeBytes - countingStream.getCount(), payloadSizeBytes);
+        LOG.error(msg);
+        throw new IOException(msg);
       }
+      ++nextPayloadToBeRead;
+      return new ReadPayloadInfo(payloadSizeBytes, payload.hash().toString());
     }
 
     @Override
@@ -123,8 +123,14 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
   @Override
   public ListenableFuture<CacheResult> fetchAsync(
       @Nullable BuildTarget target, RuleKey ruleKey, LazyPath output) {
+    // First-level entries only contain the content hash of the second-level one, so they must
+    // not be streamed to the output.
+    LazyPath firstLevelOutput =
+        output instanceof StreamingLazyPath
+            ? ((StreamingLazyPath) output).filter(metadata -> !metadata.containsKey(METADATA_KEY))
+            : output;
     return Futures.transformAsync(
-        delegate.fetchAsync(target, ruleKey, output),
+        delegate.fetchAsync(target, ruleKey, firstLevelOutput),
         (CacheResult fetchResult) -> {
           if (!fetchResult.getType().isSuccess()) {
             LOG.verbose("Missed first-level lookup.");
@@ -136,8 +142,12 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
           LOG.verbose("Found a first-level artifact with metadata: %s", fetchResult.getMetadata());
 
           String contentHashKey = fetchResult.getMetadata().get(METADATA_KEY);
+          LazyPath secondLevelOutput =
+              output instanceof StreamingLazyPath
+                  ? ((StreamingLazyPath) output).withArtifactMetadata(fetchResult.getMetadata())
+                  : output;
           ListenableFuture<CacheResult> outputFileFetchResultFuture =
-              delegate.fetchAsync(target, new RuleKey(contentHashKey), output);
+              delegate.fetchAsync(target, new RuleKey(contentHashKey), secondLevelOutput);
 
           return Futures.transformAsync(
               outputFileFetchResultFuture,
@@ -213,6 +223,11 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
     return delegate.multiContainsAsync(ruleKeys);
   }
 
+  @Override
+  public boolean isMultiContainsSupported() {
+    return delegate.isMultiContainsSupported();
+  }
+
   @Override
   public ListenableFuture<CacheDeleteResult> deleteAsync(List<RuleKey> ruleKeys) {
     // Artifact can be stored as two-level entry (rule key -> hash -> content)
@@ -31,4 +31,13 @@ abstract class AbstractDirCacheEntry {
   public abstract Optional<Long> getMaxSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /**
+   * Whether eviction uses a persistent index of entry sizes and access times instead of walking
+   * the cache directory. Only takes effect when a maximum size is set.
+   */
+  @Value.Default
+  public boolean getIndexed() {
+    return false;
+  }
 }
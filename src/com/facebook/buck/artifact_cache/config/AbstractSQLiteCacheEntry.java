@@ -33,4 +33,13 @@ abstract class AbstractSQLiteCacheEntry {
   public abstract Optional<Long> getMaxInlinedSizeBytes();
 
   public abstract CacheReadMode getCacheReadMode();
+
+  /**
+   * Whether to read through per-thread connections and batch access time updates instead of
+   * serializing every operation through a single connection.
+   */
+  @Value.Default
+  public boolean getPooledConnections() {
+    return false;
+  }
 }
@@ -85,9 +85,10 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String DIR_FIELD = "dir";
   private static final String DIR_MODE_FIELD = "dir_mode";
   private static final String DIR_MAX_SIZE_FIELD = "dir_max_size";
+  private static final String DIR_INDEX_FIELD = "dir_index";
   private static final String DIR_CACHE_NAMES_FIELD_NAME = "dir_cache_names";
   private static final ImmutableSet<String> DIR_CACHE_DESCRIPTION_FIELDS =
-      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD);
+      ImmutableSet.of(DIR_FIELD, DIR_MODE_FIELD, DIR_MAX_SIZE_FIELD, DIR_INDEX_FIELD);
 
   private static final URI DEFAULT_HTTP_URL = URI.create("http://localhost:8080/");
   private static final String DEFAULT_HTTP_CACHE_MODE = CacheReadMode.READWRITE.name();
@@ -106,6 +107,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   private static final String SQLITE_MAX_SIZE_FIELD = "sqlite_max_size";
   private static final String SQLITE_MAX_INLINED_SIZE_FIELD = "sqlite_inlined_size";
   private static final String SQLITE_CACHE_NAMES_FIELD_NAME = "sqlite_cache_names";
+  private static final String SQLITE_POOLED_CONNECTIONS_FIELD = "sqlite_pooled_connections";
 
   private static final String SERVED_CACHE_ENABLED_FIELD_NAME = "serve_local_cache";
   private static final String DEFAULT_SERVED_CACHE_MODE = CacheReadMode.READONLY.name();
@@ -135,6 +137,8 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
   public static final String MULTI_FETCH = "multi_fetch";
   private static final String MULTI_FETCH_LIMIT = "multi_fetch_limit";
   public static final String MULTI_CHECK = "multi_check";
+  private static final String FETCH_POLICY = "fetch_policy";
+  private static final String STREAMING_FETCH = "streaming_fetch";
   private static final int DEFAULT_MULTI_FETCH_LIMIT = 100;
 
   private static final String ENV_VAR_SUFFIX = "_env_var";
@@ -159,6 +163,18 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .orElse(MultiFetchType.DEFAULT);
   }
 
+  /** @return how to fetch artifacts when several caches are configured. */
+  public MultiCacheFetchPolicy getMultiCacheFetchPolicy() {
+    return buckConfig
+        .getEnum(CACHE_SECTION_NAME, FETCH_POLICY, MultiCacheFetchPolicy.class)
+        .orElse(MultiCacheFetchPolicy.DEFAULT);
+  }
+
+  /** @return whether network caches may extract artifacts while they are being downloaded. */
+  public boolean getStreamingFetchEnabled() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, STREAMING_FETCH, false);
+  }
+
   public boolean getMultiCheckEnabled() {
     return buckConfig.getBooleanValue(CACHE_SECTION_NAME, MULTI_CHECK, false);
   }
@@ -516,6 +532,7 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
+        .setIndexed(buckConfig.getBooleanValue(section, DIR_INDEX_FIELD, false))
         .build();
   }
 
@@ -572,12 +589,16 @@ public class ArtifactCacheBuckConfig implements ConfigView<BuckConfig> {
     Optional<Long> maxInlinedSizeBytes =
         buckConfig.getValue(section, SQLITE_MAX_INLINED_SIZE_FIELD).map(SizeUnit::parseBytes);
 
+    boolean pooledConnections =
+        buckConfig.getBooleanValue(section, SQLITE_POOLED_CONNECTIONS_FIELD, false);
+
     return SQLiteCacheEntry.builder()
         .setName(cacheName)
         .setCacheDir(pathToCacheDir)
         .setCacheReadMode(readMode)
         .setMaxSizeBytes(maxSizeBytes)
         .setMaxInlinedSizeBytes(maxInlinedSizeBytes)
+        .setPooledConnections(pooledConnections)
         .build();
   }
 
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache.config;
+
+/** How a build fetches an artifact when several artifact caches are configured. */
+public enum MultiCacheFetchPolicy {
+  /** Query the caches one after the other, until one of them has the artifact. */
+  SEQUENTIAL,
+  /**
+   * Fetch from the first cache, and on a miss, check which of the other caches have the artifact
+   * in parallel, then fetch it from the first of them to answer.
+   */
+  PROBE;
+
+  public static final MultiCacheFetchPolicy DEFAULT = SEQUENTIAL;
+}
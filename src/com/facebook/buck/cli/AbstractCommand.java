@@ -375,6 +375,8 @@ public abstract class AbstractCommand extends CommandWithPluginManager {
                 params.getBuckConfig().getView(RuleKeyConfig.class).getRuleKeyDiagnosticsMode())
             .setConcurrencyLimit(getConcurrencyLimit(params.getBuckConfig()))
             .setPersistentWorkerPools(params.getPersistentWorkerPools())
+            .setClasspathJarCache(params.getGlobalState().getClasspathJarCache())
+            .setFileHashLoader(params.getFileHashCache())
             .setProjectFilesystemFactory(params.getProjectFilesystemFactory());
     return builder;
   }
@@ -234,6 +234,7 @@ public abstract class AbstractCommandRunnerParams {
         .setArtifactCacheFactory(getArtifactCacheFactory())
         .setRuleKeyConfiguration(getRuleKeyConfiguration())
         .setManifestService(manifestService)
+        .setRemoteExecutionInputsCache(getGlobalState().getRemoteExecutionInputsCache())
         .build();
   }
 }
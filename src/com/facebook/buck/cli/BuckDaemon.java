@@ -120,6 +120,8 @@ public final class BuckDaemon {
       System.setSecurityManager(securityManager);
       LOG.error(e, "Exception thrown in NailGun server.");
     }
+    // Give the global state a chance to persist caches that outlive the daemon.
+    MainRunner.resetBuckGlobalState();
     System.exit(0);
   }
 
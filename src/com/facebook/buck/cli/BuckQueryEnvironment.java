@@ -43,6 +43,7 @@ import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserMessages;
 import com.facebook.buck.parser.ParsingContext;
 import com.facebook.buck.parser.PerBuildState;
+import com.facebook.buck.parser.TargetNodeGraphIndex;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.exceptions.BuildFileParseException;
 import com.facebook.buck.parser.exceptions.BuildTargetException;
@@ -133,6 +134,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
   private final BuckEventBus eventBus;
   private final QueryEnvironment.TargetEvaluator queryTargetEvaluator;
   private final TypeCoercerFactory typeCoercerFactory;
+  private final TargetNodeGraphIndex targetNodeGraphIndex;
 
   private final ImmutableMap<Cell, BuildFileTree> buildFileTrees;
   private final Map<BuildTarget, QueryBuildTarget> buildTargetToQueryTarget = new HashMap<>();
@@ -141,6 +143,10 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
   // traverses the graph in parallel.
   private MutableDirectedGraph<TargetNode<?>> graph = MutableDirectedGraph.createConcurrent();
   private Map<BuildTarget, TargetNode<?>> targetsToNodes = new ConcurrentHashMap<>();
+  // The targets whose nodes were taken from the index, with the depth to which their transitive
+  // closure is in targetsToNodes. They aren't added to the graph: their deps are read from their
+  // nodes, and their reverse deps from the index and from the graph.
+  private final Map<BuildTarget, Integer> indexedDepths = new HashMap<>();
   private TemporaryUnconfiguredTargetToTargetUniquenessChecker checker =
       new TemporaryUnconfiguredTargetToTargetUniquenessChecker();
 
@@ -170,6 +176,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     this.targetPatternEvaluator = targetPatternEvaluator;
     this.queryTargetEvaluator = new TargetEvaluator(targetPatternEvaluator);
     this.typeCoercerFactory = typeCoercerFactory;
+    this.targetNodeGraphIndex = parser.getPermState().getTargetNodeGraphIndex();
   }
 
   public static BuckQueryEnvironment from(
@@ -213,7 +220,28 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
   }
 
   public DirectedAcyclicGraph<TargetNode<?>> getTargetGraph() {
-    return new DirectedAcyclicGraph<>(graph);
+    if (indexedDepths.isEmpty()) {
+      return new DirectedAcyclicGraph<>(graph);
+    }
+    MutableDirectedGraph<TargetNode<?>> targetGraph = new MutableDirectedGraph<>();
+    for (TargetNode<?> node : graph.getNodes()) {
+      targetGraph.addNode(node);
+      for (TargetNode<?> dep : graph.getOutgoingNodesFor(node)) {
+        targetGraph.addEdge(node, dep);
+      }
+    }
+    for (BuildTarget buildTarget : indexedDepths.keySet()) {
+      TargetNode<?> node = targetsToNodes.get(buildTarget);
+      targetGraph.addNode(node);
+      for (BuildTarget dep : node.getParseDeps()) {
+        // Deps beyond the depth the closure was loaded to are left out.
+        TargetNode<?> depNode = targetsToNodes.get(dep);
+        if (depNode != null) {
+          targetGraph.addEdge(node, depNode);
+        }
+      }
+    }
+    return new DirectedAcyclicGraph<>(targetGraph);
   }
 
   public PerBuildState getParserState() {
@@ -304,7 +332,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     ImmutableSet.Builder<QueryBuildTarget> result = new ImmutableSet.Builder<>();
     for (QueryBuildTarget target : targets) {
       TargetNode<?> node = getNode(target);
-      result.addAll(getTargetsFromTargetNodes(graph.getOutgoingNodesFor(node)));
+      result.addAll(getTargetsFromBuildTargets(node.getParseDeps()));
     }
     return result.build();
   }
@@ -318,6 +346,12 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
       for (TargetNode<?> parentNode : graph.getIncomingNodesFor(node)) {
         result.add(getOrCreateQueryBuildTarget(parentNode.getBuildTarget()));
       }
+      if (indexedDepths.containsKey(target.getBuildTarget())) {
+        // Dependents outside of the universe of the query are filtered out by its functions.
+        for (BuildTarget parent : targetNodeGraphIndex.getReverseDeps(target.getBuildTarget())) {
+          result.add(getOrCreateQueryBuildTarget(parent));
+        }
+      }
     }
     return result;
   }
@@ -364,13 +398,17 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
   @Override
   public void buildTransitiveClosure(Set<? extends QueryTarget> targets, int maxDepth)
       throws QueryException {
+    long indexGeneration = targetNodeGraphIndex.getGeneration();
+
     // Filter QueryTargets that are build targets and not yet present in the build target graph.
     ImmutableSet<BuildTarget> newBuildTargets =
-        targets.stream()
-            .filter(target -> target instanceof QueryBuildTarget)
-            .map(target -> ((QueryBuildTarget) target).getBuildTarget())
-            .filter(buildTarget -> !targetsToNodes.containsKey(buildTarget))
-            .collect(ImmutableSet.toImmutableSet());
+        addIndexedNodes(
+            targets.stream()
+                .filter(target -> target instanceof QueryBuildTarget)
+                .map(target -> ((QueryBuildTarget) target).getBuildTarget())
+                .filter(buildTarget -> !isLoaded(buildTarget, maxDepth))
+                .collect(ImmutableSet.toImmutableSet()),
+            maxDepth);
 
     // TODO(mkosiba): This looks more and more like the Parser.buildTargetGraph method. Unify the
     // two.
@@ -412,7 +450,8 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
           //  - we can't have a cycle involving the "old" nodes,
           //  - there are no new edges or nodes to be discovered by descending into the "old" nodes,
           // making this node safe to skip.
-          if (graph.getNodes().contains(node)) {
+          // Nodes from the index are skipped for the same reason, unless they were loaded again.
+          if (graph.getNodes().contains(node) || isIndexed(target, jobsCache)) {
             return new Pair<>(node, ImmutableSet.<BuildTarget>of().iterator());
           }
           return new Pair<>(node, node.getParseDeps().iterator());
@@ -420,9 +459,17 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
 
     AcyclicDepthFirstPostOrderTraversalWithPayload<BuildTarget, TargetNode<?>> targetNodeTraversal =
         new AcyclicDepthFirstPostOrderTraversalWithPayload<>(traversable);
+    List<TargetNode<?>> loadedNodes = new ArrayList<>();
     try {
       for (Pair<BuildTarget, TargetNode<?>> entry : targetNodeTraversal.traverse(newBuildTargets)) {
         TargetNode<?> node = entry.getSecond();
+        if (isIndexed(entry.getFirst(), jobsCache)) {
+          continue;
+        }
+        if (jobsCache.containsKey(entry.getFirst())) {
+          indexedDepths.remove(entry.getFirst());
+          loadedNodes.add(node);
+        }
         graph.addNode(node);
         for (BuildTarget dep : node.getParseDeps()) {
           graph.addEdge(
@@ -436,6 +483,53 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryBuildTarget>
     }
 
     jobsCache.keySet().forEach(this::getOrCreateQueryBuildTarget);
+    targetNodeGraphIndex.addAll(indexGeneration, loadedNodes);
+  }
+
+  /**
+   * @return whether the transitive closure of the target is known up to {@code maxDepth}. The
+   *     closure of nodes loaded from the parser is always complete.
+   */
+  private boolean isLoaded(BuildTarget buildTarget, int maxDepth) {
+    return targetsToNodes.containsKey(buildTarget)
+        && indexedDepths.getOrDefault(buildTarget, Integer.MAX_VALUE) >= maxDepth;
+  }
+
+  private boolean isIndexed(
+      BuildTarget buildTarget, Map<BuildTarget, ListenableFuture<Unit>> jobsCache) {
+    return indexedDepths.containsKey(buildTarget) && !jobsCache.containsKey(buildTarget);
+  }
+
+  /**
+   * Adds the nodes of the given targets that earlier commands have loaded, and their transitive
+   * closure up to {@code maxDepth}, to the nodes known to the query.
+   *
+   * @return the targets whose nodes still have to be loaded.
+   */
+  private ImmutableSet<BuildTarget> addIndexedNodes(
+      ImmutableSet<BuildTarget> buildTargets, int maxDepth) {
+    if (buildTargets.isEmpty()) {
+      return buildTargets;
+    }
+    Set<BuildTarget> indexedTargets = new HashSet<>();
+    for (Map.Entry<TargetNode<?>, Integer> entry :
+        targetNodeGraphIndex.getTransitiveClosure(buildTargets, maxDepth).entrySet()) {
+      TargetNode<?> node = entry.getKey();
+      BuildTarget buildTarget = node.getBuildTarget();
+      indexedTargets.add(buildTarget);
+      int depth = maxDepth == Integer.MAX_VALUE ? maxDepth : maxDepth - entry.getValue();
+      if (isLoaded(buildTarget, depth)) {
+        continue;
+      }
+      indexedDepths.put(buildTarget, depth);
+      if (targetsToNodes.putIfAbsent(buildTarget, node) == null) {
+        checker.addTarget(buildTarget, DependencyStack.top(buildTarget));
+        getOrCreateQueryBuildTarget(buildTarget);
+      }
+    }
+    return buildTargets.stream()
+        .filter(buildTarget -> !indexedTargets.contains(buildTarget))
+        .collect(ImmutableSet.toImmutableSet());
   }
 
   private Optional<ListenableFuture<Unit>> discoverNewTargetsConcurrently(
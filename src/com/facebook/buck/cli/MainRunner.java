@@ -28,6 +28,7 @@ import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.command.config.ConfigDifference;
 import com.facebook.buck.command.config.ConfigDifference.ConfigChange;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
+import com.facebook.buck.core.build.engine.config.CachingBuildEngineBuckConfig;
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.CellName;
 import com.facebook.buck.core.cell.InvalidCellOverrideException;
@@ -68,6 +69,7 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.counters.CounterBuckConfig;
 import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.counters.CounterRegistryImpl;
+import com.facebook.buck.counters.ListenerDispatchCounter;
 import com.facebook.buck.doctor.DefaultDefectReporter;
 import com.facebook.buck.doctor.config.DoctorConfig;
 import com.facebook.buck.event.BuckEventBus;
@@ -120,6 +122,7 @@ import com.facebook.buck.io.watchman.WatchmanWatcher;
 import com.facebook.buck.io.watchman.WatchmanWatcher.FreshInstanceAction;
 import com.facebook.buck.io.watchman.WatchmanWatcherException;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
+import com.facebook.buck.jvm.java.classes.ClassSummaryCacheCounter;
 import com.facebook.buck.log.ConsoleHandlerState;
 import com.facebook.buck.log.GlobalStateManager;
 import com.facebook.buck.log.InvocationInfo;
@@ -994,7 +997,14 @@ public final class MainRunner {
                       printConsole.getStdErr(),
                       printConsole.getStdErr().getRawStream(),
                       verbosity);
-          DefaultBuckEventBus buildEventBus = new DefaultBuckEventBus(clock, buildId);
+          DefaultBuckEventBus buildEventBus =
+              logBuckConfig.getPerListenerEventQueueCapacity().isPresent()
+                  ? new DefaultBuckEventBus(
+                      clock,
+                      buildId,
+                      DefaultBuckEventBus.DEFAULT_SHUTDOWN_TIMEOUT_MS,
+                      logBuckConfig.getPerListenerEventQueueCapacity().getAsInt())
+                  : new DefaultBuckEventBus(clock, buildId);
           ThrowingCloseableMemoizedSupplier<ManifestService, IOException> manifestServiceSupplier =
               ThrowingCloseableMemoizedSupplier.of(
                   () -> {
@@ -1096,7 +1106,7 @@ public final class MainRunner {
                                 buckConfig.getView(BuildBuckConfig.class).getNumThreads())),
                         ExecutorPool.PROJECT.toString(),
                         EXECUTOR_SERVICES_TIMEOUT_SECONDS);
-            BuildInfoStoreManager storeManager = new BuildInfoStoreManager();
+            BuildInfoStoreManager storeManager = createBuildInfoStoreManager(buckConfig);
             AbstractConsoleEventBusListener fileLoggerConsoleListener =
                 new SimpleConsoleEventBusListener(
                     new RenderingConsole(clock, simpleLogConsole),
@@ -1200,6 +1210,12 @@ public final class MainRunner {
 
           buildEventBus.register(HANG_MONITOR.getHangMonitor());
 
+          if (logBuckConfig.getPerListenerEventQueueCapacity().isPresent()) {
+            counterRegistry.registerCounters(
+                ImmutableList.of(new ListenerDispatchCounter(buildEventBus)));
+          }
+          counterRegistry.registerCounters(ImmutableList.of(new ClassSummaryCacheCounter()));
+
           if (logBuckConfig.isJavaGCEventLoggingEnabled()) {
             // Register for GC events to be published to the event bus.
             GCNotificationEventEmitter.register(buildEventBus);
@@ -2082,6 +2098,14 @@ public final class MainRunner {
     }
   }
 
+  private static BuildInfoStoreManager createBuildInfoStoreManager(BuckConfig buckConfig) {
+    CachingBuildEngineBuckConfig engineConfig =
+        buckConfig.getView(CachingBuildEngineBuckConfig.class);
+    return new BuildInfoStoreManager(
+        engineConfig.isBatchMetadataWritesEnabled(),
+        engineConfig.isCriticalPathSchedulingEnabled());
+  }
+
   private static ListeningExecutorService getHttpFetchExecutorService(
       String prefix, int fetchConcurrency) {
     return listeningDecorator(
@@ -2488,9 +2512,9 @@ public final class MainRunner {
   }
 
   /**
-   * Used to clean up the {@link BuckGlobalState} after running integration tests that exercise it.
+   * Used to clean up the {@link BuckGlobalState} when the daemon shuts down and after running
+   * integration tests that exercise it.
    */
-  @VisibleForTesting
   static void resetBuckGlobalState() {
     buckGlobalStateLifecycleManager.resetBuckGlobalState();
   }
@@ -19,6 +19,7 @@ package com.facebook.buck.cli;
 import com.facebook.buck.android.device.TargetDevice;
 import com.facebook.buck.android.device.TargetDeviceOptions;
 import com.facebook.buck.android.exopackage.AndroidDevicesHelperFactory;
+import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.command.Build;
 import com.facebook.buck.command.config.BuildBuckConfig;
 import com.facebook.buck.core.build.context.BuildContext;
@@ -304,7 +305,9 @@ public class TestCommand extends BuildCommand {
       BuildEngine buildEngine,
       Build build,
       BuildContext buildContext,
-      Iterable<TestRule> testRules)
+      Iterable<TestRule> testRules,
+      ArtifactCache artifactCache,
+      RuleKeyFactories ruleKeyFactories)
       throws InterruptedException, IOException {
 
     if (!withDashArguments.isEmpty()) {
@@ -312,6 +315,23 @@ public class TestCommand extends BuildCommand {
           "unexpected arguments after \"--\" when using internal runner");
     }
 
+    TestRunningOptions options = getTestRunningOptions(params);
+    Optional<TestResultsCache> resultsCache = Optional.empty();
+    // Coverage data, debugging and java agents are side effects of running the tests, which
+    // cached results can't provide.
+    if (params.getBuckConfig().getView(TestBuckConfig.class).isResultsCacheEnabled()
+        && !options.isCodeCoverageEnabled()
+        && !options.getPathToJavaAgent().isPresent()
+        && !isDebugEnabled()) {
+      resultsCache =
+          Optional.of(
+              new TestResultsCache(
+                  artifactCache,
+                  ruleKeyFactories.getDefaultRuleKeyFactory(),
+                  ruleResolver,
+                  options));
+    }
+
     try (CommandThreadManager testPool =
         new CommandThreadManager("Test-Run", getTestConcurrencyLimit(params))) {
       int exitCodeInt =
@@ -320,11 +340,12 @@ public class TestCommand extends BuildCommand {
               ruleResolver,
               testRules,
               build.getExecutionContext(),
-              getTestRunningOptions(params),
+              options,
               testPool.getWeightedListeningExecutorService(),
               buildEngine,
               buildContext,
-              build.getGraphBuilder());
+              build.getGraphBuilder(),
+              resultsCache);
       return ExitCode.map(exitCodeInt);
     }
   }
@@ -594,6 +615,17 @@ public class TestCommand extends BuildCommand {
                     params.getBuildEnvironmentDescription().getUser(), getArguments());
         LocalCachingBuildEngineDelegate localCachingBuildEngineDelegate =
             new LocalCachingBuildEngineDelegate(params.getFileHashCache());
+        RuleKeyFactories ruleKeyFactories =
+            RuleKeyFactories.of(
+                params.getRuleKeyConfiguration(),
+                localCachingBuildEngineDelegate.getFileHashCache(),
+                actionGraphAndBuilder.getActionGraphBuilder(),
+                params
+                    .getBuckConfig()
+                    .getView(BuildBuckConfig.class)
+                    .getBuildInputRuleKeyFileSizeLimit(),
+                ruleKeyCacheScope.getCache());
+        ArtifactCache artifactCache = params.getArtifactCacheFactory().newInstance();
         try (CachingBuildEngine cachingBuildEngine =
                 new CachingBuildEngine(
                     localCachingBuildEngineDelegate,
@@ -607,7 +639,8 @@ public class TestCommand extends BuildCommand {
                         params.getBuckEventBus(),
                         params.getMetadataProvider(),
                         remoteExecutionAutoEnabled,
-                        isRemoteExecutionForceDisabled()),
+                        isRemoteExecutionForceDisabled(),
+                        Optional.of(params.getGlobalState().getRemoteExecutionInputsCache())),
                     pool.getWeightedListeningExecutorService(),
                     getBuildEngineMode().orElse(cachingBuildEngineBuckConfig.getBuildEngineMode()),
                     cachingBuildEngineBuckConfig.getBuildDepFiles(),
@@ -619,15 +652,7 @@ public class TestCommand extends BuildCommand {
                     params.getBuildInfoStoreManager(),
                     cachingBuildEngineBuckConfig.getResourceAwareSchedulingInfo(),
                     cachingBuildEngineBuckConfig.getConsoleLogBuildRuleFailuresInline(),
-                    RuleKeyFactories.of(
-                        params.getRuleKeyConfiguration(),
-                        localCachingBuildEngineDelegate.getFileHashCache(),
-                        actionGraphAndBuilder.getActionGraphBuilder(),
-                        params
-                            .getBuckConfig()
-                            .getView(BuildBuckConfig.class)
-                            .getBuildInputRuleKeyFileSizeLimit(),
-                        ruleKeyCacheScope.getCache()),
+                    ruleKeyFactories,
                     cachingBuildEngineBuckConfig.getManifestServiceIfEnabled(
                         params.getManifestServiceSupplier()));
             Build build =
@@ -635,7 +660,7 @@ public class TestCommand extends BuildCommand {
                     actionGraphAndBuilder.getActionGraphBuilder(),
                     params.getCell(),
                     cachingBuildEngine,
-                    params.getArtifactCacheFactory().newInstance(),
+                    artifactCache,
                     params
                         .getBuckConfig()
                         .getView(JavaBuckConfig.class)
@@ -698,7 +723,9 @@ public class TestCommand extends BuildCommand {
               cachingBuildEngine,
               build,
               buildContext,
-              testRules);
+              testRules,
+              artifactCache,
+              ruleKeyFactories);
         }
       }
     }
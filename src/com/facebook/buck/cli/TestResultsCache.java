@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.BuildRuleResolver;
+import com.facebook.buck.core.rules.attr.HasRuntimeDeps;
+import com.facebook.buck.core.test.rule.TestRule;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.rules.keys.RuleKeyFactory;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.TestRunningOptions;
+import com.facebook.buck.util.concurrent.MoreFutures;
+import com.facebook.buck.util.json.ObjectMappers;
+import com.facebook.buck.util.types.Unit;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Stores the results of passing tests in the {@link ArtifactCache}, so that a test whose inputs
+ * didn't change since it last passed doesn't need to run again.
+ *
+ * <p>Results are keyed by the rule keys of the test rule and of the transitive closure of its
+ * runtime deps, along with the options which affect how the test runs: test selectors,
+ * environment overrides and shuffling. The rule keys of runtime deps don't cover their own runtime
+ * deps, which the build still provides to the test.
+ * Failing results are never stored, so failing tests always run again.
+ */
+public class TestResultsCache {
+
+  private static final Logger LOG = Logger.get(TestResultsCache.class);
+
+  // Bump when the way keys are computed or the stored format changes.
+  private static final String FORMAT_VERSION = "2";
+
+  private final ArtifactCache artifactCache;
+  private final RuleKeyFactory<RuleKey> ruleKeyFactory;
+  private final BuildRuleResolver ruleResolver;
+  private final TestRunningOptions options;
+
+  public TestResultsCache(
+      ArtifactCache artifactCache,
+      RuleKeyFactory<RuleKey> ruleKeyFactory,
+      BuildRuleResolver ruleResolver,
+      TestRunningOptions options) {
+    this.artifactCache = artifactCache;
+    this.ruleKeyFactory = ruleKeyFactory;
+    this.ruleResolver = ruleResolver;
+    this.options = options;
+  }
+
+  /**
+   * @return the results of a previous passing run of the test, marked as cached, if the test and
+   *     its inputs didn't change since. Errors are reported as misses.
+   */
+  public ListenableFuture<Optional<TestResults>> fetch(TestRule test) {
+    Optional<RuleKey> key = getKey(test);
+    if (!key.isPresent()) {
+      return Futures.immediateFuture(Optional.empty());
+    }
+    LazyPath tempPath =
+        new LazyPath() {
+          @Override
+          protected Path create() throws IOException {
+            return Files.createTempFile("buck.", ".test-results");
+          }
+        };
+    ListenableFuture<Optional<TestResults>> results =
+        Futures.transform(
+            artifactCache.fetchAsync(test.getBuildTarget(), key.get(), tempPath),
+            (CacheResult cacheResult) -> {
+              if (!cacheResult.getType().isSuccess()) {
+                LOG.verbose("%s: cache miss on test results %s", test.getBuildTarget(), key.get());
+                return Optional.empty();
+              }
+              try {
+                return Optional.of(readResults(test, tempPath.get()));
+              } catch (IOException e) {
+                LOG.warn(e, "%s: could not read cached test results", test.getBuildTarget());
+                return Optional.empty();
+              } finally {
+                deleteTempFile(tempPath);
+              }
+            },
+            MoreExecutors.directExecutor());
+    return Futures.catching(
+        results,
+        Exception.class,
+        e -> {
+          LOG.warn(e, "%s: could not fetch cached test results", test.getBuildTarget());
+          return Optional.empty();
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /** Stores the results of a run of the test, unless they are failing or came from the cache. */
+  public ListenableFuture<Unit> store(TestRule test, TestResults results) {
+    if (!results.isSuccess() || results.isCached()) {
+      return Futures.immediateFuture(null);
+    }
+    Optional<RuleKey> key = getKey(test);
+    if (!key.isPresent()) {
+      return Futures.immediateFuture(null);
+    }
+    Path tempFile;
+    try {
+      tempFile = Files.createTempFile("buck.", ".test-results");
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        writeResults(results, outputStream);
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "%s: could not write test results to cache", test.getBuildTarget());
+      return Futures.immediateFuture(null);
+    }
+    return MoreFutures.addListenableCallback(
+        artifactCache.store(
+            ArtifactInfo.builder()
+                .addRuleKeys(key.get())
+                .setBuildTarget(test.getBuildTarget())
+                .build(),
+            BorrowablePath.borrowablePath(tempFile)),
+        MoreFutures.finallyCallback(
+            () -> {
+              try {
+                Files.deleteIfExists(tempFile);
+              } catch (IOException e) {
+                LOG.warn(e, "Error occurred while deleting temporary test results %s", tempFile);
+              }
+            }),
+        MoreExecutors.directExecutor());
+  }
+
+  private Optional<RuleKey> getKey(TestRule test) {
+    if (!test.isCacheable()) {
+      return Optional.empty();
+    }
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(FORMAT_VERSION, Charsets.UTF_8);
+    hasher.putString(ruleKeyFactory.build(test).toString(), Charsets.UTF_8);
+    for (BuildTarget runtimeDep : getTransitiveRuntimeDeps(test)) {
+      hasher.putString(runtimeDep.toString(), Charsets.UTF_8);
+      hasher.putString(
+          ruleKeyFactory.build(ruleResolver.getRule(runtimeDep)).toString(), Charsets.UTF_8);
+    }
+    for (String selector : options.getTestSelectorList().getRawSelectors()) {
+      hasher.putString(selector, Charsets.UTF_8);
+    }
+    for (Map.Entry<String, String> entry :
+        new TreeMap<>(options.getEnvironmentOverrides()).entrySet()) {
+      hasher.putString(entry.getKey(), Charsets.UTF_8);
+      hasher.putString(entry.getValue(), Charsets.UTF_8);
+    }
+    hasher.putBoolean(options.isShufflingTests());
+    return Optional.of(new RuleKey(hasher.hash()));
+  }
+
+  /** @return the runtime deps of the rule, of its runtime deps, and so on. */
+  private ImmutableSortedSet<BuildTarget> getTransitiveRuntimeDeps(BuildRule rule) {
+    Set<BuildTarget> runtimeDeps = new HashSet<>();
+    Queue<BuildRule> toVisit = new ArrayDeque<>();
+    toVisit.add(rule);
+    while (!toVisit.isEmpty()) {
+      BuildRule current = toVisit.remove();
+      if (!(current instanceof HasRuntimeDeps)) {
+        continue;
+      }
+      ((HasRuntimeDeps) current)
+          .getRuntimeDeps(ruleResolver)
+          .filter(runtimeDeps::add)
+          .map(ruleResolver::getRule)
+          .forEach(toVisit::add);
+    }
+    runtimeDeps.remove(rule.getBuildTarget());
+    return ImmutableSortedSet.copyOf(runtimeDeps);
+  }
+
+  private static void writeResults(TestResults results, OutputStream outputStream)
+      throws IOException {
+    try (JsonGenerator generator = ObjectMappers.createGenerator(outputStream)) {
+      generator.writeStartArray();
+      for (TestCaseSummary testCase : results.getTestCases()) {
+        generator.writeStartObject();
+        generator.writeStringField("testCaseName", testCase.getTestCaseName());
+        generator.writeArrayFieldStart("testResults");
+        for (TestResultSummary result : testCase.getTestResults()) {
+          // Field names match the ones TestResultSummary is deserialized from.
+          generator.writeStartObject();
+          generator.writeStringField("testCaseName", result.getTestCaseName());
+          generator.writeStringField("testCase", result.getTestName());
+          generator.writeStringField("type", result.getType().name());
+          generator.writeNumberField("time", result.getTime());
+          generator.writeStringField("message", result.getMessage());
+          generator.writeStringField("stacktrace", result.getStacktrace());
+          generator.writeStringField("stdOut", result.getStdOut());
+          generator.writeStringField("stdErr", result.getStdErr());
+          generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+    }
+  }
+
+  private static TestResults readResults(TestRule test, Path path) throws IOException {
+    JsonNode root;
+    try (InputStream inputStream = Files.newInputStream(path)) {
+      root = ObjectMappers.READER.readTree(inputStream);
+    }
+    if (root == null || !root.isArray()) {
+      throw new IOException("Unexpected test results format in " + path);
+    }
+    ImmutableList.Builder<TestCaseSummary> testCases = ImmutableList.builder();
+    for (JsonNode testCase : root) {
+      ImmutableList.Builder<TestResultSummary> testResults = ImmutableList.builder();
+      for (JsonNode result : testCase.path("testResults")) {
+        testResults.add(ObjectMappers.READER.treeToValue(result, TestResultSummary.class));
+      }
+      testCases.add(
+          new TestCaseSummary(testCase.path("testCaseName").asText(), testResults.build()));
+    }
+    return TestResults.builder()
+        .setBuildTarget(test.getBuildTarget())
+        .setTestCases(testCases.build())
+        .setContacts(test.getContacts())
+        .setLabels(test.getLabels())
+        .setCached(true)
+        .build();
+  }
+
+  private static void deleteTempFile(LazyPath tempPath) {
+    try {
+      Files.deleteIfExists(tempPath.get());
+    } catch (IOException e) {
+      LOG.warn(e, "Error occurred while deleting temporary test results %s", tempPath);
+    }
+  }
+}
@@ -76,6 +76,7 @@ import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
@@ -134,7 +135,8 @@ public class TestRunning {
       ListeningExecutorService service,
       BuildEngine buildEngine,
       BuildContext buildContext,
-      SourcePathRuleFinder ruleFinder)
+      SourcePathRuleFinder ruleFinder,
+      Optional<TestResultsCache> resultsCache)
       throws IOException, InterruptedException {
 
     ImmutableSet<JavaLibrary> rulesUnderTestForCoverage;
@@ -184,6 +186,9 @@ public class TestRunning {
                 options.shouldExplainTestSelectorList(),
                 testTargets));
 
+    ImmutableMap<BuildTarget, TestResults> cachedResults =
+        fetchCachedTestResults(resultsCache, tests);
+
     // Start running all of the tests. The result of each java_test() rule is represented as a
     // ListenableFuture.
     List<ListenableFuture<TestResults>> results = new ArrayList<>();
@@ -194,11 +199,14 @@ public class TestRunning {
     for (TestRule test : tests) {
       // Determine whether the test needs to be executed.
       Callable<TestResults> resultsInterpreter =
-          getCachingCallable(
-              test.interpretTestResults(
-                  executionContext,
-                  buildContext.getSourcePathResolver(),
-                  /*isUsingTestSelectors*/ !options.getTestSelectorList().isEmpty()));
+          test.interpretTestResults(
+              executionContext,
+              buildContext.getSourcePathResolver(),
+              /*isUsingTestSelectors*/ !options.getTestSelectorList().isEmpty());
+      if (resultsCache.isPresent()) {
+        resultsInterpreter = getStoringCallable(resultsCache.get(), test, resultsInterpreter);
+      }
+      resultsInterpreter = getCachingCallable(resultsInterpreter);
 
       Map<String, UUID> testUUIDMap = new HashMap<>();
       AtomicReference<TestStatusMessageEvent.Started> currentTestStatusMessageEvent =
@@ -277,8 +285,23 @@ public class TestRunning {
             }
           };
 
-      List<Step> steps;
       params.getBuckEventBus().post(IndividualTestEvent.started(testTargets));
+      TestResults cachedTestResults = cachedResults.get(test.getBuildTarget());
+      if (cachedTestResults != null) {
+        LOG.debug("Using cached results for test %s", test);
+        results.add(
+            transformTestResults(
+                params,
+                Futures.immediateFuture(cachedTestResults),
+                test,
+                testReportingCallback,
+                testTargets,
+                lastReportedTestSequenceNumber,
+                totalNumberOfTests));
+        continue;
+      }
+
+      List<Step> steps;
       ImmutableList.Builder<Step> stepsBuilder = ImmutableList.builder();
       Preconditions.checkState(buildEngine.isRuleBuilt(test.getBuildTarget()));
       List<Step> testSteps =
@@ -484,10 +507,9 @@ public class TestRunning {
         new FutureCallback<TestResults>() {
 
           private TestResults postTestResults(TestResults testResults) {
-            if (!testRule.supportsStreamingTests()) {
-              // For test rules which don't support streaming tests, we'll
-              // stream test summary events after interpreting the
-              // results.
+            if (!testRule.supportsStreamingTests() || testResults.isCached()) {
+              // For test rules which don't support streaming tests, or whose results come from
+              // the cache, we'll stream test summary events after interpreting the results.
               LOG.debug("Simulating streaming test events for rule %s", testRule);
               testReportingCallback.testsDidBegin();
               for (TestCaseSummary testCaseSummary : testResults.getTestCases()) {
@@ -551,6 +573,38 @@ public class TestRunning {
     return transformedTestResults;
   }
 
+  /** Fetches the cached results of all the tests at once, so that the fetches run in parallel. */
+  private static ImmutableMap<BuildTarget, TestResults> fetchCachedTestResults(
+      Optional<TestResultsCache> resultsCache, Iterable<TestRule> tests)
+      throws InterruptedException {
+    if (!resultsCache.isPresent()) {
+      return ImmutableMap.of();
+    }
+    List<ListenableFuture<Optional<TestResults>>> fetches = new ArrayList<>();
+    for (TestRule test : tests) {
+      fetches.add(resultsCache.get().fetch(test));
+    }
+    ImmutableMap.Builder<BuildTarget, TestResults> cachedResults = ImmutableMap.builder();
+    try {
+      for (Optional<TestResults> results : Futures.allAsList(fetches).get()) {
+        results.ifPresent(result -> cachedResults.put(result.getBuildTarget(), result));
+      }
+    } catch (ExecutionException e) {
+      LOG.warn(e, "Failed to fetch cached test results, running all tests");
+      return ImmutableMap.of();
+    }
+    return cachedResults.build();
+  }
+
+  private static Callable<TestResults> getStoringCallable(
+      TestResultsCache resultsCache, TestRule test, Callable<TestResults> callable) {
+    return () -> {
+      TestResults results = callable.call();
+      resultsCache.store(test, results);
+      return results;
+    };
+  }
+
   private static Callable<TestResults> getCachingCallable(Callable<TestResults> callable) {
     return new Callable<TestResults>() {
       @Nullable private Either<TestResults, Exception> result = null;
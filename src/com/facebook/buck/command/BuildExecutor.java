@@ -40,6 +40,7 @@ import com.facebook.buck.log.thrift.ThriftRuleKeyLogger;
 import com.facebook.buck.manifestservice.ManifestService;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.util.RemoteExecutionInputsCache;
 import com.facebook.buck.rules.keys.RuleKeyCacheScope;
 import com.facebook.buck.rules.keys.RuleKeyFactories;
 import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
@@ -172,7 +173,8 @@ public class BuildExecutor {
             args.getBuckEventBus(),
             metadataProvider,
             remoteExecutionAutoEnabled,
-            forceDisableRemoteExecution),
+            forceDisableRemoteExecution,
+            args.getRemoteExecutionInputsCache()),
         executorService,
         buildEngineMode.orElse(engineConfig.getBuildEngineMode()),
         engineConfig.getBuildDepFiles(),
@@ -225,6 +227,8 @@ abstract class AbstractBuildExecutorArgs {
 
   public abstract Optional<ManifestService> getManifestService();
 
+  public abstract Optional<RemoteExecutionInputsCache> getRemoteExecutionInputsCache();
+
   public BuckConfig getBuckConfig() {
     return getRootCell().getBuckConfig();
   }
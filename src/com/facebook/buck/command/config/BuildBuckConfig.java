@@ -251,6 +251,15 @@ public abstract class BuildBuckConfig implements ConfigView<BuckConfig> {
         .orElse(FileHashCacheMode.DEFAULT);
   }
 
+  /**
+   * @return whether the daemon should snapshot its file hash caches to buck-out on shutdown and
+   *     reload them on startup.
+   */
+  @Value.Lazy
+  public boolean getFileHashCacheSnapshotEnabled() {
+    return getDelegate().getBooleanValue(BUILD_SECTION, "file_hash_cache_snapshot", false);
+  }
+
   @Value.Lazy
   public boolean shouldBuckOutIncludeTargetConfigHash() {
     return getDelegate()
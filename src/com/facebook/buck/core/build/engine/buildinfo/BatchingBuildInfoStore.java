@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link BuildInfoStore} which buffers the writes made to a {@link SQLiteBuildInfoStore} and
+ * commits them in group transactions, rather than one at a time. Buffered writes are visible to
+ * reads made through this store, and are committed when enough of them accumulate, and on {@link
+ * #close()}. Deletions are not buffered: callers rely on them to invalidate the metadata of outputs
+ * which are about to change, even if the process dies before the next commit. They drop the
+ * buffered writes to the same target, and are committed on their own, leaving the writes to other
+ * targets buffered.
+ *
+ * <p>The metadata of targets passed to {@link #prefetchMetadata(Iterable)} is read in bulk and
+ * kept in memory, so that later reads of their metadata don't touch the database.
+ */
+public class BatchingBuildInfoStore implements BuildInfoStore {
+  private static final Logger LOG = Logger.get(BatchingBuildInfoStore.class);
+
+  public static final int DEFAULT_MAX_PENDING_TARGETS = 256;
+
+  private final SQLiteBuildInfoStore delegate;
+  private final int maxPendingTargets;
+  private final ReentrantLock commitLock = new ReentrantLock();
+
+  // All guarded by this. Keyed by the cell relative names of targets.
+  private Map<String, Map<String, String>> pendingWrites = new HashMap<>();
+  private Map<String, Map<String, String>> committingWrites = Collections.emptyMap();
+  private final Map<String, Map<String, String>> prefetchedMetadata = new HashMap<>();
+
+  public BatchingBuildInfoStore(SQLiteBuildInfoStore delegate, int maxPendingTargets) {
+    this.delegate = delegate;
+    this.maxPendingTargets = maxPendingTargets;
+  }
+
+  @Override
+  public Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+    String target = buildTarget.getCellRelativeName();
+    synchronized (this) {
+      Map<String, String> prefetched = prefetchedMetadata.get(target);
+      if (prefetched != null) {
+        return Optional.ofNullable(prefetched.get(key));
+      }
+      Map<String, String> writes = getUncommittedWrites(target);
+      if (writes.containsKey(key)) {
+        return Optional.ofNullable(writes.get(key));
+      }
+    }
+    return delegate.readMetadata(buildTarget, key);
+  }
+
+  @Override
+  public ImmutableMap<String, String> getAllMetadata(BuildTarget buildTarget) {
+    String target = buildTarget.getCellRelativeName();
+    ImmutableMap<String, String> uncommittedValues;
+    synchronized (this) {
+      Map<String, String> prefetched = prefetchedMetadata.get(target);
+      if (prefetched != null) {
+        return ImmutableMap.copyOf(prefetched);
+      }
+      uncommittedValues = ImmutableMap.copyOf(getUncommittedWrites(target));
+    }
+    ImmutableMap<String, String> committed = delegate.getAllMetadata(buildTarget);
+    if (uncommittedValues.isEmpty()) {
+      return committed;
+    }
+    Map<String, String> result = new HashMap<>(committed);
+    result.putAll(uncommittedValues);
+    return ImmutableMap.copyOf(result);
+  }
+
+  @Override
+  public void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
+      throws IOException {
+    String target = buildTarget.getCellRelativeName();
+    boolean shouldCommit;
+    synchronized (this) {
+      pendingWrites.computeIfAbsent(target, t -> new HashMap<>()).putAll(metadata);
+      Map<String, String> prefetched = prefetchedMetadata.get(target);
+      if (prefetched != null) {
+        prefetched.putAll(metadata);
+      }
+      shouldCommit = pendingWrites.size() >= maxPendingTargets;
+    }
+    if (shouldCommit) {
+      commitPendingWrites(false);
+    }
+  }
+
+  @Override
+  public void deleteMetadata(BuildTarget buildTarget) throws IOException {
+    String target = buildTarget.getCellRelativeName();
+    boolean isBeingCommitted;
+    synchronized (this) {
+      pendingWrites.remove(target);
+      if (prefetchedMetadata.containsKey(target)) {
+        prefetchedMetadata.put(target, new HashMap<>());
+      }
+      isBeingCommitted = committingWrites.containsKey(target);
+    }
+    if (isBeingCommitted) {
+      // Earlier writes to the target must not be committed after it is deleted.
+      commitLock.lock();
+      commitLock.unlock();
+    }
+    delegate.deleteMetadata(buildTarget);
+  }
+
+  @Override
+  public void prefetchMetadata(Iterable<BuildTarget> buildTargets) throws IOException {
+    Set<String> targets = new HashSet<>();
+    synchronized (this) {
+      for (BuildTarget buildTarget : buildTargets) {
+        String target = buildTarget.getCellRelativeName();
+        if (!prefetchedMetadata.containsKey(target)) {
+          targets.add(target);
+        }
+      }
+    }
+    if (targets.isEmpty()) {
+      return;
+    }
+    // No commit can happen while the metadata is read, so that the writes which are not in the
+    // database yet are all still buffered when they are applied over it.
+    commitLock.lock();
+    try {
+      commitPendingWritesLocked();
+      Map<String, Map<String, String>> metadata = delegate.getAllMetadata(targets);
+      synchronized (this) {
+        for (String target : targets) {
+          if (prefetchedMetadata.containsKey(target)) {
+            continue;
+          }
+          Map<String, String> values = metadata.getOrDefault(target, new HashMap<>());
+          // Apply the writes made while the metadata was being read.
+          values.putAll(pendingWrites.getOrDefault(target, ImmutableMap.of()));
+          prefetchedMetadata.put(target, values);
+        }
+      }
+    } finally {
+      commitLock.unlock();
+    }
+    LOG.debug("Prefetched the metadata of %d targets.", targets.size());
+  }
+
+  @Override
+  public void close() {
+    try {
+      commitPendingWrites(true);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      delegate.close();
+    }
+  }
+
+  /**
+   * Commits the buffered writes in a single transaction.
+   *
+   * @param wait whether to wait for a commit in progress, rather than leaving the writes buffered
+   *     until the next commit.
+   */
+  private void commitPendingWrites(boolean wait) throws IOException {
+    if (wait) {
+      commitLock.lock();
+    } else if (!commitLock.tryLock()) {
+      return;
+    }
+    try {
+      commitPendingWritesLocked();
+    } finally {
+      commitLock.unlock();
+    }
+  }
+
+  /** Commits the buffered writes in a single transaction, with {@link #commitLock} held. */
+  private void commitPendingWritesLocked() throws IOException {
+    Map<String, Map<String, String>> writes;
+    synchronized (this) {
+      if (pendingWrites.isEmpty()) {
+        return;
+      }
+      writes = pendingWrites;
+      committingWrites = writes;
+      pendingWrites = new HashMap<>();
+    }
+
+    boolean committed = false;
+    try {
+      delegate.updateMetadata(writes);
+      committed = true;
+    } finally {
+      synchronized (this) {
+        committingWrites = Collections.emptyMap();
+        if (!committed) {
+          restoreUncommittedWrites(writes);
+        }
+      }
+    }
+    LOG.verbose("Committed the metadata of %d targets.", writes.size());
+  }
+
+  /** Puts back writes whose commit failed, under the writes made since. */
+  private void restoreUncommittedWrites(Map<String, Map<String, String>> writes) {
+    for (Map.Entry<String, Map<String, String>> entry : writes.entrySet()) {
+      Map<String, String> newerWrites = pendingWrites.get(entry.getKey());
+      if (newerWrites != null) {
+        entry.getValue().putAll(newerWrites);
+      }
+      pendingWrites.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /** @return the writes to the target which are not committed yet. */
+  private Map<String, String> getUncommittedWrites(String target) {
+    Map<String, String> committing = committingWrites.get(target);
+    Map<String, String> pending = pendingWrites.get(target);
+    if (committing == null || pending == null) {
+      return pending != null ? pending : committing != null ? committing : ImmutableMap.of();
+    }
+    Map<String, String> merged = new HashMap<>(committing);
+    merged.putAll(pending);
+    return merged;
+  }
+}
@@ -82,6 +82,12 @@ public class BuildInfo {
 
     /** Key for {@link OnDiskBuildInfo} to store the hash of the output. */
     public static final String OUTPUT_HASH = "OUTPUT_HASH";
+
+    /**
+     * Key for {@link OnDiskBuildInfo} which lists the recorded items whose contents were not
+     * written to disk by the build strategy which built the rule.
+     */
+    public static final String UNMATERIALIZED_PATHS = "UNMATERIALIZED_PATHS";
   }
 
   public static final ImmutableSet<String> METADATA_KEYS =
@@ -35,4 +35,12 @@ public interface BuildInfoStore extends Closeable {
   void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata) throws IOException;
 
   void deleteMetadata(BuildTarget buildTarget) throws IOException;
+
+  /**
+   * Hints that the metadata of the given targets is about to be read, so that stores which can
+   * read it in bulk load it ahead of time. The default implementation does nothing.
+   *
+   * @param buildTargets the targets whose metadata will be read
+   */
+  default void prefetchMetadata(Iterable<BuildTarget> buildTargets) throws IOException {}
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.sqlite.RetryBusyHandler;
+import com.facebook.buck.util.sqlite.SQLiteUtils;
+import com.google.common.collect.Iterables;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.sqlite.BusyHandler;
+
+/**
+ * Durations of the last local builds of build rules, in a SQLite database in the scratch directory
+ * of the project, so that a build can estimate how long building a rule takes before building it.
+ *
+ * <p>Durations are read once per target, and the durations recorded during the build are written
+ * in a single transaction when the store is closed.
+ */
+public class BuildRuleDurationStore implements Closeable {
+  // SQLite limits the number of parameters of a statement to 999 by default.
+  private static final int MAX_TARGETS_PER_SELECT = 500;
+
+  private final Connection connection;
+  private final Map<String, Long> readDurations = new HashMap<>();
+  private final Map<String, Long> recordedDurations = new ConcurrentHashMap<>();
+
+  public BuildRuleDurationStore(ProjectFilesystem filesystem) throws IOException {
+    SQLiteUtils.initialize();
+    String dbPath =
+        filesystem
+            .getRootPath()
+            .resolve(filesystem.getBuckPaths().getScratchDir().resolve("rule_durations.db"))
+            .toString();
+    filesystem.createParentDirs(dbPath);
+    try {
+      Class.forName("org.sqlite.JDBC");
+      connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
+      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+      connection
+          .createStatement()
+          .executeUpdate(
+              "CREATE TABLE IF NOT EXISTS durations "
+                  + "(target TEXT PRIMARY KEY, duration_millis INTEGER) "
+                  + "WITHOUT ROWID");
+      BusyHandler.setHandler(connection, new RetryBusyHandler());
+    } catch (ClassNotFoundException | SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * @return the duration, in milliseconds, of the last local build of each of the given targets
+   *     which was built locally before.
+   */
+  public synchronized Map<BuildTarget, Long> getDurationsMillis(Collection<BuildTarget> targets)
+      throws IOException {
+    List<String> namesToRead = new ArrayList<>();
+    for (BuildTarget target : targets) {
+      String name = target.getCellRelativeName();
+      if (!readDurations.containsKey(name)) {
+        namesToRead.add(name);
+      }
+    }
+    try {
+      for (List<String> names : Iterables.partition(namesToRead, MAX_TARGETS_PER_SELECT)) {
+        StringBuilder query =
+            new StringBuilder("SELECT target, duration_millis FROM durations WHERE target IN (?");
+        for (int i = 1; i < names.size(); i++) {
+          query.append(", ?");
+        }
+        query.append(")");
+        for (String name : names) {
+          readDurations.put(name, null);
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(query.toString())) {
+          for (int i = 0; i < names.size(); i++) {
+            stmt.setString(i + 1, names.get(i));
+          }
+          try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+              readDurations.put(rs.getString(1), rs.getLong(2));
+            }
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+    Map<BuildTarget, Long> result = new HashMap<>();
+    for (BuildTarget target : targets) {
+      Long duration = readDurations.get(target.getCellRelativeName());
+      if (duration != null) {
+        result.put(target, duration);
+      }
+    }
+    return result;
+  }
+
+  /** Records the duration of a local build of the target, written when the store is closed. */
+  public void recordDurationMillis(BuildTarget target, long durationMillis) {
+    recordedDurations.put(target.getCellRelativeName(), durationMillis);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      try {
+        writeRecordedDurations();
+      } finally {
+        connection.close();
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void writeRecordedDurations() throws SQLException {
+    if (recordedDurations.isEmpty()) {
+      return;
+    }
+    connection.setAutoCommit(false);
+    try (PreparedStatement stmt =
+        connection.prepareStatement(
+            "INSERT OR REPLACE INTO durations (target, duration_millis) VALUES (?, ?)")) {
+      for (Map.Entry<String, Long> entry : recordedDurations.entrySet()) {
+        stmt.setString(1, entry.getKey());
+        stmt.setLong(2, entry.getValue());
+        stmt.addBatch();
+      }
+      stmt.executeBatch();
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    }
+  }
+}
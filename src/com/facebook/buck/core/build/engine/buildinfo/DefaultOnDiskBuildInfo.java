@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
@@ -47,7 +48,6 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.SortedSet;
 
 /**
  * Utility for reading the metadata associated with a build rule's output. This is metadata that
@@ -185,7 +185,7 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
     return getRecursivePaths(getOutputPaths());
   }
 
-  private ImmutableSortedSet<Path> getRecursivePaths(ImmutableSortedSet<Path> paths)
+  private ImmutableSortedSet<Path> getRecursivePaths(Set<Path> paths)
       throws IOException {
     ImmutableSortedSet.Builder<Path> allPaths = ImmutableSortedSet.naturalOrder();
     for (Path path : paths) {
@@ -245,6 +245,7 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
   public void calculateOutputSizeAndWriteMetadata(
       FileHashLoader fileHashLoader,
       ImmutableSortedSet<Path> recordedPaths,
+      ImmutableMap<Path, Long> unmaterializedPathSizes,
       Predicate<Long> shouldWriteOutputHashes)
       throws IOException {
     // Convert all recorded paths to use unix file separators
@@ -257,8 +258,16 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
     ImmutableMap.Builder<String, String> artifactMetadataJson = ImmutableMap.builder();
     artifactMetadataJson.put(BuildInfo.MetadataKey.RECORDED_PATHS, recordedPathsString);
 
-    ImmutableSortedSet<Path> outputPaths = getRecursivePaths(recordedPaths);
-    long outputSize = getOutputSize(outputPaths);
+    Set<Path> unmaterializedPaths = unmaterializedPathSizes.keySet();
+    ImmutableSortedSet<Path> outputPaths =
+        ImmutableSortedSet.<Path>naturalOrder()
+            .addAll(getRecursivePaths(Sets.difference(recordedPaths, unmaterializedPaths)))
+            .addAll(unmaterializedPaths)
+            .build();
+    long outputSize = getOutputSize(Sets.difference(outputPaths, unmaterializedPaths));
+    for (long size : unmaterializedPathSizes.values()) {
+      outputSize += size;
+    }
     artifactMetadataJson.put(BuildInfo.MetadataKey.OUTPUT_SIZE, String.valueOf(outputSize));
     projectFilesystem.writeContentsToPath(
         String.valueOf(outputSize),
@@ -316,7 +325,7 @@ public class DefaultOnDiskBuildInfo implements OnDiskBuildInfo {
     }
   }
 
-  private long getOutputSize(SortedSet<Path> paths) throws IOException {
+  private long getOutputSize(Set<Path> paths) throws IOException {
     long size = 0;
     for (Path path : paths) {
       if (projectFilesystem.isFile(path)
@@ -70,9 +70,15 @@ public interface OnDiskBuildInfo {
   /** Deletes both "artifact" and "build" metadata. */
   void deleteExistingMetadata() throws IOException;
 
+  /**
+   * Writes the "artifact" metadata of the recorded paths. {@code unmaterializedPathSizes} maps the
+   * recorded paths which aren't on disk yet to their size, their hashes must already be known to
+   * the {@code fileHashLoader}.
+   */
   void calculateOutputSizeAndWriteMetadata(
       FileHashLoader fileHashLoader,
       ImmutableSortedSet<Path> recordedPaths,
+      ImmutableMap<Path, Long> unmaterializedPathSizes,
       Predicate<Long> shouldWriteOutputHashes)
       throws IOException;
 
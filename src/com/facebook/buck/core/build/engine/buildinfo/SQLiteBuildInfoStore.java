@@ -21,22 +21,39 @@ import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.util.sqlite.RetryBusyHandler;
 import com.facebook.buck.util.sqlite.SQLiteUtils;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.sqlite.BusyHandler;
 
+/**
+ * {@link BuildInfoStore} backed by a SQLite database in the scratch directory of the project.
+ *
+ * <p>The database is in WAL mode, so reads don't need to wait for writes: they are made on
+ * connections of their own, taken from a pool which grows to the number of concurrent readers.
+ * Writes are serialized on a single connection.
+ */
 public class SQLiteBuildInfoStore implements BuildInfoStore {
+  // SQLite limits the number of parameters of a statement to 999 by default.
+  private static final int MAX_TARGETS_PER_SELECT = 500;
+
+  private final String dbUrl;
   private final Connection connection;
-  private final PreparedStatement selectStmt;
-  private final PreparedStatement selectAllStmt;
   private final PreparedStatement updateStmt;
   private final PreparedStatement deleteStmt;
+  private final Queue<ReadConnection> idleReadConnections = new ConcurrentLinkedQueue<>();
+  private final Queue<ReadConnection> allReadConnections = new ConcurrentLinkedQueue<>();
 
   public SQLiteBuildInfoStore(ProjectFilesystem filesystem) throws IOException {
     SQLiteUtils.initialize();
@@ -46,9 +63,10 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
             .resolve(filesystem.getBuckPaths().getScratchDir().resolve("metadata.db"))
             .toString();
     filesystem.createParentDirs(dbPath);
+    dbUrl = "jdbc:sqlite:" + dbPath;
     try {
       Class.forName("org.sqlite.JDBC");
-      connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+      connection = DriverManager.getConnection(dbUrl);
       connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
       connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
       connection
@@ -58,10 +76,6 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
                   + "(target TEXT, key TEXT, value TEXT, "
                   + "PRIMARY KEY (target, key)) "
                   + "WITHOUT ROWID");
-      selectStmt =
-          connection.prepareStatement("SELECT value FROM metadata WHERE target = ? AND key = ?");
-      selectAllStmt =
-          connection.prepareStatement("SELECT key, value FROM metadata WHERE target = ?");
 
       updateStmt =
           connection.prepareStatement(
@@ -76,6 +90,9 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
   @Override
   public void close() {
     try {
+      for (ReadConnection readConnection : allReadConnections) {
+        readConnection.connection.close();
+      }
       connection.close();
     } catch (SQLException e) {
       throw new RuntimeException(e);
@@ -83,11 +100,12 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
   }
 
   @Override
-  public synchronized Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+  public Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+    ReadConnection readConnection = acquireReadConnection();
     try {
-      selectStmt.setString(1, cellRelativeName(buildTarget));
-      selectStmt.setString(2, key);
-      try (ResultSet rs = selectStmt.executeQuery()) {
+      readConnection.selectStmt.setString(1, cellRelativeName(buildTarget));
+      readConnection.selectStmt.setString(2, key);
+      try (ResultSet rs = readConnection.selectStmt.executeQuery()) {
         if (!rs.next()) {
           return Optional.empty();
         }
@@ -96,14 +114,17 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
       }
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      idleReadConnections.add(readConnection);
     }
   }
 
   @Override
-  public synchronized ImmutableMap<String, String> getAllMetadata(BuildTarget buildTarget) {
+  public ImmutableMap<String, String> getAllMetadata(BuildTarget buildTarget) {
+    ReadConnection readConnection = acquireReadConnection();
     try {
-      selectAllStmt.setString(1, cellRelativeName(buildTarget));
-      try (ResultSet rs = selectAllStmt.executeQuery()) {
+      readConnection.selectAllStmt.setString(1, cellRelativeName(buildTarget));
+      try (ResultSet rs = readConnection.selectAllStmt.executeQuery()) {
         ImmutableMap.Builder<String, String> result = ImmutableMap.builder();
         while (rs.next()) {
           result.put(rs.getString(1), rs.getString(2));
@@ -112,6 +133,8 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
       }
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      idleReadConnections.add(readConnection);
     }
   }
 
@@ -119,12 +142,7 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
   public synchronized void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
       throws IOException {
     try {
-      for (Map.Entry<String, String> e : metadata.entrySet()) {
-        updateStmt.setString(1, cellRelativeName(buildTarget));
-        updateStmt.setString(2, e.getKey());
-        updateStmt.setString(3, e.getValue());
-        updateStmt.addBatch();
-      }
+      addUpdatesToBatch(cellRelativeName(buildTarget), metadata);
       updateStmt.executeBatch();
     } catch (SQLException e) {
       throw new IOException(e);
@@ -141,7 +159,110 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
     }
   }
 
+  /**
+   * Reads all the metadata of the targets with the given cell relative names, with as few queries
+   * as possible.
+   *
+   * @return the metadata of each target which has some.
+   */
+  Map<String, Map<String, String>> getAllMetadata(Collection<String> cellRelativeNames)
+      throws IOException {
+    Map<String, Map<String, String>> result = new HashMap<>();
+    ReadConnection readConnection = acquireReadConnection();
+    try {
+      for (List<String> names : Iterables.partition(cellRelativeNames, MAX_TARGETS_PER_SELECT)) {
+        StringBuilder query =
+            new StringBuilder("SELECT target, key, value FROM metadata WHERE target IN (?");
+        for (int i = 1; i < names.size(); i++) {
+          query.append(", ?");
+        }
+        query.append(")");
+        try (PreparedStatement stmt = readConnection.connection.prepareStatement(query.toString())) {
+          for (int i = 0; i < names.size(); i++) {
+            stmt.setString(i + 1, names.get(i));
+          }
+          try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+              result
+                  .computeIfAbsent(rs.getString(1), name -> new HashMap<>())
+                  .put(rs.getString(2), rs.getString(3));
+            }
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    } finally {
+      idleReadConnections.add(readConnection);
+    }
+    return result;
+  }
+
+  /**
+   * Writes {@code updates} in a single transaction. Targets are identified by their cell relative
+   * names.
+   */
+  synchronized void updateMetadata(Map<String, ? extends Map<String, String>> updates)
+      throws IOException {
+    try {
+      connection.setAutoCommit(false);
+      try {
+        for (Map.Entry<String, ? extends Map<String, String>> entry : updates.entrySet()) {
+          addUpdatesToBatch(entry.getKey(), entry.getValue());
+        }
+        updateStmt.executeBatch();
+        connection.commit();
+      } catch (SQLException e) {
+        connection.rollback();
+        throw e;
+      } finally {
+        connection.setAutoCommit(true);
+      }
+    } catch (SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void addUpdatesToBatch(String target, Map<String, String> metadata)
+      throws SQLException {
+    for (Map.Entry<String, String> e : metadata.entrySet()) {
+      updateStmt.setString(1, target);
+      updateStmt.setString(2, e.getKey());
+      updateStmt.setString(3, e.getValue());
+      updateStmt.addBatch();
+    }
+  }
+
+  private ReadConnection acquireReadConnection() {
+    ReadConnection readConnection = idleReadConnections.poll();
+    if (readConnection == null) {
+      try {
+        readConnection = new ReadConnection(DriverManager.getConnection(dbUrl));
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+      allReadConnections.add(readConnection);
+    }
+    return readConnection;
+  }
+
   private String cellRelativeName(BuildTarget buildTarget) {
     return buildTarget.getCellRelativeName();
   }
+
+  /** A connection only used to read metadata, by one thread at a time. */
+  private static class ReadConnection {
+    private final Connection connection;
+    private final PreparedStatement selectStmt;
+    private final PreparedStatement selectAllStmt;
+
+    private ReadConnection(Connection connection) throws SQLException {
+      this.connection = connection;
+      this.selectStmt =
+          connection.prepareStatement("SELECT value FROM metadata WHERE target = ? AND key = ?");
+      this.selectAllStmt =
+          connection.prepareStatement("SELECT key, value FROM metadata WHERE target = ?");
+      BusyHandler.setHandler(connection, new RetryBusyHandler());
+    }
+  }
 }
@@ -19,6 +19,7 @@ package com.facebook.buck.core.build.engine.cache.manager;
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.StreamingLazyPath;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
@@ -36,16 +37,23 @@ import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.util.stream.RichStream;
 import com.facebook.buck.util.unarchive.ArchiveFormat;
 import com.facebook.buck.util.unarchive.ExistingFileMode;
+import com.facebook.buck.util.unarchive.Untar;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.io.CountingInputStream;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
 
 public class BuildCacheArtifactFetcher {
 
@@ -121,17 +129,7 @@ public class BuildCacheArtifactFetcher {
       return Futures.immediateFuture(CacheResult.ignored());
     }
 
-    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
-    // that we are creating a zip-based FileSystem.
-    LazyPath lazyZipPath =
-        new LazyPath() {
-          @Override
-          protected Path create() throws IOException {
-            return Files.createTempFile(
-                "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()),
-                ".zip");
-          }
-        };
+    ArtifactPath lazyZipPath = new ArtifactPath(ruleKey, filesystem);
 
     // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
     // Then we could download directly from the remote cache into the on-disk cache and unzip it
@@ -207,7 +205,10 @@ public class BuildCacheArtifactFetcher {
   }
 
   private CacheResult extractArtifactFromCacheResult(
-      RuleKey ruleKey, LazyPath lazyZipPath, ProjectFilesystem filesystem, CacheResult cacheResult)
+      RuleKey ruleKey,
+      ArtifactPath lazyZipPath,
+      ProjectFilesystem filesystem,
+      CacheResult cacheResult)
       throws IOException {
 
     // We only unpack artifacts from hits.
@@ -215,12 +216,26 @@ public class BuildCacheArtifactFetcher {
       LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
       return cacheResult;
     }
-    onOutputsWillChange.call();
 
     Preconditions.checkState(cacheResult.metadata().isPresent());
     Preconditions.checkArgument(cacheResult.getType() == CacheResultType.HIT);
     LOG.debug("Fetched '%s' from cache with rulekey '%s'", rule, ruleKey);
 
+    // The artifact may have been extracted while it was downloaded.
+    ImmutableSet<Path> streamedFiles = lazyZipPath.getExtractedFiles();
+    if (streamedFiles != null) {
+      try {
+        onDiskBuildInfo.validateArtifact(streamedFiles);
+        buildInfoStoreManager
+            .get(rule.getProjectFilesystem())
+            .updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
+      } catch (IOException e) {
+        throw newExtractionException(e, ruleKey);
+      }
+      return cacheResult;
+    }
+    onOutputsWillChange.call();
+
     // It should be fine to get the path straight away, since cache already did it's job.
     Path zipPath = lazyZipPath.getUnchecked();
 
@@ -272,11 +287,7 @@ public class BuildCacheArtifactFetcher {
       // Also write out the build metadata.
       buildInfoStore.updateMetadata(rule.getBuildTarget(), cacheResult.getMetadata());
     } catch (IOException e) {
-      throw new IOException(
-          String.format(
-              "%s extracting artifact for Rule Key: %s. Suggested fix: try `buck clean`",
-              e.getMessage(), ruleKey),
-          e.getCause());
+      throw newExtractionException(e, ruleKey);
     } finally {
       eventBus.post(ArtifactCompressionEvent.finished(started, fullSize, compressedSize));
     }
@@ -284,6 +295,99 @@ public class BuildCacheArtifactFetcher {
     return cacheResult;
   }
 
+  private static IOException newExtractionException(IOException e, RuleKey ruleKey) {
+    return new IOException(
+        String.format(
+            "%s extracting artifact for Rule Key: %s. Suggested fix: try `buck clean`",
+            e.getMessage(), ruleKey),
+        e.getCause());
+  }
+
+  /**
+   * The output of an artifact fetch, which network caches may stream the artifact to, so that it's
+   * extracted as it is downloaded. The payload is only verified once it has been extracted, so the
+   * files written for a payload which turns out to be incomplete or corrupt are deleted.
+   */
+  private class ArtifactPath extends StreamingLazyPath {
+    private final RuleKey ruleKey;
+    private final ProjectFilesystem filesystem;
+    // The files written for the last payload, including those of payloads which failed to extract.
+    private final Set<Path> writtenFiles = ConcurrentHashMap.newKeySet();
+    @Nullable private volatile ImmutableSet<Path> extractedFiles;
+
+    private ArtifactPath(RuleKey ruleKey, ProjectFilesystem filesystem) {
+      this.ruleKey = ruleKey;
+      this.filesystem = filesystem;
+    }
+
+    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
+    // that we are creating a zip-based FileSystem.
+    @Override
+    protected Path create() throws IOException {
+      return Files.createTempFile(
+          "buck_artifact_" + MostFiles.sanitize(rule.getBuildTarget().getShortName()), ".zip");
+    }
+
+    @Override
+    public boolean accepts(ImmutableMap<String, String> metadata) {
+      return metadata.containsKey(BuildInfo.MetadataKey.ORIGIN_BUILD_ID);
+    }
+
+    @Override
+    public void consume(InputStream payload) throws IOException {
+      extractedFiles = null;
+      writtenFiles.clear();
+      try (Scope ignored = buildRuleScope()) {
+        onOutputsWillChange.call();
+        ArtifactCompressionEvent.Started started =
+            ArtifactCompressionEvent.started(
+                ArtifactCompressionEvent.Operation.DECOMPRESS, ImmutableSet.of(ruleKey));
+        eventBus.post(started);
+        CountingInputStream countingPayload = new CountingInputStream(payload);
+        long fullSize = 0L;
+        try {
+          ImmutableSet<Path> files =
+              Untar.zstdUnarchiver()
+                  .extractArchive(
+                      countingPayload,
+                      filesystem,
+                      ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+                      writtenFiles::add);
+          fullSize =
+              onDiskBuildInfo
+                  .getValue(BuildInfo.MetadataKey.OUTPUT_SIZE)
+                  .map(Long::parseLong)
+                  .orElse(0L);
+          extractedFiles = files;
+        } finally {
+          eventBus.post(
+              ArtifactCompressionEvent.finished(started, fullSize, countingPayload.getCount()));
+        }
+      }
+    }
+
+    @Override
+    public void onPayloadRejected() {
+      extractedFiles = null;
+      // Don't leave outputs and metadata of a corrupt artifact behind, where they could pass for
+      // the outputs of the rule.
+      try (Scope ignored = buildRuleScope()) {
+        for (Path file : writtenFiles) {
+          filesystem.deleteFileAtPathIfExists(file);
+        }
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to delete the outputs of a rejected artifact for %s", rule);
+      }
+      writtenFiles.clear();
+    }
+
+    /** @return the files extracted from the last payload streamed to this path, if any. */
+    @Nullable
+    ImmutableSet<Path> getExtractedFiles() {
+      return extractedFiles;
+    }
+  }
+
   @FunctionalInterface
   public interface OnOutputsWillChange {
     void call() throws IOException;
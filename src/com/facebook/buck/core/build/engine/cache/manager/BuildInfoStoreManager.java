@@ -16,22 +16,69 @@
 
 package com.facebook.buck.core.build.engine.cache.manager;
 
+import com.facebook.buck.core.build.engine.buildinfo.BatchingBuildInfoStore;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfoStore;
+import com.facebook.buck.core.build.engine.buildinfo.BuildRuleDurationStore;
 import com.facebook.buck.core.build.engine.buildinfo.SQLiteBuildInfoStore;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-/** Manages the lifetimes of all {@link BuildInfoStore}s used in the build. */
+/**
+ * Manages the lifetimes of all {@link BuildInfoStore}s and {@link BuildRuleDurationStore}s used in
+ * the build.
+ */
 public class BuildInfoStoreManager implements AutoCloseable {
+  private static final Logger LOG = Logger.get(BuildInfoStoreManager.class);
+
   private final ConcurrentHashMap<Path, BuildInfoStore> buildInfoStores = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Path, BuildRuleDurationStore> durationStores =
+      new ConcurrentHashMap<>();
+  private final boolean batchMetadataWrites;
+  private final boolean trackRuleDurations;
+
+  public BuildInfoStoreManager() {
+    this(false);
+  }
+
+  /**
+   * @param batchMetadataWrites whether the stores buffer their writes and commit them in batches,
+   *     and support {@link #prefetchMetadata(Iterable)}.
+   */
+  public BuildInfoStoreManager(boolean batchMetadataWrites) {
+    this(batchMetadataWrites, false);
+  }
+
+  /**
+   * @param trackRuleDurations whether the durations of the local builds of rules are persisted,
+   *     and returned by {@link #getRuleDurationsMillis(Collection)}.
+   */
+  public BuildInfoStoreManager(boolean batchMetadataWrites, boolean trackRuleDurations) {
+    this.batchMetadataWrites = batchMetadataWrites;
+    this.trackRuleDurations = trackRuleDurations;
+  }
 
   @Override
   public void close() {
     for (BuildInfoStore store : buildInfoStores.values()) {
       store.close();
     }
+    for (BuildRuleDurationStore store : durationStores.values()) {
+      try {
+        store.close();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save the durations of the rules built locally.");
+      }
+    }
   }
 
   public BuildInfoStore get(ProjectFilesystem filesystem) {
@@ -39,7 +86,84 @@ public class BuildInfoStoreManager implements AutoCloseable {
         filesystem.getRootPath(),
         path -> {
           try {
-            return new SQLiteBuildInfoStore(filesystem);
+            SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem);
+            if (batchMetadataWrites) {
+              return new BatchingBuildInfoStore(
+                  store, BatchingBuildInfoStore.DEFAULT_MAX_PENDING_TARGETS);
+            }
+            return store;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        });
+  }
+
+  /** @return whether {@link #prefetchMetadata(Iterable)} does anything. */
+  public boolean isMetadataPrefetchEnabled() {
+    return batchMetadataWrites;
+  }
+
+  /** Reads the metadata of the given rules in bulk, ahead of the reads made while building them. */
+  public void prefetchMetadata(Iterable<BuildRule> rules) throws IOException {
+    if (!batchMetadataWrites) {
+      return;
+    }
+    Map<ProjectFilesystem, List<BuildTarget>> targetsByFilesystem = new HashMap<>();
+    for (BuildRule rule : rules) {
+      targetsByFilesystem
+          .computeIfAbsent(rule.getProjectFilesystem(), filesystem -> new ArrayList<>())
+          .add(rule.getBuildTarget());
+    }
+    for (Map.Entry<ProjectFilesystem, List<BuildTarget>> entry : targetsByFilesystem.entrySet()) {
+      get(entry.getKey()).prefetchMetadata(entry.getValue());
+    }
+  }
+
+  /** @return whether the durations of the local builds of rules are tracked. */
+  public boolean isRuleDurationTrackingEnabled() {
+    return trackRuleDurations;
+  }
+
+  /**
+   * @return the duration, in milliseconds, of the last local build of each of the given rules which
+   *     has been built locally before, when rule durations are tracked.
+   */
+  public Map<BuildRule, Long> getRuleDurationsMillis(Collection<BuildRule> rules)
+      throws IOException {
+    Map<BuildRule, Long> result = new HashMap<>();
+    if (!trackRuleDurations) {
+      return result;
+    }
+    Map<ProjectFilesystem, Map<BuildTarget, BuildRule>> rulesByFilesystem = new HashMap<>();
+    for (BuildRule rule : rules) {
+      rulesByFilesystem
+          .computeIfAbsent(rule.getProjectFilesystem(), filesystem -> new HashMap<>())
+          .put(rule.getBuildTarget(), rule);
+    }
+    for (Map.Entry<ProjectFilesystem, Map<BuildTarget, BuildRule>> entry :
+        rulesByFilesystem.entrySet()) {
+      Map<BuildTarget, BuildRule> rulesByTarget = entry.getValue();
+      getDurationStore(entry.getKey())
+          .getDurationsMillis(rulesByTarget.keySet())
+          .forEach((target, duration) -> result.put(rulesByTarget.get(target), duration));
+    }
+    return result;
+  }
+
+  /** Records how long the local build of the rule took, when rule durations are tracked. */
+  public void recordRuleDuration(BuildRule rule, long durationMillis) {
+    if (trackRuleDurations) {
+      getDurationStore(rule.getProjectFilesystem())
+          .recordDurationMillis(rule.getBuildTarget(), durationMillis);
+    }
+  }
+
+  private BuildRuleDurationStore getDurationStore(ProjectFilesystem filesystem) {
+    return durationStores.computeIfAbsent(
+        filesystem.getRootPath(),
+        path -> {
+          try {
+            return new BuildRuleDurationStore(filesystem);
           } catch (IOException e) {
             throw new RuntimeException(e);
           }
@@ -21,7 +21,9 @@ import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
 import com.facebook.buck.core.build.engine.manifest.Manifest;
 import com.facebook.buck.core.build.engine.manifest.ManifestFetchResult;
+import com.facebook.buck.core.build.engine.manifest.ManifestInputHashCache;
 import com.facebook.buck.core.build.engine.manifest.ManifestLoadResult;
+import com.facebook.buck.core.build.engine.manifest.ManifestStats;
 import com.facebook.buck.core.build.engine.manifest.ManifestStoreResult;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.rulekey.RuleKey;
@@ -48,9 +50,11 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -63,6 +67,7 @@ public class ManifestRuleKeyManager {
   private final DepFiles depFiles;
   private final BuildRule rule;
   private final FileHashLoader fileHashLoader;
+  private final ManifestInputHashCache manifestInputHashCache;
   private final long maxDepFileCacheEntries;
   private final SourcePathResolverAdapter pathResolver;
   private final RuleKeyFactories ruleKeyFactories;
@@ -76,6 +81,7 @@ public class ManifestRuleKeyManager {
       DepFiles depFiles,
       BuildRule rule,
       FileHashLoader fileHashLoader,
+      ManifestInputHashCache manifestInputHashCache,
       long maxDepFileCacheEntries,
       SourcePathResolverAdapter pathResolver,
       RuleKeyFactories ruleKeyFactories,
@@ -86,6 +92,7 @@ public class ManifestRuleKeyManager {
     this.depFiles = depFiles;
     this.rule = rule;
     this.fileHashLoader = fileHashLoader;
+    this.manifestInputHashCache = manifestInputHashCache;
     this.maxDepFileCacheEntries = maxDepFileCacheEntries;
     this.pathResolver = pathResolver;
     this.ruleKeyFactories = ruleKeyFactories;
@@ -253,12 +260,13 @@ public class ManifestRuleKeyManager {
 
     Path path = getManifestPath(rule);
 
-    // Deserialize the manifest.
+    // Load the manifest. It is probed in place, and only deserialized if it gets updated. The file
+    // is read rather than mapped, as it gets replaced while the manifest may still be in use.
     Manifest manifest;
-    // Keep the file input stream in a separate variable so that it gets closed if the
-    // GZIPInputStream constructor throws.
-    try (InputStream input = rule.getProjectFilesystem().newFileInputStream(path)) {
-      manifest = new Manifest(input);
+    try {
+      manifest =
+          new Manifest(
+              ByteBuffer.wrap(Files.readAllBytes(rule.getProjectFilesystem().resolve(path))));
     } catch (Exception e) {
       LOG.warn(
           e,
@@ -310,11 +318,17 @@ public class ManifestRuleKeyManager {
               rule.getBuildTarget(),
               keyAndInputs.getRuleKey(),
               manifest.getKey());
-          manifestFetchResult.setManifestStats(manifest.getStats());
 
           // Lookup the dep file rule key matching the current state of our inputs.
+          long lookupStartNanos = System.nanoTime();
           Optional<RuleKey> depFileRuleKey =
-              manifest.lookup(fileHashLoader, pathResolver, keyAndInputs.getInputs());
+              manifest.lookup(manifestInputHashCache, pathResolver, keyAndInputs.getInputs());
+          manifestFetchResult.setManifestStats(
+              ManifestStats.builder()
+                  .from(manifest.getStats())
+                  .setLookupTimeMicros(
+                      TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - lookupStartNanos))
+                  .build());
           if (!depFileRuleKey.isPresent()) {
             return Futures.immediateFuture(manifestFetchResult.build());
           }
@@ -61,6 +61,22 @@ public abstract class CachingBuildEngineBuckConfig implements ConfigView<BuckCon
     return getDelegate().getLong("build", "max_depfile_cache_entries").orElse(256L);
   }
 
+  /**
+   * @return whether writes of build metadata are buffered and committed in batches, and the
+   *     metadata of the rules to build is read in bulk at the start of the build.
+   */
+  public boolean isBatchMetadataWritesEnabled() {
+    return getDelegate().getBooleanValue("build", "batch_metadata_writes", false);
+  }
+
+  /**
+   * @return whether the durations of the local builds of rules are persisted, and used to build
+   *     the rules on the estimated critical path of the build first.
+   */
+  public boolean isCriticalPathSchedulingEnabled() {
+    return getDelegate().getBooleanValue("build", "critical_path_scheduling", false);
+  }
+
   /** @return the maximum size an artifact can be for the build engine to cache it. */
   public Optional<Long> getBuildArtifactCacheSizeLimit() {
     return getDelegate().getLong("build", "artifact_cache_size_limit");
@@ -33,6 +33,7 @@ import com.facebook.buck.core.build.engine.buildinfo.OnDiskBuildInfo;
 import com.facebook.buck.core.build.engine.cache.manager.BuildInfoStoreManager;
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
 import com.facebook.buck.core.build.engine.delegate.CachingBuildEngineDelegate;
+import com.facebook.buck.core.build.engine.manifest.ManifestInputHashCache;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
 import com.facebook.buck.core.build.event.BuildRuleEvent;
@@ -46,6 +47,7 @@ import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.BuildRuleResolver;
 import com.facebook.buck.core.rules.attr.HasRuntimeDeps;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.manifestservice.ManifestService;
 import com.facebook.buck.rules.keys.RuleKeyDiagnostics;
@@ -69,9 +71,13 @@ import com.google.common.util.concurrent.SettableFuture;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
@@ -88,6 +94,8 @@ import javax.annotation.Nullable;
  * tries to fetch its output from an {@link ArtifactCache} to avoid doing any computation.
  */
 public class CachingBuildEngine implements BuildEngine, Closeable {
+  private static final Logger LOG = Logger.get(CachingBuildEngine.class);
+
   public static final ResourceAmounts CACHE_CHECK_RESOURCE_AMOUNTS = ResourceAmounts.of(0, 0, 1, 1);
 
   public static final ResourceAmounts RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS =
@@ -114,6 +122,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       Maps.newConcurrentMap();
 
   private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+  private final Set<BuildRule> rulesWithPrefetchedMetadata = Sets.newConcurrentHashSet();
   private final ConcurrentLinkedQueue<WeakReference<CachingBuildRuleBuilder>> ruleBuilders =
       new ConcurrentLinkedQueue<>();
 
@@ -127,6 +136,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final TargetConfigurationSerializer targetConfigurationSerializer;
   private final Optional<Long> artifactCacheSizeLimit;
   private final FileHashCache fileHashCache;
+  private final ManifestInputHashCache manifestInputHashCache;
   @VisibleForTesting final RuleKeyFactories ruleKeyFactories;
   private final ResourceAwareSchedulingInfo resourceAwareSchedulingInfo;
 
@@ -136,6 +146,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics;
   private final BuildRulePipelinesRunner pipelinesRunner = new BuildRulePipelinesRunner();
   private final ParallelRuleKeyCalculator<RuleKey> ruleKeyCalculator;
+  private final Optional<CriticalPathPriorities> criticalPathPriorities;
 
   private final BuildInfoStoreManager buildInfoStoreManager;
 
@@ -211,7 +222,12 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.customBuildRuleStrategy = customBuildRuleStrategy;
 
     this.manifestService = manifestService;
-    this.service = service;
+    // When the builds of rules are prioritized by their critical path, the rest of the work goes
+    // first: it is quick, and unblocks the scheduling of more rules.
+    this.service =
+        buildInfoStoreManager.isRuleDurationTrackingEnabled()
+            ? service.withPriority(Long.MAX_VALUE)
+            : service;
     this.buildMode = buildMode;
     this.depFiles = depFiles;
     this.maxDepFileCacheEntries = maxDepFileCacheEntries;
@@ -220,11 +236,16 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     this.targetConfigurationSerializer = targetConfigurationSerializer;
 
     this.fileHashCache = cachingBuildEngineDelegate.getFileHashCache();
+    this.manifestInputHashCache = new ManifestInputHashCache(fileHashCache);
     this.ruleKeyFactories = ruleKeyFactories;
     this.resourceAwareSchedulingInfo = resourceAwareSchedulingInfo;
     this.buildInfoStoreManager = buildInfoStoreManager;
 
     this.ruleDeps = new DefaultRuleDepsCache(resolver, actionToBuildRuleResolver);
+    this.criticalPathPriorities =
+        buildInfoStoreManager.isRuleDurationTrackingEnabled()
+            ? Optional.of(new CriticalPathPriorities(ruleDeps, this::getRuleDurationsMillis))
+            : Optional.empty();
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
     this.defaultRuleKeyDiagnostics = defaultRuleKeyDiagnostics;
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
@@ -444,11 +465,87 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     registerTopLevelRule(rule, buildContext.getEventBus());
+    prefetchBuildMetadata(rule);
+    criticalPathPriorities.ifPresent(priorities -> priorities.addTopLevelRule(rule));
     ListenableFuture<BuildResult> resultFuture =
         getBuildRuleResultWithRuntimeDeps(rule, buildContext, executionContext);
+    if (customBuildRuleStrategy.isPresent()) {
+      resultFuture =
+          Futures.transformAsync(
+              resultFuture,
+              result -> materializeTopLevelOutputs(rule, result),
+              MoreExecutors.directExecutor());
+    }
     return BuildEngineResult.builder().setResult(resultFuture).build();
   }
 
+  /**
+   * The outputs of the top level rule and of its runtime deps are what the build is for, so make
+   * sure that the strategy didn't leave any of them remotely.
+   */
+  private ListenableFuture<BuildResult> materializeTopLevelOutputs(
+      BuildRule topLevelRule, BuildResult result) {
+    if (!result.isSuccess()) {
+      return Futures.immediateFuture(result);
+    }
+    BuildRuleStrategy strategy = customBuildRuleStrategy.get();
+    List<ListenableFuture<?>> materializations = new ArrayList<>();
+    Set<BuildRule> visitedRules = new HashSet<>();
+    ArrayDeque<BuildRule> rulesToVisit = new ArrayDeque<>();
+    visitedRules.add(topLevelRule);
+    rulesToVisit.add(topLevelRule);
+    while (!rulesToVisit.isEmpty()) {
+      BuildRule rule = rulesToVisit.pop();
+      materializations.add(strategy.materializeOutputs(rule, false));
+      if (rule instanceof HasRuntimeDeps) {
+        ((HasRuntimeDeps) rule)
+            .getRuntimeDeps(resolver)
+            .map(resolver::getRule)
+            .filter(visitedRules::add)
+            .forEach(rulesToVisit::push);
+      }
+    }
+    return Futures.transform(
+        Futures.allAsList(materializations), ignored -> result, MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Reads the metadata of the rule and of its transitive deps in bulk, when the build info stores
+   * support it, rather than letting each rule read its own.
+   */
+  private void prefetchBuildMetadata(BuildRule topLevelRule) {
+    if (!buildInfoStoreManager.isMetadataPrefetchEnabled()
+        || !rulesWithPrefetchedMetadata.add(topLevelRule)) {
+      return;
+    }
+    List<BuildRule> rules = new ArrayList<>();
+    ArrayDeque<BuildRule> rulesToVisit = new ArrayDeque<>();
+    rulesToVisit.add(topLevelRule);
+    while (!rulesToVisit.isEmpty()) {
+      BuildRule rule = rulesToVisit.pop();
+      rules.add(rule);
+      for (BuildRule dep : ruleDeps.get(rule)) {
+        if (rulesWithPrefetchedMetadata.add(dep)) {
+          rulesToVisit.push(dep);
+        }
+      }
+    }
+    try {
+      buildInfoStoreManager.prefetchMetadata(rules);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to prefetch the metadata of %d rules.", rules.size());
+    }
+  }
+
+  private Map<BuildRule, Long> getRuleDurationsMillis(Collection<BuildRule> rules) {
+    try {
+      return buildInfoStoreManager.getRuleDurationsMillis(rules);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read the durations of %d rules.", rules.size());
+      return Collections.emptyMap();
+    }
+  }
+
   @Nullable
   @Override
   public BuildResult getBuildRuleResult(BuildTarget buildTarget)
@@ -491,12 +588,15 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             defaultRuleKeyDiagnostics,
             depFiles,
             fileHashCache,
+            manifestInputHashCache,
             maxDepFileCacheEntries,
             resolver.getSourcePathResolver(),
             targetConfigurationSerializer,
             resourceAwareSchedulingInfo,
             ruleKeyFactories,
-            service,
+            criticalPathPriorities
+                .map(priorities -> service.withPriority(priorities.getPriority(rule)))
+                .orElse(service),
             this.ruleDeps,
             rule,
             buildContext,
@@ -556,5 +656,10 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     public void onRuleAboutToBeBuilt(BuildRule rule) {
       cachingBuildEngine.cachingBuildEngineDelegate.onRuleAboutToBeBuilt(rule);
     }
+
+    @Override
+    public void onRuleBuiltLocally(BuildRule rule, long durationMillis) {
+      cachingBuildEngine.buildInfoStoreManager.recordRuleDuration(rule, durationMillis);
+    }
   }
 }
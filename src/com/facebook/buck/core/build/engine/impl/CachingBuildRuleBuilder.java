@@ -45,6 +45,7 @@ import com.facebook.buck.core.build.engine.cache.manager.ManifestRuleKeyServiceF
 import com.facebook.buck.core.build.engine.config.ResourceAwareSchedulingInfo;
 import com.facebook.buck.core.build.engine.impl.CachingBuildEngine.StepType;
 import com.facebook.buck.core.build.engine.manifest.ManifestFetchResult;
+import com.facebook.buck.core.build.engine.manifest.ManifestInputHashCache;
 import com.facebook.buck.core.build.engine.manifest.ManifestStoreResult;
 import com.facebook.buck.core.build.engine.type.BuildType;
 import com.facebook.buck.core.build.engine.type.DepFiles;
@@ -67,6 +68,7 @@ import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
 import com.facebook.buck.core.rules.attr.SupportsInputBasedRuleKey;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy.StrategyBuildResult;
+import com.facebook.buck.core.rules.build.strategy.UnmaterializedOutput;
 import com.facebook.buck.core.rules.pipeline.RulePipelineState;
 import com.facebook.buck.core.rules.pipeline.SupportsPipelining;
 import com.facebook.buck.core.rules.schedule.OverrideScheduleRule;
@@ -99,6 +101,7 @@ import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.facebook.buck.util.types.Pair;
 import com.facebook.buck.util.types.Unit;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableList;
@@ -113,6 +116,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -190,6 +194,7 @@ class CachingBuildRuleBuilder {
 
   private @Nullable volatile Throwable firstFailure = null;
   private @Nullable volatile StrategyBuildResult strategyResult = null;
+  private volatile boolean hasUnmaterializedOutputs = false;
 
   public CachingBuildRuleBuilder(
       BuildRuleBuilderDelegate buildRuleBuilderDelegate,
@@ -201,6 +206,7 @@ class CachingBuildRuleBuilder {
       RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics,
       DepFiles depFiles,
       FileHashCache fileHashCache,
+      ManifestInputHashCache manifestInputHashCache,
       long maxDepFileCacheEntries,
       SourcePathResolverAdapter pathResolver,
       TargetConfigurationSerializer targetConfigurationSerializer,
@@ -297,6 +303,7 @@ class CachingBuildRuleBuilder {
             depFiles,
             rule,
             fileHashCache,
+            manifestInputHashCache,
             maxDepFileCacheEntries,
             pathResolver,
             ruleKeyFactories,
@@ -652,6 +659,29 @@ class CachingBuildRuleBuilder {
       fileHashCache.invalidate(rule.getProjectFilesystem().resolve(path));
     }
 
+    // The strategy may have left some outputs remotely, seed the hash cache with their hashes since
+    // it can't compute them, and remember them so that they can be checked on the next build.
+    ImmutableMap<Path, UnmaterializedOutput> unmaterializedOutputs =
+        strategyResult == null
+            ? ImmutableMap.of()
+            : customBuildRuleStrategy.get().getUnmaterializedOutputs(rule);
+    ImmutableMap.Builder<Path, Long> unmaterializedPathSizes = ImmutableMap.builder();
+    for (Map.Entry<Path, UnmaterializedOutput> entry : unmaterializedOutputs.entrySet()) {
+      fileHashCache.set(entry.getKey(), entry.getValue().getHash());
+      unmaterializedPathSizes.put(
+          rule.getProjectFilesystem().relativize(entry.getKey()), entry.getValue().getSize());
+    }
+    if (!unmaterializedOutputs.isEmpty()) {
+      hasUnmaterializedOutputs = true;
+      getBuildInfoRecorder()
+          .addBuildMetadata(
+              BuildInfo.MetadataKey.UNMATERIALIZED_PATHS,
+              ObjectMappers.WRITER.writeValueAsString(
+                  unmaterializedPathSizes.build().keySet().stream()
+                      .map(Object::toString)
+                      .collect(ImmutableList.toImmutableList())));
+    }
+
     // Doing this here is probably not strictly necessary, however in the case of
     // pipelined rules built locally we will never do an input-based cache check.
     // That check would have written the key to metadata, and there are some asserts
@@ -752,7 +782,10 @@ class CachingBuildRuleBuilder {
 
     try (Scope ignored = LeafEvents.scope(eventBus, "computing_output_hashes")) {
       onDiskBuildInfo.calculateOutputSizeAndWriteMetadata(
-          fileHashCache, getBuildInfoRecorder().getRecordedPaths(), this::shouldWriteOutputHashes);
+          fileHashCache,
+          getBuildInfoRecorder().getRecordedPaths(),
+          unmaterializedPathSizes.build(),
+          this::shouldWriteOutputHashes);
     }
   }
 
@@ -810,10 +843,17 @@ class CachingBuildRuleBuilder {
               buildCacheArtifactUploader.shouldUploadToCache(success, outputSize.get());
         }
 
-        // Upload it to the cache.
-        if (shouldUploadToCache.equals(UploadToCacheResultType.CACHEABLE)) {
+        // Upload it to the cache. Rules whose outputs were left remotely can't be uploaded, but
+        // they will be served by the remote action cache instead.
+        if (shouldUploadToCache.equals(UploadToCacheResultType.CACHEABLE)
+            && !hasUnmaterializedOutputs) {
           uploadToCache(success);
         }
+
+        if (success == BuildRuleSuccessType.BUILT_LOCALLY && buildTimestampsMillis != null) {
+          buildRuleBuilderDelegate.onRuleBuiltLocally(
+              rule, buildTimestampsMillis.getSecond() - buildTimestampsMillis.getFirst());
+        }
       }
 
       buildRuleScopeManager.finished(
@@ -841,6 +881,17 @@ class CachingBuildRuleBuilder {
         new BuildStrategyContext() {
           @Override
           public ListenableFuture<Optional<BuildResult>> runWithDefaultBehavior() {
+            if (!customBuildRuleStrategy.isPresent()) {
+              return runLocally();
+            }
+            // Local steps read the outputs of the deps, make sure the strategy wrote them to disk.
+            return Futures.transformAsync(
+                customBuildRuleStrategy.get().materializeOutputs(rule, true),
+                ignored -> runLocally(),
+                MoreExecutors.directExecutor());
+          }
+
+          private ListenableFuture<Optional<BuildResult>> runLocally() {
             if (SupportsPipelining.isSupported(rule)
                 && ((SupportsPipelining<?>) rule).useRulePipelining()) {
               return pipelinesRunner.runPipelineStartingAt(
@@ -969,6 +1020,7 @@ class CachingBuildRuleBuilder {
 
     // 1. Check if it's already built.
     try (Scope ignored = buildRuleScope()) {
+      discardMetadataIfOutputsAreMissing();
       Optional<BuildResult> buildResult = checkMatchingLocalKey();
       if (buildResult.isPresent()) {
         return Futures.immediateFuture(buildResult.get());
@@ -1110,6 +1162,32 @@ class CachingBuildRuleBuilder {
             });
   }
 
+  /**
+   * Outputs which a strategy left remotely in a previous build may never have been written to disk.
+   * If so, the rule has to be built again (hopefully cheaply) for them to be available.
+   */
+  private void discardMetadataIfOutputsAreMissing() {
+    Optional<String> unmaterializedPaths =
+        onDiskBuildInfo.getBuildValue(BuildInfo.MetadataKey.UNMATERIALIZED_PATHS);
+    if (!unmaterializedPaths.isPresent()) {
+      return;
+    }
+    try {
+      ImmutableList<String> paths =
+          ObjectMappers.readValue(
+              unmaterializedPaths.get(), new TypeReference<ImmutableList<String>>() {});
+      for (String path : paths) {
+        if (!rule.getProjectFilesystem().exists(Paths.get(path))) {
+          LOG.debug("Output %s of %s is missing, discarding its metadata.", path, rule);
+          onDiskBuildInfo.deleteExistingMetadata();
+          return;
+        }
+      }
+    } catch (IOException e) {
+      throw new BuckUncheckedExecutionException(e, "When checking the outputs of %s.", rule);
+    }
+  }
+
   private Optional<BuildResult> checkMatchingLocalKey() {
     Optional<RuleKey> cachedRuleKey = onDiskBuildInfo.getRuleKey(BuildInfo.MetadataKey.RULE_KEY);
     if (defaultKey.equals(cachedRuleKey.orElse(null))) {
@@ -1440,5 +1518,7 @@ class CachingBuildRuleBuilder {
     void addAsyncCallback(ListenableFuture<Unit> callback);
 
     void onRuleAboutToBeBuilt(BuildRule rule);
+
+    void onRuleBuiltLocally(BuildRule rule, long durationMillis);
   }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.rules.BuildRule;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Estimates by how much the build of each rule can delay the end of the build: the longest sum of
+ * the durations of the rules on a chain of dependents going from the rule to a top-level rule.
+ * Building the rules with the highest estimates first starts the long chains of rules, which can't
+ * be parallelized, as soon as possible.
+ *
+ * <p>Rules are assumed to take as long as their previous local build. Those which weren't built
+ * locally before are assumed to take {@link #UNKNOWN_DURATION_MILLIS}, so that the longest chains
+ * of rules still go first when there is no history.
+ */
+class CriticalPathPriorities {
+  static final long UNKNOWN_DURATION_MILLIS = 1;
+
+  private final RuleDepsCache ruleDeps;
+  private final Function<Collection<BuildRule>, Map<BuildRule, Long>> durationsMillis;
+  private final Map<BuildRule, Long> priorities = new ConcurrentHashMap<>();
+  private final Set<BuildRule> topLevelRules = new HashSet<>();
+
+  /** @param durationsMillis returns the known durations of the given rules, in milliseconds. */
+  CriticalPathPriorities(
+      RuleDepsCache ruleDeps,
+      Function<Collection<BuildRule>, Map<BuildRule, Long>> durationsMillis) {
+    this.ruleDeps = ruleDeps;
+    this.durationsMillis = durationsMillis;
+  }
+
+  /**
+   * Estimates the priorities of the rule and of its transitive deps.
+   *
+   * <p>A chain of dependents ends at a top-level rule whose transitive deps contain the whole
+   * chain, so the priority of a rule is the highest of its priorities in the subgraphs of the
+   * top-level rules it belongs to.
+   */
+  synchronized void addTopLevelRule(BuildRule topLevelRule) {
+    if (!topLevelRules.add(topLevelRule)) {
+      return;
+    }
+
+    // Count the dependents of each rule within the subgraph.
+    Map<BuildRule, Integer> dependentCounts = new HashMap<>();
+    dependentCounts.put(topLevelRule, 0);
+    ArrayDeque<BuildRule> rulesToVisit = new ArrayDeque<>();
+    rulesToVisit.push(topLevelRule);
+    while (!rulesToVisit.isEmpty()) {
+      BuildRule rule = rulesToVisit.pop();
+      for (BuildRule dep : ruleDeps.get(rule)) {
+        if (dependentCounts.merge(dep, 1, Integer::sum) == 1) {
+          rulesToVisit.push(dep);
+        }
+      }
+    }
+    Map<BuildRule, Long> durations = durationsMillis.apply(dependentCounts.keySet());
+
+    // Visit each rule after all of its dependents, which know their longest chain by then.
+    Map<BuildRule, Long> chainLengths = new HashMap<>();
+    chainLengths.put(topLevelRule, durations.getOrDefault(topLevelRule, UNKNOWN_DURATION_MILLIS));
+    rulesToVisit.push(topLevelRule);
+    while (!rulesToVisit.isEmpty()) {
+      BuildRule rule = rulesToVisit.pop();
+      long chainLength = chainLengths.get(rule);
+      priorities.merge(rule, chainLength, Math::max);
+      for (BuildRule dep : ruleDeps.get(rule)) {
+        chainLengths.merge(
+            dep, chainLength + durations.getOrDefault(dep, UNKNOWN_DURATION_MILLIS), Math::max);
+        if (dependentCounts.merge(dep, -1, Integer::sum) == 0) {
+          rulesToVisit.push(dep);
+        }
+      }
+    }
+  }
+
+  /** @return the estimated priority of the rule, or 0 if it isn't a dep of a top-level rule. */
+  long getPriority(BuildRule rule) {
+    return priorities.getOrDefault(rule, 0L);
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.core.build.engine.manifest;
 
 import com.facebook.buck.core.util.immutables.BuckStyleImmutable;
+import java.util.Optional;
 import org.immutables.value.Value;
 
 /** Statistics about a {@link Manifest}. */
@@ -28,4 +29,7 @@ interface AbstractManifestStats {
   int getNumHashes();
 
   int getNumInputs();
+
+  /** @return the time spent looking up the entry matching the current inputs, if looked up. */
+  Optional<Long> getLookupTimeMicros();
 }
@@ -31,27 +31,45 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedBytes;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import javax.annotation.Nullable;
 
+/**
+ * Maps the hashes of the inputs a rule actually used to the dep file rule keys they produced.
+ *
+ * <p>Manifests are serialized in a compact binary format made of fixed width offset tables
+ * followed by the input names, sorted, the hashes and the rule keys. A manifest loaded from a
+ * {@link ByteBuffer} is probed in place by {@link #lookup}, which binary searches the input names
+ * of the universe and only decodes the hashes and rule keys it compares, and is only fully
+ * deserialized once it gets modified.
+ */
 public class Manifest {
 
   private static final Logger LOG = Logger.get(Manifest.class);
 
-  private static final int VERSION = 0;
+  // The original format with hex encoded hashes. It can still be read, but is no longer written.
+  private static final int LEGACY_VERSION = 0;
+  // The binary format with input names in insertion order, which lookups have to decode in full.
+  private static final int UNSORTED_VERSION = 1;
+  private static final int VERSION = 2;
 
   private final RuleKey key;
 
@@ -63,6 +81,10 @@ public class Manifest {
 
   @VisibleForTesting final List<Pair<RuleKey, int[]>> entries;
 
+  // Set while a manifest loaded from a buffer has not been modified, in which case the lists and
+  // maps above are still empty.
+  @Nullable private SerializedManifest serialized;
+
   /** Create an empty manifest. */
   public Manifest(RuleKey key) {
     this.key = key;
@@ -75,18 +97,48 @@ public class Manifest {
 
   /** Deserialize an existing manifest from the given {@link InputStream}. */
   public Manifest(InputStream rawInput) throws IOException {
-    DataInputStream input = new DataInputStream(rawInput);
+    this(ByteBuffer.wrap(ByteStreams.toByteArray(rawInput)));
+    materialize();
+  }
+
+  /**
+   * Load an existing manifest from the given {@link ByteBuffer}. The buffer must not be modified
+   * for as long as the manifest is in use.
+   */
+  public Manifest(ByteBuffer buffer) throws IOException {
+    inputs = new ArrayList<>();
+    inputIndices = new HashMap<>();
+    hashes = new ArrayList<>();
+    hashIndices = new HashMap<>();
+    entries = new ArrayList<>();
 
     // Verify the manifest version.
-    int version = input.readInt();
-    Preconditions.checkState(version == VERSION, "invalid version: %s != %s", version, VERSION);
+    int version = buffer.getInt(buffer.position());
+    if (version == LEGACY_VERSION) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      key = readLegacy(new DataInputStream(new ByteArrayInputStream(bytes)));
+    } else {
+      Preconditions.checkState(
+          version == VERSION || version == UNSORTED_VERSION,
+          "invalid version: %s != %s",
+          version,
+          VERSION);
+      serialized = new SerializedManifest(buffer.slice(), version == VERSION);
+      key = serialized.key;
+      LOG.verbose(
+          "%s: loaded %d input entries, %d hash entries and %d dep file rule key entries",
+          key, serialized.numInputs, serialized.numHashes, serialized.numEntries);
+    }
+  }
+
+  private RuleKey readLegacy(DataInputStream input) throws IOException {
+    input.readInt();
 
-    key = new RuleKey(input.readUTF());
+    RuleKey key = new RuleKey(input.readUTF());
 
     int numberOfHeaders = input.readInt();
-    LOG.verbose("%s: loading %d input entries", this.key, numberOfHeaders);
-    inputs = new ArrayList<>(numberOfHeaders);
-    inputIndices = new HashMap<>(numberOfHeaders);
+    LOG.verbose("%s: loading %d input entries", key, numberOfHeaders);
     for (int index = 0; index < numberOfHeaders; index++) {
       String inputName = input.readUTF();
       inputs.add(inputName);
@@ -94,9 +146,7 @@ public class Manifest {
     }
 
     int numberOfHashes = input.readInt();
-    LOG.verbose("%s: loading %d hash entries", this.key, numberOfHashes);
-    hashes = new ArrayList<>(numberOfHashes);
-    hashIndices = new HashMap<>(numberOfHashes);
+    LOG.verbose("%s: loading %d hash entries", key, numberOfHashes);
     for (int index = 0; index < numberOfHashes; index++) {
       int inputIndex = input.readInt();
       HashCode inputHash = HashCode.fromString(input.readUTF());
@@ -105,18 +155,41 @@ public class Manifest {
     }
 
     int numberOfEntries = input.readInt();
-    LOG.verbose("%s: loading %d dep file rule key entries", this.key, numberOfEntries);
-    entries = new ArrayList<>(numberOfEntries);
+    LOG.verbose("%s: loading %d dep file rule key entries", key, numberOfEntries);
     for (int entryIndex = 0; entryIndex < numberOfEntries; entryIndex++) {
       int numberOfEntryHashes = input.readInt();
       int[] entryHashes = new int[numberOfEntryHashes];
       for (int hashIndex = 0; hashIndex < numberOfEntryHashes; hashIndex++) {
         entryHashes[hashIndex] = input.readInt();
       }
-      RuleKey key = new RuleKey(input.readUTF());
-      LOG.verbose("%s: loaded entry for dep file rule key %s", this.key, key);
-      entries.add(new Pair<>(key, entryHashes));
+      RuleKey entryKey = new RuleKey(input.readUTF());
+      LOG.verbose("%s: loaded entry for dep file rule key %s", key, entryKey);
+      entries.add(new Pair<>(entryKey, entryHashes));
+    }
+    return key;
+  }
+
+  /** Deserializes a manifest loaded from a buffer into its modifiable representation. */
+  private void materialize() {
+    SerializedManifest serialized = this.serialized;
+    if (serialized == null) {
+      return;
+    }
+    for (int index = 0; index < serialized.numInputs; index++) {
+      String inputName = serialized.getInput(index);
+      inputs.add(inputName);
+      inputIndices.put(inputName, index);
     }
+    for (int index = 0; index < serialized.numHashes; index++) {
+      HashCode inputHash = serialized.getHash(index);
+      hashes.add(new Pair<>(serialized.getHashInputIndex(index), inputHash));
+      hashIndices.put(inputHash, index);
+    }
+    for (int index = 0; index < serialized.numEntries; index++) {
+      entries.add(
+          new Pair<>(serialized.getEntryKey(index), serialized.getEntryHashIndices(index)));
+    }
+    this.serialized = null;
   }
 
   public RuleKey getKey() {
@@ -125,6 +198,8 @@ public class Manifest {
 
   @VisibleForTesting
   Integer addHash(String input, HashCode hash) {
+    materialize();
+
     Integer inputIndex = inputIndices.get(input);
     if (inputIndex == null) {
       inputs.add(input);
@@ -149,28 +224,7 @@ public class Manifest {
       SourcePathResolverAdapter resolver,
       ImmutableList<SourcePath> paths)
       throws IOException {
-    if (paths.size() == 1) {
-      return hashSourcePath(paths.get(0), fileHashLoader, resolver);
-    }
-    Hasher hasher = Hashing.md5().newHasher();
-    for (SourcePath path : paths) {
-      hasher.putBytes(hashSourcePath(path, fileHashLoader, resolver).asBytes());
-    }
-    return hasher.hash();
-  }
-
-  private static HashCode hashSourcePath(
-      SourcePath path, FileHashLoader fileHashLoader, SourcePathResolverAdapter resolver)
-      throws IOException {
-    if (path instanceof ArchiveMemberSourcePath) {
-      ArchiveMemberSourcePath archiveMemberSourcePath = (ArchiveMemberSourcePath) path;
-      return fileHashLoader.getForArchiveMember(
-          resolver.getFilesystem(path),
-          resolver.getRelativePath(archiveMemberSourcePath.getArchiveSourcePath()),
-          archiveMemberSourcePath.getMemberPath());
-    } else {
-      return fileHashLoader.get(resolver.getFilesystem(path), resolver.getRelativePath(path));
-    }
+    return new ManifestInputHashCache(fileHashLoader).get(resolver, paths);
   }
 
   private static ArchiveMemberPath getArchiveMemberPath(
@@ -179,65 +233,164 @@ public class Manifest {
         resolver.getRelativePath(archivePath.getArchiveSourcePath()), archivePath.getMemberPath());
   }
 
-  private boolean hashesMatch(
+  private int getNumInputs() {
+    return serialized != null ? serialized.numInputs : inputs.size();
+  }
+
+  private String getInput(int index) {
+    return serialized != null ? serialized.getInput(index) : inputs.get(index);
+  }
+
+  private int getNumHashes() {
+    return serialized != null ? serialized.numHashes : hashes.size();
+  }
+
+  private int getHashInputIndex(int index) {
+    return serialized != null
+        ? serialized.getHashInputIndex(index)
+        : hashes.get(index).getFirst();
+  }
+
+  private boolean hashEquals(int index, byte[] hash) {
+    return serialized != null
+        ? serialized.hashEquals(index, hash)
+        : HashCode.fromBytes(hash).equals(hashes.get(index).getSecond());
+  }
+
+  private int getNumEntries() {
+    return serialized != null ? serialized.numEntries : entries.size();
+  }
+
+  private RuleKey getEntryKey(int index) {
+    return serialized != null ? serialized.getEntryKey(index) : entries.get(index).getFirst();
+  }
+
+  private int[] getEntryHashIndices(int index) {
+    return serialized != null
+        ? serialized.getEntryHashIndices(index)
+        : entries.get(index).getSecond();
+  }
+
+  /**
+   * @return the {@link RuleKey} of the entry that matches the on disk hashes provided by {@code
+   *     fileHashLoader}.
+   */
+  public Optional<RuleKey> lookup(
       FileHashLoader fileHashLoader,
       SourcePathResolverAdapter resolver,
-      ImmutableListMultimap<String, SourcePath> universe,
-      int[] hashIndices)
+      ImmutableSet<SourcePath> universe)
       throws IOException {
-    for (int hashIndex : hashIndices) {
-      Pair<Integer, HashCode> hashEntry = hashes.get(hashIndex);
-      String input = inputs.get(hashEntry.getFirst());
-      ImmutableList<SourcePath> candidates = universe.get(input);
-      if (candidates.isEmpty()) {
-        return false;
-      }
-      HashCode onDiskHeaderHash;
-      try {
-        onDiskHeaderHash = hashSourcePathGroup(fileHashLoader, resolver, candidates);
-      } catch (NoSuchFileException e) {
-        return false;
-      }
-      HashCode inputHash = hashEntry.getSecond();
-      if (!inputHash.equals(onDiskHeaderHash)) {
-        return false;
-      }
-    }
-    return true;
+    return lookup(new ManifestInputHashCache(fileHashLoader), resolver, universe);
   }
 
   /**
    * @return the {@link RuleKey} of the entry that matches the on disk hashes provided by {@code
-   *     fileHashLoader}.
+   *     inputHashCache}.
    */
   public Optional<RuleKey> lookup(
-      FileHashLoader fileHashLoader,
+      ManifestInputHashCache inputHashCache,
       SourcePathResolverAdapter resolver,
       ImmutableSet<SourcePath> universe)
       throws IOException {
-    // Create a set of all paths we care about.
-    ImmutableSet.Builder<String> interestingPathsBuilder = new ImmutableSet.Builder<>();
-    for (Pair<?, int[]> entry : entries) {
-      for (int hashIndex : entry.getSecond()) {
-        interestingPathsBuilder.add(inputs.get(hashes.get(hashIndex).getFirst()));
+    Lookup lookup = new Lookup(inputHashCache, resolver, universe);
+    for (int entryIndex = 0; entryIndex < getNumEntries(); entryIndex++) {
+      if (lookup.hashesMatch(getEntryHashIndices(entryIndex))) {
+        return Optional.of(getEntryKey(entryIndex));
       }
     }
-    ImmutableSet<String> interestingPaths = interestingPathsBuilder.build();
+    return Optional.empty();
+  }
 
-    // Create a multimap from paths we care about to SourcePaths that maps to them.
-    ImmutableListMultimap<String, SourcePath> mappedUniverse =
-        index(
-            universe,
-            path -> sourcePathToManifestHeader(path, resolver),
-            interestingPaths::contains);
+  /**
+   * State of a single {@link #lookup}. Each input is hashed at most once, and each of the recorded
+   * hashes is compared at most once, no matter how many entries refer to them.
+   */
+  private class Lookup {
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCH = 1;
+    private static final byte MISMATCH = 2;
+
+    private final ManifestInputHashCache inputHashCache;
+    private final SourcePathResolverAdapter resolver;
+    // The SourcePaths of the universe mapping to each input.
+    private final List<List<SourcePath>> candidates;
+    // The on disk hashes of the inputs, or an empty array for inputs missing from disk.
+    private final byte[][] inputHashes;
+    private final byte[] hashStates;
+
+    private Lookup(
+        ManifestInputHashCache inputHashCache,
+        SourcePathResolverAdapter resolver,
+        ImmutableSet<SourcePath> universe) {
+      this.inputHashCache = inputHashCache;
+      this.resolver = resolver;
+
+      int numInputs = getNumInputs();
+      @Nullable Map<String, Integer> indices = null;
+      if (serialized == null) {
+        indices = inputIndices;
+      } else if (!serialized.hasSortedInputs) {
+        indices = new HashMap<>(numInputs);
+        for (int index = 0; index < numInputs; index++) {
+          indices.put(getInput(index), index);
+        }
+      }
+      this.candidates = new ArrayList<>(numInputs);
+      for (int index = 0; index < numInputs; index++) {
+        candidates.add(null);
+      }
+      for (SourcePath path : universe) {
+        String header = sourcePathToManifestHeader(path, resolver);
+        Integer index;
+        if (indices != null) {
+          index = indices.get(header);
+        } else {
+          int found = serialized.findInput(header.getBytes(StandardCharsets.UTF_8));
+          index = found < 0 ? null : found;
+        }
+        if (index != null) {
+          List<SourcePath> paths = candidates.get(index);
+          if (paths == null) {
+            paths = new ArrayList<>(1);
+            candidates.set(index, paths);
+          }
+          paths.add(path);
+        }
+      }
+      this.inputHashes = new byte[numInputs][];
+      this.hashStates = new byte[getNumHashes()];
+    }
 
-    // Find a matching entry.
-    for (Pair<RuleKey, int[]> entry : entries) {
-      if (hashesMatch(fileHashLoader, resolver, mappedUniverse, entry.getSecond())) {
-        return Optional.of(entry.getFirst());
+    private boolean hashesMatch(int[] hashIndices) throws IOException {
+      for (int hashIndex : hashIndices) {
+        if (hashStates[hashIndex] == UNKNOWN) {
+          hashStates[hashIndex] = hashMatches(hashIndex) ? MATCH : MISMATCH;
+        }
+        if (hashStates[hashIndex] == MISMATCH) {
+          return false;
+        }
       }
+      return true;
+    }
+
+    private boolean hashMatches(int hashIndex) throws IOException {
+      int inputIndex = getHashInputIndex(hashIndex);
+      byte[] onDiskHash = inputHashes[inputIndex];
+      if (onDiskHash == null) {
+        List<SourcePath> paths = candidates.get(inputIndex);
+        if (paths == null) {
+          onDiskHash = new byte[0];
+        } else {
+          try {
+            onDiskHash = inputHashCache.get(resolver, ImmutableList.copyOf(paths)).asBytes();
+          } catch (NoSuchFileException e) {
+            onDiskHash = new byte[0];
+          }
+        }
+        inputHashes[inputIndex] = onDiskHash;
+      }
+      return onDiskHash.length > 0 && hashEquals(hashIndex, onDiskHash);
     }
-    return Optional.empty();
   }
 
   private static String sourcePathToManifestHeader(
@@ -278,48 +431,95 @@ public class Manifest {
         index(universe, path -> sourcePathToManifestPathKey(path, resolver), inputPaths::contains);
 
     // Record the Entry.
+    ManifestInputHashCache inputHashCache = new ManifestInputHashCache(fileHashLoader);
     int index = 0;
     int[] hashIndices = new int[inputs.size()];
     for (Object relativePath : inputPaths) {
       ImmutableList<SourcePath> paths = sortedUniverse.get(relativePath);
       Preconditions.checkState(!paths.isEmpty());
       hashIndices[index++] =
-          addHash(relativePath.toString(), hashSourcePathGroup(fileHashLoader, resolver, paths));
+          addHash(relativePath.toString(), inputHashCache.get(resolver, paths));
     }
     entries.add(new Pair<>(key, hashIndices));
   }
 
   /** Serializes the manifest to the given {@link OutputStream}. */
   public void serialize(OutputStream rawOutput) throws IOException {
+    materialize();
     DataOutputStream output = new DataOutputStream(rawOutput);
 
     output.writeInt(VERSION);
 
-    output.writeUTF(key.toString());
+    byte[] keyBytes = key.getHashCode().asBytes();
+    output.writeInt(keyBytes.length);
+    output.write(keyBytes);
 
     output.writeInt(inputs.size());
+    output.writeInt(hashes.size());
+    output.writeInt(entries.size());
+
+    // Inputs are written sorted by their UTF-8 bytes, so that lookups can binary search them.
+    List<byte[]> inputBytes = new ArrayList<>(inputs.size());
     for (String input : inputs) {
-      output.writeUTF(input);
+      inputBytes.add(input.getBytes(StandardCharsets.UTF_8));
+    }
+    List<Integer> sortedInputs = new ArrayList<>(inputs.size());
+    for (int index = 0; index < inputs.size(); index++) {
+      sortedInputs.add(index);
+    }
+    sortedInputs.sort(
+        Comparator.comparing(inputBytes::get, UnsignedBytes.lexicographicalComparator()));
+    int[] sortedInputIndices = new int[inputs.size()];
+    int offset = 0;
+    output.writeInt(offset);
+    for (int index = 0; index < sortedInputs.size(); index++) {
+      sortedInputIndices[sortedInputs.get(index)] = index;
+      offset += inputBytes.get(sortedInputs.get(index)).length;
+      output.writeInt(offset);
     }
 
-    output.writeInt(hashes.size());
     for (Pair<Integer, HashCode> hash : hashes) {
-      output.writeInt(hash.getFirst());
-      output.writeUTF(hash.getSecond().toString());
+      output.writeInt(sortedInputIndices[hash.getFirst()]);
+    }
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<Integer, HashCode> hash : hashes) {
+      offset += hash.getSecond().bits() / Byte.SIZE;
+      output.writeInt(offset);
     }
 
-    output.writeInt(entries.size());
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<RuleKey, int[]> entry : entries) {
+      offset += entry.getSecond().length;
+      output.writeInt(offset);
+    }
+    offset = 0;
+    output.writeInt(offset);
+    for (Pair<RuleKey, int[]> entry : entries) {
+      offset += entry.getFirst().getHashCode().bits() / Byte.SIZE;
+      output.writeInt(offset);
+    }
     for (Pair<RuleKey, int[]> entry : entries) {
-      output.writeInt(entry.getSecond().length);
       for (int hashIndex : entry.getSecond()) {
         output.writeInt(hashIndex);
       }
-      output.writeUTF(entry.getFirst().toString());
     }
+
+    for (int index : sortedInputs) {
+      output.write(inputBytes.get(index));
+    }
+    for (Pair<Integer, HashCode> hash : hashes) {
+      output.write(hash.getSecond().asBytes());
+    }
+    for (Pair<RuleKey, int[]> entry : entries) {
+      output.write(entry.getFirst().getHashCode().asBytes());
+    }
+    output.flush();
   }
 
   public int size() {
-    return entries.size();
+    return getNumEntries();
   }
 
   /**
@@ -343,9 +543,201 @@ public class Manifest {
 
   public ManifestStats getStats() {
     return ManifestStats.builder()
-        .setNumDepFiles(entries.size())
-        .setNumInputs(inputs.size())
-        .setNumHashes(hashes.size())
+        .setNumDepFiles(getNumEntries())
+        .setNumInputs(getNumInputs())
+        .setNumHashes(getNumHashes())
         .build();
   }
+
+  /**
+   * Read only view of a manifest serialized in the current format, decoding values on demand.
+   *
+   * <p>Layout, with all integers big endian:
+   *
+   * <pre>
+   *   int version
+   *   int keyLength, byte[keyLength] key
+   *   int numInputs, int numHashes, int numEntries
+   *   int[numInputs + 1] input offsets, into the input names
+   *   int[numHashes] hash input indices
+   *   int[numHashes + 1] hash offsets, into the hashes
+   *   int[numEntries + 1] entry offsets, into the entry hash indices
+   *   int[numEntries + 1] entry key offsets, into the entry keys
+   *   int[] entry hash indices
+   *   byte[] input names (UTF-8), byte[] hashes, byte[] entry keys
+   * </pre>
+   *
+   * <p>Since version 2, the input names are sorted by their UTF-8 bytes.
+   */
+  private static final class SerializedManifest {
+    private final ByteBuffer buffer;
+    private final boolean hasSortedInputs;
+    private final RuleKey key;
+    private final int numInputs;
+    private final int numHashes;
+    private final int numEntries;
+    private final int inputOffsetsPosition;
+    private final int hashInputIndicesPosition;
+    private final int hashOffsetsPosition;
+    private final int entryOffsetsPosition;
+    private final int entryKeyOffsetsPosition;
+    private final int entryHashIndicesPosition;
+    private final int inputsPosition;
+    private final int hashesPosition;
+    private final int keysPosition;
+
+    private SerializedManifest(ByteBuffer buffer, boolean hasSortedInputs) throws IOException {
+      this.buffer = buffer;
+      this.hasSortedInputs = hasSortedInputs;
+      int position = Integer.BYTES;
+      int keyLength = buffer.getInt(position);
+      position += Integer.BYTES;
+      this.key = new RuleKey(HashCode.fromBytes(getBytes(position, keyLength)));
+      position += keyLength;
+      this.numInputs = buffer.getInt(position);
+      this.numHashes = buffer.getInt(position + Integer.BYTES);
+      this.numEntries = buffer.getInt(position + 2 * Integer.BYTES);
+      int maxCount = buffer.limit() / Integer.BYTES;
+      checkFormat(
+          numInputs >= 0
+              && numInputs < maxCount
+              && numHashes >= 0
+              && numHashes < maxCount
+              && numEntries >= 0
+              && numEntries < maxCount);
+      position += 3 * Integer.BYTES;
+
+      inputOffsetsPosition = position;
+      hashInputIndicesPosition = inputOffsetsPosition + (numInputs + 1) * Integer.BYTES;
+      hashOffsetsPosition = hashInputIndicesPosition + numHashes * Integer.BYTES;
+      entryOffsetsPosition = hashOffsetsPosition + (numHashes + 1) * Integer.BYTES;
+      entryKeyOffsetsPosition = entryOffsetsPosition + (numEntries + 1) * Integer.BYTES;
+      entryHashIndicesPosition = entryKeyOffsetsPosition + (numEntries + 1) * Integer.BYTES;
+      checkFormat(entryHashIndicesPosition <= buffer.limit());
+      int numEntryHashIndices = checkOffsets(entryOffsetsPosition, numEntries);
+      inputsPosition = entryHashIndicesPosition + numEntryHashIndices * Integer.BYTES;
+      checkFormat(inputsPosition <= buffer.limit());
+      hashesPosition = inputsPosition + checkOffsets(inputOffsetsPosition, numInputs);
+      keysPosition = hashesPosition + checkOffsets(hashOffsetsPosition, numHashes);
+      checkFormat(
+          keysPosition + checkOffsets(entryKeyOffsetsPosition, numEntries) == buffer.limit());
+
+      // Validate indices up front, so that probing a corrupt manifest cannot fail later on.
+      for (int index = 0; index < numHashes; index++) {
+        int inputIndex = getHashInputIndex(index);
+        checkFormat(inputIndex >= 0 && inputIndex < numInputs);
+      }
+      for (int index = 0; index < numEntryHashIndices; index++) {
+        int hashIndex = buffer.getInt(entryHashIndicesPosition + index * Integer.BYTES);
+        checkFormat(hashIndex >= 0 && hashIndex < numHashes);
+      }
+    }
+
+    private static void checkFormat(boolean condition) throws IOException {
+      if (!condition) {
+        throw new IOException("Truncated or corrupt manifest");
+      }
+    }
+
+    /** Checks that an offset table is increasing and returns the size of the data it indexes. */
+    private int checkOffsets(int position, int count) throws IOException {
+      int previous = 0;
+      checkFormat(buffer.getInt(position) == 0);
+      for (int index = 1; index <= count; index++) {
+        int offset = buffer.getInt(position + index * Integer.BYTES);
+        checkFormat(offset >= previous);
+        previous = offset;
+      }
+      return previous;
+    }
+
+    private byte[] getBytes(int position, int length) {
+      byte[] bytes = new byte[length];
+      ByteBuffer duplicate = buffer.duplicate();
+      duplicate.position(position);
+      duplicate.get(bytes);
+      return bytes;
+    }
+
+    private int getOffset(int tablePosition, int index) {
+      return buffer.getInt(tablePosition + index * Integer.BYTES);
+    }
+
+    private String getInput(int index) {
+      int start = getOffset(inputOffsetsPosition, index);
+      int end = getOffset(inputOffsetsPosition, index + 1);
+      return new String(getBytes(inputsPosition + start, end - start), StandardCharsets.UTF_8);
+    }
+
+    /** @return the index of the input with the given UTF-8 encoded name, or -1 if there is none. */
+    private int findInput(byte[] name) {
+      int low = 0;
+      int high = numInputs - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int comparison = compareInput(middle, name);
+        if (comparison < 0) {
+          low = middle + 1;
+        } else if (comparison > 0) {
+          high = middle - 1;
+        } else {
+          return middle;
+        }
+      }
+      return -1;
+    }
+
+    /** Compares the bytes of the name of an input to {@code name}, as unsigned bytes. */
+    private int compareInput(int index, byte[] name) {
+      int start = getOffset(inputOffsetsPosition, index);
+      int length = getOffset(inputOffsetsPosition, index + 1) - start;
+      for (int i = 0; i < Math.min(length, name.length); i++) {
+        int comparison = UnsignedBytes.compare(buffer.get(inputsPosition + start + i), name[i]);
+        if (comparison != 0) {
+          return comparison;
+        }
+      }
+      return Integer.compare(length, name.length);
+    }
+
+    private int getHashInputIndex(int index) {
+      return buffer.getInt(hashInputIndicesPosition + index * Integer.BYTES);
+    }
+
+    private HashCode getHash(int index) {
+      int start = getOffset(hashOffsetsPosition, index);
+      int end = getOffset(hashOffsetsPosition, index + 1);
+      return HashCode.fromBytes(getBytes(hashesPosition + start, end - start));
+    }
+
+    private boolean hashEquals(int index, byte[] hash) {
+      int start = getOffset(hashOffsetsPosition, index);
+      int end = getOffset(hashOffsetsPosition, index + 1);
+      if (end - start != hash.length) {
+        return false;
+      }
+      for (int i = 0; i < hash.length; i++) {
+        if (buffer.get(hashesPosition + start + i) != hash[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private RuleKey getEntryKey(int index) {
+      int start = getOffset(entryKeyOffsetsPosition, index);
+      int end = getOffset(entryKeyOffsetsPosition, index + 1);
+      return new RuleKey(HashCode.fromBytes(getBytes(keysPosition + start, end - start)));
+    }
+
+    private int[] getEntryHashIndices(int index) {
+      int start = getOffset(entryOffsetsPosition, index);
+      int end = getOffset(entryOffsetsPosition, index + 1);
+      int[] hashIndices = new int[end - start];
+      for (int i = 0; i < hashIndices.length; i++) {
+        hashIndices[i] = buffer.getInt(entryHashIndicesPosition + (start + i) * Integer.BYTES);
+      }
+      return hashIndices;
+    }
+  }
 }
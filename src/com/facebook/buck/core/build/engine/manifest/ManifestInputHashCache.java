@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.manifest;
+
+import com.facebook.buck.core.sourcepath.ArchiveMemberSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Hashes the {@link SourcePath}s that {@link Manifest} inputs map to, memoizing how they resolve.
+ *
+ * <p>Headers are typically shared by many entries of a manifest and by the manifests of many
+ * rules, so a single instance is meant to be shared by all manifest lookups of a build. Only the
+ * resolution of source paths to files is memoized: their hashes are always read from the {@link
+ * FileHashLoader}, whose entries are invalidated when the rules producing the files rebuild them.
+ */
+public class ManifestInputHashCache {
+
+  private final FileHashLoader fileHashLoader;
+  private final ConcurrentMap<SourcePath, ResolvedInput> resolvedInputs =
+      new ConcurrentHashMap<>();
+
+  public ManifestInputHashCache(FileHashLoader fileHashLoader) {
+    this.fileHashLoader = fileHashLoader;
+  }
+
+  /** @return the hash of the files pointed to by the source paths. */
+  public HashCode get(SourcePathResolverAdapter resolver, ImmutableList<SourcePath> paths)
+      throws IOException {
+    if (paths.size() == 1) {
+      return get(resolver, paths.get(0));
+    }
+    Hasher hasher = Hashing.md5().newHasher();
+    for (SourcePath path : paths) {
+      hasher.putBytes(get(resolver, path).asBytes());
+    }
+    return hasher.hash();
+  }
+
+  private HashCode get(SourcePathResolverAdapter resolver, SourcePath path) throws IOException {
+    ResolvedInput input =
+        resolvedInputs.computeIfAbsent(path, sourcePath -> resolve(resolver, sourcePath));
+    if (input.memberPath == null) {
+      return fileHashLoader.get(input.filesystem, input.relativePath);
+    }
+    return fileHashLoader.getForArchiveMember(
+        input.filesystem, input.relativePath, input.memberPath);
+  }
+
+  private static ResolvedInput resolve(SourcePathResolverAdapter resolver, SourcePath path) {
+    if (path instanceof ArchiveMemberSourcePath) {
+      ArchiveMemberSourcePath archiveMemberSourcePath = (ArchiveMemberSourcePath) path;
+      return new ResolvedInput(
+          resolver.getFilesystem(path),
+          resolver.getRelativePath(archiveMemberSourcePath.getArchiveSourcePath()),
+          archiveMemberSourcePath.getMemberPath());
+    }
+    return new ResolvedInput(resolver.getFilesystem(path), resolver.getRelativePath(path), null);
+  }
+
+  /** The file, or archive member, that a {@link SourcePath} resolves to. */
+  private static class ResolvedInput {
+    private final ProjectFilesystem filesystem;
+    private final Path relativePath;
+    @Nullable private final Path memberPath;
+
+    private ResolvedInput(
+        ProjectFilesystem filesystem, Path relativePath, @Nullable Path memberPath) {
+      this.filesystem = filesystem;
+      this.relativePath = relativePath;
+      this.memberPath = memberPath;
+    }
+  }
+}
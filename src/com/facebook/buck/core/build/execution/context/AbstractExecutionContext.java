@@ -27,6 +27,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.io.filesystem.ProjectFilesystemFactory;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.Console;
@@ -37,6 +38,7 @@ import com.facebook.buck.util.concurrent.ExecutorPool;
 import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
 import com.facebook.buck.util.concurrent.ResourceAmountsEstimator;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.worker.WorkerProcessPool;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Closer;
@@ -154,6 +156,18 @@ abstract class AbstractExecutionContext implements Closeable {
     return new ClassLoaderCache();
   }
 
+  /**
+   * Jars of compilation classpaths kept open across buck invocations inside buck daemon. Absent if
+   * the cache is disabled.
+   */
+  public abstract Optional<ClasspathJarCache> getClasspathJarCache();
+
+  /**
+   * Hashes of the files known to the build, for steps which key caches on the contents of files.
+   * Absent outside of commands which build.
+   */
+  public abstract Optional<FileHashLoader> getFileHashLoader();
+
   @Value.Derived
   public Verbosity getVerbosity() {
     return getConsole().getVerbosity();
@@ -22,6 +22,7 @@ import com.facebook.buck.core.rules.ActionGraphBuilder;
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import java.util.Optional;
 import javax.annotation.Nullable;
 
 /** Contains cached action graphs. */
@@ -31,8 +32,12 @@ public class ActionGraphCache {
   private final IncrementalActionGraphGenerator incrementalActionGraphGenerator;
 
   public ActionGraphCache(int maxEntries) {
+    this(maxEntries, Optional.empty());
+  }
+
+  public ActionGraphCache(int maxEntries, Optional<ActionGraphSnapshotStore> snapshotStore) {
     previousActionGraphs = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
-    incrementalActionGraphGenerator = new IncrementalActionGraphGenerator();
+    incrementalActionGraphGenerator = new IncrementalActionGraphGenerator(snapshotStore);
   }
 
   public void invalidateCache() {
@@ -61,4 +66,9 @@ public class ActionGraphCache {
     incrementalActionGraphGenerator.populateActionGraphBuilderWithCachedRules(
         eventBus, targetGraph, graphBuilder);
   }
+
+  /** Saves the rules of the last action graph so that the next daemon can reuse them. */
+  public void saveSnapshot() {
+    incrementalActionGraphGenerator.saveSnapshot();
+  }
 }
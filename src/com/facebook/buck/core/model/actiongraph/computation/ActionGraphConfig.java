@@ -51,6 +51,16 @@ public abstract class ActionGraphConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue("cache", "action_graph_cache_check_enabled", false);
   }
 
+  /**
+   * @return whether the rules of the last action graph should be saved when the daemon shuts down,
+   *     so that the next daemon can reuse them for unchanged targets. Only takes effect with
+   *     incremental action graph generation enabled.
+   */
+  @Value.Derived
+  public boolean isActionGraphSnapshotEnabled() {
+    return getDelegate().getBooleanValue("cache", "action_graph_snapshot", false);
+  }
+
   /**
    * @return whether the current invocation of Buck should skip the Action Graph cache, leaving the
    *     cached Action Graph in memory for the next request and creating a fresh Action Graph for
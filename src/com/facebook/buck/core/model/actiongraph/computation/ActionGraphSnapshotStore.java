@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.model.actiongraph.computation;
+
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import java.io.IOException;
+
+/**
+ * Persists build rules of an action graph so that a new daemon can reuse the ones whose target
+ * subgraphs did not change, instead of constructing the whole action graph from scratch.
+ *
+ * <p>Rules are saved and restored per unflavored target, like {@link
+ * IncrementalActionGraphGenerator} reuses them within a daemon: either all the rules of an
+ * unflavored target are restored or none of them are.
+ */
+public interface ActionGraphSnapshotStore {
+
+  /** Saves the reusable rules of {@code graphBuilder}, created for {@code targetGraph}. */
+  void save(TargetGraph targetGraph, ActionGraphBuilder graphBuilder) throws IOException;
+
+  /**
+   * Adds the saved rules that are still valid for {@code targetGraph} to {@code graphBuilder}.
+   *
+   * @return the number of restored rules
+   */
+  int restore(TargetGraph targetGraph, ActionGraphBuilder graphBuilder) throws IOException;
+}
@@ -30,6 +30,7 @@ import com.facebook.buck.event.ActionGraphEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -43,12 +44,24 @@ import javax.annotation.Nullable;
  *
  * <p>This works by grabbing all the build rules from the previous {@link ActionGraphBuilder} with
  * unflavored targets that were not invalidated when doing a target graph walk to check for changes.
+ *
+ * <p>If an {@link ActionGraphSnapshotStore} is given, the first action graph of the daemon is
+ * populated from the rules it saved for a previous daemon instead.
  */
 public class IncrementalActionGraphGenerator {
   private static final Logger LOG = Logger.get(IncrementalActionGraphGenerator.class);
 
   @Nullable private ActionGraphBuilder lastActionGraphBuilder;
   @Nullable private TargetGraph lastTargetGraph;
+  private final Optional<ActionGraphSnapshotStore> snapshotStore;
+
+  public IncrementalActionGraphGenerator() {
+    this(Optional.empty());
+  }
+
+  public IncrementalActionGraphGenerator(Optional<ActionGraphSnapshotStore> snapshotStore) {
+    this.snapshotStore = snapshotStore;
+  }
 
   /**
    * Populates the given {@link ActionGraphBuilder} with the rules from the previously used {@link
@@ -85,6 +98,12 @@ public class IncrementalActionGraphGenerator {
       // Invalidate the previous {@see ActionGraphBuilder}, which we no longer need, to make sure
       // nobody unexpectedly accesses it after this point.
       lastActionGraphBuilder.invalidate();
+    } else if (snapshotStore.isPresent()) {
+      try {
+        reusedRuleCount = snapshotStore.get().restore(targetGraph, graphBuilder);
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to restore the action graph snapshot");
+      }
     }
 
     lastTargetGraph = targetGraph;
@@ -92,6 +111,18 @@ public class IncrementalActionGraphGenerator {
     eventBus.post(new ActionGraphEvent.IncrementalLoad(reusedRuleCount));
   }
 
+  /** Saves the rules of the last action graph to the {@link ActionGraphSnapshotStore}, if any. */
+  public void saveSnapshot() {
+    if (!snapshotStore.isPresent() || lastActionGraphBuilder == null) {
+      return;
+    }
+    try {
+      snapshotStore.get().save(Objects.requireNonNull(lastTargetGraph), lastActionGraphBuilder);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to save the action graph snapshot");
+    }
+  }
+
   private Set<UnflavoredBuildTarget> findUnflavoredTargetsForNewNodes(TargetGraph targetGraph) {
     ImmutableSet.Builder<UnflavoredBuildTarget> unflavoredTargetsForNewNodes =
         new ImmutableSet.Builder<>();
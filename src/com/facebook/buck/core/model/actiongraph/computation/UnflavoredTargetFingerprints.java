@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.model.actiongraph.computation;
+
+import com.facebook.buck.core.description.BaseDescription;
+import com.facebook.buck.core.description.Description;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.UnflavoredBuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.rules.coercer.ParamInfo;
+import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.rules.keys.ConstructorArgHashBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Computes fingerprints of the unflavored targets of a {@link TargetGraph} that are stable across
+ * daemon restarts.
+ *
+ * <p>The fingerprint of a node covers its build target, its rule type, the values of the attributes
+ * of its constructor arg, its declared deps, and the fingerprints of all the nodes it depends on.
+ * Attribute values are hashed by {@link ConstructorArgHashBuilder}; nodes with values it can't hash
+ * get no fingerprint. The fingerprint of an
+ * unflavored target combines the fingerprints of all the nodes sharing it. This mirrors the
+ * invalidation done by {@link IncrementalActionGraphGenerator}: a new node, a changed node or a
+ * change anywhere below a node changes the fingerprint of its unflavored target, and nodes whose
+ * descriptions don't produce cacheable subgraphs, as well as everything depending on them, get no
+ * fingerprint at all.
+ */
+public final class UnflavoredTargetFingerprints {
+
+  private UnflavoredTargetFingerprints() {}
+
+  /**
+   * @param typeCoercerFactory used to look up the attributes of constructor args
+   * @param salt mixed into every fingerprint, should cover everything besides the target graph
+   *     that affects action graph construction
+   * @return the fingerprints of all the unflavored targets of {@code targetGraph} that can be
+   *     reused
+   */
+  public static ImmutableMap<UnflavoredBuildTarget, HashCode> compute(
+      TargetGraph targetGraph, TypeCoercerFactory typeCoercerFactory, String salt) {
+    Map<BuildTarget, Optional<HashCode>> nodeFingerprints = new HashMap<>();
+    Map<UnflavoredBuildTarget, List<TargetNode<?>>> nodesByUnflavoredTarget = new HashMap<>();
+    for (TargetNode<?> node : targetGraph.getNodes()) {
+      nodesByUnflavoredTarget
+          .computeIfAbsent(
+              node.getBuildTarget().getUnflavoredBuildTarget(), ignored -> new ArrayList<>())
+          .add(node);
+    }
+
+    ImmutableMap.Builder<UnflavoredBuildTarget, HashCode> fingerprints = ImmutableMap.builder();
+    Set<UnflavoredBuildTarget> invalid = new HashSet<>();
+    for (Map.Entry<UnflavoredBuildTarget, List<TargetNode<?>>> entry :
+        nodesByUnflavoredTarget.entrySet()) {
+      Hasher hasher = Hashing.sha1().newHasher();
+      for (TargetNode<?> node : ImmutableSortedSet.copyOf(entry.getValue())) {
+        Optional<HashCode> nodeFingerprint =
+            fingerprint(node, targetGraph, typeCoercerFactory, salt, nodeFingerprints);
+        if (!nodeFingerprint.isPresent()) {
+          invalid.add(entry.getKey());
+          break;
+        }
+        hasher.putBytes(nodeFingerprint.get().asBytes());
+      }
+      if (!invalid.contains(entry.getKey())) {
+        fingerprints.put(entry.getKey(), hasher.hash());
+      }
+    }
+    return fingerprints.build();
+  }
+
+  private static Optional<HashCode> fingerprint(
+      TargetNode<?> node,
+      TargetGraph targetGraph,
+      TypeCoercerFactory typeCoercerFactory,
+      String salt,
+      Map<BuildTarget, Optional<HashCode>> nodeFingerprints) {
+    Optional<HashCode> cached = nodeFingerprints.get(node.getBuildTarget());
+    if (cached != null) {
+      return cached;
+    }
+
+    Optional<HashCode> result = Optional.empty();
+    BaseDescription<?> description = node.getDescription();
+    Optional<HashCode> constructorArgHash = Optional.empty();
+    if (!(description instanceof Description<?>)
+        || ((Description<?>) description).producesCacheableSubgraph()) {
+      constructorArgHash = hashConstructorArg(node, typeCoercerFactory);
+    }
+    if (constructorArgHash.isPresent()) {
+      Hasher hasher = Hashing.sha1().newHasher();
+      putString(hasher, salt);
+      putString(hasher, node.getBuildTarget().toString());
+      putString(hasher, node.getRuleType().getName());
+      hasher.putBytes(constructorArgHash.get().asBytes());
+      putString(hasher, ImmutableSortedSet.copyOf(node.getDeclaredDeps()).toString());
+      putString(hasher, node.getExtraDeps().toString());
+      putString(hasher, node.getTargetGraphOnlyDeps().toString());
+      putString(hasher, node.getSelectedVersions().toString());
+      boolean depsValid = true;
+      for (TargetNode<?> dep : ImmutableSortedSet.copyOf(targetGraph.getOutgoingNodesFor(node))) {
+        Optional<HashCode> depFingerprint =
+            fingerprint(dep, targetGraph, typeCoercerFactory, salt, nodeFingerprints);
+        if (!depFingerprint.isPresent()) {
+          depsValid = false;
+          break;
+        }
+        hasher.putBytes(depFingerprint.get().asBytes());
+      }
+      if (depsValid) {
+        result = Optional.of(hasher.hash());
+      }
+    }
+
+    nodeFingerprints.put(node.getBuildTarget(), result);
+    return result;
+  }
+
+  private static Optional<HashCode> hashConstructorArg(
+      TargetNode<?> node, TypeCoercerFactory typeCoercerFactory) {
+    ConstructorArgHashBuilder builder = new ConstructorArgHashBuilder();
+    for (Map.Entry<String, ParamInfo> entry :
+        ImmutableSortedMap.copyOf(
+                typeCoercerFactory
+                    .getConstructorArgDescriptor(node.getDescription().getConstructorArgType())
+                    .getParamInfos())
+            .entrySet()) {
+      builder.setReflectively(entry.getKey(), entry.getValue().get(node.getConstructorArg()));
+    }
+    return builder.build();
+  }
+
+  private static void putString(Hasher hasher, String value) {
+    hasher.putInt(value.length());
+    hasher.putString(value, StandardCharsets.UTF_8);
+  }
+}
@@ -19,9 +19,12 @@ package com.facebook.buck.core.rules.build.strategy;
 import com.facebook.buck.core.build.engine.BuildResult;
 import com.facebook.buck.core.build.engine.BuildStrategyContext;
 import com.facebook.buck.core.rules.BuildRule;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Optional;
 
 /** Interface for injecting customized behavior into the CachingBuildEngine. */
@@ -35,6 +38,28 @@ public interface BuildRuleStrategy extends Closeable {
   /** A rule will be built by the custom strategy only if canBuild() returns true. */
   boolean canBuild(BuildRule instance);
 
+  /**
+   * Returns the outputs of a rule built by this strategy which were recorded but not written to
+   * disk, keyed by absolute path. They must be materialized with {@link #materializeOutputs} before
+   * anything other than this strategy reads them.
+   *
+   * @param rule a rule built by this strategy
+   */
+  default ImmutableMap<Path, UnmaterializedOutput> getUnmaterializedOutputs(BuildRule rule) {
+    return ImmutableMap.of();
+  }
+
+  /**
+   * Writes the unmaterialized outputs of a rule to disk.
+   *
+   * @param rule the rule whose outputs are needed
+   * @param includeTransitiveDeps whether the outputs of the transitive build deps of the rule are
+   *     needed too
+   */
+  default ListenableFuture<?> materializeOutputs(BuildRule rule, boolean includeTransitiveDeps) {
+    return Futures.immediateFuture(null);
+  }
+
   /** A simple interface for build results exposing an explicit cancellation. */
   interface StrategyBuildResult {
     /**
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.rules.build.strategy;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * An output of a rule which was built by a {@link BuildRuleStrategy} but whose contents have not
+ * been written to disk yet.
+ */
+public class UnmaterializedOutput {
+  private final HashCode hash;
+  private final long size;
+
+  public UnmaterializedOutput(HashCode hash, long size) {
+    this.hash = hash;
+    this.size = size;
+  }
+
+  /** The hash of the contents of the output, as the file hash cache would compute it. */
+  public HashCode getHash() {
+    return hash;
+  }
+
+  public long getSize() {
+    return size;
+  }
+}
@@ -27,7 +27,11 @@ public abstract class AbstractBottomUpTraversal<T, E extends Throwable> {
   private final TraversableGraph<T> graph;
 
   public AbstractBottomUpTraversal(TraversableGraph<T> graph) {
-    this.graph = graph;
+    // Walks the indexed form of immutable graphs, which doesn't create sets of neighbors.
+    this.graph =
+        graph instanceof DirectedAcyclicGraph
+            ? ((DirectedAcyclicGraph<T>) graph).getIndexedGraph()
+            : graph;
   }
 
   public final void traverse() throws E {
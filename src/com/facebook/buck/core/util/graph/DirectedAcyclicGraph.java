@@ -19,49 +19,62 @@ package com.facebook.buck.core.util.graph;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Sets;
 import java.util.Objects;
 
+/**
+ * An immutable directed acyclic graph. Its nodes and edges are stored in an {@link
+ * IndexedDirectedGraph}, and the sets of neighbors of a node are created when asked for.
+ */
 public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
 
-  private final ImmutableSet<T> nodes;
-  private final ImmutableSetMultimap<T, T> outgoingEdges;
-  private final ImmutableSetMultimap<T, T> incomingEdges;
+  private final IndexedDirectedGraph<T> graph;
 
   public DirectedAcyclicGraph(MutableDirectedGraph<T> graph) {
     Preconditions.checkState(graph.isAcyclic(), "Graph must by acyclic");
-    this.nodes = graph.createImmutableCopyOfNodes();
-    this.outgoingEdges = graph.createImmutableCopyOfOutgoingEdges();
-    this.incomingEdges = graph.createImmutableCopyOfIncomingEdges();
+    this.graph = IndexedDirectedGraph.copyOf(graph);
   }
 
   @Override
   public ImmutableSet<T> getOutgoingNodesFor(T source) {
-    return outgoingEdges.get(source);
+    return graph.containsNode(source)
+        ? ImmutableSet.copyOf(graph.getOutgoingNodesFor(source))
+        : ImmutableSet.of();
   }
 
   @Override
   public ImmutableSet<T> getIncomingNodesFor(T sink) {
-    return incomingEdges.get(sink);
+    return graph.containsNode(sink)
+        ? ImmutableSet.copyOf(graph.getIncomingNodesFor(sink))
+        : ImmutableSet.of();
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoOutgoingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, outgoingEdges.keySet()));
+    return ImmutableSet.copyOf(graph.getNodesWithNoOutgoingEdges());
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoIncomingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, incomingEdges.keySet()));
+    return ImmutableSet.copyOf(graph.getNodesWithNoIncomingEdges());
   }
 
   @Override
   public ImmutableSet<T> getNodes() {
-    return nodes;
+    return graph.getNodeSet();
+  }
+
+  /** @return the int-indexed form of this graph, for traversals operating on node indices. */
+  public IndexedDirectedGraph<T> getIndexedGraph() {
+    return graph;
   }
 
+  /** @return a multimap of the edges of the graph, keyed by source node. */
   public ImmutableSetMultimap<T, T> getOutgoingEdges() {
-    return outgoingEdges;
+    ImmutableSetMultimap.Builder<T, T> outgoingEdges = ImmutableSetMultimap.builder();
+    for (T node : graph.getNodes()) {
+      outgoingEdges.putAll(node, graph.getOutgoingNodesFor(node));
+    }
+    return outgoingEdges.build();
   }
 
   @Override
@@ -71,13 +84,12 @@ public class DirectedAcyclicGraph<T> implements TraversableGraph<T> {
     }
 
     DirectedAcyclicGraph<?> that = (DirectedAcyclicGraph<?>) other;
-    return Objects.equals(this.nodes, that.nodes)
-        && Objects.equals(this.outgoingEdges, that.outgoingEdges)
-        && Objects.equals(this.incomingEdges, that.incomingEdges);
+    return Objects.equals(this.getNodes(), that.getNodes())
+        && Objects.equals(this.getOutgoingEdges(), that.getOutgoingEdges());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(nodes, outgoingEdges, incomingEdges);
+    return Objects.hash(getNodes(), getOutgoingEdges());
   }
 }
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable directed graph whose nodes are numbered from 0 to {@link #getNodeCount()} - 1, and
+ * whose edges are stored in compressed sparse row form: for each direction, the neighbors of all
+ * the nodes are laid out in a single int array, and an array of offsets tells where the neighbors
+ * of each node start. This takes 8 bytes per edge instead of the entries and sets of a multimap,
+ * and lets traversals track nodes with ints and bit sets instead of hash-based collections.
+ *
+ * <p>Nodes are numbered in the iteration order of {@link TraversableGraph#getNodes()} of the graph
+ * this one is copied from, and the neighbors of each node keep their iteration order, so
+ * traversals visit nodes in the same order as the equivalent traversals of the original graph.
+ */
+public final class IndexedDirectedGraph<T> implements TraversableGraph<T> {
+
+  private final ImmutableMap<T, Integer> indices;
+  private final ImmutableList<T> nodes;
+  private final int[] outgoingOffsets;
+  private final int[] outgoingEdges;
+  private final int[] incomingOffsets;
+  private final int[] incomingEdges;
+
+  private IndexedDirectedGraph(
+      ImmutableMap<T, Integer> indices,
+      int[] outgoingOffsets,
+      int[] outgoingEdges,
+      int[] incomingOffsets,
+      int[] incomingEdges) {
+    this.indices = indices;
+    this.nodes = indices.keySet().asList();
+    this.outgoingOffsets = outgoingOffsets;
+    this.outgoingEdges = outgoingEdges;
+    this.incomingOffsets = incomingOffsets;
+    this.incomingEdges = incomingEdges;
+  }
+
+  /**
+   * Copies the nodes and the edges of the given graph. Graphs which are already stored in this
+   * form, such as {@link DirectedAcyclicGraph}s, are returned without copying.
+   */
+  public static <T> IndexedDirectedGraph<T> copyOf(TraversableGraph<T> graph) {
+    if (graph instanceof IndexedDirectedGraph) {
+      return (IndexedDirectedGraph<T>) graph;
+    }
+    if (graph instanceof DirectedAcyclicGraph) {
+      return ((DirectedAcyclicGraph<T>) graph).getIndexedGraph();
+    }
+
+    ImmutableMap.Builder<T, Integer> indicesBuilder = ImmutableMap.builder();
+    int nodeCount = 0;
+    for (T node : graph.getNodes()) {
+      indicesBuilder.put(node, nodeCount++);
+    }
+    ImmutableMap<T, Integer> indices = indicesBuilder.build();
+    ImmutableList<T> nodes = indices.keySet().asList();
+
+    int[] outgoingOffsets = new int[nodeCount + 1];
+    int[] incomingOffsets = new int[nodeCount + 1];
+    for (int i = 0; i < nodeCount; i++) {
+      outgoingOffsets[i + 1] =
+          outgoingOffsets[i] + Iterables.size(graph.getOutgoingNodesFor(nodes.get(i)));
+      incomingOffsets[i + 1] =
+          incomingOffsets[i] + Iterables.size(graph.getIncomingNodesFor(nodes.get(i)));
+    }
+    int[] outgoingEdges = new int[outgoingOffsets[nodeCount]];
+    int[] incomingEdges = new int[incomingOffsets[nodeCount]];
+    for (int i = 0; i < nodeCount; i++) {
+      T node = nodes.get(i);
+      fillEdges(graph.getOutgoingNodesFor(node), indices, outgoingEdges, outgoingOffsets[i]);
+      fillEdges(graph.getIncomingNodesFor(node), indices, incomingEdges, incomingOffsets[i]);
+    }
+
+    return new IndexedDirectedGraph<>(
+        indices, outgoingOffsets, outgoingEdges, incomingOffsets, incomingEdges);
+  }
+
+  private static <T> void fillEdges(
+      Iterable<T> neighbors, ImmutableMap<T, Integer> indices, int[] edges, int offset) {
+    for (T neighbor : neighbors) {
+      Integer index = indices.get(neighbor);
+      Preconditions.checkArgument(index != null, "%s is not in the graph.", neighbor);
+      edges[offset++] = index;
+    }
+  }
+
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  public int getEdgeCount() {
+    return outgoingEdges.length;
+  }
+
+  public T getNode(int index) {
+    return nodes.get(index);
+  }
+
+  public boolean containsNode(T node) {
+    return indices.containsKey(node);
+  }
+
+  /** @return the index of the given node, which must be in the graph. */
+  public int getIndex(T node) {
+    Integer index = indices.get(node);
+    Preconditions.checkArgument(index != null, "%s is not in the graph.", node);
+    return index;
+  }
+
+  public int getOutDegree(int node) {
+    return outgoingOffsets[node + 1] - outgoingOffsets[node];
+  }
+
+  public int getInDegree(int node) {
+    return incomingOffsets[node + 1] - incomingOffsets[node];
+  }
+
+  /** Calls the consumer with the index of each node the given node has an edge to. */
+  public void forEachOutgoing(int node, IntConsumer consumer) {
+    for (int i = outgoingOffsets[node]; i < outgoingOffsets[node + 1]; i++) {
+      consumer.accept(outgoingEdges[i]);
+    }
+  }
+
+  /** Calls the consumer with the index of each node which has an edge to the given node. */
+  public void forEachIncoming(int node, IntConsumer consumer) {
+    for (int i = incomingOffsets[node]; i < incomingOffsets[node + 1]; i++) {
+      consumer.accept(incomingEdges[i]);
+    }
+  }
+
+  /**
+   * Returns the nodes sorted so that each node comes after the nodes it has edges to, in the same
+   * order as {@link TopologicalSort#sort(TraversableGraph)}. Nodes which are part of a cycle, or
+   * which have edges to one, are left out.
+   */
+  public ImmutableList<T> topologicalSort() {
+    int[] sorted = topologicalSortIndices();
+    ImmutableList.Builder<T> result = ImmutableList.builderWithExpectedSize(sorted.length);
+    for (int index : sorted) {
+      result.add(nodes.get(index));
+    }
+    return result.build();
+  }
+
+  /** Same as {@link #topologicalSort()}, but returns the indices of the nodes. */
+  public int[] topologicalSortIndices() {
+    int nodeCount = nodes.size();
+    int[] remainingOutDegrees = new int[nodeCount];
+    // Nodes are added at the end of the queue as soon as all the nodes they have edges to are, so
+    // the queue ends up holding the sorted nodes.
+    int[] queue = new int[nodeCount];
+    int queueEnd = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      remainingOutDegrees[node] = getOutDegree(node);
+      if (remainingOutDegrees[node] == 0) {
+        queue[queueEnd++] = node;
+      }
+    }
+    for (int head = 0; head < queueEnd; head++) {
+      int node = queue[head];
+      for (int i = incomingOffsets[node]; i < incomingOffsets[node + 1]; i++) {
+        int candidate = incomingEdges[i];
+        if (--remainingOutDegrees[candidate] == 0) {
+          queue[queueEnd++] = candidate;
+        }
+      }
+    }
+    return queueEnd == nodeCount ? queue : Arrays.copyOf(queue, queueEnd);
+  }
+
+  /**
+   * Returns the nodes reachable from the given ones by following edges, including the given ones,
+   * in depth-first post-order, like {@link AcyclicDepthFirstPostOrderTraversal}.
+   *
+   * @throws CycleException if a cycle is reachable from the given nodes.
+   */
+  public ImmutableList<T> depthFirstPostOrder(Iterable<? extends T> roots) throws CycleException {
+    int nodeCount = nodes.size();
+    BitSet visited = new BitSet(nodeCount);
+    BitSet onStack = new BitSet(nodeCount);
+    // The path from the current root, and for each node on it, the next of its edges to follow.
+    int[] stack = new int[nodeCount];
+    int[] nextEdges = new int[nodeCount];
+    ImmutableList.Builder<T> result = ImmutableList.builder();
+    for (T root : roots) {
+      int rootIndex = getIndex(root);
+      if (visited.get(rootIndex)) {
+        continue;
+      }
+      int depth = 0;
+      stack[0] = rootIndex;
+      nextEdges[0] = outgoingOffsets[rootIndex];
+      visited.set(rootIndex);
+      onStack.set(rootIndex);
+      while (depth >= 0) {
+        int node = stack[depth];
+        if (nextEdges[depth] < outgoingOffsets[node + 1]) {
+          int child = outgoingEdges[nextEdges[depth]++];
+          if (onStack.get(child)) {
+            throw new CycleException(getCycle(stack, depth, child));
+          }
+          if (!visited.get(child)) {
+            depth++;
+            stack[depth] = child;
+            nextEdges[depth] = outgoingOffsets[child];
+            visited.set(child);
+            onStack.set(child);
+          }
+        } else {
+          result.add(nodes.get(node));
+          onStack.clear(node);
+          depth--;
+        }
+      }
+    }
+    return result.build();
+  }
+
+  private List<T> getCycle(int[] stack, int depth, int repeatedNode) {
+    int start = depth;
+    while (stack[start] != repeatedNode) {
+      start--;
+    }
+    List<T> cycle = new ArrayList<>();
+    for (int i = start; i <= depth; i++) {
+      cycle.add(nodes.get(stack[i]));
+    }
+    cycle.add(nodes.get(repeatedNode));
+    return cycle;
+  }
+
+  /**
+   * Returns the given nodes and the nodes they have paths to, in breadth-first order, i.e. their
+   * transitive dependencies when edges go from dependents to dependencies.
+   */
+  public ImmutableSet<T> getTransitiveOutgoingNodes(Iterable<? extends T> roots) {
+    return getReachableNodes(roots, outgoingOffsets, outgoingEdges);
+  }
+
+  /**
+   * Returns the given nodes and the nodes which have paths to them, in breadth-first order, i.e.
+   * their transitive dependents when edges go from dependents to dependencies.
+   */
+  public ImmutableSet<T> getTransitiveIncomingNodes(Iterable<? extends T> roots) {
+    return getReachableNodes(roots, incomingOffsets, incomingEdges);
+  }
+
+  private ImmutableSet<T> getReachableNodes(
+      Iterable<? extends T> roots, int[] offsets, int[] edges) {
+    BitSet visited = new BitSet(nodes.size());
+    int[] queue = new int[nodes.size()];
+    int queueEnd = 0;
+    for (T root : roots) {
+      int index = getIndex(root);
+      if (!visited.get(index)) {
+        visited.set(index);
+        queue[queueEnd++] = index;
+      }
+    }
+    for (int head = 0; head < queueEnd; head++) {
+      int node = queue[head];
+      for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+        int next = edges[i];
+        if (!visited.get(next)) {
+          visited.set(next);
+          queue[queueEnd++] = next;
+        }
+      }
+    }
+    ImmutableSet.Builder<T> result = ImmutableSet.builderWithExpectedSize(queueEnd);
+    for (int i = 0; i < queueEnd; i++) {
+      result.add(nodes.get(queue[i]));
+    }
+    return result.build();
+  }
+
+  @Override
+  public Iterable<T> getNodesWithNoIncomingEdges() {
+    return nodesWhere(node -> getInDegree(node) == 0);
+  }
+
+  @Override
+  public Iterable<T> getNodesWithNoOutgoingEdges() {
+    return nodesWhere(node -> getOutDegree(node) == 0);
+  }
+
+  @Override
+  public List<T> getIncomingNodesFor(T sink) {
+    int index = getIndex(sink);
+    return new NeighborList(incomingEdges, incomingOffsets[index], incomingOffsets[index + 1]);
+  }
+
+  @Override
+  public List<T> getOutgoingNodesFor(T source) {
+    int index = getIndex(source);
+    return new NeighborList(outgoingEdges, outgoingOffsets[index], outgoingOffsets[index + 1]);
+  }
+
+  @Override
+  public ImmutableList<T> getNodes() {
+    return nodes;
+  }
+
+  /** @return the nodes of the graph, in the order of their indices. */
+  public ImmutableSet<T> getNodeSet() {
+    return indices.keySet();
+  }
+
+  private ImmutableList<T> nodesWhere(IntPredicate predicate) {
+    return IntStream.range(0, nodes.size())
+        .filter(predicate)
+        .mapToObj(nodes::get)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /** An unmodifiable view of a slice of an edge array. */
+  private class NeighborList extends AbstractList<T> {
+    private final int[] edges;
+    private final int start;
+    private final int end;
+
+    private NeighborList(int[] edges, int start, int end) {
+      this.edges = edges;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public T get(int index) {
+      Preconditions.checkElementIndex(index, size());
+      return nodes.get(edges[start + index]);
+    }
+
+    @Override
+    public int size() {
+      return end - start;
+    }
+  }
+}
@@ -25,7 +25,6 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -44,13 +43,13 @@ public class TopologicalSort {
 
   /** Returns a topologically sorted list of the nodes in the graph. */
   public static <T> ImmutableList<T> sort(TraversableGraph<T> graph) {
-    return sortImpl(graph, LinkedHashSet::new);
+    return IndexedDirectedGraph.copyOf(graph).topologicalSort();
   }
 
   /** Returns a topologically sorted list of all nodes in the graph. */
   public static <T> ImmutableList<? extends T> sort(
       Iterable<? extends T> roots, Traversable<T> traversable) {
-    return sortTraversableImpl(roots, traversable, LinkedHashSet::new);
+    return IndexedDirectedGraph.copyOf(buildGraph(roots, traversable)).topologicalSort();
   }
 
   /**
@@ -68,11 +67,11 @@ public class TopologicalSort {
   @Deprecated
   public static <T> ImmutableList<? extends T> snowflakeSort(
       Iterable<? extends T> roots, Traversable<T> traversable, Comparator<T> comparator) {
-    return sortTraversableImpl(roots, traversable, () -> new TreeSet<>(comparator));
+    return sortImpl(buildGraph(roots, traversable), () -> new TreeSet<>(comparator));
   }
 
-  private static <T> ImmutableList<? extends T> sortTraversableImpl(
-      Iterable<? extends T> roots, Traversable<T> traversable, Supplier<Set<T>> levelSetFactory) {
+  private static <T> MutableDirectedGraph<T> buildGraph(
+      Iterable<? extends T> roots, Traversable<T> traversable) {
     MutableDirectedGraph<T> graph = new MutableDirectedGraph<>();
     AbstractBreadthFirstTraversal<T> visitor =
         new AbstractBreadthFirstTraversal<T>(roots) {
@@ -93,7 +92,7 @@ public class TopologicalSort {
           }
         };
     visitor.start();
-    return sortImpl(graph, levelSetFactory);
+    return graph;
   }
 
   // TODO(cjhopman): The implementations here aren't great and should be improved and migrated to
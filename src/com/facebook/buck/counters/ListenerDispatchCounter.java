@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.counters;
+
+import com.facebook.buck.event.DefaultBuckEventBus;
+import com.facebook.buck.event.DefaultBuckEventBus.ListenerDispatchStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports how each listener of a {@link DefaultBuckEventBus} keeps up with the events posted to it,
+ * when listeners are given their own delivery thread. Values are keyed by listener name.
+ */
+public class ListenerDispatchCounter extends Counter {
+
+  private final DefaultBuckEventBus eventBus;
+
+  public ListenerDispatchCounter(DefaultBuckEventBus eventBus) {
+    super("buck_event_bus", "listener_dispatch", ImmutableMap.of());
+    this.eventBus = eventBus;
+  }
+
+  @Override
+  public Optional<CounterSnapshot> flush() {
+    ImmutableList<ListenerDispatchStats> allStats = eventBus.flushListenerDispatchStats();
+    if (allStats.isEmpty()) {
+      return Optional.empty();
+    }
+    CounterSnapshot.Builder snapshot = CounterSnapshot.builderForCounter(this);
+    for (ListenerDispatchStats stats : allStats) {
+      String prefix = stats.getListenerName() + "_";
+      snapshot.putValues(prefix + "queue_depth", stats.getQueueDepth());
+      snapshot.putValues(prefix + "queue_depth_max", stats.getMaxQueueDepth());
+      snapshot.putValues(prefix + "delivered", stats.getDeliveredEvents());
+      snapshot.putValues(prefix + "dropped", stats.getDroppedEvents());
+      snapshot.putValues(prefix + "overflowed", stats.getOverflowedEvents());
+      snapshot.putValues(prefix + "throttled", stats.getThrottledEvents());
+      snapshot.putValues(prefix + "coalesced", stats.getCoalescedEvents());
+      snapshot.putValues(
+          prefix + "latency_avg_us",
+          TimeUnit.NANOSECONDS.toMicros(stats.getAverageLatencyNanos()));
+      snapshot.putValues(
+          prefix + "latency_max_us", TimeUnit.NANOSECONDS.toMicros(stats.getMaxLatencyNanos()));
+    }
+    return Optional.of(snapshot.build());
+  }
+}
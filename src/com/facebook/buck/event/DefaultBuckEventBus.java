@@ -17,6 +17,7 @@
 package com.facebook.buck.event;
 
 import com.facebook.buck.core.model.BuildId;
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.log.GlobalStateManager;
 import com.facebook.buck.util.Threads;
@@ -26,13 +27,26 @@ import com.facebook.buck.util.timing.Clock;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
-/** Thin wrapper around guava event bus. */
+/**
+ * Thin wrapper around guava event bus.
+ *
+ * <p>By default, events are delivered to all listeners by a single thread, in the order they were
+ * posted. When created with a listener queue capacity, each listener instead gets its own queue and
+ * delivery thread (see {@link ListenerEventQueue}): listeners still see events in the order they
+ * were posted, but a slow listener no longer delays the delivery of events to the others.
+ */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
 
   private static final Logger LOG = Logger.get(BuckEventBus.class);
@@ -49,6 +63,11 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
 
+  // Only present when each listener gets its own delivery thread.
+  private final Optional<Integer> listenerQueueCapacity;
+  private final List<ListenerEventQueue> listenerQueues = new CopyOnWriteArrayList<>();
+  private final Map<String, Integer> listenerNameCounts = new HashMap<>();
+
   // synchronization variables to ensure proper shutdown
   private volatile int activeTasks = 0;
   private final Object lock = new Object();
@@ -75,15 +94,47 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, BuildId buildId, int shutdownTimeoutMillis, ExecutorService executorService) {
+    this(clock, buildId, shutdownTimeoutMillis, executorService, Optional.empty());
+  }
+
+  /**
+   * Creates an event bus which delivers events to each listener on a dedicated thread.
+   *
+   * @param listenerQueueCapacity the number of undelivered events after which progress events are
+   *     dropped for a listener
+   */
+  public DefaultBuckEventBus(
+      Clock clock, BuildId buildId, int shutdownTimeoutMillis, int listenerQueueCapacity) {
+    this(
+        clock,
+        buildId,
+        shutdownTimeoutMillis,
+        MoreExecutors.newDirectExecutorService(),
+        Optional.of(listenerQueueCapacity));
+  }
+
+  private DefaultBuckEventBus(
+      Clock clock,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      ExecutorService executorService,
+      Optional<Integer> listenerQueueCapacity) {
+    Preconditions.checkArgument(listenerQueueCapacity.orElse(1) > 0);
     this.clock = clock;
     this.executorService = executorService;
     this.eventBus = new EventBus("buck-build-events");
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.listenerQueueCapacity = listenerQueueCapacity;
   }
 
   private void dispatch(BuckEvent event) {
+    if (listenerQueueCapacity.isPresent()) {
+      dispatchToListenerQueues(event);
+      return;
+    }
+
     // keep track the number of active tasks so we can do proper shutdown
     synchronized (lock) {
       activeTasks++;
@@ -104,6 +155,25 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
         });
   }
 
+  private void dispatchToListenerQueues(BuckEvent event) {
+    for (ListenerEventQueue queue : listenerQueues) {
+      // count the delivery before queueing so that waitEvents can't miss it
+      synchronized (lock) {
+        activeTasks++;
+      }
+      if (!queue.offer(event)) {
+        onDeliveryFinished();
+      }
+    }
+  }
+
+  private void onDeliveryFinished() {
+    synchronized (lock) {
+      activeTasks--;
+      lock.notifyAll();
+    }
+  }
+
   @Override
   public void post(BuckEvent event) {
     timestamp(event);
@@ -124,12 +194,91 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   @Override
   public void register(Object object) {
-    eventBus.register(object);
+    if (!listenerQueueCapacity.isPresent()) {
+      eventBus.register(object);
+      return;
+    }
+    String name = getListenerName(object);
+    listenerQueues.add(
+        new ListenerEventQueue(
+            name,
+            object,
+            listenerQueueCapacity.get(),
+            new CommandThreadFactory(
+                BuckEventBus.class.getSimpleName() + "-" + name,
+                GlobalStateManager.singleton().getThreadToCommandRegister()),
+            this::onDeliveryFinished));
   }
 
   @Override
   public void unregister(Object object) {
-    eventBus.unregister(object);
+    if (!listenerQueueCapacity.isPresent()) {
+      eventBus.unregister(object);
+      return;
+    }
+    for (ListenerEventQueue queue : listenerQueues) {
+      if (queue.getListener() == object) {
+        listenerQueues.remove(queue);
+        queue.close();
+        return;
+      }
+    }
+    throw new IllegalArgumentException(
+        "missing event subscriber for an annotated method. Is " + object + " registered?");
+  }
+
+  private String getListenerName(Object listener) {
+    String name = listener.getClass().getSimpleName();
+    if (name.isEmpty()) {
+      name = listener.getClass().getName();
+    }
+    synchronized (listenerNameCounts) {
+      int count = listenerNameCounts.merge(name, 1, Integer::sum);
+      return count == 1 ? name : name + "_" + count;
+    }
+  }
+
+  /**
+   * @return the dispatch stats of each listener since the previous call, or nothing if events are
+   *     not delivered by a dedicated thread per listener.
+   */
+  public ImmutableList<ListenerDispatchStats> flushListenerDispatchStats() {
+    return listenerQueues.stream()
+        .map(ListenerEventQueue::flushStats)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /** Dispatch stats of a listener over a period of time. */
+  @BuckStyleValue
+  public interface ListenerDispatchStats {
+    String getListenerName();
+
+    /** Number of events waiting for delivery at the end of the period. */
+    long getQueueDepth();
+
+    long getMaxQueueDepth();
+
+    long getDeliveredEvents();
+
+    /**
+     * Events dropped because the queue of the listener was full: progress events past its
+     * capacity, and other events once its overflow is exhausted and the listener doesn't catch up.
+     */
+    long getDroppedEvents();
+
+    /** Other events queued past the capacity of the queue of the listener. */
+    long getOverflowedEvents();
+
+    /** Events whose posting waited for the listener to make room in its queue. */
+    long getThrottledEvents();
+
+    /** Progress events replaced by a newer one before being delivered. */
+    long getCoalescedEvents();
+
+    /** Average time between an event being posted and the listener being done with it. */
+    long getAverageLatencyNanos();
+
+    long getMaxLatencyNanos();
   }
 
   @Override
@@ -172,6 +321,11 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     // which immediately stops accepting new tasks, that's why we have some wrapper on top of it
     waitEvents(shutdownTimeoutMillis);
 
+    if (listenerQueueCapacity.isPresent()) {
+      closeListenerQueues(timeoutTime);
+      return;
+    }
+
     executorService.shutdown();
     try {
       long waitTime = timeoutTime - System.currentTimeMillis();
@@ -190,6 +344,32 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     }
   }
 
+  private void closeListenerQueues(long timeoutTime) {
+    boolean allDelivered;
+    synchronized (lock) {
+      allDelivered = activeTasks == 0;
+    }
+    for (ListenerEventQueue queue : listenerQueues) {
+      queue.close();
+    }
+    try {
+      for (ListenerEventQueue queue : listenerQueues) {
+        queue.awaitTermination(timeoutTime - System.currentTimeMillis());
+      }
+    } catch (InterruptedException e) {
+      Threads.interruptCurrentThread();
+    }
+    if (!allDelivered) {
+      LOG.warn(
+          Joiner.on(System.lineSeparator())
+              .join(
+                  "The BuckEventBus failed to shut down within the standard timeout.",
+                  "Your build might have succeeded, but some messages were probably lost.",
+                  "Here's some debugging information:",
+                  listenerQueues.toString()));
+    }
+  }
+
   @Override
   public boolean waitEvents(long timeout) {
     long startWaitTime = System.nanoTime();
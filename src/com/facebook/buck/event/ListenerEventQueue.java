@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.Threads;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the events posted to a {@link DefaultBuckEventBus} to a single listener, on a thread
+ * dedicated to that listener, so that a slow listener only delays the delivery of its own events.
+ *
+ * <p>A {@link ProgressEvent} replaces the undelivered progress event of the same type, if any,
+ * since listeners only care about the latest progress. Once {@code capacity} events are queued,
+ * progress events are dropped, and other events overflow the capacity rather than being lost. The
+ * overflow is bounded: once {@link #OVERFLOW_FACTOR} times {@code capacity} events are queued,
+ * posting an event waits for the listener to catch up, and the event is dropped if the listener
+ * doesn't make room within {@link #MAX_POST_WAIT_MILLIS}. Until it does, further events are dropped
+ * without waiting, so that a stuck listener doesn't slow down the build. Dropped, overflowing and
+ * throttled events are reported in the dispatch stats, so that listeners which can't keep up are
+ * visible.
+ */
+class ListenerEventQueue {
+
+  private static final Logger LOG = Logger.get(ListenerEventQueue.class);
+
+  static final int OVERFLOW_FACTOR = 8;
+  static final long MAX_POST_WAIT_MILLIS = 1000;
+
+  private final String name;
+  private final Object listener;
+  private final EventBus eventBus;
+  private final int capacity;
+  private final int maxQueuedEvents;
+  private final DeliveryCallback callback;
+  private final Set<Class<?>> subscribedTypes;
+  private final Map<Class<?>, Boolean> acceptedTypes = new ConcurrentHashMap<>();
+  private final Thread thread;
+
+  // Guarded by this.
+  private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+  private final Map<Class<?>, Entry> pendingProgressEntries = new HashMap<>();
+  private boolean closed = false;
+  // Set when an event was dropped because the queue was full, until the listener makes room.
+  private boolean stalled = false;
+  private long maxQueueDepth = 0;
+  private long deliveredEvents = 0;
+  private long droppedEvents = 0;
+  private long overflowedEvents = 0;
+  private long throttledEvents = 0;
+  private long coalescedEvents = 0;
+  private long totalLatencyNanos = 0;
+  private long maxLatencyNanos = 0;
+
+  /** Notified once the delivery of an event accepted by {@link #offer} is over. */
+  interface DeliveryCallback {
+    void onDeliveryFinished();
+  }
+
+  ListenerEventQueue(
+      String name,
+      Object listener,
+      int capacity,
+      ThreadFactory threadFactory,
+      DeliveryCallback callback) {
+    this.name = name;
+    this.listener = listener;
+    this.eventBus = new EventBus(name);
+    this.eventBus.register(listener);
+    this.capacity = capacity;
+    this.maxQueuedEvents = (int) Math.min(Integer.MAX_VALUE, (long) capacity * OVERFLOW_FACTOR);
+    this.callback = callback;
+    this.subscribedTypes = getSubscribedTypes(listener.getClass());
+    this.thread = threadFactory.newThread(this::deliverEvents);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  String getName() {
+    return name;
+  }
+
+  Object getListener() {
+    return listener;
+  }
+
+  /**
+   * Queues an event for delivery, waiting for the listener to make room if its queue is full.
+   *
+   * @return whether {@link DeliveryCallback#onDeliveryFinished()} will be called for this event,
+   *     which is not the case for events that the listener doesn't subscribe to, or that are
+   *     dropped or coalesced.
+   */
+  boolean offer(BuckEvent event) {
+    if (!accepts(event.getClass())) {
+      return false;
+    }
+    long enqueuedNanos = System.nanoTime();
+    boolean isProgressEvent = event instanceof ProgressEvent;
+    synchronized (this) {
+      if (isProgressEvent) {
+        Entry pending = pendingProgressEntries.get(event.getClass());
+        if (pending != null) {
+          pending.event = event;
+          coalescedEvents++;
+          return false;
+        }
+      }
+      if (closed) {
+        return false;
+      }
+      if (entries.size() >= capacity) {
+        if (isProgressEvent) {
+          droppedEvents++;
+          return false;
+        }
+        if (entries.size() >= maxQueuedEvents && !awaitRoom()) {
+          droppedEvents++;
+          return false;
+        }
+        if (entries.size() == capacity) {
+          LOG.debug("Listener %s is falling behind, queueing events past its capacity.", name);
+        }
+        overflowedEvents++;
+      }
+      Entry entry = new Entry(event, enqueuedNanos);
+      entries.add(entry);
+      if (isProgressEvent) {
+        pendingProgressEntries.put(event.getClass(), entry);
+      }
+      maxQueueDepth = Math.max(maxQueueDepth, entries.size());
+      notifyAll();
+      return true;
+    }
+  }
+
+  /**
+   * Waits for the listener to make room in its full queue, unless it is already known to be stuck,
+   * or this is the delivery thread of the listener posting an event.
+   *
+   * @return whether there is room for another event
+   */
+  private boolean awaitRoom() {
+    if (stalled || Thread.currentThread() == thread) {
+      return false;
+    }
+    throttledEvents++;
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_POST_WAIT_MILLIS);
+    try {
+      while (entries.size() >= maxQueuedEvents && !closed) {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+          LOG.warn("Listener %s is not keeping up, dropping events until it catches up.", name);
+          stalled = true;
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+      }
+    } catch (InterruptedException e) {
+      Threads.interruptCurrentThread();
+      return false;
+    }
+    return !closed;
+  }
+
+  /** @return the stats of this queue since the previous call, and resets them. */
+  synchronized DefaultBuckEventBus.ListenerDispatchStats flushStats() {
+    DefaultBuckEventBus.ListenerDispatchStats stats =
+        ImmutableListenerDispatchStats.of(
+            name,
+            entries.size(),
+            maxQueueDepth,
+            deliveredEvents,
+            droppedEvents,
+            overflowedEvents,
+            throttledEvents,
+            coalescedEvents,
+            deliveredEvents == 0 ? 0 : totalLatencyNanos / deliveredEvents,
+            maxLatencyNanos);
+    maxQueueDepth = entries.size();
+    deliveredEvents = 0;
+    droppedEvents = 0;
+    overflowedEvents = 0;
+    throttledEvents = 0;
+    coalescedEvents = 0;
+    totalLatencyNanos = 0;
+    maxLatencyNanos = 0;
+    return stats;
+  }
+
+  /**
+   * Stops delivering events. Events which are still queued are discarded, and their delivery
+   * callback is called.
+   */
+  void close() {
+    int discarded;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      discarded = entries.size();
+      entries.clear();
+      pendingProgressEntries.clear();
+      notifyAll();
+    }
+    for (int i = 0; i < discarded; i++) {
+      callback.onDeliveryFinished();
+    }
+  }
+
+  /** Waits for the delivery thread to exit after {@link #close()}. */
+  void awaitTermination(long timeoutMillis) throws InterruptedException {
+    thread.join(Math.max(1, timeoutMillis));
+  }
+
+  @Override
+  public String toString() {
+    synchronized (this) {
+      return String.format("%s (%d queued events)", name, entries.size());
+    }
+  }
+
+  private void deliverEvents() {
+    try {
+      while (true) {
+        Entry entry;
+        synchronized (this) {
+          while (entries.isEmpty() && !closed) {
+            wait();
+          }
+          if (closed) {
+            return;
+          }
+          if (entries.size() == maxQueuedEvents) {
+            // Wake up the posters waiting for room.
+            stalled = false;
+            notifyAll();
+          }
+          entry = entries.poll();
+          if (entry.event instanceof ProgressEvent) {
+            pendingProgressEntries.remove(entry.event.getClass(), entry);
+          }
+        }
+        try {
+          eventBus.post(entry.event);
+        } finally {
+          long latencyNanos = System.nanoTime() - entry.enqueuedNanos;
+          synchronized (this) {
+            deliveredEvents++;
+            totalLatencyNanos += latencyNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+          }
+          callback.onDeliveryFinished();
+        }
+      }
+    } catch (InterruptedException e) {
+      Threads.interruptCurrentThread();
+    } finally {
+      // Either closed, or the listener threw an Error: nothing else will be delivered.
+      close();
+    }
+  }
+
+  private boolean accepts(Class<?> eventType) {
+    return acceptedTypes.computeIfAbsent(
+        eventType,
+        type -> {
+          for (Class<?> subscribedType : subscribedTypes) {
+            if (subscribedType.isAssignableFrom(type)) {
+              return true;
+            }
+          }
+          return false;
+        });
+  }
+
+  /** Mirrors the lookup of subscriber methods done by guava's {@link EventBus}. */
+  private static Set<Class<?>> getSubscribedTypes(Class<?> listenerType) {
+    Set<Class<?>> types = new HashSet<>();
+    for (Class<?> type : TypeToken.of(listenerType).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class)
+            && !method.isSynthetic()
+            && method.getParameterCount() == 1) {
+          types.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return types;
+  }
+
+  private static class Entry {
+    private BuckEvent event;
+    private final long enqueuedNanos;
+
+    private Entry(BuckEvent event, long enqueuedNanos) {
+      this.event = event;
+      this.enqueuedNanos = enqueuedNanos;
+    }
+  }
+}
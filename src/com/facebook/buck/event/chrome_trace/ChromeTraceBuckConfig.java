@@ -21,10 +21,12 @@ import static java.lang.Integer.parseInt;
 import com.facebook.buck.artifact_cache.config.ArtifactCacheBuckConfig;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.ConfigView;
+import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.event.LogUploadMode;
 import com.facebook.buck.util.environment.NetworkInfo;
 import java.net.URI;
 import java.util.Optional;
+import java.util.zip.Deflater;
 
 public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
   private static final String DEFAULT_MAX_TRACES = "25";
@@ -55,6 +57,26 @@ public class ChromeTraceBuckConfig implements ConfigView<BuckConfig> {
     return delegate.getBooleanValue(LOG_SECTION, "compress_traces", false);
   }
 
+  /** @return the {@link Deflater} level used to compress traces. */
+  public int getCompressTracesLevel() {
+    int level =
+        delegate.getInteger(LOG_SECTION, "compress_traces_level").orElse(Deflater.BEST_COMPRESSION);
+    if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+      throw new HumanReadableException(
+          "%s.compress_traces_level must be between %d and %d, got %d",
+          LOG_SECTION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION, level);
+    }
+    return level;
+  }
+
+  /**
+   * @return whether traces are written with {@link StreamingChromeTraceWriter} rather than through
+   *     Jackson's bean serialization
+   */
+  public boolean isStreamingTraceWriterEnabled() {
+    return delegate.getBooleanValue(LOG_SECTION, "streaming_trace_writer", false);
+  }
+
   /** Get URL to upload trace if the config is enabled. */
   public Optional<URI> getTraceUploadUriIfEnabled() {
     if (!getShouldUploadBuildTraces()) {
@@ -16,34 +16,85 @@
 
 package com.facebook.buck.event.chrome_trace;
 
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CountingOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Type-safe utility to write Chrome trace events to files.
  *
+ * <p>The writer keeps track of the time it spends writing events, which can be added to the trace
+ * with {@link #writeOverheadEvent()}. It is not thread safe.
+ *
  * @see ChromeTraceEvent
  */
 public class ChromeTraceWriter implements AutoCloseable {
   private final JsonGenerator jsonGenerator;
+  private final Optional<CountingOutputStream> countingStream;
+  private long eventsWritten = 0;
+  private long writeNanos = 0;
 
   /** Create a writer backed by specified output stream. */
   public ChromeTraceWriter(OutputStream traceStream) throws IOException {
-    this(ObjectMappers.createGenerator(traceStream));
+    this(new CountingOutputStream(traceStream));
+  }
+
+  private ChromeTraceWriter(CountingOutputStream countingStream) throws IOException {
+    this(ObjectMappers.createGenerator(countingStream), Optional.of(countingStream));
   }
 
   /** Create a writer backed by specified json generator. */
   public ChromeTraceWriter(JsonGenerator jsonGenerator) {
+    this(jsonGenerator, Optional.empty());
+  }
+
+  private ChromeTraceWriter(
+      JsonGenerator jsonGenerator, Optional<CountingOutputStream> countingStream) {
     this.jsonGenerator = jsonGenerator;
+    this.countingStream = countingStream;
   }
 
   /** Write single event. */
   public void writeEvent(ChromeTraceEvent chromeTraceEvent) throws IOException {
+    long startNanos = System.nanoTime();
+    serialize(chromeTraceEvent);
+    writeNanos += System.nanoTime() - startNanos;
+    eventsWritten++;
+  }
+
+  protected void serialize(ChromeTraceEvent chromeTraceEvent) throws IOException {
     ObjectMappers.WRITER.writeValue(jsonGenerator, chromeTraceEvent);
   }
 
+  protected JsonGenerator getJsonGenerator() {
+    return jsonGenerator;
+  }
+
+  /**
+   * Write a metadata event with the number of events written so far, the time spent writing them,
+   * including the time spent compressing them if the trace stream does, and the number of bytes
+   * written before compression.
+   */
+  public void writeOverheadEvent() throws IOException {
+    ImmutableMap.Builder<String, Object> args =
+        ImmutableMap.<String, Object>builder()
+            .put("events", eventsWritten)
+            .put("write_millis", TimeUnit.NANOSECONDS.toMillis(writeNanos));
+    if (countingStream.isPresent()) {
+      jsonGenerator.flush();
+      args.put("bytes", countingStream.get().getCount());
+    }
+    writeEvent(
+        new ChromeTraceEvent(
+            "buck", "trace_writer_overhead", Phase.METADATA, 0, 0, 0, 0, args.build()));
+  }
+
   /** Must be called prior to emitting first event to properly initialize stream. */
   public void writeStart() throws IOException {
     jsonGenerator.writeStartArray();
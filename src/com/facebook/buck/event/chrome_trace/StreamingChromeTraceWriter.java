@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.event.chrome_trace;
+
+import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * {@link ChromeTraceWriter} which writes events field by field instead of going through Jackson's
+ * bean serialization. Field names and phases are encoded once, and argument values which are
+ * strings, numbers or booleans are written directly. The output is the same as the one of {@link
+ * ChromeTraceWriter}.
+ */
+public class StreamingChromeTraceWriter extends ChromeTraceWriter {
+
+  private static final SerializableString CATEGORY = new SerializedString("cat");
+  private static final SerializableString NAME = new SerializedString("name");
+  private static final SerializableString PHASE = new SerializedString("ph");
+  private static final SerializableString PROCESS_ID = new SerializedString("pid");
+  private static final SerializableString THREAD_ID = new SerializedString("tid");
+  private static final SerializableString MICRO_TIME = new SerializedString("ts");
+  private static final SerializableString MICRO_THREAD_USER_TIME = new SerializedString("tts");
+  private static final SerializableString ARGS = new SerializedString("args");
+
+  private static final Map<Phase, SerializableString> PHASES = new EnumMap<>(Phase.class);
+
+  static {
+    for (Phase phase : Phase.values()) {
+      PHASES.put(phase, new SerializedString(phase.getPhase()));
+    }
+  }
+
+  public StreamingChromeTraceWriter(OutputStream traceStream) throws IOException {
+    super(traceStream);
+  }
+
+  @Override
+  protected void serialize(ChromeTraceEvent chromeTraceEvent) throws IOException {
+    JsonGenerator generator = getJsonGenerator();
+    generator.writeStartObject();
+    if (chromeTraceEvent.getCategory() != null) {
+      generator.writeFieldName(CATEGORY);
+      generator.writeString(chromeTraceEvent.getCategory());
+    }
+    if (chromeTraceEvent.getName() != null) {
+      generator.writeFieldName(NAME);
+      generator.writeString(chromeTraceEvent.getName());
+    }
+    if (chromeTraceEvent.getPhase() != null) {
+      generator.writeFieldName(PHASE);
+      generator.writeString(PHASES.get(chromeTraceEvent.getPhase()));
+    }
+    generator.writeFieldName(PROCESS_ID);
+    generator.writeNumber(chromeTraceEvent.getProcessId());
+    generator.writeFieldName(THREAD_ID);
+    generator.writeNumber(chromeTraceEvent.getThreadId());
+    generator.writeFieldName(MICRO_TIME);
+    generator.writeNumber(chromeTraceEvent.getMicroTime());
+    generator.writeFieldName(MICRO_THREAD_USER_TIME);
+    generator.writeNumber(chromeTraceEvent.getMicroThreadUserTime());
+    ImmutableMap<String, ? extends Object> args = chromeTraceEvent.getArgs();
+    if (args != null) {
+      generator.writeFieldName(ARGS);
+      generator.writeStartObject();
+      for (Map.Entry<String, ? extends Object> arg : args.entrySet()) {
+        generator.writeFieldName(arg.getKey());
+        writeValue(generator, arg.getValue());
+      }
+      generator.writeEndObject();
+    }
+    generator.writeEndObject();
+  }
+
+  private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+    if (value instanceof String) {
+      generator.writeString((String) value);
+    } else if (value instanceof Integer) {
+      generator.writeNumber((Integer) value);
+    } else if (value instanceof Long) {
+      generator.writeNumber((Long) value);
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean((Boolean) value);
+    } else {
+      // Everything else goes through the ObjectMapper, like ChromeTraceWriter does.
+      generator.writeObject(value);
+    }
+  }
+}
@@ -45,6 +45,7 @@ import com.facebook.buck.event.chrome_trace.ChromeTraceBuckConfig;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent;
 import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
 import com.facebook.buck.event.chrome_trace.ChromeTraceWriter;
+import com.facebook.buck.event.chrome_trace.StreamingChromeTraceWriter;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.jvm.java.AnnotationProcessingEvent;
 import com.facebook.buck.jvm.java.tracing.JavacPhaseEvent;
@@ -69,7 +70,7 @@ import com.facebook.buck.util.perf.PerfStatsTracking;
 import com.facebook.buck.util.perf.ProcessTracker;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.util.unit.SizeUnit;
-import com.facebook.buck.util.zip.BestCompressionGZIPOutputStream;
+import com.facebook.buck.util.zip.ConfigurableLevelGZIPOutputStream;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.Joiner;
@@ -196,7 +197,10 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     TracePathAndStream tracePathAndStream = createPathAndStream(invocationInfo.getBuildId());
     this.tracePath = tracePathAndStream.getPath();
     this.traceStream = tracePathAndStream.getStream();
-    this.chromeTraceWriter = new ChromeTraceWriter(this.traceStream);
+    this.chromeTraceWriter =
+        config.isStreamingTraceWriterEnabled()
+            ? new StreamingChromeTraceWriter(this.traceStream)
+            : new ChromeTraceWriter(this.traceStream);
     this.chromeTraceWriter.writeStart();
     addProcessMetadataEvent(invocationInfo);
     addProjectFilesystemDelegateMetadataEvent(projectFilesystem);
@@ -242,7 +246,8 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       projectFilesystem.createParentDirs(tracePath);
       OutputStream stream = projectFilesystem.newFileOutputStream(tracePath);
       if (config.getCompressTraces()) {
-        stream = new BestCompressionGZIPOutputStream(stream, true);
+        stream =
+            new ConfigurableLevelGZIPOutputStream(stream, true, config.getCompressTracesLevel());
       }
       return new TracePathAndStream(tracePath, stream);
     } catch (IOException e) {
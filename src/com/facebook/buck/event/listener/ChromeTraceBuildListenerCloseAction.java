@@ -128,6 +128,9 @@ class ChromeTraceBuildListenerCloseAction implements TaskAction<ChromeTraceBuild
       Threads.interruptCurrentThread();
     }
 
+    if (args.getConfig().isStreamingTraceWriterEnabled()) {
+      args.getChromeTraceWriter().writeOverheadEvent();
+    }
     args.getChromeTraceWriter().writeEnd();
     args.getChromeTraceWriter().close();
     args.getTraceStream().close();
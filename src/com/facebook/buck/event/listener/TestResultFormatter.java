@@ -138,7 +138,7 @@ public class TestResultFormatter {
 
       String oneLineSummary =
           testCase.getOneLineSummary(locale, results.getDependenciesPassTheirTests(), ansi);
-      addTo.add(oneLineSummary);
+      addTo.add(results.isCached() ? oneLineSummary + " (cached)" : oneLineSummary);
 
       // Don't print the full error if there were no failures (so only successes and assumption
       // violations)
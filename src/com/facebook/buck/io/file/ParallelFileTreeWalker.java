@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.io.file;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import javax.annotation.Nullable;
+
+/**
+ * Walks file trees like {@link Files#walkFileTree}, but lists directories and reads the attributes
+ * of their entries in parallel, on a {@link ForkJoinPool}, which hides the latency of the file
+ * system on large trees and network file systems.
+ *
+ * <p>Directories are listed ahead of the visitor, which is still called on the walking thread, in
+ * a deterministic order: the entries of each directory are visited sorted by path, before its
+ * siblings that come after it. As a consequence, the visitor must not modify the tree being walked.
+ * Paths rejected by the filter are neither listed nor visited. Like {@code FileTreeWalker} in
+ * {@code DefaultProjectFilesystem}, it doesn't accept a depth limit.
+ */
+public class ParallelFileTreeWalker {
+
+  private static final Map<Integer, ParallelFileTreeWalker> SHARED_WALKERS =
+      new ConcurrentHashMap<>();
+
+  private final ForkJoinPool pool;
+
+  public ParallelFileTreeWalker(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * @return a walker which lists directories on a pool of {@code parallelism} threads, shared with
+   *     the other walkers of the same parallelism.
+   */
+  public static ParallelFileTreeWalker withParallelism(int parallelism) {
+    return SHARED_WALKERS.computeIfAbsent(
+        parallelism,
+        threads ->
+            new ParallelFileTreeWalker(
+                new ForkJoinPool(
+                    threads,
+                    pool -> {
+                      ForkJoinWorkerThread thread =
+                          ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                      thread.setName("file-tree-walker-" + thread.getPoolIndex());
+                      return thread;
+                    },
+                    null,
+                    false)));
+  }
+
+  public int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /** Walks the tree rooted at {@code root}, which is visited even if the filter rejects it. */
+  public void walk(
+      Path root,
+      Set<FileVisitOption> options,
+      FileVisitor<Path> visitor,
+      DirectoryStream.Filter<? super Path> filter)
+      throws IOException {
+    new Walk(options.contains(FileVisitOption.FOLLOW_LINKS), visitor, filter).run(root);
+  }
+
+  /** A path found while listing a directory, along with what is needed to visit it. */
+  private static class Entry {
+    private final Path path;
+    @Nullable private final BasicFileAttributes attrs;
+    @Nullable private final IOException error;
+    @Nullable private final Walk.ListingTask listing;
+
+    private Entry(
+        Path path,
+        @Nullable BasicFileAttributes attrs,
+        @Nullable IOException error,
+        @Nullable Walk.ListingTask listing) {
+      this.path = path;
+      this.attrs = attrs;
+      this.error = error;
+      this.listing = listing;
+    }
+  }
+
+  /** The entries of a directory, sorted by path, or the error which prevented listing it. */
+  private static class Listing {
+    private final ArrayDeque<Entry> entries;
+    @Nullable private final IOException error;
+
+    private Listing(ArrayDeque<Entry> entries, @Nullable IOException error) {
+      this.entries = entries;
+      this.error = error;
+    }
+  }
+
+  private class Walk {
+    private final boolean followLinks;
+    private final FileVisitor<Path> visitor;
+    private final DirectoryStream.Filter<? super Path> filter;
+    private volatile boolean finished = false;
+
+    private Walk(
+        boolean followLinks,
+        FileVisitor<Path> visitor,
+        DirectoryStream.Filter<? super Path> filter) {
+      this.followLinks = followLinks;
+      this.visitor = visitor;
+      this.filter = filter;
+    }
+
+    private void run(Path root) throws IOException {
+      try {
+        Entry rootEntry = newEntry(root, null);
+        ArrayDeque<DirState> state = new ArrayDeque<>();
+        FileVisitResult result = visitEntry(rootEntry, state);
+        while (!state.isEmpty() && result != FileVisitResult.TERMINATE) {
+          DirState dirState = state.getLast();
+          Entry entry = dirState.listing.entries.poll();
+          if (entry != null) {
+            result = visitEntry(entry, state);
+          } else {
+            state.removeLast();
+            result = visitor.postVisitDirectory(dirState.dir, dirState.listing.error);
+          }
+          Objects.requireNonNull(result, "FileVisitor returned a null FileVisitResult.");
+          if (result == FileVisitResult.SKIP_SIBLINGS && !state.isEmpty()) {
+            skipRemainingEntries(state.getLast().listing);
+          }
+        }
+      } finally {
+        // Stops the listing of the directories the visitor won't get to.
+        finished = true;
+      }
+    }
+
+    private FileVisitResult visitEntry(Entry entry, ArrayDeque<DirState> state)
+        throws IOException {
+      if (entry.error != null) {
+        return visitor.visitFileFailed(entry.path, entry.error);
+      }
+      BasicFileAttributes attrs = Objects.requireNonNull(entry.attrs);
+      if (!attrs.isDirectory()) {
+        return visitor.visitFile(entry.path, attrs);
+      }
+      ListingTask listing = Objects.requireNonNull(entry.listing);
+      FileVisitResult result = visitor.preVisitDirectory(entry.path, attrs);
+      if (result == FileVisitResult.CONTINUE) {
+        state.add(new DirState(entry.path, listing.join()));
+      } else {
+        listing.skipped = true;
+      }
+      return result;
+    }
+
+    private void skipRemainingEntries(Listing listing) {
+      for (Entry entry : listing.entries) {
+        if (entry.listing != null) {
+          entry.listing.skipped = true;
+        }
+      }
+      listing.entries.clear();
+    }
+
+    /** Reads the attributes of the path, and starts listing it if it is a directory. */
+    private Entry newEntry(Path path, @Nullable ListingTask parent) {
+      BasicFileAttributes attrs;
+      try {
+        attrs = getAttributes(path);
+        if (followLinks && attrs.isDirectory() && willLoop(path, attrs, parent)) {
+          throw new FileSystemLoopException(path.toString());
+        }
+      } catch (IOException e) {
+        return new Entry(path, null, e, null);
+      }
+      ListingTask listing = null;
+      if (attrs.isDirectory()) {
+        listing = new ListingTask(path, attrs, parent);
+        if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool) {
+          listing.fork();
+        } else {
+          pool.execute(listing);
+        }
+      }
+      return new Entry(path, attrs, null, listing);
+    }
+
+    private boolean willLoop(Path path, BasicFileAttributes attrs, @Nullable ListingTask parent) {
+      try {
+        Object thisKey = attrs.fileKey();
+        for (ListingTask ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+          Object thatKey = ancestor.attrs.fileKey();
+          if (thisKey != null && thatKey != null) {
+            if (thisKey.equals(thatKey)) {
+              return true;
+            }
+          } else if (Files.isSameFile(path, ancestor.dir)) {
+            return true;
+          }
+        }
+      } catch (IOException e) {
+        return true;
+      }
+      return false;
+    }
+
+    private BasicFileAttributes getAttributes(Path path) throws IOException {
+      if (!followLinks) {
+        return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      }
+      try {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+      } catch (IOException e) {
+        return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      }
+    }
+
+    /** Lists a directory, and forks the listing of its subdirectories. */
+    private class ListingTask extends RecursiveTask<Listing> {
+      private final Path dir;
+      private final BasicFileAttributes attrs;
+      @Nullable private final ListingTask parent;
+      private volatile boolean skipped = false;
+
+      private ListingTask(Path dir, BasicFileAttributes attrs, @Nullable ListingTask parent) {
+        this.dir = dir;
+        this.attrs = attrs;
+        this.parent = parent;
+      }
+
+      @Override
+      protected Listing compute() {
+        if (isSkipped()) {
+          return new Listing(new ArrayDeque<>(), null);
+        }
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, filter)) {
+          for (Path path : stream) {
+            paths.add(path);
+          }
+        } catch (IOException e) {
+          return new Listing(new ArrayDeque<>(), e);
+        } catch (DirectoryIteratorException e) {
+          return new Listing(new ArrayDeque<>(), e.getCause());
+        }
+        Collections.sort(paths);
+        ArrayDeque<Entry> entries = new ArrayDeque<>(paths.size());
+        for (Path path : paths) {
+          entries.add(newEntry(path, this));
+        }
+        return new Listing(entries, null);
+      }
+
+      private boolean isSkipped() {
+        if (finished) {
+          return true;
+        }
+        for (ListingTask task = this; task != null; task = task.parent) {
+          if (task.skipped) {
+            return true;
+          }
+        }
+        return false;
+      }
+    }
+  }
+
+  private static class DirState {
+    private final Path dir;
+    private final Listing listing;
+
+    private DirState(Path dir, Listing listing) {
+      this.dir = dir;
+      this.listing = listing;
+    }
+  }
+}
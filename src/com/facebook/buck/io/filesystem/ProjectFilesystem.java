@@ -17,6 +17,7 @@
 package com.facebook.buck.io.filesystem;
 
 import com.facebook.buck.core.path.ForwardRelativePath;
+import com.facebook.buck.io.file.ParallelFileTreeWalker;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
@@ -185,6 +186,14 @@ public interface ProjectFilesystem {
   void walkFileTree(Path root, Set<FileVisitOption> options, FileVisitor<Path> fileVisitor)
       throws IOException;
 
+  /**
+   * @return the walker used to list large trees in parallel, if this filesystem is configured to
+   *     use one.
+   */
+  default Optional<ParallelFileTreeWalker> getParallelFileTreeWalker() {
+    return Optional.empty();
+  }
+
   /** Use {@link ProjectFilesystemView#getFilesUnderPath(Path, EnumSet)} instead */
   @Deprecated
   ImmutableSet<Path> getFilesUnderPath(Path pathRelativeToProjectRoot) throws IOException;
@@ -20,6 +20,7 @@ import com.facebook.buck.core.cell.name.CanonicalCellName;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.file.MorePosixFilePermissions;
 import com.facebook.buck.io.file.MostFiles;
+import com.facebook.buck.io.file.ParallelFileTreeWalker;
 import com.facebook.buck.io.file.PathListing;
 import com.facebook.buck.io.filesystem.BuckPaths;
 import com.facebook.buck.io.filesystem.CopySourceMode;
@@ -106,6 +107,7 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
 
   private final ProjectFilesystemDelegate delegate;
   @Nullable private final WindowsFS winFSInstance;
+  private final Optional<ParallelFileTreeWalker> parallelFileTreeWalker;
 
   // Defaults to false, and so paths should be valid.
   @VisibleForTesting protected boolean ignoreValidityOfPaths;
@@ -143,6 +145,20 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
       BuckPaths buckPaths,
       ProjectFilesystemDelegate delegate,
       @Nullable WindowsFS winFSInstance) {
+    this(root, blackListedPaths, buckPaths, delegate, winFSInstance, Optional.empty());
+  }
+
+  /**
+   * @param parallelFileTreeWalker if present, walks of the file tree whose visitor doesn't modify
+   *     the tree list directories in parallel with it.
+   */
+  public DefaultProjectFilesystem(
+      Path root,
+      ImmutableSet<PathMatcher> blackListedPaths,
+      BuckPaths buckPaths,
+      ProjectFilesystemDelegate delegate,
+      @Nullable WindowsFS winFSInstance,
+      Optional<ParallelFileTreeWalker> parallelFileTreeWalker) {
     if (shouldVerifyConstructorArguments()) {
       Preconditions.checkArgument(Files.isDirectory(root), "%s must be a directory", root);
       Preconditions.checkArgument(root.isAbsolute(), "Expected absolute path. Got <%s>.", root);
@@ -211,6 +227,7 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
       Objects.requireNonNull(this.winFSInstance);
     }
     this.edenMagicPathElement = this.getPath(".eden");
+    this.parallelFileTreeWalker = parallelFileTreeWalker;
   }
 
   public static Path getCacheDir(Path root, Optional<String> value, BuckPaths buckPaths) {
@@ -451,38 +468,40 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
       DirectoryStream.Filter<? super Path> ignoreFilter,
       Function<Path, Path> pathMapper)
       throws IOException {
-    FileVisitor<Path> pathMappingVisitor =
-        new FileVisitor<Path>() {
-          @Override
-          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-              throws IOException {
-            // TODO(mbolin): We should not have hardcoded logic for Eden here. Instead, we should
-            // properly handle cyclic symlinks in a general way.
-            // Failure to perform this check will result in a java.nio.file.FileSystemLoopException
-            // in Eden.
-            if (edenMagicPathElement.equals(dir.getFileName())) {
-              return FileVisitResult.SKIP_SUBTREE;
-            }
-            return fileVisitor.preVisitDirectory(pathMapper.apply(dir), attrs);
-          }
+    walkFileTree(root, visitOptions, newPathMappingVisitor(fileVisitor, pathMapper), ignoreFilter);
+  }
+
+  private FileVisitor<Path> newPathMappingVisitor(
+      FileVisitor<Path> fileVisitor, Function<Path, Path> pathMapper) {
+    return new FileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        // TODO(mbolin): We should not have hardcoded logic for Eden here. Instead, we should
+        // properly handle cyclic symlinks in a general way.
+        // Failure to perform this check will result in a java.nio.file.FileSystemLoopException
+        // in Eden.
+        if (edenMagicPathElement.equals(dir.getFileName())) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return fileVisitor.preVisitDirectory(pathMapper.apply(dir), attrs);
+      }
 
-          @Override
-          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-              throws IOException {
-            return fileVisitor.visitFile(pathMapper.apply(file), attrs);
-          }
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        return fileVisitor.visitFile(pathMapper.apply(file), attrs);
+      }
 
-          @Override
-          public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-            return fileVisitor.visitFileFailed(pathMapper.apply(file), exc);
-          }
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+        return fileVisitor.visitFileFailed(pathMapper.apply(file), exc);
+      }
 
-          @Override
-          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-            return fileVisitor.postVisitDirectory(pathMapper.apply(dir), exc);
-          }
-        };
-    walkFileTree(root, visitOptions, pathMappingVisitor, ignoreFilter);
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        return fileVisitor.postVisitDirectory(pathMapper.apply(dir), exc);
+      }
+    };
   }
 
   /** Allows {@link Files#walkFileTree} to be faked in tests. */
@@ -536,9 +555,7 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
       EnumSet<FileVisitOption> visitOptions)
       throws IOException {
     ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
-    walkRelativeFileTree(
-        pathRelativeToProjectRoot,
-        visitOptions,
+    FileVisitor<Path> fileVisitor =
         new SimpleFileVisitor<Path>() {
           @Override
           public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
@@ -547,10 +564,30 @@ public class DefaultProjectFilesystem implements ProjectFilesystem {
             }
             return FileVisitResult.CONTINUE;
           }
-        });
+        };
+    if (parallelFileTreeWalker.isPresent()) {
+      // The visitor only collects paths, so directories can be listed ahead of it. Eden's magic
+      // directories are skipped by the visitor, so they are not listed either.
+      parallelFileTreeWalker
+          .get()
+          .walk(
+              getPathForRelativePath(pathRelativeToProjectRoot),
+              visitOptions,
+              newPathMappingVisitor(fileVisitor, this::relativize),
+              path ->
+                  !edenMagicPathElement.equals(path.getFileName())
+                      && !isIgnored(relativize(path)));
+    } else {
+      walkRelativeFileTree(pathRelativeToProjectRoot, visitOptions, fileVisitor);
+    }
     return paths.build();
   }
 
+  @Override
+  public Optional<ParallelFileTreeWalker> getParallelFileTreeWalker() {
+    return parallelFileTreeWalker;
+  }
+
   /** Allows {@link Files#isDirectory} to be faked in tests. */
   @Override
   public boolean isDirectory(Path child, LinkOption... linkOptions) {
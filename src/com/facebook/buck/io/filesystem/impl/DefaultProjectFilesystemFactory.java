@@ -18,6 +18,7 @@ package com.facebook.buck.io.filesystem.impl;
 
 import com.facebook.buck.core.cell.name.CanonicalCellName;
 import com.facebook.buck.core.exceptions.HumanReadableException;
+import com.facebook.buck.io.file.ParallelFileTreeWalker;
 import com.facebook.buck.io.filesystem.BuckPaths;
 import com.facebook.buck.io.filesystem.EmbeddedCellBuckOutInfo;
 import com.facebook.buck.io.filesystem.GlobPatternMatcher;
@@ -68,7 +69,16 @@ public class DefaultProjectFilesystemFactory implements ProjectFilesystemFactory
         extractIgnorePaths(root, config, buckPaths, embeddedCellBuckOutInfo),
         buckPaths,
         ProjectFilesystemDelegateFactory.newInstance(root, config),
-        getWindowsFSInstance());
+        getWindowsFSInstance(),
+        getParallelFileTreeWalker(config));
+  }
+
+  private static Optional<ParallelFileTreeWalker> getParallelFileTreeWalker(Config config) {
+    int parallelism = config.getInteger("project", "file_tree_walk_parallelism").orElse(1);
+    if (parallelism <= 1) {
+      return Optional.empty();
+    }
+    return Optional.of(ParallelFileTreeWalker.withParallelism(parallelism));
   }
 
   @Override
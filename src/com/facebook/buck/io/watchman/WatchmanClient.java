@@ -16,7 +16,10 @@
 
 package com.facebook.buck.io.watchman;
 
+import com.facebook.buck.util.bser.BserArrayVisitor;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
@@ -25,6 +28,37 @@ public interface WatchmanClient extends AutoCloseable {
   Optional<? extends Map<String, ? extends Object>> queryWithTimeout(
       long timeoutNanos, Object... query) throws IOException, InterruptedException;
 
+  /**
+   * Like {@link #queryWithTimeout(long, Object...)}, except that the elements of the arrays that
+   * the response maps the keys of {@code arrayVisitors} to are passed to these visitors, and these
+   * keys are left out of the returned response. Clients which can decode the response as it is
+   * read never hold these arrays in memory in their entirety.
+   */
+  default Optional<? extends Map<String, ? extends Object>> queryWithTimeout(
+      long timeoutNanos, Map<String, BserArrayVisitor> arrayVisitors, Object... query)
+      throws IOException, InterruptedException {
+    Optional<? extends Map<String, ? extends Object>> response =
+        queryWithTimeout(timeoutNanos, query);
+    if (!response.isPresent()) {
+      return response;
+    }
+    Map<String, Object> remainingResponse = new LinkedHashMap<>();
+    for (Map.Entry<String, ? extends Object> entry : response.get().entrySet()) {
+      BserArrayVisitor arrayVisitor = arrayVisitors.get(entry.getKey());
+      if (arrayVisitor == null) {
+        remainingResponse.put(entry.getKey(), entry.getValue());
+        continue;
+      }
+      List<?> elements = (List<?>) entry.getValue();
+      if (arrayVisitor.visitSize(elements.size())) {
+        for (Object element : elements) {
+          arrayVisitor.visitElement(element);
+        }
+      }
+    }
+    return Optional.of(remainingResponse);
+  }
+
   @Override
   void close() throws IOException;
 }
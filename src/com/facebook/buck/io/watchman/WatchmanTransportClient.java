@@ -21,10 +21,12 @@ import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator
 
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.util.Console;
+import com.facebook.buck.util.bser.BserArrayVisitor;
 import com.facebook.buck.util.bser.BserDeserializer;
 import com.facebook.buck.util.bser.BserSerializer;
 import com.facebook.buck.util.timing.Clock;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
@@ -61,13 +63,21 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
   @Override
   public Optional<Map<String, Object>> queryWithTimeout(long timeoutNanos, Object... query)
       throws IOException, InterruptedException {
-    return queryListWithTimeout(timeoutNanos, ImmutableList.copyOf(query));
+    return queryListWithTimeout(timeoutNanos, ImmutableMap.of(), ImmutableList.copyOf(query));
   }
 
-  private Optional<Map<String, Object>> queryListWithTimeout(long timeoutNanos, List<Object> query)
+  @Override
+  public Optional<Map<String, Object>> queryWithTimeout(
+      long timeoutNanos, Map<String, BserArrayVisitor> arrayVisitors, Object... query)
+      throws IOException, InterruptedException {
+    return queryListWithTimeout(timeoutNanos, arrayVisitors, ImmutableList.copyOf(query));
+  }
+
+  private Optional<Map<String, Object>> queryListWithTimeout(
+      long timeoutNanos, Map<String, BserArrayVisitor> arrayVisitors, List<Object> query)
       throws IOException, InterruptedException {
     ListenableFuture<Optional<Map<String, Object>>> future =
-        listeningExecutorService.submit(() -> sendWatchmanQuery(query));
+        listeningExecutorService.submit(() -> sendWatchmanQuery(query, arrayVisitors));
     try {
       long startTimeNanos = clock.nanoTime();
       Optional<Map<String, Object>> result =
@@ -135,10 +145,12 @@ class WatchmanTransportClient implements WatchmanClient, AutoCloseable {
   }
 
   @SuppressWarnings("unchecked")
-  private Optional<Map<String, Object>> sendWatchmanQuery(List<Object> query) throws IOException {
+  private Optional<Map<String, Object>> sendWatchmanQuery(
+      List<Object> query, Map<String, BserArrayVisitor> arrayVisitors) throws IOException {
     LOG.verbose("Sending query: %s", query);
     bserSerializer.serializeToStream(query, transport.getOutputStream());
-    Object response = bserDeserializer.deserializeBserValue(transport.getInputStream());
+    Object response =
+        bserDeserializer.deserializeBserValue(transport.getInputStream(), arrayVisitors);
     LOG.verbose("Got response: %s", response);
     Map<String, Object> responseMap = (Map<String, Object>) response;
     if (responseMap == null) {
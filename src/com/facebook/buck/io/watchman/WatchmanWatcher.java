@@ -24,6 +24,7 @@ import com.facebook.buck.event.WatchmanStatusEvent;
 import com.facebook.buck.io.filesystem.PathMatcher;
 import com.facebook.buck.io.watchman.WatchmanEvent.Type;
 import com.facebook.buck.util.Threads;
+import com.facebook.buck.util.bser.BserArrayVisitor;
 import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
@@ -48,6 +49,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 /** Queries Watchman for changes to a path. */
 public class WatchmanWatcher {
@@ -257,7 +259,6 @@ public class WatchmanWatcher {
     }
   }
 
-  @SuppressWarnings("unchecked")
   private void postEvents(
       BuckEventBus buckEventBus,
       FreshInstanceAction freshInstanceAction,
@@ -269,11 +270,15 @@ public class WatchmanWatcher {
       SimplePerfEvent.Scope perfEvent)
       throws IOException, InterruptedException {
     try {
+      // The changed files are processed as they are decoded, rather than all at once.
+      FileChangesVisitor files = new FileChangesVisitor(cellPath.getFileSystem());
       Optional<? extends Map<String, ? extends Object>> queryResponse;
       try (SimplePerfEvent.Scope ignored = SimplePerfEvent.scope(buckEventBus, "query")) {
         queryResponse =
             client.queryWithTimeout(
-                TimeUnit.MILLISECONDS.toNanos(timeoutMillis), query.toList(cursor.get()).toArray());
+                TimeUnit.MILLISECONDS.toNanos(timeoutMillis),
+                ImmutableMap.of("files", files),
+                query.toList(cursor.get()).toArray());
       }
 
       try (SimplePerfEvent.Scope ignored =
@@ -341,8 +346,7 @@ public class WatchmanWatcher {
           return;
         }
 
-        List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
-        if (files == null) {
+        if (!files.isPresent()) {
           if (freshInstanceAction == FreshInstanceAction.NONE) {
             filesHaveChanged.set(true);
           }
@@ -359,59 +363,32 @@ public class WatchmanWatcher {
           return;
         }
         if (files.size() < TRACE_CHANGES_THRESHOLD) {
-          perfEvent.appendFinishedInfo("files", files);
+          perfEvent.appendFinishedInfo("files", files.getSample());
         } else {
-          perfEvent.appendFinishedInfo("files_sample", files.subList(0, TRACE_CHANGES_THRESHOLD));
+          perfEvent.appendFinishedInfo("files_sample", files.getSample());
         }
 
-        FileSystem fileSystem = cellPath.getFileSystem();
-        List<WatchmanMultiplePathEvent.Change> changes = new ArrayList<>(files.size());
-        for (Map<String, Object> file : files) {
-          String fileName = (String) file.get("name");
-          if (fileName == null) {
-            LOG.warn("Filename missing from watchman file response %s", file);
-            postWatchEvent(
-                buckEventBus,
-                ImmutableWatchmanOverflowEvent.of(
-                    cellPath, "Filename missing from watchman response."));
-            filesHaveChanged.set(true);
-            return;
-          }
-          Boolean fileNew = (Boolean) file.get("new");
-          WatchmanEvent.Kind kind = WatchmanEvent.Kind.MODIFY;
-          if (fileNew != null && fileNew) {
-            kind = WatchmanEvent.Kind.CREATE;
-          }
-          Boolean fileExists = (Boolean) file.get("exists");
-          if (fileExists != null && !fileExists) {
-            kind = WatchmanEvent.Kind.DELETE;
-          }
-
-          // Following legacy behavior, everything we get from Watchman is interpreted as file
-          // changes unless explicitly specified with `type` field
-          WatchmanEvent.Type type = Type.FILE;
-          String stype = (String) file.get("type");
-          if (stype != null) {
-            switch (stype) {
-              case "d":
-                type = Type.DIRECTORY;
-                break;
-              case "l":
-                type = Type.SYMLINK;
-                break;
-            }
-          }
-
-          Path filePath = fileSystem.getPath(fileName);
-
-          changes.add(ImmutableChange.of(type, filePath, kind));
+        Map<String, Object> fileWithoutName = files.getFileWithoutName();
+        if (fileWithoutName != null) {
+          LOG.warn("Filename missing from watchman file response %s", fileWithoutName);
+          postWatchEvent(
+              buckEventBus,
+              ImmutableWatchmanOverflowEvent.of(
+                  cellPath, "Filename missing from watchman response."));
+          filesHaveChanged.set(true);
+          return;
+        }
 
-          if (type != WatchmanEvent.Type.DIRECTORY) {
+        List<WatchmanMultiplePathEvent.Change> changes = files.getChanges();
+        for (WatchmanMultiplePathEvent.Change change : changes) {
+          if (change.getType() != WatchmanEvent.Type.DIRECTORY) {
             // WatchmanPathEvent is sent for everything but directories - this is legacy
             // behavior and we want to keep it.
             // TODO(buck_team): switch everything to use WatchmanMultiplePathEvent and retire
             // WatchmanPathEvent
-            postWatchEvent(buckEventBus, ImmutableWatchmanPathEvent.of(cellPath, kind, filePath));
+            postWatchEvent(
+                buckEventBus,
+                ImmutableWatchmanPathEvent.of(cellPath, change.getKind(), change.getPath()));
           }
         }
 
@@ -419,7 +396,7 @@ public class WatchmanWatcher {
           postWatchEvent(buckEventBus, ImmutableWatchmanMultiplePathEvent.of(cellPath, changes));
         }
 
-        if (!files.isEmpty() || freshInstanceAction == FreshInstanceAction.NONE) {
+        if (files.size() > 0 || freshInstanceAction == FreshInstanceAction.NONE) {
           filesHaveChanged.set(true);
         }
       }
@@ -440,6 +417,104 @@ public class WatchmanWatcher {
     }
   }
 
+  /**
+   * Turns the entries of the "files" array of a Watchman response into changes, as they are
+   * decoded, so that the entries themselves don't need to be kept around. The entries are not
+   * decoded at all when there are too many of them to be processed.
+   */
+  private static class FileChangesVisitor implements BserArrayVisitor {
+    private final FileSystem fileSystem;
+    private final List<Map<String, Object>> sample = new ArrayList<>();
+    private List<WatchmanMultiplePathEvent.Change> changes = new ArrayList<>();
+    @Nullable private Map<String, Object> fileWithoutName;
+    private boolean present = false;
+    private int size = 0;
+
+    FileChangesVisitor(FileSystem fileSystem) {
+      this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public boolean visitSize(int size) {
+      this.present = true;
+      this.size = size;
+      if (size > OVERFLOW_THRESHOLD) {
+        return false;
+      }
+      changes = new ArrayList<>(size);
+      return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void visitElement(@Nullable Object element) {
+      Map<String, Object> file = (Map<String, Object>) element;
+      if (file == null) {
+        return;
+      }
+      if (sample.size() < TRACE_CHANGES_THRESHOLD) {
+        sample.add(file);
+      }
+      if (fileWithoutName != null) {
+        return;
+      }
+      String fileName = (String) file.get("name");
+      if (fileName == null) {
+        fileWithoutName = file;
+        return;
+      }
+      Boolean fileNew = (Boolean) file.get("new");
+      WatchmanEvent.Kind kind = WatchmanEvent.Kind.MODIFY;
+      if (fileNew != null && fileNew) {
+        kind = WatchmanEvent.Kind.CREATE;
+      }
+      Boolean fileExists = (Boolean) file.get("exists");
+      if (fileExists != null && !fileExists) {
+        kind = WatchmanEvent.Kind.DELETE;
+      }
+
+      // Following legacy behavior, everything we get from Watchman is interpreted as file
+      // changes unless explicitly specified with `type` field
+      WatchmanEvent.Type type = Type.FILE;
+      String stype = (String) file.get("type");
+      if (stype != null) {
+        switch (stype) {
+          case "d":
+            type = Type.DIRECTORY;
+            break;
+          case "l":
+            type = Type.SYMLINK;
+            break;
+        }
+      }
+
+      changes.add(ImmutableChange.of(type, fileSystem.getPath(fileName), kind));
+    }
+
+    /** @return whether the response had a "files" array. */
+    boolean isPresent() {
+      return present;
+    }
+
+    int size() {
+      return size;
+    }
+
+    /** @return the first {@link #TRACE_CHANGES_THRESHOLD} entries, to attach to the trace. */
+    List<Map<String, Object>> getSample() {
+      return sample;
+    }
+
+    @Nullable
+    Map<String, Object> getFileWithoutName() {
+      return fileWithoutName;
+    }
+
+    List<WatchmanMultiplePathEvent.Change> getChanges() {
+      return changes;
+    }
+  }
+
   private void postWatchEvent(BuckEventBus eventBus, WatchmanEvent event) {
     LOG.debug("Posting WatchEvent: %s", event);
     fileChangeEventBus.post(event);
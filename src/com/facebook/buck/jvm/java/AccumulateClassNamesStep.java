@@ -18,10 +18,8 @@ package com.facebook.buck.jvm.java;
 
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
-import com.facebook.buck.jvm.java.classes.ClasspathTraversal;
-import com.facebook.buck.jvm.java.classes.DefaultClasspathTraverser;
-import com.facebook.buck.jvm.java.classes.FileLike;
-import com.facebook.buck.jvm.java.classes.FileLikes;
+import com.facebook.buck.jvm.java.classes.ClassSummaryCache;
+import com.facebook.buck.jvm.java.classes.ClassSummaryCache.ClassSummary;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepExecutionResults;
@@ -29,12 +27,8 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
-import com.google.common.io.ByteSource;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -107,42 +101,27 @@ public class AccumulateClassNamesStep implements Step {
     return String.format("get_class_names %s > %s", sourceString, whereClassNamesShouldBeWritten);
   }
 
-  /** @return an Optional that will be absent if there was an error. */
+  /**
+   * @return an Optional that will be absent if there was an error. The classes of jars whose
+   *     contents were seen before are read from the {@link ClassSummaryCache}.
+   */
   public static Optional<ImmutableSortedMap<String, HashCode>> calculateClassHashes(
       ExecutionContext context, ProjectFilesystem filesystem, Path path) {
     Map<String, HashCode> classNames = new HashMap<>();
 
-    ClasspathTraversal traversal =
-        new ClasspathTraversal(Collections.singleton(path), filesystem) {
-          @Override
-          public void visit(FileLike fileLike) throws IOException {
-            // When traversing a JAR file, it may have resources or directory entries that do not
-            // end in .class, which should be ignored.
-            if (!FileLikes.isClassFile(fileLike)) {
-              return;
-            }
-
-            String key = FileLikes.getFileNameWithoutClassSuffix(fileLike);
-            ByteSource input =
-                new ByteSource() {
-                  @Override
-                  public InputStream openStream() throws IOException {
-                    return fileLike.getInput();
-                  }
-                };
-            HashCode value = input.hash(Hashing.sha1());
-            HashCode existing = classNames.putIfAbsent(key, value);
-            if (existing != null && !existing.equals(value)) {
-              throw new IllegalArgumentException(
-                  String.format(
-                      "Multiple entries with same key but differing values: %1$s=%2$s and %1$s=%3$s",
-                      key, value, existing));
-            }
-          }
-        };
-
     try {
-      new DefaultClasspathTraverser().traverse(traversal);
+      ClassSummaryCache cache = new ClassSummaryCache(filesystem, context.getFileHashLoader());
+      for (ClassSummary summary : cache.getClassSummaries(path)) {
+        String key = summary.getName();
+        HashCode value = summary.getHash();
+        HashCode existing = classNames.putIfAbsent(key, value);
+        if (existing != null && !existing.equals(value)) {
+          throw new IllegalArgumentException(
+              String.format(
+                  "Multiple entries with same key but differing values: %1$s=%2$s and %1$s=%3$s",
+                  key, value, existing));
+        }
+      }
     } catch (IOException e) {
       context.logError(e, "Error accumulating class names for %s.", path);
       return Optional.empty();
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache;
+import com.facebook.buck.util.zip.JarBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+
+/**
+ * A {@link JarFileObject} that reads an entry of a jar held by a {@link ClasspathJarCache}. Its uri
+ * is the same as the one javac gives to entries of the jars it opens itself.
+ */
+class CachedJarEntryFileObject extends JarFileObject {
+
+  private final ClasspathJarCache.JarIndex jar;
+
+  CachedJarEntryFileObject(URI uri, ClasspathJarCache.JarIndex jar, String pathInJar, Kind kind) {
+    super(uri, pathInJar, kind);
+    this.jar = jar;
+  }
+
+  /** @return the binary name of the class in this entry. */
+  String getBinaryName() {
+    return pathInJar.substring(0, pathInJar.length() - kind.extension.length()).replace('/', '.');
+  }
+
+  @Override
+  public InputStream openInputStream() throws IOException {
+    return jar.openEntry(pathInJar);
+  }
+
+  @Override
+  public OutputStream openOutputStream() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Reader openReader(boolean ignoreEncodingErrors) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Writer openWriter() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void writeToJar(JarBuilder jarBuilder, String owner) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof CachedJarEntryFileObject && uri.equals(((JarFileObject) other).uri);
+  }
+
+  @Override
+  public int hashCode() {
+    return uri.hashCode();
+  }
+}
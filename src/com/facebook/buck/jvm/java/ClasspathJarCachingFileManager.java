@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache;
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache.JarIndex;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Lists the classes of the jars on the classpath from a {@link ClasspathJarCache}, instead of
+ * having the standard file manager open and scan each jar for every compilation.
+ *
+ * <p>Listings fall back to the standard file manager whenever the cache can't answer them exactly
+ * as javac would: when the path contains directories or unreadable jars, when non-class files are
+ * requested and present, or for the default platform classpath, which javac reads from its own
+ * symbol file.
+ */
+class ClasspathJarCachingFileManager extends ForwardingStandardJavaFileManager {
+
+  private static final Path JAVA_HOME = Paths.get(System.getProperty("java.home"));
+
+  private final ClasspathJarCache cache;
+  private final Optional<FileHashLoader> fileHashLoader;
+  private final Map<Path, Optional<JarIndex>> acquiredJars = new HashMap<>();
+
+  ClasspathJarCachingFileManager(
+      StandardJavaFileManager fileManager,
+      ClasspathJarCache cache,
+      Optional<FileHashLoader> fileHashLoader) {
+    super(fileManager);
+    this.cache = cache;
+    this.fileHashLoader = fileHashLoader;
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    Optional<List<JavaFileObject>> cachedResults =
+        listFromCache(location, packageName, kinds, recurse);
+    if (cachedResults.isPresent()) {
+      return cachedResults.get();
+    }
+    return super.list(location, packageName, kinds, recurse);
+  }
+
+  private Optional<List<JavaFileObject>> listFromCache(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    if (location != StandardLocation.CLASS_PATH
+        && location != StandardLocation.PLATFORM_CLASS_PATH) {
+      return Optional.empty();
+    }
+    Iterable<? extends File> path = getLocation(location);
+    if (path == null || !path.iterator().hasNext()) {
+      return Optional.empty();
+    }
+    List<JarIndex> jars = new ArrayList<>();
+    for (File file : path) {
+      Path jarPath = file.toPath();
+      if (location == StandardLocation.PLATFORM_CLASS_PATH && jarPath.startsWith(JAVA_HOME)) {
+        return Optional.empty();
+      }
+      Optional<JarIndex> jar = acquire(jarPath);
+      if (jar.isPresent()) {
+        jars.add(jar.get());
+      } else if (file.exists()) {
+        return Optional.empty();
+      }
+    }
+
+    String directory = packageName.replace('.', '/');
+    List<JavaFileObject> results = new ArrayList<>();
+    for (JarIndex jar : jars) {
+      String jarUri = "jar:" + jar.getPath().toFile().toURI().normalize() + "!/";
+      for (String entry : jar.getEntries(directory, recurse)) {
+        JavaFileObject.Kind kind = getKind(entry);
+        if (!kinds.contains(kind)) {
+          continue;
+        }
+        if (kind != JavaFileObject.Kind.CLASS) {
+          return Optional.empty();
+        }
+        try {
+          results.add(new CachedJarEntryFileObject(new URI(jarUri + entry), jar, entry, kind));
+        } catch (URISyntaxException e) {
+          return Optional.empty();
+        }
+      }
+    }
+    return Optional.of(results);
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof CachedJarEntryFileObject) {
+      return ((CachedJarEntryFileObject) file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof CachedJarEntryFileObject || b instanceof CachedJarEntryFileObject) {
+      return a.equals(b);
+    }
+    return super.isSameFile(a, b);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      for (Optional<JarIndex> jar : acquiredJars.values()) {
+        jar.ifPresent(JarIndex::release);
+      }
+      acquiredJars.clear();
+    }
+  }
+
+  private synchronized Optional<JarIndex> acquire(Path jarPath) throws IOException {
+    Optional<JarIndex> jar = acquiredJars.get(jarPath);
+    if (jar == null) {
+      jar = cache.acquire(jarPath, fileHashLoader);
+      acquiredJars.put(jarPath, jar);
+    }
+    return jar;
+  }
+
+  private static JavaFileObject.Kind getKind(String name) {
+    for (JavaFileObject.Kind kind : JavaFileObject.Kind.values()) {
+      if (kind != JavaFileObject.Kind.OTHER && name.endsWith(kind.extension)) {
+        return kind;
+      }
+    }
+    return JavaFileObject.Kind.OTHER;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.step.ImmutableStepExecutionResult;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.step.StepExecutionResults;
+import com.facebook.buck.step.StepFailedException;
+import com.facebook.buck.step.StepRunner;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the shards of a test rule in parallel, each shard running its {@link JUnitStep}s in order
+ * through the {@link StepRunner}, which reports them as it does for the other steps of the rule.
+ *
+ * <p>All the shards run to completion even if one of them fails, so that the results of the other
+ * shards can still be interpreted. The result is the first failure, if any, caused by the failure
+ * of the {@link JUnitStep}.
+ */
+class JUnitShardsStep implements Step {
+
+  private final BuildTarget buildTarget;
+  private final ImmutableList<ImmutableList<JUnitStep>> shards;
+
+  JUnitShardsStep(BuildTarget buildTarget, ImmutableList<ImmutableList<JUnitStep>> shards) {
+    this.buildTarget = buildTarget;
+    this.shards = shards;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws IOException, InterruptedException {
+    ExecutorService executor = MostExecutors.newMultiThreadExecutor("junit-shard", shards.size());
+    try {
+      List<Future<StepExecutionResult>> results = new ArrayList<>(shards.size());
+      for (ImmutableList<JUnitStep> shard : shards) {
+        results.add(executor.submit(() -> runShard(context, buildTarget, shard)));
+      }
+      StepExecutionResult firstFailure = null;
+      for (Future<StepExecutionResult> result : results) {
+        StepExecutionResult shardResult;
+        try {
+          shardResult = result.get();
+        } catch (ExecutionException e) {
+          Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+          Throwables.throwIfInstanceOf(e.getCause(), InterruptedException.class);
+          Throwables.throwIfUnchecked(e.getCause());
+          throw new RuntimeException(e.getCause());
+        }
+        if (firstFailure == null && !shardResult.isSuccess()) {
+          firstFailure = shardResult;
+        }
+      }
+      return firstFailure == null ? StepExecutionResults.SUCCESS : firstFailure;
+    } finally {
+      // Interrupts the shards still running if this step is interrupted or fails.
+      executor.shutdownNow();
+    }
+  }
+
+  private static StepExecutionResult runShard(
+      ExecutionContext context, BuildTarget buildTarget, ImmutableList<JUnitStep> shard)
+      throws InterruptedException {
+    for (JUnitStep junit : shard) {
+      try {
+        StepRunner.runStep(context, junit, Optional.of(buildTarget));
+      } catch (StepFailedException e) {
+        return ImmutableStepExecutionResult.builder()
+            .setExitCode(e.getExitCode().orElse(StepExecutionResults.ERROR_EXIT_CODE))
+            .setCause(e)
+            .build();
+      }
+    }
+    return StepExecutionResults.SUCCESS;
+  }
+
+  @Override
+  public String getShortName() {
+    return "junit";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("run the tests in %d parallel shards", shards.size());
+  }
+}
@@ -238,6 +238,11 @@ public class JUnitStep extends ShellStep {
     return exitCode;
   }
 
+  /** @return the test classes run by this step. */
+  public ImmutableList<String> getTestClasses() {
+    return junitJvmArgs.getTestClasses();
+  }
+
   public boolean hasTimedOut() {
     return hasTimedOut;
   }
@@ -28,6 +28,7 @@ import com.facebook.buck.core.toolchain.toolprovider.impl.ConstantToolProvider;
 import com.facebook.buck.jvm.java.abi.AbiGenerationMode;
 import com.facebook.buck.rules.args.SourcePathArg;
 import com.facebook.buck.rules.args.StringArg;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -228,6 +229,14 @@ public class JavaBuckConfig implements ConfigView<BuckConfig> {
     return delegate.getInteger(SECTION, "dx_threads");
   }
 
+  /**
+   * @return the memory budget of the daemon-wide cache of jars opened by in-process javac, or
+   *     empty if compilations open their classpath jars themselves.
+   */
+  public Optional<Long> getClasspathJarCacheMaxSize() {
+    return delegate.getValue(SECTION, "classpath_jar_cache_max_size").map(SizeUnit::parseBytes);
+  }
+
   /**
    * Controls a special verification mode that generates ABIs both from source and from class files
    * and diffs them. This is a test hook for use during development of the source ABI feature. This
@@ -20,6 +20,7 @@ import com.facebook.buck.android.device.TargetDevice;
 import com.facebook.buck.core.build.buildable.context.BuildableContext;
 import com.facebook.buck.core.build.context.BuildContext;
 import com.facebook.buck.core.build.execution.context.ExecutionContext;
+import com.facebook.buck.core.exceptions.HumanReadableException;
 import com.facebook.buck.core.model.BuildId;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.Flavor;
@@ -61,6 +62,7 @@ import com.facebook.buck.test.TestRunningOptions;
 import com.facebook.buck.test.XmlTestResultParser;
 import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.test.selectors.TestSelectorList;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -73,7 +75,10 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -82,6 +87,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.Callable;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -141,12 +147,16 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
 
   @Nullable private ImmutableList<JUnitStep> junits;
 
+  private ImmutableList<Path> testLogPaths;
+
   @Nullable private JUnitStep externalJunitStep;
 
   private final boolean runTestSeparately;
 
   private final ForkMode forkMode;
 
+  private final int shards;
+
   private final Optional<SourcePath> unbundledResourcesRoot;
 
   public JavaTest(
@@ -167,10 +177,15 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
       ImmutableMap<String, Arg> env,
       boolean runTestSeparately,
       ForkMode forkMode,
+      int shards,
       Optional<Level> stdOutLogLevel,
       Optional<Level> stdErrLogLevel,
       Optional<SourcePath> unbundledResourcesRoot) {
     super(buildTarget, projectFilesystem, params);
+    if (shards < 1) {
+      throw new HumanReadableException(
+          "%s: shards must be at least 1, was %d", buildTarget, shards);
+    }
     this.compiledTestsLibrary = compiledTestsLibrary;
     this.additionalClasspathEntriesProvider = additionalClasspathEntriesProvider;
     this.javaRuntimeLauncher = javaRuntimeLauncher;
@@ -185,10 +200,12 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
     this.env = env;
     this.runTestSeparately = runTestSeparately;
     this.forkMode = forkMode;
+    this.shards = shards;
     this.stdOutLogLevel = stdOutLogLevel;
     this.stdErrLogLevel = stdErrLogLevel;
     this.unbundledResourcesRoot = unbundledResourcesRoot;
     this.pathToTestLogs = getPathToTestOutputDirectory().resolve("logs.txt");
+    this.testLogPaths = ImmutableList.of(pathToTestLogs);
   }
 
   @Override
@@ -305,32 +322,148 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
             BuildCellRelativePath.fromCellRelativePath(
                 buildContext.getBuildCellRootPath(), getProjectFilesystem(), pathToTestOutput)));
     addPreTestSteps(buildContext, steps);
+    int shardCount = getShardCount(executionContext, testClassNames.size());
+    if (shardCount > 1) {
+      // The durations are read from the results of the previous run, before the steps clean them.
+      ImmutableList<ImmutableSet<String>> shardedTestClassNames =
+          partitionTestClasses(
+              testClassNames, readTestClassDurations(testClassNames, pathToTestOutput), shardCount);
+      ImmutableList.Builder<ImmutableList<JUnitStep>> shardsBuilder = ImmutableList.builder();
+      ImmutableList.Builder<JUnitStep> junitsBuilder = ImmutableList.builder();
+      ImmutableList.Builder<Path> testLogPathsBuilder = ImmutableList.builder();
+      for (int shard = 0; shard < shardedTestClassNames.size(); shard++) {
+        // Shards write their logs to separate files, since they run concurrently.
+        Path shardTestLogs =
+            shard == 0 ? pathToTestLogs : pathToTestOutput.resolve("logs." + shard + ".txt");
+        ImmutableList<JUnitStep> shardJunits =
+            getJUnitSteps(
+                executionContext,
+                buildContext.getSourcePathResolver(),
+                options,
+                pathToTestOutput,
+                shardTestLogs,
+                shardedTestClassNames.get(shard));
+        shardsBuilder.add(shardJunits);
+        junitsBuilder.addAll(shardJunits);
+        testLogPathsBuilder.add(shardTestLogs);
+      }
+      junits = junitsBuilder.build();
+      testLogPaths = testLogPathsBuilder.build();
+      steps.add(new JUnitShardsStep(getBuildTarget(), shardsBuilder.build()));
+    } else {
+      junits =
+          getJUnitSteps(
+              executionContext,
+              buildContext.getSourcePathResolver(),
+              options,
+              pathToTestOutput,
+              pathToTestLogs,
+              testClassNames);
+      testLogPaths = ImmutableList.of(pathToTestLogs);
+      steps.addAll(junits);
+    }
+    return steps.build();
+  }
+
+  private ImmutableList<JUnitStep> getJUnitSteps(
+      ExecutionContext executionContext,
+      SourcePathResolverAdapter pathResolver,
+      TestRunningOptions options,
+      Path pathToTestOutput,
+      Path pathToTestLogs,
+      Set<String> testClassNames) {
     if (forkMode() == ForkMode.PER_TEST) {
       ImmutableList.Builder<JUnitStep> junitsBuilder = ImmutableList.builder();
       for (String testClass : testClassNames) {
         junitsBuilder.add(
             getJUnitStep(
                 executionContext,
-                buildContext.getSourcePathResolver(),
+                pathResolver,
                 options,
                 Optional.of(pathToTestOutput),
                 Optional.of(pathToTestLogs),
                 Collections.singleton(testClass)));
       }
-      junits = junitsBuilder.build();
-    } else {
-      junits =
-          ImmutableList.of(
-              getJUnitStep(
-                  executionContext,
-                  buildContext.getSourcePathResolver(),
-                  options,
-                  Optional.of(pathToTestOutput),
-                  Optional.of(pathToTestLogs),
-                  testClassNames));
+      return junitsBuilder.build();
     }
-    steps.addAll(junits);
-    return steps.build();
+    return ImmutableList.of(
+        getJUnitStep(
+            executionContext,
+            pathResolver,
+            options,
+            Optional.of(pathToTestOutput),
+            Optional.of(pathToTestLogs),
+            testClassNames));
+  }
+
+  /**
+   * @return the number of JVMs to split the test classes across. Debugging and code coverage use a
+   *     single JVM, as the debugger port and the coverage file can't be shared.
+   */
+  private int getShardCount(ExecutionContext executionContext, int testClassCount) {
+    if (executionContext.isDebugEnabled() || executionContext.isCodeCoverageEnabled()) {
+      return 1;
+    }
+    return Math.min(shards, testClassCount);
+  }
+
+  /**
+   * @return the durations of the test classes in the results of the previous unfiltered run, in
+   *     milliseconds. Classes without results are missing. Results of runs with test selectors are
+   *     ignored, since they only cover some of the tests of a class.
+   */
+  private Map<String, Long> readTestClassDurations(Set<String> testClassNames, Path outputDir) {
+    Map<String, Long> durations = new HashMap<>();
+    for (String testClass : testClassNames) {
+      Path resultFile = getProjectFilesystem().resolve(outputDir.resolve(testClass + ".xml"));
+      if (!Files.isRegularFile(resultFile)) {
+        continue;
+      }
+      try {
+        durations.put(testClass, XmlTestResultParser.parse(resultFile).getTotalTime());
+      } catch (IOException | RuntimeException e) {
+        LOG.debug(e, "Could not read the previous duration of %s", testClass);
+      }
+    }
+    return durations;
+  }
+
+  /**
+   * Splits the test classes into shards with similar total durations, by assigning the longest
+   * classes first, each to the shard with the shortest total duration so far. Classes without a
+   * known duration are assumed to take the average duration of the others.
+   */
+  @VisibleForTesting
+  static ImmutableList<ImmutableSet<String>> partitionTestClasses(
+      Set<String> testClassNames, Map<String, Long> durations, int shardCount) {
+    double averageDuration =
+        durations.values().stream().mapToLong(Long::longValue).average().orElse(1);
+    long defaultDuration = Math.max(1, (long) averageDuration);
+    Function<String, Long> duration =
+        testClass -> durations.getOrDefault(testClass, defaultDuration);
+    List<String> sortedTestClassNames = new ArrayList<>(testClassNames);
+    sortedTestClassNames.sort(
+        Comparator.comparing(duration).reversed().thenComparing(Comparator.naturalOrder()));
+
+    List<ImmutableSet.Builder<String>> shardBuilders = new ArrayList<>(shardCount);
+    long[] shardDurations = new long[shardCount];
+    for (int shard = 0; shard < shardCount; shard++) {
+      shardBuilders.add(ImmutableSet.builder());
+    }
+    for (String testClass : sortedTestClassNames) {
+      int shortestShard = 0;
+      for (int shard = 1; shard < shardCount; shard++) {
+        if (shardDurations[shard] < shardDurations[shortestShard]) {
+          shortestShard = shard;
+        }
+      }
+      shardBuilders.get(shortestShard).add(testClass);
+      shardDurations[shortestShard] += duration.apply(testClass);
+    }
+    return shardBuilders.stream()
+        .map(ImmutableSet.Builder::build)
+        .filter(shard -> !shard.isEmpty())
+        .collect(ImmutableList.toImmutableList());
   }
 
   private static Iterable<String> reorderClasses(Set<String> testClassNames, boolean shuffle) {
@@ -430,6 +563,9 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
         if (!isUsingTestSelectors && !Files.isRegularFile(testResultFile)) {
           String message;
           for (JUnitStep junit : Objects.requireNonNull(junits)) {
+            if (!junit.getTestClasses().contains(testClass)) {
+              continue;
+            }
             if (junit.hasTimedOut()) {
               message = "test timed out before generating results file";
             } else {
@@ -453,7 +589,10 @@ public class JavaTest extends AbstractBuildRuleWithDeclaredAndExtraDeps
           .setTestCases(summaries)
           .setContacts(contacts)
           .setLabels(labels.stream().map(Object::toString).collect(ImmutableSet.toImmutableSet()))
-          .addTestLogPaths(getProjectFilesystem().resolve(pathToTestLogs))
+          .addAllTestLogPaths(
+              testLogPaths.stream()
+                  .map(getProjectFilesystem()::resolve)
+                  .collect(ImmutableList.toImmutableList()))
           .build();
     };
   }
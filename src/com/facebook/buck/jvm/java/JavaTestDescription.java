@@ -264,6 +264,7 @@ public class JavaTestDescription
         ImmutableMap.copyOf(Maps.transformValues(args.getEnv(), macrosConverter::convert)),
         args.getRunTestSeparately(),
         args.getForkMode(),
+        args.getShards(),
         args.getStdOutLogLevel(),
         args.getStdErrLogLevel(),
         args.getUnbundledResourcesRoot());
@@ -303,6 +304,11 @@ public class JavaTestDescription
       return ForkMode.NONE;
     }
 
+    @Value.Default
+    default int getShards() {
+      return 1;
+    }
+
     Optional<Level> getStdErrLogLevel();
 
     Optional<Level> getStdOutLogLevel();
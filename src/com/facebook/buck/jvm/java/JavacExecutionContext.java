@@ -21,11 +21,14 @@ import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.filesystem.ProjectFilesystemFactory;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.hashing.FileHashLoader;
 import com.google.common.collect.ImmutableMap;
 import java.io.PrintStream;
+import java.util.Optional;
 
 @BuckStyleValue
 public interface JavacExecutionContext {
@@ -48,4 +51,8 @@ public interface JavacExecutionContext {
   ImmutableMap<String, String> getEnvironment();
 
   ProcessExecutor getProcessExecutor();
+
+  Optional<ClasspathJarCache> getClasspathJarCache();
+
+  Optional<FileHashLoader> getFileHashLoader();
 }
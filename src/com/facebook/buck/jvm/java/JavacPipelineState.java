@@ -110,7 +110,9 @@ public class JavacPipelineState implements RulePipelineState {
               filesystem,
               context.getProjectFilesystemFactory(),
               firstOrderContext.getEnvironment(),
-              firstOrderContext.getProcessExecutor());
+              firstOrderContext.getProcessExecutor(),
+              firstOrderContext.getClasspathJarCache(),
+              firstOrderContext.getFileHashLoader());
 
       ImmutableList<JavacPluginJsr199Fields> annotationProcessors =
           ImmutableList.copyOf(
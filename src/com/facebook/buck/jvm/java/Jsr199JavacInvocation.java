@@ -29,6 +29,7 @@ import com.facebook.buck.jvm.java.abi.StubGenerator;
 import com.facebook.buck.jvm.java.abi.source.api.FrontendOnlyJavacTaskProxy;
 import com.facebook.buck.jvm.java.abi.source.api.SourceOnlyAbiRuleInfoFactory;
 import com.facebook.buck.jvm.java.abi.source.api.StopCompilation;
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache;
 import com.facebook.buck.jvm.java.plugin.PluginLoader;
 import com.facebook.buck.jvm.java.plugin.api.BuckJavacTaskListener;
 import com.facebook.buck.jvm.java.plugin.api.BuckJavacTaskProxy;
@@ -58,6 +59,7 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -505,6 +507,13 @@ class Jsr199JavacInvocation implements Javac.Invocation {
 
           StandardJavaFileManager standardFileManager =
               compiler.getStandardFileManager(null, null, null);
+          Optional<ClasspathJarCache> classpathJarCache = context.getClasspathJarCache();
+          if (classpathJarCache.isPresent()) {
+            // Reuse the jars opened by earlier compilations in this daemon.
+            standardFileManager =
+                new ClasspathJarCachingFileManager(
+                    standardFileManager, classpathJarCache.get(), context.getFileHashLoader());
+          }
           addCloseable(standardFileManager);
 
           // Ensure plugins are loaded from their own classloader.
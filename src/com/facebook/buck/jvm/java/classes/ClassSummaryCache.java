@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java.classes;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of the name, size and SHA-1 hash of every class in a jar, keyed by the SHA-1 hash
+ * of the jar itself, so that steps which need them only traverse jars whose contents were never
+ * seen before, in this build or an earlier one.
+ *
+ * <p>Jars which were just written, like the output of the rule being built, are hashed directly
+ * when they are summarized: the build's file hashes of a rule's outputs are only updated once the
+ * rule finishes. Jars which are only looked up are assumed to be the outputs of rules built
+ * earlier, and their hashes are taken from the {@link FileHashLoader} of the build. Without one,
+ * and for directories of classes, nothing is looked up. Directories are never cached.
+ *
+ * <p>Each jar gets its own entry file under {@code buck-out/classsummaries}, see {@link
+ * HashKeyedDiskCache}.
+ */
+public class ClassSummaryCache {
+
+  private static final Logger LOG = Logger.get(ClassSummaryCache.class);
+
+  private static final int MAGIC = 0x42435343; // "BCSC"
+  private static final int VERSION = 1;
+
+  public static final long DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+
+  private static final AtomicLong totalHits = new AtomicLong();
+  private static final AtomicLong totalMisses = new AtomicLong();
+  private static final AtomicLong totalSavedNanos = new AtomicLong();
+
+  private final ProjectFilesystem filesystem;
+  private final Optional<FileHashLoader> fileHashLoader;
+  private final HashKeyedDiskCache diskCache;
+
+  public ClassSummaryCache(ProjectFilesystem filesystem, Optional<FileHashLoader> fileHashLoader) {
+    this(filesystem, fileHashLoader, getDefaultCacheDir(filesystem), DEFAULT_MAX_SIZE_BYTES);
+  }
+
+  ClassSummaryCache(
+      ProjectFilesystem filesystem,
+      Optional<FileHashLoader> fileHashLoader,
+      Path cacheDir,
+      long maxSizeBytes) {
+    this.filesystem = filesystem;
+    this.fileHashLoader = fileHashLoader;
+    this.diskCache =
+        new HashKeyedDiskCache(
+            filesystem, cacheDir, maxSizeBytes, MAGIC, VERSION, "class summary cache");
+  }
+
+  /** @return the default location of the cache for the cell owning {@code filesystem}. */
+  public static Path getDefaultCacheDir(ProjectFilesystem filesystem) {
+    return filesystem.getBuckPaths().getBuckOut().resolve("classsummaries");
+  }
+
+  /**
+   * @return the classes found in the jar or directory at {@code path}, in traversal order. Entries
+   *     which don't end in {@code .class} are ignored. Jars are hashed to look them up, so they may
+   *     have been rewritten since the build last hashed them.
+   */
+  public ImmutableList<ClassSummary> getClassSummaries(Path path) throws IOException {
+    Optional<HashCode> jarHash =
+        filesystem.isFile(path)
+            ? Optional.of(filesystem.computeSha1(path).asHashCode())
+            : Optional.empty();
+    if (jarHash.isPresent()) {
+      Optional<ImmutableList<ClassSummary>> cached = getCachedClassSummaries(jarHash.get());
+      if (cached.isPresent()) {
+        return cached.get();
+      }
+    }
+    long startNanos = System.nanoTime();
+    ImmutableList<ClassSummary> classes = summarize(path);
+    if (jarHash.isPresent()) {
+      writeEntry(jarHash.get(), new Entry(System.nanoTime() - startNanos, classes));
+    }
+    return classes;
+  }
+
+  /**
+   * @return the classes of the jar at {@code path} if they are cached, without traversing the jar
+   *     otherwise. Always absent for directories. The hash of the jar is taken from the build, so
+   *     it must not have changed since the build hashed it, unlike in {@link
+   *     #getClassSummaries(Path)}.
+   */
+  public Optional<ImmutableList<ClassSummary>> getCachedClassSummaries(Path path) {
+    return getKnownJarHash(path).flatMap(this::getCachedClassSummaries);
+  }
+
+  private Optional<ImmutableList<ClassSummary>> getCachedClassSummaries(HashCode jarHash) {
+    long startNanos = System.nanoTime();
+    Entry entry = readEntry(jarHash);
+    if (entry == null) {
+      totalMisses.incrementAndGet();
+      return Optional.empty();
+    }
+    totalHits.incrementAndGet();
+    totalSavedNanos.addAndGet(Math.max(0, entry.scanNanos - (System.nanoTime() - startNanos)));
+    return Optional.of(entry.classes);
+  }
+
+  /** @return the hash of the jar at {@code path}, if it is a jar and the build knows its hash. */
+  private Optional<HashCode> getKnownJarHash(Path path) {
+    if (!fileHashLoader.isPresent() || !filesystem.isFile(path)) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(fileHashLoader.get().get(filesystem.resolve(path)));
+    } catch (IOException | RuntimeException e) {
+      // Not every file is known to the hash cache, for instance files outside of all cells.
+      LOG.debug(e, "Failed to look up the hash of %s", path);
+      return Optional.empty();
+    }
+  }
+
+  /** @return the hit, miss and time saved statistics since the previous call, and resets them. */
+  static Stats flushStats() {
+    return new Stats(
+        totalHits.getAndSet(0), totalMisses.getAndSet(0), totalSavedNanos.getAndSet(0));
+  }
+
+  private ImmutableList<ClassSummary> summarize(Path path) throws IOException {
+    ImmutableList.Builder<ClassSummary> classes = ImmutableList.builder();
+    ClasspathTraversal traversal =
+        new ClasspathTraversal(Collections.singleton(path), filesystem) {
+          @Override
+          public void visit(FileLike fileLike) throws IOException {
+            if (!FileLikes.isClassFile(fileLike)) {
+              return;
+            }
+            HashCode hash =
+                new ByteSource() {
+                  @Override
+                  public InputStream openStream() throws IOException {
+                    return fileLike.getInput();
+                  }
+                }.hash(Hashing.sha1());
+            classes.add(
+                new ClassSummary(
+                    FileLikes.getFileNameWithoutClassSuffix(fileLike), fileLike.getSize(), hash));
+          }
+        };
+    new DefaultClasspathTraverser().traverse(traversal);
+    return classes.build();
+  }
+
+  private Entry readEntry(HashCode jarHash) {
+    Optional<ByteBuffer> contents = diskCache.read(jarHash);
+    if (!contents.isPresent()) {
+      return null;
+    }
+    ByteBuffer buffer = contents.get();
+    try {
+      long scanNanos = buffer.getLong();
+      int count = buffer.getInt();
+      ImmutableList.Builder<ClassSummary> classes = ImmutableList.builderWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        byte[] name = new byte[buffer.getInt()];
+        buffer.get(name);
+        long size = buffer.getLong();
+        byte[] hash = new byte[buffer.get()];
+        buffer.get(hash);
+        classes.add(
+            new ClassSummary(
+                new String(name, StandardCharsets.UTF_8), size, HashCode.fromBytes(hash)));
+      }
+      return new Entry(scanNanos, classes.build());
+    } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      LOG.warn(
+          e,
+          "Ignoring truncated or corrupt class summary cache entry %s",
+          diskCache.getEntryPath(jarHash));
+      return null;
+    }
+  }
+
+  private void writeEntry(HashCode jarHash, Entry entry) {
+    diskCache.write(
+        jarHash,
+        out -> {
+          out.writeLong(entry.scanNanos);
+          out.writeInt(entry.classes.size());
+          for (ClassSummary summary : entry.classes) {
+            byte[] name = summary.getName().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(name.length);
+            out.write(name);
+            out.writeLong(summary.getSize());
+            byte[] hash = summary.getHash().asBytes();
+            out.writeByte(hash.length);
+            out.write(hash);
+          }
+        });
+  }
+
+  /** Deletes the least recently used entries once the cache is larger than its maximum size. */
+  @VisibleForTesting
+  void trim() {
+    diskCache.trim();
+  }
+
+  /** The name, size and SHA-1 hash of the contents of a {@code .class} file. */
+  public static class ClassSummary {
+    private final String name;
+    private final long size;
+    private final HashCode hash;
+
+    public ClassSummary(String name, long size, HashCode hash) {
+      this.name = name;
+      this.size = size;
+      this.hash = hash;
+    }
+
+    /** @return the path of the class file, relative to its jar or directory, without suffix. */
+    public String getName() {
+      return name;
+    }
+
+    /** @return the uncompressed size of the class file. */
+    public long getSize() {
+      return size;
+    }
+
+    /** @return the SHA-1 hash of the contents of the class file. */
+    public HashCode getHash() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ClassSummary)) {
+        return false;
+      }
+      ClassSummary that = (ClassSummary) o;
+      return size == that.size && name.equals(that.name) && hash.equals(that.hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(name, size, hash);
+    }
+
+    @Override
+    public String toString() {
+      return name + " " + size + " " + hash;
+    }
+  }
+
+  static class Stats {
+    final long hits;
+    final long misses;
+    final long savedNanos;
+
+    Stats(long hits, long misses, long savedNanos) {
+      this.hits = hits;
+      this.misses = misses;
+      this.savedNanos = savedNanos;
+    }
+  }
+
+  private static class Entry {
+    private final long scanNanos;
+    private final ImmutableList<ClassSummary> classes;
+
+    private Entry(long scanNanos, ImmutableList<ClassSummary> classes) {
+      this.scanNanos = scanNanos;
+      this.classes = classes;
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java.classes;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.CounterSnapshot;
+import com.google.common.collect.ImmutableMap;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/** Reports how often jars are found in the {@link ClassSummaryCache}, and the time it saved. */
+public class ClassSummaryCacheCounter extends Counter {
+
+  public ClassSummaryCacheCounter() {
+    super("java_classes", "class_summary_cache", ImmutableMap.of());
+  }
+
+  @Override
+  public Optional<CounterSnapshot> flush() {
+    ClassSummaryCache.Stats stats = ClassSummaryCache.flushStats();
+    long lookups = stats.hits + stats.misses;
+    if (lookups == 0) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        CounterSnapshot.builderForCounter(this)
+            .putValues("hits", stats.hits)
+            .putValues("misses", stats.misses)
+            .putValues("hit_rate_percent", stats.hits * 100 / lookups)
+            .putValues("time_saved_ms", TimeUnit.NANOSECONDS.toMillis(stats.savedNanos))
+            .build());
+  }
+}
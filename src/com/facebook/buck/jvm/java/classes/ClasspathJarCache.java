@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java.classes;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.util.hashing.FileHashLoader;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the jars found on compilation classpaths open, together with an index of their entries by
+ * package, so that compilations running in the same daemon don't open and scan the same jars over
+ * and over.
+ *
+ * <p>Jars are identified by their path and by the hash the build's {@link FileHashLoader} has for
+ * them, so a jar whose contents change gets a fresh index. The build only updates the hashes of a
+ * rule's outputs once the rule finished, which is the case for the jars on the classpath of a
+ * compilation. Jars the build doesn't know about fall back to being identified by their size and
+ * modification time. The least recently used jars are evicted once the estimated memory used by
+ * the indexes exceeds the budget. A jar is only closed once every user has released it.
+ */
+public class ClasspathJarCache implements Closeable {
+
+  private static final Logger LOG = Logger.get(ClasspathJarCache.class);
+
+  private final long maxBytes;
+
+  // Guarded by this. Iterates from the least to the most recently used jar.
+  private final LinkedHashMap<Path, JarIndex> jars = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes = 0;
+  private boolean closed = false;
+
+  public ClasspathJarCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Like {@link #acquire(Path, Optional)}, identifying the jar by its size and modification time.
+   */
+  public Optional<JarIndex> acquire(Path path) throws IOException {
+    return acquire(path, Optional.empty());
+  }
+
+  /**
+   * @param fileHashLoader the hashes of the files of the build, if any
+   * @return the index of the jar at {@code path}, which the caller must {@link JarIndex#release()}
+   *     once it no longer reads from it, or empty if {@code path} is not a readable jar.
+   */
+  public Optional<JarIndex> acquire(Path path, Optional<FileHashLoader> fileHashLoader)
+      throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+    if (!attributes.isRegularFile()) {
+      return Optional.empty();
+    }
+    long size = attributes.size();
+    long lastModified = attributes.lastModifiedTime().toMillis();
+    HashCode contentHash = getContentHash(path, fileHashLoader);
+
+    synchronized (this) {
+      JarIndex index = jars.get(path);
+      if (index != null && index.isVersion(contentHash, size, lastModified)) {
+        index.retain();
+        return Optional.of(index);
+      }
+    }
+
+    // Jars are opened outside of the lock. If several compilations open the same jar at once, the
+    // last one to finish is kept.
+    JarIndex index;
+    try {
+      index = JarIndex.open(path, contentHash, size, lastModified);
+    } catch (ZipException e) {
+      LOG.debug(e, "Not caching %s, which is not a valid jar.", path);
+      return Optional.empty();
+    }
+    index.retain();
+    synchronized (this) {
+      if (closed || index.estimatedBytes > maxBytes) {
+        index.evict();
+        return Optional.of(index);
+      }
+      JarIndex previous = jars.put(path, index);
+      if (previous != null) {
+        totalBytes -= previous.estimatedBytes;
+        previous.evict();
+      }
+      totalBytes += index.estimatedBytes;
+      Iterator<JarIndex> leastRecentlyUsed = jars.values().iterator();
+      while (totalBytes > maxBytes) {
+        JarIndex evicted = leastRecentlyUsed.next();
+        leastRecentlyUsed.remove();
+        totalBytes -= evicted.estimatedBytes;
+        evicted.evict();
+      }
+    }
+    return Optional.of(index);
+  }
+
+  @Nullable
+  private static HashCode getContentHash(Path path, Optional<FileHashLoader> fileHashLoader) {
+    if (!fileHashLoader.isPresent()) {
+      return null;
+    }
+    try {
+      return fileHashLoader.get().get(path);
+    } catch (IOException e) {
+      // Not a file of the build.
+      LOG.verbose(e, "No hash for %s", path);
+      return null;
+    }
+  }
+
+  /** @return the number of jars currently cached. */
+  public synchronized int size() {
+    return jars.size();
+  }
+
+  /** Evicts all jars. Jars still in use are closed once they are released. */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    for (JarIndex index : jars.values()) {
+      index.evict();
+    }
+    jars.clear();
+    totalBytes = 0;
+  }
+
+  /** An open jar, with the names of its entries grouped by directory. */
+  public static class JarIndex {
+    // Rough cost of a String and of its zip entry in the central directory kept by ZipFile.
+    private static final int BYTES_PER_ENTRY = 120;
+
+    private final Path path;
+    @Nullable private final HashCode contentHash;
+    private final long size;
+    private final long lastModified;
+    private final ZipFile zipFile;
+    private final ImmutableMap<String, ImmutableList<String>> entriesByDirectory;
+    private final long estimatedBytes;
+
+    // Guarded by this.
+    private int users = 0;
+    private boolean evicted = false;
+
+    private JarIndex(
+        Path path,
+        @Nullable HashCode contentHash,
+        long size,
+        long lastModified,
+        ZipFile zipFile,
+        ImmutableMap<String, ImmutableList<String>> entriesByDirectory,
+        long estimatedBytes) {
+      this.path = path;
+      this.contentHash = contentHash;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.zipFile = zipFile;
+      this.entriesByDirectory = entriesByDirectory;
+      this.estimatedBytes = estimatedBytes;
+    }
+
+    private static JarIndex open(
+        Path path, @Nullable HashCode contentHash, long size, long lastModified)
+        throws IOException {
+      ZipFile zipFile = new ZipFile(path.toFile());
+      try {
+        Map<String, List<String>> entriesByDirectory = new HashMap<>();
+        long estimatedBytes = 0;
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          if (entry.isDirectory()) {
+            continue;
+          }
+          String name = entry.getName();
+          int lastSlash = name.lastIndexOf('/');
+          String directory = lastSlash < 0 ? "" : name.substring(0, lastSlash);
+          entriesByDirectory.computeIfAbsent(directory, dir -> new ArrayList<>()).add(name);
+          estimatedBytes += BYTES_PER_ENTRY + 2L * name.length();
+        }
+        ImmutableMap.Builder<String, ImmutableList<String>> builder =
+            ImmutableMap.builderWithExpectedSize(entriesByDirectory.size());
+        for (Map.Entry<String, List<String>> entry : entriesByDirectory.entrySet()) {
+          builder.put(entry.getKey(), ImmutableList.copyOf(entry.getValue()));
+        }
+        return new JarIndex(
+            path, contentHash, size, lastModified, zipFile, builder.build(), estimatedBytes);
+      } catch (RuntimeException e) {
+        zipFile.close();
+        throw e;
+      }
+    }
+
+    /** @return whether this is the index of the jar with the given hash, or size and mtime. */
+    private boolean isVersion(@Nullable HashCode contentHash, long size, long lastModified) {
+      if (contentHash != null) {
+        return contentHash.equals(this.contentHash);
+      }
+      return this.size == size && this.lastModified == lastModified;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    /**
+     * @param directory a directory of the jar, separated by {@code /}, and empty for the root
+     * @param recurse whether to include the entries of subdirectories
+     * @return the names of the files in {@code directory}
+     */
+    public Iterable<String> getEntries(String directory, boolean recurse) {
+      ImmutableList<String> entries =
+          entriesByDirectory.getOrDefault(directory, ImmutableList.of());
+      if (!recurse) {
+        return entries;
+      }
+      ImmutableList.Builder<String> allEntries = ImmutableList.builder();
+      allEntries.addAll(entries);
+      String prefix = directory.isEmpty() ? "" : directory + "/";
+      for (Map.Entry<String, ImmutableList<String>> entry : entriesByDirectory.entrySet()) {
+        String subdirectory = entry.getKey();
+        if (!subdirectory.equals(directory) && subdirectory.startsWith(prefix)) {
+          allEntries.addAll(entry.getValue());
+        }
+      }
+      return allEntries.build();
+    }
+
+    /** @return the contents of the entry {@code name}, which must have been listed. */
+    public InputStream openEntry(String name) throws IOException {
+      synchronized (this) {
+        Preconditions.checkState(users > 0, "%s was released.", path);
+      }
+      ZipEntry entry = zipFile.getEntry(name);
+      if (entry == null) {
+        throw new NoSuchFileException(path + "!/" + name);
+      }
+      return zipFile.getInputStream(entry);
+    }
+
+    private synchronized void retain() {
+      users++;
+    }
+
+    /** Signals that the caller of {@link ClasspathJarCache#acquire} no longer reads the jar. */
+    public void release() {
+      boolean close;
+      synchronized (this) {
+        Preconditions.checkState(users > 0, "%s was released too many times.", path);
+        users--;
+        close = evicted && users == 0;
+      }
+      if (close) {
+        closeZipFile();
+      }
+    }
+
+    private void evict() {
+      boolean close;
+      synchronized (this) {
+        evicted = true;
+        close = users == 0;
+      }
+      if (close) {
+        closeZipFile();
+      }
+    }
+
+    private void closeZipFile() {
+      try {
+        zipFile.close();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to close %s", path);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return path.toString();
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java.classes;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.google.common.hash.HashCode;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Directory of entry files keyed by a content hash, shared by the builds of a checkout.
+ *
+ * <p>Each entry is written to a temporary location first and atomically moved in place, so
+ * concurrent steps and processes never see partial entries. Entries are touched when read, and the
+ * least recently used ones are deleted once the directory grows past its maximum size.
+ */
+public class HashKeyedDiskCache {
+
+  private static final Logger LOG = Logger.get(HashKeyedDiskCache.class);
+
+  // The size of a cache is checked after this many bytes of entries were written to it by the
+  // process, and on its first write.
+  private static final long TRIM_INTERVAL_BYTES = 16L * 1024 * 1024;
+  private static final double TRIM_RATIO = 0.75;
+
+  private static final ConcurrentMap<Path, TrimState> trimStates = new ConcurrentHashMap<>();
+
+  private final ProjectFilesystem filesystem;
+  private final Path cacheDir;
+  private final long maxSizeBytes;
+  private final int magic;
+  private final int version;
+  private final String description;
+
+  /**
+   * @param magic identifies the entries of this cache, and is checked along with {@code version}
+   *     before returning the contents of an entry.
+   * @param description what the cache holds, for logging.
+   */
+  public HashKeyedDiskCache(
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      long maxSizeBytes,
+      int magic,
+      int version,
+      String description) {
+    this.filesystem = filesystem;
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = maxSizeBytes;
+    this.magic = magic;
+    this.version = version;
+    this.description = description;
+  }
+
+  /** Writes the contents of an entry. */
+  public interface EntryWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * @return the contents of the entry for {@code key}, after its header, or absent if there is no
+   *     such entry or it has another format. The entry is marked as recently used.
+   */
+  public Optional<ByteBuffer> read(HashCode key) {
+    Path entryPath = getEntryPath(key);
+    if (!filesystem.isFile(entryPath)) {
+      return Optional.empty();
+    }
+    ByteBuffer buffer;
+    try (FileChannel channel =
+        FileChannel.open(filesystem.resolve(entryPath), StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to read %s entry %s", description, entryPath);
+      return Optional.empty();
+    }
+    if (buffer.remaining() < 8 || buffer.getInt() != magic || buffer.getInt() != version) {
+      LOG.debug("Ignoring %s entry %s with unknown format", description, entryPath);
+      return Optional.empty();
+    }
+    try {
+      Files.setLastModifiedTime(
+          filesystem.resolve(entryPath), FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to touch %s entry %s", description, entryPath);
+    }
+    return Optional.of(buffer);
+  }
+
+  /**
+   * Writes the entry for {@code key}, unless another step wrote it in the meantime. Failures are
+   * logged: the cache is only an optimization.
+   */
+  public void write(HashCode key, EntryWriter writer) {
+    Path entryPath = getEntryPath(key);
+    Path tmpPath = entryPath.resolveSibling(entryPath.getFileName() + "." + UUID.randomUUID());
+    try {
+      filesystem.createParentDirs(entryPath);
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(filesystem.newFileOutputStream(tmpPath, false)))) {
+        out.writeInt(magic);
+        out.writeInt(version);
+        writer.write(out);
+      }
+      long size = filesystem.getFileSize(tmpPath);
+      filesystem.move(tmpPath, entryPath, StandardCopyOption.ATOMIC_MOVE);
+      if (getTrimState().bytesWrittenSinceTrim.addAndGet(size) >= TRIM_INTERVAL_BYTES) {
+        trim();
+      }
+    } catch (FileAlreadyExistsException e) {
+      // Another step wrote the same entry in the meantime.
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write %s entry %s", description, entryPath);
+    } finally {
+      try {
+        Files.deleteIfExists(filesystem.resolve(tmpPath));
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to delete %s", tmpPath);
+      }
+    }
+  }
+
+  /** @return the path of the entry for {@code key}, relative to the project filesystem. */
+  public Path getEntryPath(HashCode key) {
+    String hash = key.toString();
+    return cacheDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+  }
+
+  /**
+   * Deletes the least recently used entries once the cache is larger than its maximum size. Only
+   * one thread of the process trims a cache at a time, other threads skip trimming.
+   */
+  public void trim() {
+    Path root = filesystem.resolve(cacheDir);
+    TrimState trimState = getTrimState();
+    if (!trimState.lock.tryLock()) {
+      return;
+    }
+    try {
+      trimState.bytesWrittenSinceTrim.set(0);
+      List<Path> entries = new ArrayList<>();
+      Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+      long totalSize = 0;
+      try (Stream<Path> paths = Files.walk(root, 2)) {
+        for (Path entry : (Iterable<Path>) paths::iterator) {
+          BasicFileAttributes entryAttributes =
+              Files.readAttributes(entry, BasicFileAttributes.class);
+          if (entryAttributes.isRegularFile()) {
+            entries.add(entry);
+            attributes.put(entry, entryAttributes);
+            totalSize += entryAttributes.size();
+          }
+        }
+      }
+      if (totalSize <= maxSizeBytes) {
+        return;
+      }
+      entries.sort(Comparator.comparing(entry -> attributes.get(entry).lastModifiedTime()));
+      int deleted = 0;
+      for (Path entry : entries) {
+        if (totalSize <= maxSizeBytes * TRIM_RATIO) {
+          break;
+        }
+        Files.deleteIfExists(entry);
+        totalSize -= attributes.get(entry).size();
+        deleted++;
+      }
+      LOG.debug("Deleted %d %s entries from %s", deleted, description, root);
+    } catch (IOException | UncheckedIOException e) {
+      // Entries may be deleted by concurrent processes while the cache is walked.
+      LOG.debug(e, "Failed to trim the %s %s", description, cacheDir);
+    } finally {
+      trimState.lock.unlock();
+    }
+  }
+
+  private TrimState getTrimState() {
+    return trimStates.computeIfAbsent(filesystem.resolve(cacheDir), dir -> new TrimState());
+  }
+
+  private static class TrimState {
+    private final AtomicLong bytesWrittenSinceTrim = new AtomicLong(TRIM_INTERVAL_BYTES);
+    private final ReentrantLock lock = new ReentrantLock();
+  }
+}
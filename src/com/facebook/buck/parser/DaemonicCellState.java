@@ -198,8 +198,13 @@ class DaemonicCellState {
 
   private final AutoCloseableReadWriteUpdateLock cachesLock;
   private final int parsingThreads;
+  private final TargetNodeGraphIndex targetNodeGraphIndex;
 
   DaemonicCellState(Cell cell, int parsingThreads) {
+    this(cell, parsingThreads, new TargetNodeGraphIndex());
+  }
+
+  DaemonicCellState(Cell cell, int parsingThreads, TargetNodeGraphIndex targetNodeGraphIndex) {
     this.cell = new AtomicReference<>(cell);
     this.parsingThreads = parsingThreads;
     this.cellRoot = cell.getRoot();
@@ -213,6 +218,7 @@ class DaemonicCellState {
     this.cachesLock = new AutoCloseableReadWriteUpdateLock();
     this.targetNodeCache = new Cache<>(TARGET_NODE_CACHE_TYPE);
     this.rawTargetNodeCache = new Cache<>(RAW_TARGET_NODE_CACHE_TYPE);
+    this.targetNodeGraphIndex = targetNodeGraphIndex;
   }
 
   // TODO(mzlee): Only needed for invalidateBasedOn which does not have access to cell metadata
@@ -308,6 +314,7 @@ class DaemonicCellState {
           for (Cache<?, ?> cache : typedNodeCaches()) {
             cache.invalidateFor(target);
           }
+          targetNodeGraphIndex.invalidate(target);
           if (invalidateBuildTargets) {
             allRawNodeTargets.remove(target);
           }
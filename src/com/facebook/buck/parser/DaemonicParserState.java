@@ -353,6 +353,8 @@ public class DaemonicParserState {
 
   private final DaemonicPackageCache packageFileCache;
 
+  private final TargetNodeGraphIndex targetNodeGraphIndex = new TargetNodeGraphIndex();
+
   private final int parsingThreads;
 
   private final LoadingCache<Cell, BuildFileTree> buildFileTrees;
@@ -449,6 +451,11 @@ public class DaemonicParserState {
     return packageFileCache;
   }
 
+  /** @return the target nodes loaded by earlier commands, which are kept up to date by this. */
+  public TargetNodeGraphIndex getTargetNodeGraphIndex() {
+    return targetNodeGraphIndex;
+  }
+
   @VisibleForTesting
   PipelineNodeCache.Cache<BuildTarget, TargetNode<?>> getTargetNodeCache() {
     return targetNodeCache;
@@ -465,7 +472,7 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       DaemonicCellState state = cellPathToDaemonicState.get(cell.getRoot());
       if (state == null) {
-        state = new DaemonicCellState(cell, parsingThreads);
+        state = new DaemonicCellState(cell, parsingThreads, targetNodeGraphIndex);
         cellPathToDaemonicState.put(cell.getRoot(), state);
       }
       return state;
@@ -702,6 +709,7 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = cellPathToDaemonicState.containsKey(cell.getRoot());
       cellPathToDaemonicState.remove(cell.getRoot());
+      targetNodeGraphIndex.invalidateCell(cell.getCanonicalName());
       if (invalidated) {
         LOG.debug("Cell cache data invalidated.");
       } else {
@@ -717,6 +725,7 @@ public class DaemonicParserState {
     try (AutoCloseableLock writeLock = cellStateLock.writeLock()) {
       boolean invalidated = !cellPathToDaemonicState.isEmpty();
       cellPathToDaemonicState.clear();
+      targetNodeGraphIndex.invalidateAll();
       buildFileTrees.invalidateAll();
       configurationBuildFiles.clear();
       if (invalidated) {
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.core.cell.name.CanonicalCellName;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.UnflavoredBuildTarget;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.SetMultimap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The target nodes whose transitive closure has been loaded by earlier commands, kept by {@link
+ * DaemonicParserState} so that queries run by the same daemon don't have to walk the parser again
+ * to find them.
+ *
+ * <p>The index is closed under dependencies: the parse deps of each indexed node are indexed too.
+ * When the cached nodes of a target are invalidated, the index follows its reverse edges to drop
+ * them along with everything that transitively depends on them, which keeps it closed and
+ * consistent with the parser caches. Queries read the reverse deps of indexed targets from the
+ * index, and restrict them to their universe themselves.
+ */
+public class TargetNodeGraphIndex {
+
+  private static final Logger LOG = Logger.get(TargetNodeGraphIndex.class);
+
+  // Guarded by this.
+  private final Map<BuildTarget, TargetNode<?>> nodes = new HashMap<>();
+  private final SetMultimap<BuildTarget, BuildTarget> reverseDeps = HashMultimap.create();
+  private final SetMultimap<UnflavoredBuildTarget, BuildTarget> targetsByUnflavoredTarget =
+      HashMultimap.create();
+  private long generation = 0;
+
+  public synchronized boolean contains(BuildTarget target) {
+    return nodes.containsKey(target);
+  }
+
+  public synchronized int size() {
+    return nodes.size();
+  }
+
+  /**
+   * @return a number which changes whenever parser caches are invalidated, to be passed to {@link
+   *     #addAll} along with the nodes loaded after calling this.
+   */
+  public synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Adds nodes to the index. Each node must come after its parse deps, unless they are already
+   * indexed, as is the case in a depth-first post-order traversal. Nothing is added if parser
+   * caches have been invalidated since {@code generation} was obtained, since the nodes may be
+   * stale.
+   */
+  public synchronized void addAll(long generation, Iterable<TargetNode<?>> newNodes) {
+    if (generation != this.generation) {
+      LOG.debug("Not indexing nodes loaded before the latest invalidation.");
+      return;
+    }
+    for (TargetNode<?> node : newNodes) {
+      BuildTarget target = node.getBuildTarget();
+      if (nodes.containsKey(target)) {
+        continue;
+      }
+      if (!node.getParseDeps().stream().allMatch(nodes::containsKey)) {
+        // The closure of this node isn't complete, most likely because one of its deps has been
+        // invalidated while the node was loaded: leave it out, its dependents will follow.
+        LOG.verbose("Not indexing %s, some of its dependencies aren't indexed.", target);
+        continue;
+      }
+      nodes.put(target, node);
+      targetsByUnflavoredTarget.put(target.getUnflavoredBuildTarget(), target);
+      for (BuildTarget dep : node.getParseDeps()) {
+        reverseDeps.put(dep, target);
+      }
+    }
+  }
+
+  /**
+   * @return the indexed nodes that the given targets transitively depend on through at most {@code
+   *     maxDepth} edges, including the given targets, in breadth-first order, along with the
+   *     number of edges from the closest of the given targets. Targets which aren't indexed are
+   *     skipped.
+   */
+  public synchronized ImmutableMap<TargetNode<?>, Integer> getTransitiveClosure(
+      Iterable<BuildTarget> targets, int maxDepth) {
+    Map<TargetNode<?>, Integer> distances = new LinkedHashMap<>();
+    Deque<TargetNode<?>> queue = new ArrayDeque<>();
+    for (BuildTarget root : targets) {
+      TargetNode<?> rootNode = nodes.get(root);
+      if (rootNode != null && distances.putIfAbsent(rootNode, 0) == null) {
+        queue.add(rootNode);
+      }
+    }
+    while (!queue.isEmpty()) {
+      TargetNode<?> node = queue.remove();
+      int distance = distances.get(node);
+      if (distance >= maxDepth) {
+        continue;
+      }
+      for (BuildTarget dep : node.getParseDeps()) {
+        TargetNode<?> depNode = Objects.requireNonNull(nodes.get(dep));
+        if (distances.putIfAbsent(depNode, distance + 1) == null) {
+          queue.add(depNode);
+        }
+      }
+    }
+    return ImmutableMap.copyOf(distances);
+  }
+
+  /** @return the indexed targets that have a parse dep on the given one. */
+  public synchronized ImmutableSet<BuildTarget> getReverseDeps(BuildTarget target) {
+    return ImmutableSet.copyOf(reverseDeps.get(target));
+  }
+
+  /** Drops all the nodes of the given target, and the nodes which depend on them. */
+  synchronized void invalidate(UnflavoredBuildTarget target) {
+    removeWithDependents(targetsByUnflavoredTarget.get(target));
+  }
+
+  /** Drops the nodes of the targets of the given cell, and the nodes which depend on them. */
+  synchronized void invalidateCell(CanonicalCellName cell) {
+    removeWithDependents(
+        nodes.keySet().stream()
+            .filter(target -> target.getCell().equals(cell))
+            .collect(ImmutableSet.toImmutableSet()));
+  }
+
+  synchronized void invalidateAll() {
+    generation++;
+    nodes.clear();
+    reverseDeps.clear();
+    targetsByUnflavoredTarget.clear();
+  }
+
+  private void removeWithDependents(Set<BuildTarget> targets) {
+    generation++;
+    if (targets.isEmpty()) {
+      return;
+    }
+    Deque<BuildTarget> toRemove = new ArrayDeque<>(targets);
+    int removed = 0;
+    while (!toRemove.isEmpty()) {
+      BuildTarget target = toRemove.pop();
+      TargetNode<?> node = nodes.remove(target);
+      if (node == null) {
+        continue;
+      }
+      removed++;
+      targetsByUnflavoredTarget.remove(target.getUnflavoredBuildTarget(), target);
+      for (BuildTarget dep : node.getParseDeps()) {
+        reverseDeps.remove(dep, target);
+      }
+      toRemove.addAll(reverseDeps.removeAll(target));
+    }
+    LOG.verbose("Dropped %d nodes from the target graph index.", removed);
+  }
+}
@@ -117,4 +117,13 @@ public class CachingProjectBuildFileParserDecorator
 
     return parsedManifest;
   }
+
+  @Override
+  public void close() throws BuildFileParseException, InterruptedException, IOException {
+    try {
+      parserCache.logStats();
+    } finally {
+      super.close();
+    }
+  }
 }
@@ -60,6 +60,11 @@ public class HybridCacheStorage implements ParserCacheStorage {
     return new HybridCacheStorage(localCacheStorage, remoteCacheStorage);
   }
 
+  /** @return the storage used as the local cache. */
+  ParserCacheStorage getLocalCacheStorage() {
+    return localCacheStorage;
+  }
+
   @Override
   public void storeBuildFileManifest(
       HashCode weakFingerprint, HashCode strongFingerprint, byte[] serializedBuildFileManifest)
@@ -17,6 +17,7 @@
 package com.facebook.buck.parser.cache.impl;
 
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.parser.api.BuildFileManifest;
@@ -28,25 +29,70 @@ import com.google.common.base.Stopwatch;
 import com.google.common.hash.HashCode;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
 
-/** A local filesystem backed implementation for the {@link ParserCacheStorage} interface. */
+/**
+ * A local filesystem backed implementation for the {@link ParserCacheStorage} interface.
+ *
+ * <p>Depending on the {@link ParserDirCacheFormat}, manifests are either stored in a file each, or
+ * packed together in a {@link PackedManifestStore}, which avoids opening a file per build file
+ * when parsing a large project from the cache.
+ */
 public class LocalCacheStorage implements ParserCacheStorage {
   private static final Logger LOG = Logger.get(LocalCacheStorage.class);
 
   private final Path localCachePath;
   private final ProjectFilesystem filesystem;
   private final ParserCacheAccessMode cacheAccessMode;
+  @Nullable private final PackedManifestStore packedManifestStore;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+
+  /** Lookup stats of a {@link LocalCacheStorage} since its creation. */
+  @BuckStyleValue
+  public interface Stats {
+    long getHits();
+
+    long getMisses();
+
+    /** Bytes of serialized manifests read for the hits. */
+    long getBytesRead();
+
+    /** Bytes of serialized manifests written, not counting the deduplicated ones. */
+    long getBytesWritten();
+
+    default double getHitRate() {
+      long lookups = getHits() + getMisses();
+      return lookups == 0 ? 0 : (double) getHits() / lookups;
+    }
+
+    default long getAverageBytesReadPerHit() {
+      return getHits() == 0 ? 0 : getBytesRead() / getHits();
+    }
+  }
 
   private LocalCacheStorage(
-      Path localCachePath, ParserCacheAccessMode cacheAccessMode, ProjectFilesystem filesystem) {
+      Path localCachePath,
+      ParserCacheAccessMode cacheAccessMode,
+      ParserDirCacheFormat cacheFormat,
+      ProjectFilesystem filesystem) {
     this.filesystem = filesystem;
     this.localCachePath = localCachePath;
     this.cacheAccessMode = cacheAccessMode;
+    this.packedManifestStore =
+        cacheFormat == ParserDirCacheFormat.PACKED
+            ? PackedManifestStore.forDirectory(filesystem.resolve(localCachePath))
+            : null;
 
     // create local cache folde if it does not exist
     if ((cacheAccessMode == ParserCacheAccessMode.WRITEONLY
@@ -95,7 +141,13 @@ public class LocalCacheStorage implements ParserCacheStorage {
 
     ParserCacheAccessMode cacheAccessMode =
         obtainLocalCacheStorageAccessModeFromConfig(parserCacheConfig);
-    return new LocalCacheStorage(localCachePath, cacheAccessMode, filesystem);
+    return new LocalCacheStorage(
+        localCachePath, cacheAccessMode, parserCacheConfig.getDirCacheFormat(), filesystem);
+  }
+
+  /** @return the lookup stats of this storage since its creation. */
+  public Stats getStats() {
+    return ImmutableStats.of(hits.sum(), misses.sum(), bytesRead.sum(), bytesWritten.sum());
   }
 
   @Override
@@ -113,6 +165,13 @@ public class LocalCacheStorage implements ParserCacheStorage {
         return;
       }
 
+      if (packedManifestStore != null) {
+        bytesWritten.add(
+            packedManifestStore.store(
+                weakFingerprint, strongFingerprint, serializedBuildFileManifest));
+        return;
+      }
+
       Path weakFingerprintCachePath = getOrCreateWeakFingerprintFolder(weakFingerprint);
 
       Path cachedBuildFileManifestPath =
@@ -126,6 +185,7 @@ public class LocalCacheStorage implements ParserCacheStorage {
       try (OutputStream fw = filesystem.newFileOutputStream(relativePathToRoot)) {
         fw.write(serializedBuildFileManifest);
       }
+      bytesWritten.add(serializedBuildFileManifest.length);
     } finally {
       if (timer != null) {
         LOG.verbose(
@@ -153,40 +213,67 @@ public class LocalCacheStorage implements ParserCacheStorage {
       timer = Stopwatch.createStarted();
     }
 
+    byte[] data = null;
     try {
       if (!isReadAllowed()) {
         return Optional.empty();
       }
 
-      Path cachedBuildFileManifestPath =
-          filesystem
-              .resolve(localCachePath)
-              .resolve(weakFingerprint.toString())
-              .resolve(strongFingerprint.toString());
-
-      byte[] data;
-      try {
-        // TODO(buck_team): Add readAllBytes to projectFileSystem and use it
-        data = Files.readAllBytes(cachedBuildFileManifestPath);
-      } catch (NoSuchFileException ex) {
+      data = readSerializedBuildFileManifest(weakFingerprint, strongFingerprint);
+      if (data == null) {
+        misses.increment();
         return Optional.empty();
       }
+      hits.increment();
+      bytesRead.add(data.length);
 
       return Optional.of(BuildFileManifestSerializer.deserialize(data));
     } finally {
       if (timer != null) {
         LOG.verbose(
-            "Time to complete getManifest: %d ns.", timer.stop().elapsed(TimeUnit.NANOSECONDS));
+            "Time to complete getManifest: %d ns, %d bytes read.",
+            timer.stop().elapsed(TimeUnit.NANOSECONDS), data == null ? 0 : data.length);
       }
     }
   }
 
+  /** @return the serialized manifest for the given fingerprints, or null if there is none. */
+  @Nullable
+  private byte[] readSerializedBuildFileManifest(
+      HashCode weakFingerprint, HashCode strongFingerprint) throws IOException {
+    if (packedManifestStore != null) {
+      Optional<ByteBuffer> manifest = packedManifestStore.get(weakFingerprint, strongFingerprint);
+      if (!manifest.isPresent()) {
+        return null;
+      }
+      byte[] data = new byte[manifest.get().remaining()];
+      manifest.get().get(data);
+      return data;
+    }
+
+    Path cachedBuildFileManifestPath =
+        filesystem
+            .resolve(localCachePath)
+            .resolve(weakFingerprint.toString())
+            .resolve(strongFingerprint.toString());
+    try {
+      // TODO(buck_team): Add readAllBytes to projectFileSystem and use it
+      return Files.readAllBytes(cachedBuildFileManifestPath);
+    } catch (NoSuchFileException ex) {
+      return null;
+    }
+  }
+
   @Override
   public void deleteCacheEntries(HashCode weakFingerprint, HashCode strongFingerprint)
       throws IOException {
     if (!isWriteAllowed()) {
       return;
     }
+    if (packedManifestStore != null) {
+      packedManifestStore.delete(weakFingerprint);
+      return;
+    }
     Path weakFingerprintCachePath = localCachePath.resolve(weakFingerprint.toString());
     filesystem.deleteRecursivelyIfExists(
         weakFingerprintCachePath.isAbsolute()
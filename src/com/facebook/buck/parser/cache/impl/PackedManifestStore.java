@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * Stores the serialized manifests of a {@link LocalCacheStorage} in a single segment file, next to
+ * an index file mapping the weak and strong fingerprints of each manifest to its location in the
+ * segment.
+ *
+ * <p>Both files are only ever appended to. Manifests are deduplicated by the hash of their
+ * content, so fingerprints whose manifests are identical share the same bytes in the segment. The
+ * segment is memory-mapped for reads, and the index is loaded in memory once, then refreshed from
+ * where it was last read whenever a lookup misses, so that entries added by other instances of
+ * Buck are picked up. Appends are serialized across processes with a lock on the index file.
+ *
+ * <p>Each index record ends with a CRC32 of its bytes, and each entry records the CRC32 of its
+ * manifest, so that a torn or corrupted write is skipped, and looked up as a miss, instead of being
+ * decoded as a valid manifest.
+ *
+ * <p>Deleting the entries of a weak fingerprint only appends a tombstone to the index: the space
+ * they use in the segment is not reclaimed until the cache directory is removed.
+ */
+class PackedManifestStore {
+  private static final Logger LOG = Logger.get(PackedManifestStore.class);
+
+  static final String SEGMENT_FILE_NAME = "manifests-v2.pack";
+  static final String INDEX_FILE_NAME = "manifests-v2.idx";
+
+  private static final byte ENTRY_RECORD = 1;
+  private static final byte DELETE_RECORD = 2;
+
+  /** Stores are shared within the process, since file locks are held on behalf of the process. */
+  private static final ConcurrentMap<Path, PackedManifestStore> STORES = new ConcurrentHashMap<>();
+
+  private final Path segmentPath;
+  private final Path indexPath;
+
+  private final Map<HashCode, Map<HashCode, Location>> locationsByFingerprints =
+      new ConcurrentHashMap<>();
+  private final Map<HashCode, Location> locationsByContent = new ConcurrentHashMap<>();
+
+  // Guarded by this.
+  @Nullable private FileChannel segmentChannel;
+  @Nullable private FileChannel indexChannel;
+  private long indexPosition = 0;
+  private boolean isWritable = false;
+
+  @Nullable private volatile ByteBuffer mappedSegment;
+
+  private PackedManifestStore(Path directory) {
+    this.segmentPath = directory.resolve(SEGMENT_FILE_NAME);
+    this.indexPath = directory.resolve(INDEX_FILE_NAME);
+  }
+
+  /** @return the store of the manifests in {@code directory}, which must be an absolute path. */
+  static PackedManifestStore forDirectory(Path directory) {
+    return STORES.computeIfAbsent(directory.normalize(), PackedManifestStore::new);
+  }
+
+  @VisibleForTesting
+  static void clearStores() throws IOException {
+    for (PackedManifestStore store : STORES.values()) {
+      store.close();
+    }
+    STORES.clear();
+  }
+
+  /**
+   * Adds a manifest to the store, reusing the bytes of an identical manifest if there is one.
+   *
+   * @return the number of bytes appended to the segment.
+   */
+  synchronized int store(HashCode weakFingerprint, HashCode strongFingerprint, byte[] manifest)
+      throws IOException {
+    openForWriting();
+    HashCode contentHash = Hashing.sha256().hashBytes(manifest);
+    try (FileLock ignored = indexChannel.lock()) {
+      // Pick up the manifests stored by other processes, so that they can be deduplicated.
+      refreshIndex();
+
+      int appendedBytes = 0;
+      Location location = locationsByContent.get(contentHash);
+      if (location == null) {
+        location = new Location(segmentChannel.size(), manifest.length, crc32(manifest));
+        writeFully(segmentChannel, ByteBuffer.wrap(manifest), location.offset);
+        appendedBytes = manifest.length;
+      }
+
+      ByteBuffer record =
+          ByteBuffer.allocate(
+              1
+                  + sizeOf(weakFingerprint)
+                  + sizeOf(strongFingerprint)
+                  + sizeOf(contentHash)
+                  + Long.BYTES
+                  + Integer.BYTES
+                  + Integer.BYTES
+                  + Integer.BYTES);
+      record.put(ENTRY_RECORD);
+      putHashCode(record, weakFingerprint);
+      putHashCode(record, strongFingerprint);
+      putHashCode(record, contentHash);
+      record.putLong(location.offset);
+      record.putInt(location.length);
+      record.putInt(location.crc);
+      putRecordCrc(record);
+      record.flip();
+      appendRecord(record);
+      return appendedBytes;
+    }
+  }
+
+  /** Removes all the manifests stored for {@code weakFingerprint}. */
+  synchronized void delete(HashCode weakFingerprint) throws IOException {
+    openForWriting();
+    try (FileLock ignored = indexChannel.lock()) {
+      refreshIndex();
+      if (!locationsByFingerprints.containsKey(weakFingerprint)) {
+        return;
+      }
+      ByteBuffer record = ByteBuffer.allocate(1 + sizeOf(weakFingerprint) + Integer.BYTES);
+      record.put(DELETE_RECORD);
+      putHashCode(record, weakFingerprint);
+      putRecordCrc(record);
+      record.flip();
+      appendRecord(record);
+    }
+  }
+
+  /**
+   * Looks up the serialized manifest stored for the given fingerprints.
+   *
+   * @return a read-only buffer over the serialized manifest, or {@link Optional#empty()} if there
+   *     is none, or if its bytes don't match the checksum they were stored with.
+   */
+  Optional<ByteBuffer> get(HashCode weakFingerprint, HashCode strongFingerprint)
+      throws IOException {
+    Location location = lookup(weakFingerprint, strongFingerprint);
+    if (location == null) {
+      synchronized (this) {
+        if (!openForReading()) {
+          return Optional.empty();
+        }
+        refreshIndex();
+      }
+      location = lookup(weakFingerprint, strongFingerprint);
+      if (location == null) {
+        return Optional.empty();
+      }
+    }
+    ByteBuffer manifest = read(location);
+    if (crc32(manifest.duplicate()) != location.crc) {
+      LOG.warn(
+          "Ignoring the corrupted manifest at offset %d of %s.", location.offset, segmentPath);
+      forget(weakFingerprint, strongFingerprint, location);
+      return Optional.empty();
+    }
+    return Optional.of(manifest);
+  }
+
+  synchronized void close() throws IOException {
+    mappedSegment = null;
+    isWritable = false;
+    indexPosition = 0;
+    locationsByFingerprints.clear();
+    locationsByContent.clear();
+    try {
+      if (segmentChannel != null) {
+        segmentChannel.close();
+      }
+    } finally {
+      segmentChannel = null;
+      if (indexChannel != null) {
+        indexChannel.close();
+      }
+      indexChannel = null;
+    }
+  }
+
+  /** Drops a corrupted manifest, so that it is neither looked up nor deduplicated against again. */
+  private void forget(HashCode weakFingerprint, HashCode strongFingerprint, Location location) {
+    Map<HashCode, Location> locations = locationsByFingerprints.get(weakFingerprint);
+    if (locations != null) {
+      locations.remove(strongFingerprint, location);
+    }
+    locationsByContent.values().remove(location);
+  }
+
+  @Nullable
+  private Location lookup(HashCode weakFingerprint, HashCode strongFingerprint) {
+    Map<HashCode, Location> locations = locationsByFingerprints.get(weakFingerprint);
+    return locations == null ? null : locations.get(strongFingerprint);
+  }
+
+  private ByteBuffer read(Location location) throws IOException {
+    long end = location.offset + location.length;
+    ByteBuffer segment = mappedSegment;
+    if (segment == null || segment.capacity() < end) {
+      segment = mapSegment(end);
+    }
+    if (segment == null) {
+      // The segment can't be mapped: read the manifest from the channel instead.
+      ByteBuffer manifest = ByteBuffer.allocate(location.length);
+      synchronized (this) {
+        readFully(segmentChannel, manifest, location.offset);
+      }
+      manifest.flip();
+      return manifest.asReadOnlyBuffer();
+    }
+    ByteBuffer manifest = segment.duplicate();
+    manifest.limit(Math.toIntExact(end));
+    manifest.position(Math.toIntExact(location.offset));
+    return manifest.slice();
+  }
+
+  /** @return the mapped segment, which is at least {@code minimumSize} bytes, if it can be mapped */
+  @Nullable
+  private synchronized ByteBuffer mapSegment(long minimumSize) throws IOException {
+    ByteBuffer segment = mappedSegment;
+    if (segment != null && segment.capacity() >= minimumSize) {
+      return segment;
+    }
+    long size = segmentChannel.size();
+    if (size < minimumSize) {
+      throw new IOException(
+          String.format(
+              "%s is truncated: expected at least %d bytes, found %d.",
+              segmentPath, minimumSize, size));
+    }
+    if (size > Integer.MAX_VALUE) {
+      return null;
+    }
+    MappedByteBuffer mapped;
+    try {
+      mapped = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } catch (UnsupportedOperationException e) {
+      // Some filesystems, such as in-memory ones, don't support memory-mapping.
+      return null;
+    }
+    mappedSegment = mapped.asReadOnlyBuffer();
+    return mappedSegment;
+  }
+
+  /** @return whether there is anything to read. */
+  private boolean openForReading() throws IOException {
+    if (indexChannel != null) {
+      return true;
+    }
+    if (!Files.exists(indexPath) || !Files.exists(segmentPath)) {
+      return false;
+    }
+    segmentChannel = FileChannel.open(segmentPath, StandardOpenOption.READ);
+    indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ);
+    return true;
+  }
+
+  private void openForWriting() throws IOException {
+    if (indexChannel != null && segmentChannel != null && isWritable) {
+      return;
+    }
+    close();
+    segmentChannel =
+        FileChannel.open(
+            segmentPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    indexChannel =
+        FileChannel.open(
+            indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    isWritable = true;
+  }
+
+  private void appendRecord(ByteBuffer record) throws IOException {
+    long position = indexChannel.size();
+    writeFully(indexChannel, record, position);
+    // Only this process appends while the lock is held, so the index is up to date.
+    if (indexPosition == position) {
+      record.rewind();
+      indexPosition += parseRecord(record);
+    }
+  }
+
+  /** Reads the records appended to the index since it was last read. */
+  private void refreshIndex() throws IOException {
+    long size = indexChannel.size();
+    if (size <= indexPosition) {
+      return;
+    }
+    ByteBuffer records = ByteBuffer.allocate(Math.toIntExact(size - indexPosition));
+    readFully(indexChannel, records, indexPosition);
+    records.flip();
+    int loaded = 0;
+    while (records.hasRemaining()) {
+      int consumed = parseRecord(records);
+      if (consumed == 0) {
+        // A record still being appended by another process.
+        break;
+      }
+      indexPosition += consumed;
+      loaded++;
+    }
+    LOG.verbose("Loaded %d records from %s.", loaded, indexPath);
+  }
+
+  /**
+   * Applies the record at the position of {@code records} to the in-memory index, unless its bytes
+   * don't match its checksum, in which case it is skipped.
+   *
+   * @return the size of the record, or 0 if it is incomplete, in which case {@code records} is left
+   *     untouched.
+   */
+  private int parseRecord(ByteBuffer records) throws IOException {
+    int start = records.position();
+    try {
+      byte type = records.get();
+      HashCode weakFingerprint = getHashCode(records);
+      if (type == DELETE_RECORD) {
+        if (checkRecordCrc(records, start)) {
+          // The bytes of the deleted manifests stay in the segment, where other entries may use
+          // them.
+          locationsByFingerprints.remove(weakFingerprint);
+        }
+      } else if (type == ENTRY_RECORD) {
+        HashCode strongFingerprint = getHashCode(records);
+        HashCode contentHash = getHashCode(records);
+        Location location = new Location(records.getLong(), records.getInt(), records.getInt());
+        if (checkRecordCrc(records, start)) {
+          locationsByFingerprints
+              .computeIfAbsent(weakFingerprint, key -> new ConcurrentHashMap<>())
+              .put(strongFingerprint, location);
+          locationsByContent.putIfAbsent(contentHash, location);
+        }
+      } else {
+        throw new IOException(
+            String.format("Unknown record type %d at offset %d of %s.", type, start, indexPath));
+      }
+    } catch (BufferUnderflowException e) {
+      records.position(start);
+      return 0;
+    }
+    return records.position() - start;
+  }
+
+  /**
+   * Reads the checksum that ends the record starting at {@code start} of {@code records}.
+   *
+   * @return whether it matches the bytes of the record.
+   */
+  private boolean checkRecordCrc(ByteBuffer records, int start) {
+    ByteBuffer record = records.duplicate();
+    record.limit(records.position());
+    record.position(start);
+    if (records.getInt() == crc32(record)) {
+      return true;
+    }
+    LOG.warn("Skipping the corrupted record at offset %d of %s.", start, indexPath);
+    return false;
+  }
+
+  /** Appends the checksum of the bytes already put in {@code record}. */
+  private static void putRecordCrc(ByteBuffer record) {
+    ByteBuffer bytes = record.duplicate();
+    bytes.flip();
+    record.putInt(crc32(bytes));
+  }
+
+  private static int crc32(byte[] bytes) {
+    return crc32(ByteBuffer.wrap(bytes));
+  }
+
+  private static int crc32(ByteBuffer bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private static int sizeOf(HashCode hashCode) {
+    return 1 + hashCode.bits() / Byte.SIZE;
+  }
+
+  private static void putHashCode(ByteBuffer buffer, HashCode hashCode) {
+    byte[] bytes = hashCode.asBytes();
+    buffer.put((byte) bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static HashCode getHashCode(ByteBuffer buffer) {
+    byte[] bytes = new byte[Byte.toUnsignedInt(buffer.get())];
+    buffer.get(bytes);
+    return HashCode.fromBytes(bytes);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException(String.format("Unexpected end of file at offset %d.", position));
+      }
+      position += read;
+    }
+  }
+
+  /** Location of a serialized manifest in the segment. */
+  private static class Location {
+    private final long offset;
+    private final int length;
+    private final int crc;
+
+    private Location(long offset, int length, int crc) {
+      this.offset = offset;
+      this.length = length;
+      this.crc = crc;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Location)) {
+        return false;
+      }
+      Location that = (Location) other;
+      return offset == that.offset && length == that.length && crc == that.crc;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(offset, length, crc);
+    }
+  }
+}
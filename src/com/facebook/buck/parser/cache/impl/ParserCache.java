@@ -17,6 +17,7 @@
 package com.facebook.buck.parser.cache.impl;
 
 import com.facebook.buck.core.config.BuckConfig;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
@@ -36,6 +37,8 @@ import java.util.Optional;
 
 /** This class implements the caching behavior for parsing build specs. */
 public class ParserCache {
+  private static final Logger LOG = Logger.get(ParserCache.class);
+
   private final ParserCacheStorage parserCacheStorage;
   private final BuckEventBus eventBus;
   private final PerfEventId eventIdGet = PerfEventId.of("ParseFileCacheGet");
@@ -68,6 +71,21 @@ public class ParserCache {
     return parserCacheStorage;
   }
 
+  /** Logs the lookup stats of the local cache storage, if one is used. */
+  void logStats() {
+    ParserCacheStorage storage =
+        parserCacheStorage instanceof HybridCacheStorage
+            ? ((HybridCacheStorage) parserCacheStorage).getLocalCacheStorage()
+            : parserCacheStorage;
+    if (!(storage instanceof LocalCacheStorage)) {
+      return;
+    }
+    LocalCacheStorage.Stats stats = ((LocalCacheStorage) storage).getStats();
+    LOG.info(
+        "Local parser cache: %d hits, %d misses, %d bytes read, %d bytes written.",
+        stats.getHits(), stats.getMisses(), stats.getBytesRead(), stats.getBytesWritten());
+  }
+
   /**
    * Store a parsed entry in the cache, ignoring errors
    *
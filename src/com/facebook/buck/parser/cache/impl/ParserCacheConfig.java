@@ -36,6 +36,7 @@ public abstract class ParserCacheConfig implements ConfigView<BuckConfig> {
   static final String PARSER_CACHE_SECTION_NAME = "parser";
   static final String PARSER_CACHE_LOCAL_LOCATION_NAME = "dir";
   private static final String PARSER_CACHE_LOCAL_MODE_NAME = "dir_mode";
+  static final String PARSER_CACHE_LOCAL_FORMAT_NAME = "dir_format";
   private static final String DEFAULT_PARSER_CACHE_MODE_VALUE = "NONE";
 
   private static final String MANIFEST_SERVICE_SECTION_NAME = "manifestservice";
@@ -151,6 +152,15 @@ public abstract class ParserCacheConfig implements ConfigView<BuckConfig> {
         && parserDirCacheEntry.getDirCacheMode() != ParserCacheAccessMode.NONE;
   }
 
+  /** @returns how the {@link LocalCacheStorage} lays out the manifests it stores. */
+  @Value.Lazy
+  public ParserDirCacheFormat getDirCacheFormat() {
+    return getDelegate()
+        .getEnum(
+            PARSER_CACHE_SECTION_NAME, PARSER_CACHE_LOCAL_FORMAT_NAME, ParserDirCacheFormat.class)
+        .orElse(ParserDirCacheFormat.FILES);
+  }
+
   /** @returns {@link ParserCacheAccessMode} associated with the {@link LocalCacheStorage} */
   public ParserCacheAccessMode getDirCacheAccessMode() {
     AbstractParserDirCacheEntry parserDirCacheEntry = obtainDirEntry();
@@ -28,6 +28,7 @@ import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 /** This is a simple ContentAddressedStorageClient interface used for remote execution. */
 public interface ContentAddressedStorageClient {
@@ -54,5 +55,15 @@ public interface ContentAddressedStorageClient {
 
     /** Make the directory and all parent directories. */
     void makeDirectories(Path dirRoot) throws IOException;
+
+    /**
+     * Returns where the file at the provided path is written to, if it is written directly to the
+     * local filesystem.
+     *
+     * @param path the path of the file, as passed to {@link #getOutputChannel}.
+     */
+    default Optional<Path> getLocalPath(Path path) {
+      return Optional.empty();
+    }
   }
 }
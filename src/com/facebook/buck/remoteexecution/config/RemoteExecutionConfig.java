@@ -130,6 +130,15 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
   // Should retry to reschedule OOMed action on a larger worker
   public static final String TRY_LARGER_WORKER_ON_OOM = "try_larger_worker_on_oom";
 
+  // Should leave the output files of remote actions in the CAS until something local needs them.
+  public static final String LAZY_OUTPUT_MATERIALIZATION_KEY = "lazy_output_materialization";
+
+  /**
+   * How long the daemon assumes that the CAS keeps a blob after it confirmed having it, rather than
+   * checking again in a later command. Unset or zero means the daemon doesn't remember them.
+   */
+  public static final String CAS_PRESENCE_TTL_SECONDS_KEY = "cas_presence_ttl_seconds";
+
   // Should retry actions locally if action exit code is returned and is not 0.
   public static final String IS_LOCAL_FALLBACK_ENABLED_FOR_COMPLETED_ACTION_KEY =
       "is_local_fallback_for_completed_actions";
@@ -258,6 +267,20 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
     return getValue("cas_port").map(Integer::parseInt).orElse(DEFAULT_CAS_PORT);
   }
 
+  /**
+   * Identifies the CAS across commands, if it is a remote one whose contents outlive the command.
+   */
+  public Optional<String> getPersistentCasName() {
+    if (getType() != RemoteExecutionType.GRPC) {
+      return Optional.empty();
+    }
+    return Optional.of(String.format("%s:%d/%s", getCasHost(), getCasPort(), getTenantId()));
+  }
+
+  public long getCasPresenceTtlSeconds() {
+    return getDelegate().getLong(SECTION, CAS_PRESENCE_TTL_SECONDS_KEY).orElse(0L);
+  }
+
   public int getCasDeadline() {
     return getValue("cas_deadline_sec").map(Integer::parseInt).orElse(DEFAULT_CAS_DEADLINE_S);
   }
@@ -402,6 +425,9 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
     boolean tryLargerWorkerOnOom =
         getDelegate().getBoolean(SECTION, TRY_LARGER_WORKER_ON_OOM).orElse(false);
 
+    boolean lazyOutputMaterialization =
+        getDelegate().getBooleanValue(SECTION, LAZY_OUTPUT_MATERIALIZATION_KEY, false);
+
     // Some of these values are also limited by other ones (e.g. synchronous work is limited by the
     // number of threads). We detect some of these cases and log an error to the user to help them
     // understand the behavior.
@@ -497,6 +523,11 @@ public abstract class RemoteExecutionConfig implements ConfigView<BuckConfig> {
       public ImmutableSet<PathMatcher> getIgnorePaths() {
         return ignorePaths;
       }
+
+      @Override
+      public boolean isLazyOutputMaterializationEnabled() {
+        return lazyOutputMaterialization;
+      }
     };
   }
 
@@ -49,4 +49,10 @@ public interface RemoteExecutionStrategyConfig {
   boolean tryLargerWorkerOnOom();
 
   ImmutableSet<PathMatcher> getIgnorePaths();
+
+  /**
+   * Whether the output files of remote actions are left in the CAS until a local action or the
+   * user needs them, rather than being downloaded as soon as the action completes.
+   */
+  boolean isLazyOutputMaterializationEnabled();
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.event;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+
+/**
+ * Sent once outputs have been materialized from a CAS on the local filesystem, telling how many
+ * files were linked to the stored blobs and how many had to be copied.
+ */
+public final class LocalMaterializationEvent extends AbstractBuckEvent {
+  private final int linkedFiles;
+  private final long linkedBytes;
+  private final int copiedFiles;
+  private final long copiedBytes;
+
+  public LocalMaterializationEvent(
+      int linkedFiles, long linkedBytes, int copiedFiles, long copiedBytes) {
+    super(EventKey.unique());
+    this.linkedFiles = linkedFiles;
+    this.linkedBytes = linkedBytes;
+    this.copiedFiles = copiedFiles;
+    this.copiedBytes = copiedBytes;
+  }
+
+  public int getLinkedFiles() {
+    return linkedFiles;
+  }
+
+  public long getLinkedBytes() {
+    return linkedBytes;
+  }
+
+  public int getCopiedFiles() {
+    return copiedFiles;
+  }
+
+  public long getCopiedBytes() {
+    return copiedBytes;
+  }
+
+  @Override
+  public String getEventName() {
+    return getClass().getSimpleName();
+  }
+
+  @Override
+  protected String getValueString() {
+    return String.format(
+        "linkedFiles=[%d] linkedBytes=[%d] copiedFiles=[%d] copiedBytes=[%d]",
+        linkedFiles, linkedBytes, copiedFiles, copiedBytes);
+  }
+}
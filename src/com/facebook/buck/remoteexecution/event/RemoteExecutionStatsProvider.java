@@ -37,6 +37,12 @@ public interface RemoteExecutionStatsProvider {
   /** Total of uploaded bytes to CAS. */
   long getCasUploadSizeBytes();
 
+  /** Total of bytes materialized by linking them to the blobs of a local CAS. */
+  long getLocalCasLinkedSizeBytes();
+
+  /** Total of bytes materialized by copying them from a local CAS. */
+  long getLocalCasCopiedSizeBytes();
+
   /** Get the total number of BuildRules that are finished. (both local and remote) */
   int getTotalRulesBuilt();
 
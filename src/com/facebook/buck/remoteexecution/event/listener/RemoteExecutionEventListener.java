@@ -23,6 +23,7 @@ import com.facebook.buck.remoteexecution.event.CasBlobUploadEvent.Finished;
 import com.facebook.buck.remoteexecution.event.LocalFallbackEvent;
 import com.facebook.buck.remoteexecution.event.LocalFallbackEvent.Result;
 import com.facebook.buck.remoteexecution.event.LocalFallbackStats;
+import com.facebook.buck.remoteexecution.event.LocalMaterializationEvent;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionActionEvent.State;
 import com.facebook.buck.remoteexecution.event.RemoteExecutionStatsProvider;
@@ -50,6 +51,8 @@ public class RemoteExecutionEventListener
   private final LongAdder downloadBytes;
   private final LongAdder uploads;
   private final LongAdder uploadBytes;
+  private final LongAdder localCasLinkedBytes;
+  private final LongAdder localCasCopiedBytes;
 
   private final LongAdder remoteCpuTimeMs;
   private final LongAdder remoteQueueTimeMs;
@@ -66,6 +69,8 @@ public class RemoteExecutionEventListener
     this.downloadBytes = new LongAdder();
     this.uploads = new LongAdder();
     this.uploadBytes = new LongAdder();
+    this.localCasLinkedBytes = new LongAdder();
+    this.localCasCopiedBytes = new LongAdder();
     this.remoteCpuTimeMs = new LongAdder();
     this.remoteQueueTimeMs = new LongAdder();
     this.totalRemoteTimeMs = new LongAdder();
@@ -104,6 +109,13 @@ public class RemoteExecutionEventListener
     downloadBytes.add(event.getStartedEvent().getSizeBytes());
   }
 
+  /** Event specific subscriber method. */
+  @Subscribe
+  public void onLocalMaterializationEvent(LocalMaterializationEvent event) {
+    localCasLinkedBytes.add(event.getLinkedBytes());
+    localCasCopiedBytes.add(event.getCopiedBytes());
+  }
+
   /** Event specific subscriber method. */
   @Subscribe
   public void onActionScheduled(
@@ -204,6 +216,16 @@ public class RemoteExecutionEventListener
     return uploadBytes.intValue();
   }
 
+  @Override
+  public long getLocalCasLinkedSizeBytes() {
+    return localCasLinkedBytes.sum();
+  }
+
+  @Override
+  public long getLocalCasCopiedSizeBytes() {
+    return localCasCopiedBytes.sum();
+  }
+
   @Override
   public int getTotalRulesBuilt() {
     return totalBuildRules.intValue();
@@ -242,6 +264,8 @@ public class RemoteExecutionEventListener
         .put("cas_downloads_bytes", Long.toString(getCasDownloadSizeBytes()))
         .put("cas_uploads_count", Integer.toString(getCasUploads()))
         .put("cas_uploads_bytes", Long.toString(getCasUploadSizeBytes()))
+        .put("local_cas_linked_bytes", Long.toString(getLocalCasLinkedSizeBytes()))
+        .put("local_cas_copied_bytes", Long.toString(getLocalCasCopiedSizeBytes()))
         .put("localfallback_totally_executed_rules", localFallbackTotalExecutions.toString())
         .put("localfallback_locally_executed_rules", localFallbackLocalExecutions.toString())
         .put(
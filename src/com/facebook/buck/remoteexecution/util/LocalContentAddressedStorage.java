@@ -17,6 +17,7 @@
 package com.facebook.buck.remoteexecution.util;
 
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
+import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.file.MorePaths;
 import com.facebook.buck.io.windowsfs.WindowsFS;
@@ -33,6 +34,7 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputDirectory;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.SymlinkNode;
 import com.facebook.buck.util.concurrent.MostExecutors;
+import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.stream.RichStream;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.annotations.VisibleForTesting;
@@ -54,26 +56,34 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /** A simple, on-disk content addressed storage. */
 public class LocalContentAddressedStorage implements ContentAddressedStorageClient {
   private final Path cacheDir;
   private final StripedKeyedLocker<String> fileLock = new StripedKeyedLocker<>(8);
 
+  private static final Logger LOG = Logger.get(LocalContentAddressedStorage.class);
+
   private static final int MISSING_CHECK_LIMIT = 1000;
   private static final int SIZE_LIMIT = 10 * 1024 * 1024;
 
@@ -82,6 +92,10 @@ public class LocalContentAddressedStorage implements ContentAddressedStorageClie
   private final InputsMaterializer inputsMaterializer;
   private final Protocol protocol;
   private final AsyncBlobFetcher fetcher;
+  private volatile boolean canLinkOutputs = true;
+  // Whether outputs in each directory are on the same filesystem as the storage.
+  private final Map<Path, Boolean> linkableOutputDirs = new ConcurrentHashMap<>();
+  @Nullable private volatile FileStore fileStore;
 
   public LocalContentAddressedStorage(Path cacheDir, Protocol protocol, BuckEventBus buckEventBus) {
     this.cacheDir = cacheDir;
@@ -162,37 +176,26 @@ public class LocalContentAddressedStorage implements ContentAddressedStorageClie
             MostExecutors.newMultiThreadExecutor("output-materializer", 4),
             fetcher,
             protocol,
-            buckEventBus);
+            buckEventBus,
+            Platform.detect() == Platform.WINDOWS
+                ? Optional.empty()
+                : Optional.of(this::tryLinkOutput));
     this.inputsMaterializer =
         new InputsMaterializer(
             protocol,
             new InputsMaterializer.Delegate() {
               @Override
               public void materializeFile(Path root, FileNode file) throws IOException {
-                Path path = getPath(file.getDigest().getHash());
-                Preconditions.checkState(Files.exists(path), "Path %s doesn't exist.", path);
-                // As this file could potentially be materialized as both executable and
-                // non-executable, and
-                // links share that, we need two concrete versions of the file.
-                if (file.getIsExecutable()) {
-                  Path exePath = path.getParent().resolve(path.getFileName() + ".x");
-                  if (!Files.exists(exePath)) {
-                    try (AutoUnlocker ignored = fileLock.writeLock(exePath.toString())) {
-                      if (!Files.exists(exePath)) {
-                        Path tempPath = path.getParent().resolve(path.getFileName() + ".x.tmp");
-                        Files.copy(path, tempPath);
-                        Preconditions.checkState(tempPath.toFile().setExecutable(true));
-                        Files.move(tempPath, exePath);
-                      }
-                    }
-                  }
-                  path = exePath;
-                }
+                Optional<Path> path = getLinkablePath(file.getDigest(), file.getIsExecutable());
+                Preconditions.checkState(
+                    path.isPresent(),
+                    "Path %s doesn't exist.",
+                    getPath(file.getDigest().getHash()));
                 Path target = root.resolve(file.getName());
                 Path normalized = target.normalize();
                 Preconditions.checkState(
                     normalized.startsWith(root), "%s doesn't start with %s.", normalized, root);
-                Files.createLink(target, path);
+                Files.createLink(target, path.get());
               }
 
               @Override
@@ -202,6 +205,99 @@ public class LocalContentAddressedStorage implements ContentAddressedStorageClie
             });
   }
 
+  /**
+   * Returns the path of a stored blob which files can be linked to, if the blob is stored. As a
+   * file could potentially be materialized as both executable and non-executable, and links share
+   * that, there are two concrete versions of executable blobs.
+   */
+  private Optional<Path> getLinkablePath(Digest digest, boolean isExecutable) throws IOException {
+    Path path = getPath(digest.getHash());
+    if (!Files.exists(path)) {
+      return Optional.empty();
+    }
+    if (!isExecutable) {
+      return Optional.of(path);
+    }
+    Path exePath = path.getParent().resolve(path.getFileName() + ".x");
+    if (!Files.exists(exePath)) {
+      try (AutoUnlocker ignored = fileLock.writeLock(exePath.toString())) {
+        if (!Files.exists(exePath)) {
+          Path tempPath = path.getParent().resolve(path.getFileName() + ".x.tmp");
+          Files.copy(path, tempPath);
+          Preconditions.checkState(tempPath.toFile().setExecutable(true));
+          Files.move(tempPath, exePath);
+        }
+      }
+    }
+    return Optional.of(exePath);
+  }
+
+  /**
+   * Materializes an output as a hardlink to the stored blob when it is written to the local
+   * filesystem, as inputs are. Blobs which aren't stored, and outputs on another filesystem than
+   * the storage, are copied from the storage instead.
+   *
+   * <p>Linked outputs are made read-only, and so is the blob they share their contents with, so
+   * that a tool writing to an output in place fails instead of changing the stored blob under its
+   * digest. Rules delete their outputs before building them again, which doesn't affect the blob.
+   */
+  private boolean tryLinkOutput(
+      FileMaterializer materializer, Digest digest, Path path, boolean isExecutable)
+      throws IOException {
+    Optional<Path> target = materializer.getLocalPath(path);
+    if (!canLinkOutputs || !target.isPresent() || !isOnSameFileStore(target.get().getParent())) {
+      return false;
+    }
+    Optional<Path> source = getLinkablePath(digest, isExecutable);
+    if (!source.isPresent()) {
+      LOG.debug("%s is not stored in %s, copying it instead.", digest.getHash(), cacheDir);
+      return false;
+    }
+    if (Files.isWritable(source.get()) && !source.get().toFile().setWritable(false, false)) {
+      LOG.debug("Unable to make %s read-only, copying it instead.", source.get());
+      return false;
+    }
+    try {
+      Files.createLink(target.get(), source.get());
+      return true;
+    } catch (FileAlreadyExistsException e) {
+      throw e;
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to link %s, copying it instead.", target.get());
+      return false;
+    } catch (UnsupportedOperationException e) {
+      LOG.info(e, "Unable to link outputs to %s, copying them instead.", cacheDir);
+      canLinkOutputs = false;
+      return false;
+    }
+  }
+
+  /** @return whether files in {@code dir} can be linked to the blobs of the storage. */
+  private boolean isOnSameFileStore(Path dir) throws IOException {
+    try {
+      return linkableOutputDirs.computeIfAbsent(
+          dir,
+          ignored -> {
+            try {
+              FileStore cacheFileStore = fileStore;
+              if (cacheFileStore == null) {
+                cacheFileStore = Files.getFileStore(cacheDir);
+                fileStore = cacheFileStore;
+              }
+              boolean linkable = cacheFileStore.equals(Files.getFileStore(dir));
+              if (!linkable) {
+                LOG.debug("%s is not on the filesystem of %s, copying outputs.", dir, cacheDir);
+              }
+              return linkable;
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
   /** Upload blobs. */
   public ImmutableList<UploadResult> batchUpdateBlobs(ImmutableList<UploadDataSupplier> blobData) {
     ImmutableList.Builder<UploadResult> responseBuilder = ImmutableList.builder();
@@ -24,8 +24,11 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.FileNode;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.SymlinkNode;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.TreeNode;
 import com.facebook.buck.util.types.Either;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Verify;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Interners;
@@ -37,6 +40,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import javax.annotation.Nullable;
@@ -47,13 +51,52 @@ import javax.annotation.Nullable;
  *
  * <p>It also provides methods to get the {@link Protocol} encoded merkle tree data structures
  * (these values are cached once computed for a node).
+ *
+ * <p>Interned nodes are only kept while they are referenced, unless a number of entries to retain
+ * is given, in which case the most recently created trees are kept as well, up to that many files,
+ * symlinks and directories in total. This lets a cache which outlives a build hand out the same
+ * nodes, with their data already computed, to later builds.
  */
 public class MerkleTreeNodeCache {
   private final Interner<MerkleTreeNode> nodeInterner = Interners.newWeakInterner();
   private final Protocol protocol;
+  private final Optional<Cache<MerkleTreeNode, MerkleTreeNode>> retainedNodes;
 
   public MerkleTreeNodeCache(Protocol protocol) {
     this.protocol = protocol;
+    this.retainedNodes = Optional.empty();
+  }
+
+  /**
+   * @param maxRetainedEntries the number of entries of the trees to retain. Subtrees shared by
+   *     several retained trees are counted once for each of them, so that this bounds the memory
+   *     used by the retained trees however they overlap.
+   */
+  public MerkleTreeNodeCache(Protocol protocol, long maxRetainedEntries) {
+    this.protocol = protocol;
+    this.retainedNodes =
+        Optional.of(
+            CacheBuilder.newBuilder()
+                .maximumWeight(maxRetainedEntries)
+                .<MerkleTreeNode, MerkleTreeNode>weigher(
+                    (node, value) -> (int) Math.min(node.numEntries, Integer.MAX_VALUE))
+                .build());
+  }
+
+  /** @return the protocol the data of the nodes is encoded with. */
+  public Protocol getProtocol() {
+    return protocol;
+  }
+
+  @VisibleForTesting
+  boolean isRetained(MerkleTreeNode node) {
+    return retainedNodes.map(nodes -> nodes.getIfPresent(node) != null).orElse(false);
+  }
+
+  private MerkleTreeNode retain(MerkleTreeNode node) {
+    // Children are reachable from their root, so retaining the roots is enough.
+    retainedNodes.ifPresent(nodes -> nodes.put(node, node));
+    return node;
   }
 
   /**
@@ -68,7 +111,7 @@ public class MerkleTreeNodeCache {
     files.forEach(processTreeNode(rootBuilder, NodeType.FILE));
     symlinks.forEach(processTreeNode(rootBuilder, NodeType.SYMLINK));
     emptyDirectories.forEach(processTreeNode(rootBuilder, NodeType.DIRECTORY));
-    return rootBuilder.build(nodeInterner);
+    return retain(rootBuilder.build(nodeInterner));
   }
 
   private BiConsumer<Path, TreeNode> processTreeNode(
@@ -102,7 +145,7 @@ public class MerkleTreeNodeCache {
     while (iterator.hasNext()) {
       root.merge(iterator.next());
     }
-    return root.build(nodeInterner);
+    return retain(root.build(nodeInterner));
   }
 
   /**
@@ -122,6 +165,8 @@ public class MerkleTreeNodeCache {
   public static class MerkleTreeNode {
     @Nullable private volatile NodeData data;
     private final int hashCode;
+    // The number of files, symlinks and directories in the tree rooted at this node.
+    private final long numEntries;
     @Nullable private final Path path;
     private final ImmutableSortedMap<Path, MerkleTreeNode> children;
     private final ImmutableSortedMap<Path, FileNode> files;
@@ -140,6 +185,11 @@ public class MerkleTreeNodeCache {
       this.symlinks = symlinks;
       this.emptyDirectories = emptyDirectories;
       this.hashCode = Objects.hash(path, children, files, symlinks, emptyDirectories);
+      long numEntries = files.size() + symlinks.size() + emptyDirectories.size() + children.size();
+      for (MerkleTreeNode child : children.values()) {
+        numEntries += child.numEntries;
+      }
+      this.numEntries = numEntries;
     }
 
     /**
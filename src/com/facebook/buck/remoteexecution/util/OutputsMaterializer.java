@@ -22,6 +22,7 @@ import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.remoteexecution.AsyncBlobFetcher;
 import com.facebook.buck.remoteexecution.ContentAddressedStorageClient.FileMaterializer;
+import com.facebook.buck.remoteexecution.event.LocalMaterializationEvent;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Directory;
@@ -51,10 +52,13 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /** Used for materializing outputs from the CAS. */
@@ -67,6 +71,7 @@ public class OutputsMaterializer {
   private final int sizeLimit;
   private final ExecutorService materializerService;
   private final BuckEventBus buckEventBus;
+  private final Optional<FileLinker> fileLinker;
   private final BlockingDeque<PendingMaterialization> waitingMaterialization =
       new LinkedBlockingDeque<>();
 
@@ -83,6 +88,11 @@ public class OutputsMaterializer {
       Files.createDirectories(root.resolve(dirRoot));
     }
 
+    @Override
+    public Optional<Path> getLocalPath(Path path) {
+      return Optional.of(root.resolve(path));
+    }
+
     @Override
     public WritableByteChannel getOutputChannel(Path path, boolean executable) throws IOException {
       path = root.resolve(path);
@@ -107,6 +117,20 @@ public class OutputsMaterializer {
     }
   }
 
+  /**
+   * Materializes files from blobs which are already on the local filesystem, without copying their
+   * contents.
+   */
+  public interface FileLinker {
+    /**
+     * Tries to materialize the blob at the provided path.
+     *
+     * @return false if the file could not be linked, and its contents must be copied instead.
+     */
+    boolean tryLink(FileMaterializer materializer, Digest digest, Path path, boolean isExecutable)
+        throws IOException;
+  }
+
   /** Container class for pending materialization requests */
   public static class PendingMaterialization {
 
@@ -136,11 +160,22 @@ public class OutputsMaterializer {
       AsyncBlobFetcher fetcher,
       Protocol protocol,
       BuckEventBus buckEventBus) {
+    this(sizeLimit, materializerService, fetcher, protocol, buckEventBus, Optional.empty());
+  }
+
+  public OutputsMaterializer(
+      int sizeLimit,
+      ExecutorService materializerService,
+      AsyncBlobFetcher fetcher,
+      Protocol protocol,
+      BuckEventBus buckEventBus,
+      Optional<FileLinker> fileLinker) {
     this.sizeLimit = sizeLimit;
     this.fetcher = fetcher;
     this.protocol = protocol;
     this.materializerService = materializerService;
     this.buckEventBus = buckEventBus;
+    this.fileLinker = fileLinker;
   }
 
   /** Materialize the outputs of an action into a directory. */
@@ -150,6 +185,7 @@ public class OutputsMaterializer {
       FileMaterializer materializer)
       throws IOException {
     ImmutableList.Builder<ListenableFuture<Unit>> pending = ImmutableList.builder();
+    LinkStats linkStats = new LinkStats();
 
     for (OutputFile file : outputFiles) {
       Path filePath = Paths.get(file.getPath());
@@ -157,11 +193,8 @@ public class OutputsMaterializer {
       if (parent != null) {
         materializer.makeDirectories(parent);
       }
-      SettableFuture<Unit> future = SettableFuture.create();
-      waitingMaterialization.add(
-          new PendingMaterialization(
-              materializer, file.getDigest(), file.getIsExecutable(), filePath, future));
-      pending.add(future);
+      pending.add(
+          enqueue(materializer, file.getDigest(), file.getIsExecutable(), filePath, linkStats));
     }
     materializerService.submit(this::processFetchAndMaterialize);
 
@@ -184,14 +217,46 @@ public class OutputsMaterializer {
                 ImmutableList.Builder<ListenableFuture<Unit>> pendingFilesBuilder =
                     ImmutableList.builder();
                 materializeDirectory(
-                    materializer, childMap, tree.getRoot(), dirRoot, pendingFilesBuilder::add);
+                    materializer,
+                    childMap,
+                    tree.getRoot(),
+                    dirRoot,
+                    linkStats,
+                    pendingFilesBuilder::add);
                 return Futures.whenAllSucceed(pendingFilesBuilder.build())
                     .call(() -> null, MoreExecutors.directExecutor());
               },
               MoreExecutors.directExecutor()));
     }
 
-    return Futures.whenAllSucceed(pending.build()).call(() -> null, MoreExecutors.directExecutor());
+    ListenableFuture<Unit> result =
+        Futures.whenAllSucceed(pending.build()).call(() -> null, MoreExecutors.directExecutor());
+    if (fileLinker.isPresent()) {
+      result.addListener(() -> linkStats.post(buckEventBus), MoreExecutors.directExecutor());
+    }
+    return result;
+  }
+
+  private ListenableFuture<Unit> enqueue(
+      FileMaterializer materializer,
+      Digest digest,
+      boolean isExecutable,
+      Path path,
+      LinkStats linkStats)
+      throws IOException {
+    if (fileLinker.isPresent()) {
+      if (fileLinker.get().tryLink(materializer, digest, path, isExecutable)) {
+        linkStats.linkedFiles.incrementAndGet();
+        linkStats.linkedBytes.addAndGet(digest.getSize());
+        return Futures.immediateFuture(null);
+      }
+      linkStats.copiedFiles.incrementAndGet();
+      linkStats.copiedBytes.addAndGet(digest.getSize());
+    }
+    SettableFuture<Unit> future = SettableFuture.create();
+    waitingMaterialization.add(
+        new PendingMaterialization(materializer, digest, isExecutable, path, future));
+    return future;
   }
 
   private void materializeDirectory(
@@ -199,6 +264,7 @@ public class OutputsMaterializer {
       Map<Digest, Directory> childMap,
       Directory directory,
       Path root,
+      LinkStats linkStats,
       Consumer<ListenableFuture<Unit>> pendingWorkConsumer)
       throws IOException {
     materializer.makeDirectories(root);
@@ -210,19 +276,18 @@ public class OutputsMaterializer {
               childMap.get(childNode.getDigest()),
               String.format("Data for dir [%s] not found in merkle-tree.", root)),
           root.resolve(childNode.getName()),
+          linkStats,
           pendingWorkConsumer);
     }
 
     for (FileNode file : directory.getFilesList()) {
-      SettableFuture<Unit> future = SettableFuture.create();
-      waitingMaterialization.add(
-          new PendingMaterialization(
+      pendingWorkConsumer.accept(
+          enqueue(
               materializer,
               file.getDigest(),
               file.getIsExecutable(),
               root.resolve(file.getName()),
-              future));
-      pendingWorkConsumer.accept(future);
+              linkStats));
     }
     materializerService.submit(this::processFetchAndMaterialize);
   }
@@ -298,6 +363,23 @@ public class OutputsMaterializer {
     }
   }
 
+  /** How many of the files of a single materialization were linked rather than copied. */
+  private static class LinkStats {
+    private final AtomicInteger linkedFiles = new AtomicInteger();
+    private final AtomicLong linkedBytes = new AtomicLong();
+    private final AtomicInteger copiedFiles = new AtomicInteger();
+    private final AtomicLong copiedBytes = new AtomicLong();
+
+    private void post(BuckEventBus eventBus) {
+      if (linkedFiles.get() == 0 && copiedFiles.get() == 0) {
+        return;
+      }
+      eventBus.post(
+          new LocalMaterializationEvent(
+              linkedFiles.get(), linkedBytes.get(), copiedFiles.get(), copiedBytes.get()));
+    }
+  }
+
   private static void tryCloseChannel(WritableByteChannel channel) {
     try {
       channel.close();
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Remote execution state which the daemon keeps between commands, so that preparing the actions of
+ * a build doesn't start from scratch every time:
+ *
+ * <ul>
+ *   <li>the merkle trees of action inputs, along with their digests;
+ *   <li>the digests of the files that are sent with every action, like the Buck classpath;
+ *   <li>the digests which a CAS confirmed it contains, so that they aren't checked again.
+ * </ul>
+ *
+ * <p>Merkle tree nodes are identified by the digests of their files, so they stay valid whatever
+ * changes on disk. Digests of files are identified by the size and modification time of the file.
+ * Everything is dropped when a command uses another {@link Protocol}.
+ */
+public class RemoteExecutionInputsCache {
+  // An entry takes at most a few hundred bytes, which bounds retained trees to a few hundred MB.
+  private static final long MAX_RETAINED_TREE_ENTRIES = 2_000_000;
+  private static final long MAX_CONFIRMED_DIGESTS = 2_000_000;
+
+  private final LongSupplier clock;
+
+  // Guarded by this.
+  @Nullable private Class<?> protocolType;
+  @Nullable private MerkleTreeNodeCache nodeCache;
+  @Nullable private String storageName;
+
+  private final Map<Path, FileDigest> fileDigests = new ConcurrentHashMap<>();
+  private final Cache<String, Long> confirmedHashes =
+      CacheBuilder.newBuilder().maximumSize(MAX_CONFIRMED_DIGESTS).build();
+
+  public RemoteExecutionInputsCache() {
+    this(System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  RemoteExecutionInputsCache(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /** @return a node cache which retains trees across commands using the same protocol. */
+  public synchronized MerkleTreeNodeCache getNodeCache(Protocol protocol) {
+    checkProtocol(protocol);
+    if (nodeCache == null) {
+      nodeCache = new MerkleTreeNodeCache(protocol, MAX_RETAINED_TREE_ENTRIES);
+    }
+    return nodeCache;
+  }
+
+  /** @return the digest of the file, which is only computed if the file changed. */
+  public Digest getFileDigest(Protocol protocol, Path path) throws IOException {
+    synchronized (this) {
+      checkProtocol(protocol);
+    }
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    long size = attributes.size();
+    long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+    FileDigest cached = fileDigests.get(path);
+    if (cached != null && cached.size == size && cached.lastModifiedMillis == lastModifiedMillis) {
+      return cached.digest;
+    }
+    Digest digest = protocol.computeDigest(Files.readAllBytes(path));
+    fileDigests.put(path, new FileDigest(size, lastModifiedMillis, digest));
+    return digest;
+  }
+
+  /**
+   * @param storageName identifies the CAS. Confirmations from another CAS are forgotten.
+   * @param ttlMillis how long a CAS is trusted to keep a blob after confirming it contains it.
+   */
+  public synchronized ConfirmedDigests getConfirmedDigests(String storageName, long ttlMillis) {
+    if (!storageName.equals(this.storageName)) {
+      this.storageName = storageName;
+      confirmedHashes.invalidateAll();
+    }
+    return new ConfirmedDigests(ttlMillis);
+  }
+
+  private void checkProtocol(Protocol protocol) {
+    if (!Objects.equals(protocolType, protocol.getClass())) {
+      protocolType = protocol.getClass();
+      nodeCache = null;
+      fileDigests.clear();
+      confirmedHashes.invalidateAll();
+    }
+  }
+
+  /** The digests which a CAS confirmed it contains. */
+  public class ConfirmedDigests {
+    private final long ttlMillis;
+
+    private ConfirmedDigests(long ttlMillis) {
+      this.ttlMillis = ttlMillis;
+    }
+
+    /** @return whether the CAS confirmed it contains the digest recently enough. */
+    public boolean contains(Digest digest) {
+      Long confirmedMillis = confirmedHashes.getIfPresent(digest.getHash());
+      return confirmedMillis != null && clock.getAsLong() - confirmedMillis < ttlMillis;
+    }
+
+    /** Records that the CAS contains the digests, e.g. once they were uploaded to it. */
+    public void add(Iterable<Digest> digests) {
+      long now = clock.getAsLong();
+      for (Digest digest : digests) {
+        confirmedHashes.put(digest.getHash(), now);
+      }
+    }
+  }
+
+  private static class FileDigest {
+    private final long size;
+    private final long lastModifiedMillis;
+    private final Digest digest;
+
+    private FileDigest(long size, long lastModifiedMillis, Digest digest) {
+      this.size = size;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.digest = digest;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.core.artifact.Artifact;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.actions.Action;
+import com.facebook.buck.core.sourcepath.BuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.PathSourcePath;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.rules.keys.hasher.CountingRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.GuavaRuleKeyHasher;
+import com.facebook.buck.rules.keys.hasher.RuleKeyHasher;
+import com.facebook.buck.util.Scope;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Hashes the attributes of a constructor arg the way rule keys serialize values, without resolving
+ * source paths or reading files: source paths and paths are hashed by the files they name.
+ *
+ * <p>Values the builder doesn't know how to serialize are not hashed, and make {@link #build()}
+ * return nothing, so that callers never mistake two different args for the same one.
+ */
+public class ConstructorArgHashBuilder extends AbstractRuleKeyBuilder<Optional<HashCode>> {
+
+  private final CountingRuleKeyHasher<HashCode> hasher;
+  private boolean complete = true;
+
+  public ConstructorArgHashBuilder() {
+    this(new CountingRuleKeyHasher<>(new GuavaRuleKeyHasher(Hashing.sha1().newHasher())));
+  }
+
+  private ConstructorArgHashBuilder(CountingRuleKeyHasher<HashCode> hasher) {
+    super(new DefaultRuleKeyScopedHasher<>(hasher));
+    this.hasher = hasher;
+  }
+
+  @Override
+  protected ConstructorArgHashBuilder setReflectively(@Nullable Object val) throws IOException {
+    if (val instanceof Path) {
+      hasher.putNonHashingPath((Path) val);
+      return this;
+    }
+    super.setReflectively(val);
+    return this;
+  }
+
+  @Override
+  protected ConstructorArgHashBuilder setSingleValue(@Nullable Object val) {
+    if (val == null) { // Null value first
+      hasher.putNull();
+    } else if (val instanceof Boolean) { // JRE types
+      hasher.putBoolean((boolean) val);
+    } else if (val instanceof Enum) {
+      hasher.putString(String.valueOf(val));
+    } else if (val instanceof Character) {
+      hasher.putCharacter((Character) val);
+    } else if (val instanceof Number) {
+      hasher.putNumber((Number) val);
+    } else if (val instanceof String) {
+      hasher.putString((String) val);
+    } else if (val instanceof Pattern) {
+      hasher.putPattern((Pattern) val);
+    } else if (val instanceof BuildTarget) { // Buck types
+      hasher.putBuildTarget((BuildTarget) val);
+    } else {
+      complete = false;
+    }
+    return this;
+  }
+
+  @Override
+  protected ConstructorArgHashBuilder setAction(Action action) {
+    complete = false;
+    return this;
+  }
+
+  @Override
+  protected ConstructorArgHashBuilder setBuildRule(BuildRule rule) {
+    complete = false;
+    return this;
+  }
+
+  @Override
+  protected ConstructorArgHashBuilder setAddsToRuleKey(AddsToRuleKey appendable) {
+    try (Scope ignored = scopedHasher.wrapperScope(RuleKeyHasher.Wrapper.APPENDABLE)) {
+      AlterRuleKeys.amendKey(this, appendable);
+    }
+    return this;
+  }
+
+  @Override
+  protected ConstructorArgHashBuilder setArtifact(Artifact artifact) {
+    complete = false;
+    return this;
+  }
+
+  @Override
+  protected ConstructorArgHashBuilder setSourcePath(SourcePath sourcePath) {
+    if (sourcePath instanceof BuildTargetSourcePath) {
+      hasher.putBuildTargetSourcePath((BuildTargetSourcePath) sourcePath);
+    } else if (sourcePath instanceof PathSourcePath) {
+      PathSourcePath pathSourcePath = (PathSourcePath) sourcePath;
+      hasher.putNonHashingPath(
+          pathSourcePath.getFilesystem().resolve(pathSourcePath.getRelativePath()));
+    } else {
+      complete = false;
+    }
+    return this;
+  }
+
+  @Override
+  protected ConstructorArgHashBuilder setNonHashingSourcePath(SourcePath sourcePath) {
+    return setSourcePath(sourcePath);
+  }
+
+  /** @return the hash of the attributes, or nothing if some of their values couldn't be hashed. */
+  @Override
+  public Optional<HashCode> build() {
+    return complete ? Optional.of(hasher.hash()) : Optional.empty();
+  }
+}
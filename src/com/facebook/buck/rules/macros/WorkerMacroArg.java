@@ -133,6 +133,10 @@ public class WorkerMacroArg extends ProxyArg {
     return workerTool.getMaxWorkers();
   }
 
+  public int getMaxJobsPerWorker() {
+    return workerTool.getMaxJobsPerWorker();
+  }
+
   public String getJobArgs(SourcePathResolverAdapter pathResolver) {
     return Arg.stringify(arg, pathResolver).trim();
   }
@@ -191,6 +191,21 @@ public class ModernBuildRule<T extends Buildable> extends AbstractBuildRule
     }
   }
 
+  /**
+   * Allows injecting the AbstractBuildRule and ModernBuildRule fields into a rule created without
+   * running its constructor. Only valid for rules that keep all of their state in {@code
+   * buildable}.
+   */
+  public static <T extends Buildable> void injectFields(
+      ModernBuildRule<T> rule,
+      ProjectFilesystem filesystem,
+      BuildTarget target,
+      T buildable,
+      SourcePathRuleFinder ruleFinder) {
+    AbstractBuildRule.injectFields(rule, filesystem, target);
+    initialize(rule, Either.ofLeft(buildable), ruleFinder, filesystem, target);
+  }
+
   private ImmutableSortedSet<BuildRule> computeDeps() {
     ImmutableSortedSet.Builder<BuildRule> depsBuilder = ImmutableSortedSet.naturalOrder();
     classInfo.visit(buildable, new DepsComputingVisitor(inputRuleResolver, depsBuilder::add));
@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.modern;
+
+import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.cell.CellPathResolver;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.UnflavoredBuildTarget;
+import com.facebook.buck.core.model.actiongraph.computation.ActionGraphSnapshotStore;
+import com.facebook.buck.core.model.actiongraph.computation.UnflavoredTargetFingerprints;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.module.impl.NoOpBuckModuleHashStrategy;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rulekey.AddsToRuleKey;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.BuildRuleResolver;
+import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.attr.HasRuntimeDeps;
+import com.facebook.buck.core.rules.impl.AbstractBuildRuleResolver;
+import com.facebook.buck.core.sourcepath.resolver.SourcePathResolverAdapter;
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyFactory;
+import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
+import com.facebook.buck.rules.keys.config.RuleKeyConfiguration;
+import com.facebook.buck.rules.keys.config.impl.BuckVersion;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.objenesis.ObjenesisStd;
+
+/**
+ * An {@link ActionGraphSnapshotStore} that persists {@link ModernBuildRule}s with the {@link
+ * Serializer} and restores them with the {@link Deserializer}.
+ *
+ * <p>Only rules that keep all of their state in their {@link Buildable} can be persisted: either
+ * rules that are their own Buildable, or rules that declare no fields of their own. An unflavored
+ * target is saved only if all of its rules can be persisted and survive a round trip through the
+ * serialized format with an unchanged content agnostic rule key, and it is restored only if its
+ * fingerprint, as computed by {@link UnflavoredTargetFingerprints}, did not change and all the
+ * rules its rules depend on are restored as well.
+ *
+ * <p>The serialized representation of values shared by several rules is stored once, keyed by the
+ * hash of its contents.
+ */
+public class ModernBuildRuleSnapshotStore implements ActionGraphSnapshotStore {
+
+  private static final Logger LOG = Logger.get(ModernBuildRuleSnapshotStore.class);
+
+  private static final int MAGIC = 0x42414753; // "BAGS"
+  private static final int VERSION = 1;
+
+  // Only used to check that rules survive a round trip, so it doesn't need to match the rule key
+  // configuration of any build.
+  private static final RuleKeyConfiguration ROUND_TRIP_RULE_KEY_CONFIGURATION =
+      RuleKeyConfiguration.of(0, "", Long.MAX_VALUE, new NoOpBuckModuleHashStrategy());
+
+  private static final Map<Class<?>, Boolean> KEEPS_STATE_IN_BUILDABLE = new ConcurrentHashMap<>();
+
+  private final Cell rootCell;
+  private final TypeCoercerFactory typeCoercerFactory;
+  private final Path snapshotPath;
+  private final String salt;
+  private final ObjenesisStd objenesis = new ObjenesisStd();
+
+  public ModernBuildRuleSnapshotStore(Cell rootCell, TypeCoercerFactory typeCoercerFactory) {
+    this(
+        rootCell,
+        typeCoercerFactory,
+        getDefaultSnapshotPath(rootCell.getFilesystem()),
+        BuckVersion.getVersion()
+            + ":"
+            + rootCell.getBuckConfig().getConfig().getOrderIndependentHashCode());
+  }
+
+  ModernBuildRuleSnapshotStore(
+      Cell rootCell, TypeCoercerFactory typeCoercerFactory, Path snapshotPath, String salt) {
+    this.rootCell = rootCell;
+    this.typeCoercerFactory = typeCoercerFactory;
+    this.snapshotPath = snapshotPath;
+    this.salt = salt;
+  }
+
+  /** @return the default location of the snapshot for the cell owning {@code filesystem}. */
+  public static Path getDefaultSnapshotPath(ProjectFilesystem filesystem) {
+    return filesystem.getBuckPaths().getBuckOut().resolve("actiongraph").resolve("snapshot");
+  }
+
+  @Override
+  public void save(TargetGraph targetGraph, ActionGraphBuilder graphBuilder) throws IOException {
+    ImmutableMap<UnflavoredBuildTarget, HashCode> fingerprints =
+        UnflavoredTargetFingerprints.compute(targetGraph, typeCoercerFactory, salt);
+
+    Map<UnflavoredBuildTarget, List<BuildRule>> rulesByUnflavoredTarget = new LinkedHashMap<>();
+    for (BuildRule rule : graphBuilder.getSuccessfullyConstructedBuildRules()) {
+      rulesByUnflavoredTarget
+          .computeIfAbsent(
+              rule.getBuildTarget().getUnflavoredBuildTarget(), ignored -> new ArrayList<>())
+          .add(rule);
+    }
+
+    Map<HashCode, byte[]> data = new HashMap<>();
+    Map<HashCode, ImmutableList<HashCode>> children = new HashMap<>();
+    Serializer serializer =
+        new Serializer(
+            graphBuilder,
+            rootCell.getCellPathResolver(),
+            (instance, bytes, instanceChildren) -> {
+              HashCode hash = Hashing.sha1().hashBytes(bytes);
+              data.putIfAbsent(hash, bytes);
+              children.putIfAbsent(hash, instanceChildren);
+              return hash;
+            });
+    Deserializer deserializer = newDeserializer(graphBuilder::getSourcePathResolver);
+    ContentAgnosticRuleKeyFactory ruleKeyFactory =
+        new ContentAgnosticRuleKeyFactory(
+            new RuleKeyFieldLoader(ROUND_TRIP_RULE_KEY_CONFIGURATION),
+            graphBuilder,
+            Optional.empty());
+
+    Map<HashCode, List<HashCode>> groups = new LinkedHashMap<>();
+    int savedRules = 0;
+    for (Map.Entry<UnflavoredBuildTarget, List<BuildRule>> entry :
+        rulesByUnflavoredTarget.entrySet()) {
+      HashCode fingerprint = fingerprints.get(entry.getKey());
+      if (fingerprint == null) {
+        continue;
+      }
+      List<HashCode> roots = new ArrayList<>();
+      for (BuildRule rule : entry.getValue()) {
+        Optional<HashCode> root =
+            persist(rule, serializer, deserializer, data, graphBuilder, ruleKeyFactory);
+        if (!root.isPresent()) {
+          roots = null;
+          break;
+        }
+        roots.add(root.get());
+      }
+      if (roots != null) {
+        groups.put(fingerprint, roots);
+        savedRules += roots.size();
+      }
+    }
+
+    write(data, children, groups);
+    LOG.info(
+        "Saved %d build rules of %d out of %d unflavored targets to %s",
+        savedRules, groups.size(), rulesByUnflavoredTarget.size(), snapshotPath);
+  }
+
+  @Override
+  public int restore(TargetGraph targetGraph, ActionGraphBuilder graphBuilder)
+      throws IOException {
+    ProjectFilesystem filesystem = rootCell.getFilesystem();
+    if (!filesystem.isFile(snapshotPath)) {
+      return 0;
+    }
+
+    Map<HashCode, byte[]> data = new HashMap<>();
+    Map<HashCode, List<HashCode>> groups = new HashMap<>();
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(filesystem.newFileInputStream(snapshotPath)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || !readString(in).equals(salt)) {
+        LOG.info("Ignoring action graph snapshot %s from another version or config", snapshotPath);
+        return 0;
+      }
+      for (int blobs = in.readInt(); blobs > 0; blobs--) {
+        data.put(readHash(in), readBytes(in));
+      }
+      for (int groupCount = in.readInt(); groupCount > 0; groupCount--) {
+        HashCode fingerprint = readHash(in);
+        List<HashCode> roots = new ArrayList<>();
+        for (int rootCount = in.readInt(); rootCount > 0; rootCount--) {
+          roots.add(readHash(in));
+        }
+        groups.put(fingerprint, roots);
+      }
+    } catch (EOFException | IllegalArgumentException | NegativeArraySizeException e) {
+      LOG.warn(e, "Ignoring truncated or corrupt action graph snapshot %s", snapshotPath);
+      return 0;
+    }
+
+    // Rules are first resolved against each other only, so that we can find out which of them
+    // depend on rules that could not be restored before adding anything to the graph builder.
+    Map<BuildTarget, BuildRule> candidates = new HashMap<>();
+    BuildRuleResolver candidateResolver =
+        new AbstractBuildRuleResolver() {
+          @Override
+          public Optional<BuildRule> getRuleOptional(BuildTarget buildTarget) {
+            return Optional.ofNullable(candidates.get(buildTarget));
+          }
+        };
+    Deserializer deserializer = newDeserializer(graphBuilder::getSourcePathResolver);
+    Map<UnflavoredBuildTarget, List<BuildRule>> restoredGroups = new HashMap<>();
+    for (Map.Entry<UnflavoredBuildTarget, HashCode> entry :
+        UnflavoredTargetFingerprints.compute(targetGraph, typeCoercerFactory, salt).entrySet()) {
+      List<HashCode> roots = groups.get(entry.getValue());
+      if (roots == null) {
+        continue;
+      }
+      try {
+        List<BuildRule> rules = new ArrayList<>(roots.size());
+        for (HashCode root : roots) {
+          rules.add(
+              restore(
+                  deserializer.deserialize(getProvider(data, root), PersistedRule.class),
+                  candidateResolver));
+        }
+        rules.forEach(rule -> candidates.put(rule.getBuildTarget(), rule));
+        restoredGroups.put(entry.getKey(), rules);
+      } catch (IOException | RuntimeException e) {
+        LOG.verbose(e, "Could not restore rules of %s", entry.getKey());
+      }
+    }
+
+    boolean dropped = true;
+    while (dropped) {
+      dropped = false;
+      Iterator<List<BuildRule>> iterator = restoredGroups.values().iterator();
+      while (iterator.hasNext()) {
+        List<BuildRule> rules = iterator.next();
+        if (!dependenciesRestored(rules, candidates, candidateResolver)) {
+          rules.forEach(rule -> candidates.remove(rule.getBuildTarget()));
+          iterator.remove();
+          dropped = true;
+        }
+      }
+    }
+
+    for (BuildRule rule : candidates.values()) {
+      graphBuilder.addToIndex(rule);
+      rule.updateBuildRuleResolver(graphBuilder);
+    }
+    LOG.info(
+        "Restored %d build rules of %d unflavored targets from %s",
+        candidates.size(), restoredGroups.size(), snapshotPath);
+    return candidates.size();
+  }
+
+  private Optional<HashCode> persist(
+      BuildRule rule,
+      Serializer serializer,
+      Deserializer deserializer,
+      Map<HashCode, byte[]> data,
+      SourcePathRuleFinder ruleFinder,
+      ContentAgnosticRuleKeyFactory ruleKeyFactory) {
+    if (!(rule instanceof ModernBuildRule) || !keepsStateInBuildable((ModernBuildRule<?>) rule)) {
+      return Optional.empty();
+    }
+    try {
+      HashCode root =
+          serializer.serialize(
+              new PersistedRule(
+                  rule.getBuildTarget(),
+                  rootCell
+                      .getCellPathResolver()
+                      .getCanonicalCellName(rule.getProjectFilesystem().getRootPath()),
+                  rule.getClass().getName(),
+                  ((ModernBuildRule<?>) rule).getBuildable()));
+      BuildRule restored =
+          restore(
+              deserializer.deserialize(getProvider(data, root), PersistedRule.class), ruleFinder);
+      RuleKey expected = ruleKeyFactory.build(rule);
+      RuleKey actual = ruleKeyFactory.build(restored);
+      if (!expected.equals(actual)) {
+        LOG.verbose("Rule key of %s changes when it is restored", rule.getBuildTarget());
+        return Optional.empty();
+      }
+      return Optional.of(root);
+    } catch (IOException | RuntimeException e) {
+      LOG.verbose(e, "Could not persist %s", rule.getBuildTarget());
+      return Optional.empty();
+    }
+  }
+
+  private BuildRule restore(PersistedRule persisted, SourcePathRuleFinder ruleFinder)
+      throws IOException {
+    ProjectFilesystem filesystem = getCellFilesystem(persisted.cellName);
+    Buildable buildable = persisted.buildable;
+    if (buildable instanceof ModernBuildRule) {
+      ModernBuildRule.injectFieldsIfNecessary(filesystem, persisted.target, buildable, ruleFinder);
+      return (BuildRule) buildable;
+    }
+    Class<?> ruleClass;
+    try {
+      ruleClass = Class.forName(persisted.ruleClass);
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+    @SuppressWarnings("unchecked")
+    ModernBuildRule<Buildable> rule =
+        (ModernBuildRule<Buildable>) objenesis.newInstance(ruleClass);
+    ModernBuildRule.injectFields(rule, filesystem, persisted.target, buildable, ruleFinder);
+    return rule;
+  }
+
+  private static boolean keepsStateInBuildable(ModernBuildRule<?> rule) {
+    if (rule.getBuildable() == rule) {
+      return true;
+    }
+    return KEEPS_STATE_IN_BUILDABLE.computeIfAbsent(
+        rule.getClass(),
+        ruleClass -> {
+          for (Class<?> current = ruleClass;
+              !current.equals(ModernBuildRule.class);
+              current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+              if (!Modifier.isStatic(field.getModifiers())) {
+                return false;
+              }
+            }
+          }
+          return true;
+        });
+  }
+
+  private static boolean dependenciesRestored(
+      List<BuildRule> rules, Map<BuildTarget, BuildRule> candidates, BuildRuleResolver resolver) {
+    try {
+      for (BuildRule rule : rules) {
+        for (BuildRule dep : rule.getBuildDeps()) {
+          if (candidates.get(dep.getBuildTarget()) != dep) {
+            return false;
+          }
+        }
+        if (rule instanceof HasRuntimeDeps) {
+          Set<BuildTarget> runtimeDeps =
+              ((HasRuntimeDeps) rule).getRuntimeDeps(resolver).collect(Collectors.toSet());
+          if (!candidates.keySet().containsAll(runtimeDeps)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  private Deserializer newDeserializer(Supplier<SourcePathResolverAdapter> pathResolver) {
+    return new Deserializer(
+        this::getCellFilesystem, Class::forName, pathResolver, rootCell.getToolchainProvider());
+  }
+
+  private ProjectFilesystem getCellFilesystem(Optional<String> cellName) {
+    CellPathResolver cellPathResolver = rootCell.getCellPathResolver();
+    return rootCell
+        .getCellProvider()
+        .getCellByPath(cellPathResolver.getCellPathOrThrow(cellName))
+        .getFilesystem();
+  }
+
+  private static Deserializer.DataProvider getProvider(Map<HashCode, byte[]> data, HashCode hash) {
+    return new Deserializer.DataProvider() {
+      @Override
+      public InputStream getData() {
+        byte[] bytes = data.get(hash);
+        if (bytes == null) {
+          throw new IllegalStateException("Missing serialized data for " + hash);
+        }
+        return new ByteArrayInputStream(bytes);
+      }
+
+      @Override
+      public Deserializer.DataProvider getChild(HashCode hash) {
+        return getProvider(data, hash);
+      }
+    };
+  }
+
+  /**
+   * Writes the snapshot to a temporary location and atomically moves it in place. Only the data
+   * reachable from saved rules is written.
+   */
+  private void write(
+      Map<HashCode, byte[]> data,
+      Map<HashCode, ImmutableList<HashCode>> children,
+      Map<HashCode, List<HashCode>> groups)
+      throws IOException {
+    Map<HashCode, byte[]> reachable = new LinkedHashMap<>();
+    Deque<HashCode> queue = new ArrayDeque<>();
+    groups.values().forEach(queue::addAll);
+    while (!queue.isEmpty()) {
+      HashCode hash = queue.pop();
+      if (reachable.containsKey(hash)) {
+        continue;
+      }
+      reachable.put(hash, data.get(hash));
+      queue.addAll(children.getOrDefault(hash, ImmutableList.of()));
+    }
+
+    ProjectFilesystem filesystem = rootCell.getFilesystem();
+    filesystem.createParentDirs(snapshotPath);
+    Path tmpPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(filesystem.newFileOutputStream(tmpPath, false)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeBytes(out, salt.getBytes(StandardCharsets.UTF_8));
+      out.writeInt(reachable.size());
+      for (Map.Entry<HashCode, byte[]> entry : reachable.entrySet()) {
+        writeBytes(out, entry.getKey().asBytes());
+        writeBytes(out, entry.getValue());
+      }
+      out.writeInt(groups.size());
+      for (Map.Entry<HashCode, List<HashCode>> entry : groups.entrySet()) {
+        writeBytes(out, entry.getKey().asBytes());
+        out.writeInt(entry.getValue().size());
+        for (HashCode root : entry.getValue()) {
+          writeBytes(out, root.asBytes());
+        }
+      }
+    }
+    filesystem.move(
+        tmpPath,
+        snapshotPath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static HashCode readHash(DataInputStream in) throws IOException {
+    return HashCode.fromBytes(readBytes(in));
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return new String(readBytes(in), StandardCharsets.UTF_8);
+  }
+
+  /** What is serialized for each rule. */
+  private static class PersistedRule implements AddsToRuleKey {
+    @AddToRuleKey private final BuildTarget target;
+    @AddToRuleKey private final Optional<String> cellName;
+    @AddToRuleKey private final String ruleClass;
+    @AddToRuleKey private final Buildable buildable;
+
+    PersistedRule(
+        BuildTarget target, Optional<String> cellName, String ruleClass, Buildable buildable) {
+      this.target = target;
+      this.cellName = cellName;
+      this.ruleClass = ruleClass;
+      this.buildable = buildable;
+    }
+  }
+}
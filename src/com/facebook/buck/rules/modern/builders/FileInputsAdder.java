@@ -57,6 +57,8 @@ class FileInputsAdder {
 
     @Nullable
     Path getSymlinkTarget(Path path) throws IOException;
+
+    boolean isRegularFile(Path path);
   }
 
   private final Set<Path> addedInputs = new HashSet<>();
@@ -157,7 +159,7 @@ class FileInputsAdder {
       return target;
     }
 
-    if (Files.isRegularFile(path)) {
+    if (delegate.isRegularFile(path)) {
       delegate.addFile(path);
     }
     map.put(path, path);
@@ -183,5 +185,10 @@ class FileInputsAdder {
     public Path getSymlinkTarget(Path path) throws IOException {
       return Files.isSymbolicLink(path) ? Files.readSymbolicLink(path) : null;
     }
+
+    @Override
+    public boolean isRegularFile(Path path) {
+      return Files.isRegularFile(path);
+    }
   }
 }
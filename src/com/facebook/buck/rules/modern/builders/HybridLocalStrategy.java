@@ -22,6 +22,7 @@ import com.facebook.buck.core.build.engine.DelegatingBuildStrategyContext;
 import com.facebook.buck.core.exceptions.BuckUncheckedExecutionException;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
+import com.facebook.buck.core.rules.build.strategy.UnmaterializedOutput;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.remoteexecution.WorkerRequirementsProvider;
@@ -29,6 +30,7 @@ import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
 import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.base.Verify;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -36,6 +38,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CancellationException;
@@ -464,6 +467,16 @@ public class HybridLocalStrategy implements BuildRuleStrategy {
     return true;
   }
 
+  @Override
+  public ImmutableMap<Path, UnmaterializedOutput> getUnmaterializedOutputs(BuildRule rule) {
+    return delegate.getUnmaterializedOutputs(rule);
+  }
+
+  @Override
+  public ListenableFuture<?> materializeOutputs(BuildRule rule, boolean includeTransitiveDeps) {
+    return delegate.materializeOutputs(rule, includeTransitiveDeps);
+  }
+
   @Override
   public void close() throws IOException {
     delegate.close();
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.modern.builders;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.build.strategy.UnmaterializedOutput;
+import com.facebook.buck.remoteexecution.ContentAddressedStorageClient;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
+import com.facebook.buck.util.types.Unit;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the output files of remotely executed rules which were left in the CAS rather
+ * than downloaded, and writes them to disk once something local needs them.
+ */
+class LazyOutputsMaterializer {
+  private final ContentAddressedStorageClient storage;
+  private final Map<BuildRule, RuleOutputs> outputsByRule = new ConcurrentHashMap<>();
+  private final Map<Path, OutputFile> outputsByPath = new ConcurrentHashMap<>();
+
+  // Guarded by this.
+  private final Map<BuildRule, ListenableFuture<Unit>> materializations = new HashMap<>();
+  private final Map<BuildRule, ListenableFuture<Unit>> transitiveMaterializations =
+      new HashMap<>();
+
+  LazyOutputsMaterializer(ContentAddressedStorageClient storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Records the output files of a rule, whose paths are relative to {@code root}, instead of
+   * materializing them.
+   */
+  void register(BuildRule rule, Path root, List<OutputFile> files) {
+    outputsByRule.put(rule, new RuleOutputs(root, ImmutableList.copyOf(files)));
+    for (OutputFile file : files) {
+      outputsByPath.put(root.resolve(file.getPath()), file);
+    }
+  }
+
+  /** Returns the output files of the rule which haven't been materialized, by absolute path. */
+  ImmutableMap<Path, UnmaterializedOutput> getUnmaterializedOutputs(BuildRule rule) {
+    RuleOutputs outputs = outputsByRule.get(rule);
+    if (outputs == null) {
+      return ImmutableMap.of();
+    }
+    ImmutableMap.Builder<Path, UnmaterializedOutput> builder = ImmutableMap.builder();
+    for (OutputFile file : outputs.files) {
+      builder.put(
+          outputs.root.resolve(file.getPath()),
+          new UnmaterializedOutput(
+              HashCode.fromString(file.getDigest().getHash()), file.getDigest().getSize()));
+    }
+    return builder.build();
+  }
+
+  /** Returns the output file at this absolute path, if it hasn't been materialized. */
+  Optional<OutputFile> getUnmaterializedFile(Path path) {
+    return Optional.ofNullable(outputsByPath.get(path));
+  }
+
+  /**
+   * Materializes the output files of the rule, and those of its transitive build deps if {@code
+   * includeTransitiveDeps} is set. Each rule is only materialized once.
+   */
+  synchronized ListenableFuture<Unit> materialize(BuildRule rule, boolean includeTransitiveDeps)
+      throws IOException {
+    if (!includeTransitiveDeps) {
+      return materializeRule(rule);
+    }
+    ListenableFuture<Unit> existing = transitiveMaterializations.get(rule);
+    if (existing != null) {
+      return existing;
+    }
+
+    List<ListenableFuture<Unit>> futures = new ArrayList<>();
+    Set<BuildRule> visitedRules = new HashSet<>();
+    ArrayDeque<BuildRule> rulesToVisit = new ArrayDeque<>();
+    visitedRules.add(rule);
+    rulesToVisit.add(rule);
+    while (!rulesToVisit.isEmpty()) {
+      BuildRule current = rulesToVisit.pop();
+      futures.add(materializeRule(current));
+      for (BuildRule dep : current.getBuildDeps()) {
+        if (!visitedRules.add(dep)) {
+          continue;
+        }
+        // Don't walk the deps of a rule again if they were already materialized.
+        ListenableFuture<Unit> depFuture = transitiveMaterializations.get(dep);
+        if (depFuture != null) {
+          futures.add(depFuture);
+        } else {
+          rulesToVisit.push(dep);
+        }
+      }
+    }
+    ListenableFuture<Unit> future =
+        Futures.whenAllSucceed(futures).call(() -> Unit.UNIT, MoreExecutors.directExecutor());
+    transitiveMaterializations.put(rule, future);
+    return future;
+  }
+
+  private ListenableFuture<Unit> materializeRule(BuildRule rule) throws IOException {
+    ListenableFuture<Unit> existing = materializations.get(rule);
+    if (existing != null) {
+      return existing;
+    }
+    RuleOutputs outputs = outputsByRule.get(rule);
+    if (outputs == null) {
+      return Futures.immediateFuture(Unit.UNIT);
+    }
+    ListenableFuture<Unit> future =
+        Futures.transform(
+            storage.materializeOutputs(
+                ImmutableList.of(), outputs.files, new FilesystemFileMaterializer(outputs.root)),
+            result -> {
+              // The files are on disk now, so they can be read from there like any other.
+              outputsByRule.remove(rule);
+              for (OutputFile file : outputs.files) {
+                outputsByPath.remove(outputs.root.resolve(file.getPath()));
+              }
+              return result;
+            },
+            MoreExecutors.directExecutor());
+    materializations.put(rule, future);
+    return future;
+  }
+
+  private static class RuleOutputs {
+    private final Path root;
+    private final ImmutableList<OutputFile> files;
+
+    private RuleOutputs(Path root, ImmutableList<OutputFile> files) {
+      this.root = root;
+      this.files = files;
+    }
+  }
+}
@@ -23,6 +23,7 @@ import com.facebook.buck.core.build.engine.BuildStrategyContext;
 import com.facebook.buck.core.exceptions.ThrowableCauseIterable;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
+import com.facebook.buck.core.rules.build.strategy.UnmaterializedOutput;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.remoteexecution.event.LocalFallbackEvent;
@@ -32,6 +33,7 @@ import com.facebook.buck.remoteexecution.util.MultiThreadedBlobUploader;
 import com.facebook.buck.step.StepFailedException;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -39,6 +41,7 @@ import com.google.common.util.concurrent.SettableFuture;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.concurrent.ExecutionException;
@@ -89,6 +92,16 @@ public class LocalFallbackStrategy implements BuildRuleStrategy {
     return mainBuildRuleStrategy.canBuild(instance);
   }
 
+  @Override
+  public ImmutableMap<Path, UnmaterializedOutput> getUnmaterializedOutputs(BuildRule rule) {
+    return mainBuildRuleStrategy.getUnmaterializedOutputs(rule);
+  }
+
+  @Override
+  public ListenableFuture<?> materializeOutputs(BuildRule rule, boolean includeTransitiveDeps) {
+    return mainBuildRuleStrategy.materializeOutputs(rule, includeTransitiveDeps);
+  }
+
   /** Thrown when execution needs to be halted because of cancellation */
   public static class RemoteActionCancelledException extends Exception {
     RemoteActionCancelledException(String message) {
@@ -31,6 +31,7 @@ import com.facebook.buck.remoteexecution.WorkerRequirementsProvider;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.factory.RemoteExecutionClientsFactory;
 import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
+import com.facebook.buck.remoteexecution.util.RemoteExecutionInputsCache;
 import com.facebook.buck.rules.modern.config.HybridLocalBuildStrategyConfig;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleBuildStrategy;
 import com.facebook.buck.rules.modern.config.ModernBuildRuleStrategyConfig;
@@ -57,7 +58,8 @@ public class ModernBuildRuleBuilderFactory {
       BuckEventBus eventBus,
       MetadataProvider metadataProvider,
       boolean remoteExecutionAutoEnabled,
-      boolean forceDisableRemoteExecution) {
+      boolean forceDisableRemoteExecution,
+      Optional<RemoteExecutionInputsCache> remoteExecutionInputsCache) {
     ModernBuildRuleBuildStrategy strategy;
     try {
       RemoteExecutionClientsFactory remoteExecutionFactory =
@@ -89,7 +91,8 @@ public class ModernBuildRuleBuilderFactory {
                   metadataProvider,
                   remoteExecutionAutoEnabled,
                   forceDisableRemoteExecution,
-                  workerRequirementsProvider));
+                  workerRequirementsProvider,
+                  remoteExecutionInputsCache));
         case REMOTE:
           return Optional.of(
               RemoteExecutionStrategy.createRemoteExecutionStrategy(
@@ -100,7 +103,8 @@ public class ModernBuildRuleBuilderFactory {
                   rootCell,
                   hashLoader,
                   metadataProvider,
-                  workerRequirementsProvider));
+                  workerRequirementsProvider,
+                  remoteExecutionInputsCache));
       }
     } catch (IOException e) {
       throw new BuckUncheckedExecutionException(e, "When creating MBR build strategy.");
@@ -119,7 +123,8 @@ public class ModernBuildRuleBuilderFactory {
       MetadataProvider metadataProvider,
       boolean remoteExecutionAutoEnabled,
       boolean forceDisableRemoteExecution,
-      WorkerRequirementsProvider workerRequirementsProvider) {
+      WorkerRequirementsProvider workerRequirementsProvider,
+      Optional<RemoteExecutionInputsCache> remoteExecutionInputsCache) {
     BuildRuleStrategy delegate =
         getBuildStrategy(
                 hybridLocalConfig.getDelegateConfig(),
@@ -131,7 +136,8 @@ public class ModernBuildRuleBuilderFactory {
                 eventBus,
                 metadataProvider,
                 remoteExecutionAutoEnabled,
-                forceDisableRemoteExecution)
+                forceDisableRemoteExecution,
+                remoteExecutionInputsCache)
             .orElseThrow(
                 () -> new HumanReadableException("Delegate config configured incorrectly."));
     return new HybridLocalStrategy(
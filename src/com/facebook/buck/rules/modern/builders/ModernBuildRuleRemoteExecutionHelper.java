@@ -38,11 +38,13 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Directory;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.DirectoryNode;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.FileNode;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.SymlinkNode;
 import com.facebook.buck.remoteexecution.proto.WorkerRequirements;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.MerkleTreeNode;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.NodeData;
+import com.facebook.buck.remoteexecution.util.RemoteExecutionInputsCache;
 import com.facebook.buck.rules.modern.Buildable;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.rules.modern.Serializer;
@@ -83,6 +85,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiPredicate;
@@ -191,6 +194,8 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
 
   private final Protocol protocol;
   private final Memoizer<Digest> emptyDirectoryDigestMemoizer = new Memoizer<>();
+  private final Optional<LazyOutputsMaterializer> lazyOutputs;
+  private final Optional<RemoteExecutionInputsCache> inputsCache;
 
   public ModernBuildRuleRemoteExecutionHelper(
       BuckEventBus eventBus,
@@ -199,7 +204,29 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
       Cell rootCell,
       FileHashLoader fileHasher,
       ImmutableSet<PathMatcher> ignorePaths) {
+    this(
+        eventBus,
+        protocol,
+        ruleFinder,
+        rootCell,
+        fileHasher,
+        ignorePaths,
+        Optional.empty(),
+        Optional.empty());
+  }
+
+  ModernBuildRuleRemoteExecutionHelper(
+      BuckEventBus eventBus,
+      Protocol protocol,
+      SourcePathRuleFinder ruleFinder,
+      Cell rootCell,
+      FileHashLoader fileHasher,
+      ImmutableSet<PathMatcher> ignorePaths,
+      Optional<LazyOutputsMaterializer> lazyOutputs,
+      Optional<RemoteExecutionInputsCache> inputsCache) {
     this.ignorePaths = ignorePaths;
+    this.lazyOutputs = lazyOutputs;
+    this.inputsCache = inputsCache;
     ImmutableSet<CanonicalCellName> cellNames = getCellNames(rootCell);
     this.cellResolver = rootCell.getCellPathResolver();
     this.cellPathPrefix = getCellPathPrefix(cellResolver, cellNames);
@@ -232,7 +259,10 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
         };
     this.serializer = new Serializer(ruleFinder, cellResolver, delegate);
 
-    this.nodeCache = new MerkleTreeNodeCache(protocol);
+    this.nodeCache =
+        inputsCache
+            .map(cache -> cache.getNodeCache(protocol))
+            .orElseGet(() -> new MerkleTreeNodeCache(protocol));
 
     this.classPath = prepareClassPath(BuckClasspath::getClasspath);
     this.bootstrapClassPath = prepareClassPath(BuckClasspath::getBootstrapClasspath);
@@ -528,6 +558,10 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                 requiredDataPredicate.test(dataSupplier.getDigest(), dataSupplier.describe()));
   }
 
+  private Optional<OutputFile> getUnmaterializedFile(Path path) {
+    return lazyOutputs.flatMap(outputs -> outputs.getUnmaterializedFile(path));
+  }
+
   private final ConcurrentHashMap<Data, MerkleTreeNode> resolvedInputsCache =
       new ConcurrentHashMap<>();
 
@@ -559,13 +593,25 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
                             return;
                           }
                         }
+                        // Outputs left in the CAS by earlier actions are already there.
+                        Optional<OutputFile> unmaterialized = getUnmaterializedFile(path);
                         files.put(
                             cellPathPrefix.relativize(path),
-                            protocol.newFileNode(
-                                protocol.newDigest(
-                                    fileHasher.get(path).toString(), (int) Files.size(path)),
-                                path.getFileName().toString(),
-                                Files.isExecutable(path)));
+                            unmaterialized.isPresent()
+                                ? protocol.newFileNode(
+                                    unmaterialized.get().getDigest(),
+                                    path.getFileName().toString(),
+                                    unmaterialized.get().getIsExecutable())
+                                : protocol.newFileNode(
+                                    protocol.newDigest(
+                                        fileHasher.get(path).toString(), (int) Files.size(path)),
+                                    path.getFileName().toString(),
+                                    Files.isExecutable(path)));
+                      }
+
+                      @Override
+                      public boolean isRegularFile(Path path) {
+                        return getUnmaterializedFile(path).isPresent() || super.isRegularFile(path);
                       }
 
                       @Override
@@ -790,8 +836,10 @@ public class ModernBuildRuleRemoteExecutionHelper implements RemoteExecutionHelp
             if (path.startsWith(cellPathPrefix)) {
               Path relative = cellPathPrefix.relativize(path);
               pathsBuilder.add(relative);
-              byte[] data = Files.readAllBytes(path);
-              Digest digest = protocol.computeDigest(data);
+              Digest digest =
+                  inputsCache.isPresent()
+                      ? inputsCache.get().getFileDigest(protocol, path)
+                      : protocol.computeDigest(Files.readAllBytes(path));
               filesBuilder.add(
                   new RequiredFile(
                       relative,
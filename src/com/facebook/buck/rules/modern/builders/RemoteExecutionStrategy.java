@@ -26,7 +26,11 @@ import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rules.BuildRule;
 import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.attr.HasPostBuildSteps;
+import com.facebook.buck.core.rules.attr.InitializableFromDisk;
+import com.facebook.buck.core.rules.attr.SupportsDependencyFileRuleKey;
 import com.facebook.buck.core.rules.build.strategy.BuildRuleStrategy;
+import com.facebook.buck.core.rules.build.strategy.UnmaterializedOutput;
 import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
@@ -35,6 +39,7 @@ import com.facebook.buck.remoteexecution.MetadataProviderFactory;
 import com.facebook.buck.remoteexecution.RemoteExecutionClients;
 import com.facebook.buck.remoteexecution.RemoteExecutionServiceClient.ExecutionHandle;
 import com.facebook.buck.remoteexecution.RemoteExecutionServiceClient.ExecutionResult;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
 import com.facebook.buck.remoteexecution.WorkerRequirementsProvider;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionConfig;
 import com.facebook.buck.remoteexecution.config.RemoteExecutionStrategyConfig;
@@ -46,6 +51,8 @@ import com.facebook.buck.remoteexecution.interfaces.MetadataProvider;
 import com.facebook.buck.remoteexecution.interfaces.Protocol;
 import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
 import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
+import com.facebook.buck.remoteexecution.util.RemoteExecutionInputsCache;
+import com.facebook.buck.remoteexecution.util.RemoteExecutionInputsCache.ConfirmedDigests;
 import com.facebook.buck.rules.modern.ModernBuildRule;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.ImmutableStepExecutionResult;
@@ -59,8 +66,11 @@ import com.facebook.buck.util.hashing.FileHashLoader;
 import com.facebook.buck.util.types.Unit;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Streams;
+import com.google.common.io.MoreFiles;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -76,6 +86,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 
@@ -106,6 +117,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
   private final MetadataProvider metadataProvider;
   private final String auxiliaryBuildTag;
   private final RemoteExecutionSessionEvent.Started remoteExecutionSessionStartedEvent;
+  private final Optional<LazyOutputsMaterializer> lazyOutputs;
+  private final Optional<ConfirmedDigests> confirmedDigests;
 
   RemoteExecutionStrategy(
       BuckEventBus eventBus,
@@ -115,7 +128,9 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       RemoteExecutionHelper mbrHelper,
       WorkerRequirementsProvider requirementsProvider,
       ListeningExecutorService service,
-      String auxiliaryBuildTag) {
+      String auxiliaryBuildTag,
+      Optional<LazyOutputsMaterializer> lazyOutputs,
+      Optional<ConfirmedDigests> confirmedDigests) {
     this.executionClients = executionClients;
     this.service = service;
     this.computeActionLimiter = new JobLimiter(strategyConfig.getMaxConcurrentActionComputations());
@@ -129,6 +144,8 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     this.mbrHelper = mbrHelper;
     this.requirementsProvider = requirementsProvider;
     this.auxiliaryBuildTag = auxiliaryBuildTag;
+    this.lazyOutputs = lazyOutputs;
+    this.confirmedDigests = confirmedDigests;
     this.remoteExecutionSessionStartedEvent = RemoteExecutionSessionEvent.started();
     this.eventBus.post(remoteExecutionSessionStartedEvent);
   }
@@ -146,8 +163,25 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
       Cell rootCell,
       FileHashLoader fileHasher,
       MetadataProvider metadataProvider,
-      WorkerRequirementsProvider workerRequirementsProvider) {
+      WorkerRequirementsProvider workerRequirementsProvider,
+      Optional<RemoteExecutionInputsCache> inputsCache) {
     RemoteExecutionStrategyConfig strategyConfig = remoteExecutionConfig.getStrategyConfig();
+    long casPresenceTtlSeconds = remoteExecutionConfig.getCasPresenceTtlSeconds();
+    Optional<ConfirmedDigests> confirmedDigests =
+        casPresenceTtlSeconds > 0 && inputsCache.isPresent()
+            ? remoteExecutionConfig
+                .getPersistentCasName()
+                .map(
+                    name ->
+                        inputsCache
+                            .get()
+                            .getConfirmedDigests(
+                                name, TimeUnit.SECONDS.toMillis(casPresenceTtlSeconds)))
+            : Optional.empty();
+    Optional<LazyOutputsMaterializer> lazyOutputs =
+        strategyConfig.isLazyOutputMaterializationEnabled()
+            ? Optional.of(new LazyOutputsMaterializer(clients.getContentAddressedStorage()))
+            : Optional.empty();
     return new LocalFallbackStrategy(
         new RemoteExecutionStrategy(
             eventBus,
@@ -160,11 +194,15 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
                 ruleFinder,
                 rootCell,
                 fileHasher,
-                strategyConfig.getIgnorePaths()),
+                strategyConfig.getIgnorePaths(),
+                lazyOutputs,
+                inputsCache),
             workerRequirementsProvider,
             MoreExecutors.listeningDecorator(
                 MostExecutors.newMultiThreadExecutor("remote-exec", strategyConfig.getThreads())),
-            remoteExecutionConfig.getAuxiliaryBuildTag()),
+            remoteExecutionConfig.getAuxiliaryBuildTag(),
+            lazyOutputs,
+            confirmedDigests),
         eventBus,
         strategyConfig.isLocalFallbackEnabled(),
         strategyConfig.isLocalFallbackDisabledOnCorruptedArtifacts(),
@@ -177,6 +215,25 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
         && mbrHelper.supportsRemoteExecution((ModernBuildRule<?>) instance);
   }
 
+  @Override
+  public ImmutableMap<Path, UnmaterializedOutput> getUnmaterializedOutputs(BuildRule rule) {
+    return lazyOutputs
+        .map(outputs -> outputs.getUnmaterializedOutputs(rule))
+        .orElse(ImmutableMap.of());
+  }
+
+  @Override
+  public ListenableFuture<?> materializeOutputs(BuildRule rule, boolean includeTransitiveDeps) {
+    if (!lazyOutputs.isPresent()) {
+      return Futures.immediateFuture(null);
+    }
+    try {
+      return lazyOutputs.get().materialize(rule, includeTransitiveDeps);
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
+
   @Override
   public void close() throws IOException {
     executionClients.close();
@@ -372,6 +429,11 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
     return Futures.transform(
         inputsUploadedFuture,
         ignored -> {
+          confirmedDigests.ifPresent(
+              digests ->
+                  digests.add(
+                      Iterables.transform(
+                          actionInfo.getRequiredData(), UploadDataSupplier::getDigest)));
           // The actionInfo may be very large, so explicitly clear out the unneeded parts.
           // actionInfo.getRequiredData() in particular may be very, very large and is unneeded once
           // uploading has completed.
@@ -435,7 +497,9 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
                     largeBlobs.add(
                         new RemoteExecutionActionEvent.InputsUploaded.LargeBlob(path, digest));
                   }
-                  return !executionClients.getContentAddressedStorage().containsDigest(digest);
+                  return !executionClients.getContentAddressedStorage().containsDigest(digest)
+                      && !(confirmedDigests.isPresent()
+                          && confirmedDigests.get().contains(digest));
                 },
                 requirementsProvider.resolveRequirements(rule.getBuildTarget(), auxiliaryBuildTag));
       }
@@ -574,6 +638,14 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
 
     List<Protocol.OutputFile> files = new ArrayList<>();
     ListenableFuture<Unit> metadata = stripMetadata(result.getOutputFiles(), files, buildRule);
+    if (lazyOutputs.isPresent() && canLeaveOutputsRemotely(buildRule)) {
+      // Only the output files are left in the CAS, directories are still materialized right away.
+      for (Protocol.OutputFile file : files) {
+        MoreFiles.createParentDirectories(mbrHelper.getCellPathPrefix().resolve(file.getPath()));
+      }
+      lazyOutputs.get().register(buildRule, mbrHelper.getCellPathPrefix(), files);
+      files = ImmutableList.of();
+    }
     ListenableFuture<Unit> materializationFuture =
         executionClients
             .getContentAddressedStorage()
@@ -586,6 +658,13 @@ public class RemoteExecutionStrategy extends AbstractModernBuildRuleStrategy {
         .call(() -> result, MoreExecutors.directExecutor());
   }
 
+  /** The build engine reads the outputs of these rules as soon as they are built. */
+  private static boolean canLeaveOutputsRemotely(BuildRule rule) {
+    return !(rule instanceof HasPostBuildSteps
+        || rule instanceof InitializableFromDisk
+        || rule instanceof SupportsDependencyFileRuleKey);
+  }
+
   private ListenableFuture<Unit> stripMetadata(
       List<Protocol.OutputFile> outputFiles, List<Protocol.OutputFile> files, BuildRule buildRule) {
     Digest metadataDigest = null;
@@ -31,6 +31,9 @@ public interface WorkerTool extends AddsToRuleKey {
 
   int getMaxWorkers();
 
+  /** Returns how many jobs each worker process runs concurrently */
+  int getMaxJobsPerWorker();
+
   boolean isPersistent();
 
   HashCode getInstanceKey();
@@ -145,6 +145,10 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
               .orElse(1);
     }
 
+    int maxJobsPerWorker = args.getMaxJobsPerWorker().orElse(1);
+    Preconditions.checkArgument(
+        maxJobsPerWorker > 0, "max_jobs_per_worker must be greater than 0.");
+
     CommandTool tool = builder.build();
     return new DefaultWorkerToolRule(
         buildTarget,
@@ -152,6 +156,7 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
         graphBuilder,
         tool,
         maxWorkers,
+        maxJobsPerWorker,
         args.getPersistent()
             .orElse(buckConfig.getBooleanValue(CONFIG_SECTION, CONFIG_PERSISTENT_KEY, false)));
   }
@@ -195,6 +200,8 @@ public class WorkerToolDescription implements DescriptionWithTargetGraph<WorkerT
 
     Optional<Integer> getMaxWorkersPerThreadPercent();
 
+    Optional<Integer> getMaxJobsPerWorker();
+
     Optional<Boolean> getPersistent();
   }
 }
@@ -21,6 +21,7 @@ import com.facebook.buck.core.config.ConfigView;
 import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import com.google.common.collect.ImmutableSet;
 import java.util.Optional;
+import java.util.OptionalInt;
 import org.immutables.value.Value;
 
 @BuckStyleValue
@@ -35,6 +36,8 @@ public abstract class LogBuckConfig implements ConfigView<BuckConfig> {
 
   private static final String LOG_SECTION = "log";
 
+  private static final int DEFAULT_PER_LISTENER_EVENT_QUEUE_CAPACITY = 65536;
+
   @Value.Lazy
   public boolean isPublicAnnouncementsEnabled() {
     return getDelegate().getBooleanValue(LOG_SECTION, "public_announcements", true);
@@ -50,6 +53,21 @@ public abstract class LogBuckConfig implements ConfigView<BuckConfig> {
     return getDelegate().getBooleanValue(LOG_SECTION, "process_tracker_deep_enabled", false);
   }
 
+  /**
+   * @return the number of undelivered events after which progress events to a listener are
+   *     dropped, if each event listener should get its own delivery thread
+   */
+  @Value.Lazy
+  public OptionalInt getPerListenerEventQueueCapacity() {
+    if (!getDelegate().getBooleanValue(LOG_SECTION, "per_listener_event_dispatch", false)) {
+      return OptionalInt.empty();
+    }
+    return OptionalInt.of(
+        getDelegate()
+            .getInteger(LOG_SECTION, "per_listener_event_queue_capacity")
+            .orElse(DEFAULT_PER_LISTENER_EVENT_QUEUE_CAPACITY));
+  }
+
   @Value.Lazy
   public boolean isRuleKeyLoggerEnabled() {
     return getDelegate().getBooleanValue(LOG_SECTION, "rule_key_logger_enabled", false);
@@ -26,14 +26,18 @@ import com.facebook.buck.core.util.log.Logger;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.FileHashCacheEvent;
 import com.facebook.buck.httpserver.WebServer;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
 import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.io.watchman.WatchmanCursor;
 import com.facebook.buck.io.watchman.WatchmanWatcher;
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache;
 import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
+import com.facebook.buck.remoteexecution.util.RemoteExecutionInputsCache;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
+import com.facebook.buck.util.cache.impl.FileHashCacheSnapshot;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
 import com.facebook.buck.util.timing.Clock;
 import com.facebook.buck.versions.VersionedTargetGraphCache;
@@ -73,6 +77,8 @@ public final class BuckGlobalState implements Closeable {
   private final EventBus fileEventBus;
   private final Optional<WebServer> webServer;
   private final ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools;
+  private final Optional<ClasspathJarCache> classpathJarCache;
+  private final RemoteExecutionInputsCache remoteExecutionInputsCache;
   private final VersionedTargetGraphCache versionedTargetGraphCache;
   private final ActionGraphCache actionGraphCache;
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
@@ -81,6 +87,8 @@ public final class BuckGlobalState implements Closeable {
   private final Clock clock;
   private final long startTime;
   private final boolean usesWatchman;
+  private final boolean fileHashCacheSnapshotEnabled;
+  private boolean pendingFileHashCacheSnapshotValidation;
 
   BuckGlobalState(
       Cell rootCell,
@@ -93,13 +101,17 @@ public final class BuckGlobalState implements Closeable {
       EventBus fileEventBus,
       Optional<WebServer> webServer,
       ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools,
+      Optional<ClasspathJarCache> classpathJarCache,
+      RemoteExecutionInputsCache remoteExecutionInputsCache,
       VersionedTargetGraphCache versionedTargetGraphCache,
       ActionGraphCache actionGraphCache,
       RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler,
       ImmutableMap<Path, WatchmanCursor> cursor,
       KnownRuleTypesProvider knownRuleTypesProvider,
       Clock clock,
-      boolean usesWatchman) {
+      boolean usesWatchman,
+      boolean fileHashCacheSnapshotEnabled,
+      boolean restoredFileHashCacheSnapshot) {
     this.rootCell = rootCell;
     this.typeCoercerFactory = typeCoercerFactory;
     this.daemonicParserState = daemonicParserState;
@@ -110,6 +122,8 @@ public final class BuckGlobalState implements Closeable {
     this.fileEventBus = fileEventBus;
     this.webServer = webServer;
     this.persistentWorkerPools = persistentWorkerPools;
+    this.classpathJarCache = classpathJarCache;
+    this.remoteExecutionInputsCache = remoteExecutionInputsCache;
     this.versionedTargetGraphCache = versionedTargetGraphCache;
     this.actionGraphCache = actionGraphCache;
     this.defaultRuleKeyFactoryCacheRecycler = defaultRuleKeyFactoryCacheRecycler;
@@ -117,6 +131,8 @@ public final class BuckGlobalState implements Closeable {
     this.knownRuleTypesProvider = knownRuleTypesProvider;
     this.clock = clock;
     this.usesWatchman = usesWatchman;
+    this.fileHashCacheSnapshotEnabled = fileHashCacheSnapshotEnabled;
+    this.pendingFileHashCacheSnapshotValidation = restoredFileHashCacheSnapshot;
 
     this.startTime = clock.currentTimeMillis();
   }
@@ -175,6 +191,16 @@ public final class BuckGlobalState implements Closeable {
     return persistentWorkerPools;
   }
 
+  /** @return the jars of compilation classpaths kept open for in-process javac, if enabled */
+  public Optional<ClasspathJarCache> getClasspathJarCache() {
+    return classpathJarCache;
+  }
+
+  /** @return the merkle trees and digests of remote execution inputs kept between commands */
+  public RemoteExecutionInputsCache getRemoteExecutionInputsCache() {
+    return remoteExecutionInputsCache;
+  }
+
   public RuleKeyCacheRecycler<RuleKey> getDefaultRuleKeyFactoryCacheRecycler() {
     return defaultRuleKeyFactoryCacheRecycler;
   }
@@ -206,6 +232,13 @@ public final class BuckGlobalState implements Closeable {
     // invalidations triggered by requests to parse build files or interrupted by client
     // disconnections.
     synchronized (daemonicParserState) {
+      // File hashes restored from a snapshot are only valid if Watchman can tell us everything
+      // that changed since the snapshot was taken, so a fresh instance must flush them.
+      if (pendingFileHashCacheSnapshotValidation) {
+        watchmanFreshInstanceAction = WatchmanWatcher.FreshInstanceAction.POST_OVERFLOW_EVENT;
+        pendingFileHashCacheSnapshotValidation = false;
+      }
+
       // Track the file hash cache invalidation run time.
       FileHashCacheEvent.InvalidationStarted started = FileHashCacheEvent.invalidationStarted();
       eventBus.post(started);
@@ -246,7 +279,32 @@ public final class BuckGlobalState implements Closeable {
   @Override
   public void close() {
     shutdownPersistentWorkerPools();
+    classpathJarCache.ifPresent(ClasspathJarCache::close);
     shutdownWebServer();
+    saveFileHashCacheSnapshots();
+    actionGraphCache.saveSnapshot();
+  }
+
+  private void saveFileHashCacheSnapshots() {
+    if (!fileHashCacheSnapshotEnabled) {
+      return;
+    }
+    // Hold the parser lock so no Watchman events are applied while the snapshot is written.
+    synchronized (daemonicParserState) {
+      for (ProjectFileHashCache hashCache : hashCaches) {
+        if (!(hashCache instanceof WatchedFileHashCache)) {
+          continue;
+        }
+        WatchedFileHashCache cache = (WatchedFileHashCache) hashCache;
+        ProjectFilesystem filesystem = cache.getFilesystem();
+        WatchmanCursor cellCursor = cursor.get(filesystem.getRootPath());
+        if (cellCursor == null || !cellCursor.get().startsWith("c:")) {
+          continue;
+        }
+        cache.saveSnapshot(
+            FileHashCacheSnapshot.getDefaultSnapshotPath(filesystem), cellCursor.get());
+      }
+    }
   }
 
   private void shutdownPersistentWorkerPools() {
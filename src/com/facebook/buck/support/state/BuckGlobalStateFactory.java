@@ -27,6 +27,7 @@ import com.facebook.buck.core.files.DirectoryListCache;
 import com.facebook.buck.core.files.FileTreeCache;
 import com.facebook.buck.core.model.TargetConfigurationSerializer;
 import com.facebook.buck.core.model.actiongraph.computation.ActionGraphCache;
+import com.facebook.buck.core.model.actiongraph.computation.ActionGraphConfig;
 import com.facebook.buck.core.parser.buildtargetparser.UnconfiguredBuildTargetViewFactory;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.core.rules.knowntypes.provider.KnownRuleTypesProvider;
@@ -37,15 +38,20 @@ import com.facebook.buck.io.watchman.Watchman;
 import com.facebook.buck.io.watchman.WatchmanCursor;
 import com.facebook.buck.io.watchman.WatchmanFactory;
 import com.facebook.buck.io.watchman.WatchmanWatcher;
+import com.facebook.buck.jvm.java.JavaBuckConfig;
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache;
 import com.facebook.buck.parser.DaemonicParserState;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.parser.manifest.BuildFileManifestCache;
+import com.facebook.buck.remoteexecution.util.RemoteExecutionInputsCache;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyCache;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
+import com.facebook.buck.rules.modern.ModernBuildRuleSnapshotStore;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.impl.DefaultFileHashCache;
+import com.facebook.buck.util.cache.impl.FileHashCacheSnapshot;
 import com.facebook.buck.util.cache.impl.WatchedFileHashCache;
 import com.facebook.buck.util.stream.RichStream;
 import com.facebook.buck.util.timing.Clock;
@@ -85,11 +91,14 @@ public class BuckGlobalStateFactory {
     // Setup the stacked file hash cache from all cells.
     ImmutableList.Builder<ProjectFileHashCache> hashCachesBuilder =
         ImmutableList.builderWithExpectedSize(allCells.size() + 1);
+    ImmutableList.Builder<WatchedFileHashCache> watchedCachesBuilder =
+        ImmutableList.builderWithExpectedSize(allCells.size());
     for (Cell subCell : allCells) {
       WatchedFileHashCache watchedCache =
           new WatchedFileHashCache(subCell.getFilesystem(), buildBuckConfig.getFileHashCacheMode());
       fileEventBus.register(watchedCache);
       hashCachesBuilder.add(watchedCache);
+      watchedCachesBuilder.add(watchedCache);
     }
     hashCachesBuilder.add(
         DefaultFileHashCache.createBuckOutFileHashCache(
@@ -104,11 +113,15 @@ public class BuckGlobalStateFactory {
     LoadingCache<Path, BuildFileManifestCache> buildFileManifestCachePerRoot =
         createBuildFileManifestCachePerCellMap(
             fileEventBus, rootCell.getCellProvider(), rootCell.getSuperRootPath());
+    TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory();
     ActionGraphCache actionGraphCache =
-        new ActionGraphCache(buildBuckConfig.getMaxActionGraphCacheEntries());
+        new ActionGraphCache(
+            buildBuckConfig.getMaxActionGraphCacheEntries(),
+            rootCell.getBuckConfig().getView(ActionGraphConfig.class).isActionGraphSnapshotEnabled()
+                ? Optional.of(new ModernBuildRuleSnapshotStore(rootCell, typeCoercerFactory))
+                : Optional.empty());
     VersionedTargetGraphCache versionedTargetGraphCache = new VersionedTargetGraphCache();
 
-    TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory();
     ParserConfig parserConfig = rootCell.getBuckConfig().getView(ParserConfig.class);
     DaemonicParserState daemonicParserState =
         new DaemonicParserState(parserConfig.getNumParsingThreads());
@@ -148,8 +161,18 @@ public class BuckGlobalStateFactory {
       LOG.debug("Falling back to named cursors: %s", watchman.getProjectWatches());
       cursor = watchman.buildNamedWatchmanCursorMap();
     }
+    boolean fileHashCacheSnapshotEnabled = buildBuckConfig.getFileHashCacheSnapshotEnabled();
+    boolean restoredFileHashCacheSnapshot =
+        fileHashCacheSnapshotEnabled
+            && restoreFileHashCacheSnapshots(watchedCachesBuilder.build(), cursor);
     LOG.debug("Using Watchman Cursor: %s", cursor);
     ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools = new ConcurrentHashMap<>();
+    Optional<ClasspathJarCache> classpathJarCache =
+        rootCell
+            .getBuckConfig()
+            .getView(JavaBuckConfig.class)
+            .getClasspathJarCacheMaxSize()
+            .map(ClasspathJarCache::new);
 
     return new BuckGlobalState(
         rootCell,
@@ -162,13 +185,45 @@ public class BuckGlobalStateFactory {
         fileEventBus,
         webServer,
         persistentWorkerPools,
+        classpathJarCache,
+        new RemoteExecutionInputsCache(),
         versionedTargetGraphCache,
         actionGraphCache,
         defaultRuleKeyFactoryCacheRecycler,
         cursor,
         knownRuleTypesProvider,
         clock,
-        watchman != WatchmanFactory.NULL_WATCHMAN);
+        watchman != WatchmanFactory.NULL_WATCHMAN,
+        fileHashCacheSnapshotEnabled,
+        restoredFileHashCacheSnapshot);
+  }
+
+  /**
+   * Seeds the file hash caches from the snapshots left by a previous daemon, and rewinds the
+   * Watchman clock cursor of each restored cell to the clock recorded in its snapshot, so that the
+   * first Watchman query invalidates every file changed since the snapshot was taken.
+   *
+   * @return true if at least one cache was seeded from a snapshot
+   */
+  private static boolean restoreFileHashCacheSnapshots(
+      ImmutableList<WatchedFileHashCache> watchedCaches,
+      ImmutableMap<Path, WatchmanCursor> cursor) {
+    boolean restored = false;
+    for (WatchedFileHashCache watchedCache : watchedCaches) {
+      ProjectFilesystem filesystem = watchedCache.getFilesystem();
+      WatchmanCursor cellCursor = cursor.get(filesystem.getRootPath());
+      if (cellCursor == null || !cellCursor.get().startsWith("c:")) {
+        // Without a clock cursor there is no way to find out what changed since the snapshot.
+        continue;
+      }
+      Optional<String> snapshotClock =
+          watchedCache.loadSnapshot(FileHashCacheSnapshot.getDefaultSnapshotPath(filesystem));
+      if (snapshotClock.isPresent()) {
+        cellCursor.set(snapshotClock.get());
+        restored = true;
+      }
+    }
+    return restored;
   }
 
   /** Create a number of instances of {@link DirectoryListCache}, one per each cell */
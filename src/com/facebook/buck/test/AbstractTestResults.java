@@ -97,6 +97,12 @@ abstract class AbstractTestResults implements TestResultsExternalInterface<TestC
     return true;
   }
 
+  /** @return whether these results come from a previous run of the test, rather than this one. */
+  @Value.Default
+  public boolean isCached() {
+    return false;
+  }
+
   @Value.Default
   public int getSequenceNumber() {
     return 0;
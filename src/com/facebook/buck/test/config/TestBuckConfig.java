@@ -115,6 +115,11 @@ public abstract class TestBuckConfig implements ConfigView<BuckConfig> {
     return getDelegate().getOptionalListWithoutComments("test", "coverageExcludes", ',');
   }
 
+  /** Whether the results of passing tests are cached, so that unchanged tests don't run again. */
+  public boolean isResultsCacheEnabled() {
+    return getDelegate().getBooleanValue(TEST_SECTION_HEADER, "results_cache_enabled", false);
+  }
+
   public boolean isBuildingFilteredTestsEnabled() {
     return getDelegate().getBooleanValue("test", "build_filtered_tests", false);
   }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.bser;
+
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * Receives the elements of a BSER array one at a time, as they are decoded, instead of having
+ * them collected into a {@link java.util.List}.
+ *
+ * <p>This does not avoid decoding or copying: the encoded PDU is still read into memory in full,
+ * and each visited element is decoded into a new object, exactly as it would be in a list. It only
+ * avoids holding all decoded elements at once.
+ *
+ * @see BserDeserializer#deserializeBserValue(java.io.InputStream, java.util.Map)
+ */
+public interface BserArrayVisitor {
+
+  /**
+   * Called once, before any element is visited.
+   *
+   * @return whether the elements of the array should be decoded and visited. Elements of arrays
+   *     which are not visited are skipped over without being decoded.
+   */
+  boolean visitSize(int size) throws IOException;
+
+  /**
+   * Called for each element of the array, in order. The element is decoded as by {@link
+   * BserDeserializer#deserializeBserValue(java.io.InputStream)}.
+   */
+  void visitElement(@Nullable Object element) throws IOException;
+}
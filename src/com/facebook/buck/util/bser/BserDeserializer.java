@@ -32,12 +32,15 @@ import static com.facebook.buck.util.bser.BserConstants.BSER_TRUE;
 
 import com.facebook.buck.util.ImmutableMapWithNullValues;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
@@ -72,8 +75,22 @@ public class BserDeserializer {
     }
   }
 
+  // Watchman responses repeat the same object keys and many of the same values (file types,
+  // directory names...) over and over. Short strings are cached by their encoded bytes, so that
+  // the repeated ones are neither decoded nor allocated again.
+  private static final int STRING_CACHE_SIZE = 4096;
+  private static final int MAX_CACHED_STRING_LENGTH = 64;
+
+  // The buffer holding the last PDU is reused for the next one, unless it grew larger than this.
+  private static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024 * 1024;
+  private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
   private final KeyOrdering keyOrdering;
   private final CharsetDecoder utf8Decoder;
+  private final ByteBuffer sniffBuffer;
+  private final byte[][] cachedStringBytes = new byte[STRING_CACHE_SIZE][];
+  private final String[] cachedStrings = new String[STRING_CACHE_SIZE];
+  @Nullable private ByteBuffer bserBuffer;
 
   /**
    * If {@code keyOrdering} is {@code SORTED}, any {@code Map} objects in the resulting value will
@@ -84,6 +101,7 @@ public class BserDeserializer {
     this.keyOrdering = keyOrdering;
     this.utf8Decoder =
         StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT);
+    this.sniffBuffer = ByteBuffer.allocate(SNIFF_BUFFER_SIZE).order(ByteOrder.nativeOrder());
   }
 
   // 2 bytes marker, 1 byte int size
@@ -100,15 +118,33 @@ public class BserDeserializer {
    */
   @Nullable
   public Object deserializeBserValue(InputStream inputStream) throws IOException {
+    return deserializeBserValue(inputStream, ImmutableMap.of());
+  }
+
+  /**
+   * Deserializes the next BSER-encoded value from the stream, like {@link
+   * #deserializeBserValue(InputStream)}, except that if it is an object, the elements of the arrays
+   * it maps the keys of {@code arrayVisitors} to are passed to these visitors as they are decoded.
+   * These keys are left out of the returned {@link Map}, so the decoded elements of large arrays
+   * never need to be held in memory all at once. The encoded value itself is still read in full.
+   */
+  @Nullable
+  public Object deserializeBserValue(
+      InputStream inputStream, Map<String, BserArrayVisitor> arrayVisitors) throws IOException {
     try {
-      return deserializeRecursive(readBserBuffer(inputStream));
+      ByteBuffer buffer = readBserBuffer(inputStream);
+      byte type = buffer.get();
+      if (type == BSER_OBJECT) {
+        return deserializeObject(buffer, arrayVisitors);
+      }
+      return deserializeRecursiveWithType(buffer, type);
     } catch (BufferUnderflowException e) {
       throw new BserEofException("Prematurely reached end of BSER buffer", e);
     }
   }
 
   private ByteBuffer readBserBuffer(InputStream inputStream) throws IOException {
-    ByteBuffer sniffBuffer = ByteBuffer.allocate(SNIFF_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    sniffBuffer.clear();
     Preconditions.checkState(sniffBuffer.hasArray());
 
     int sniffBytesRead = ByteStreams.read(inputStream, sniffBuffer.array(), 0, INITIAL_SNIFF_LEN);
@@ -152,10 +188,16 @@ public class BserDeserializer {
     }
     int bytesRemaining = deserializeIntLen(sniffBuffer, lengthType);
 
-    ByteBuffer bserBuffer = ByteBuffer.allocate(bytesRemaining).order(ByteOrder.nativeOrder());
-    Preconditions.checkState(bserBuffer.hasArray());
+    ByteBuffer buffer = getBserBuffer(bytesRemaining);
 
-    int remainingBytesRead = ByteStreams.read(inputStream, bserBuffer.array(), 0, bytesRemaining);
+    // Reads straight into the (direct) buffer, which is then decoded in place.
+    ReadableByteChannel channel = Channels.newChannel(inputStream);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        break;
+      }
+    }
+    int remainingBytesRead = buffer.position();
 
     if (remainingBytesRead < bytesRemaining) {
       throw new IOException(
@@ -164,7 +206,21 @@ public class BserDeserializer {
               bytesRemaining, remainingBytesRead));
     }
 
-    return bserBuffer;
+    buffer.flip();
+    return buffer;
+  }
+
+  /** @return a buffer with exactly {@code size} bytes remaining, reusing the previous one if any. */
+  private ByteBuffer getBserBuffer(int size) {
+    ByteBuffer buffer = bserBuffer;
+    if (buffer == null || buffer.capacity() < size) {
+      buffer =
+          ByteBuffer.allocateDirect(Math.max(size, MIN_BUFFER_SIZE)).order(ByteOrder.nativeOrder());
+      bserBuffer = buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE ? buffer : null;
+    }
+    buffer.clear();
+    buffer.limit(size);
+    return buffer;
   }
 
   private int deserializeIntLen(ByteBuffer buffer, byte type) throws IOException {
@@ -196,21 +252,56 @@ public class BserDeserializer {
   private String deserializeString(ByteBuffer buffer) throws IOException {
     byte intType = buffer.get();
     int len = deserializeIntLen(buffer, intType);
+    if (len > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+
+    int start = buffer.position();
+    int cacheIndex = -1;
+    if (len <= MAX_CACHED_STRING_LENGTH) {
+      int hash = len;
+      for (int i = start; i < start + len; i++) {
+        hash = 31 * hash + buffer.get(i);
+      }
+      cacheIndex = (hash ^ (hash >>> 16)) & (STRING_CACHE_SIZE - 1);
+      byte[] cachedBytes = cachedStringBytes[cacheIndex];
+      if (cachedBytes != null
+          && cachedBytes.length == len
+          && bytesEqual(buffer, start, cachedBytes)) {
+        buffer.position(start + len);
+        return cachedStrings[cacheIndex];
+      }
+    }
 
     // We use a CharsetDecoder here instead of String(byte[], Charset)
     // because we want it to throw an exception for any non-UTF-8 input.
-    buffer.limit(buffer.position() + len);
-
+    int limit = buffer.limit();
+    buffer.limit(start + len);
+    String result;
     try {
-      // We'll likely have many duplicates of this string. Java 7 and
-      // up have not-insane behavior of String.intern(), so we'll use
-      // it to deduplicate the String instances.
-      //
-      // See: http://java-performance.info/string-intern-in-java-6-7-8/
-      return utf8Decoder.decode(buffer).toString().intern();
+      result = utf8Decoder.decode(buffer).toString();
     } finally {
-      buffer.limit(buffer.capacity());
+      buffer.limit(limit);
+    }
+
+    if (cacheIndex >= 0) {
+      byte[] bytes = new byte[len];
+      for (int i = 0; i < len; i++) {
+        bytes[i] = buffer.get(start + i);
+      }
+      cachedStringBytes[cacheIndex] = bytes;
+      cachedStrings[cacheIndex] = result;
+    }
+    return result;
+  }
+
+  private static boolean bytesEqual(ByteBuffer buffer, int start, byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (buffer.get(start + i) != bytes[i]) {
+        return false;
+      }
     }
+    return true;
   }
 
   private List<Object> deserializeArray(ByteBuffer buffer) throws IOException {
@@ -226,7 +317,8 @@ public class BserDeserializer {
     return list;
   }
 
-  private Map<String, Object> deserializeObject(ByteBuffer buffer) throws IOException {
+  private Map<String, Object> deserializeObject(
+      ByteBuffer buffer, Map<String, BserArrayVisitor> arrayVisitors) throws IOException {
     byte intType = buffer.get();
     int numItems = deserializeIntLen(buffer, intType);
     if (numItems == 0) {
@@ -245,12 +337,131 @@ public class BserDeserializer {
             String.format("Unrecognized BSER object key type %d, expected string", stringType));
       }
       String key = deserializeString(buffer);
+      BserArrayVisitor arrayVisitor = arrayVisitors.get(key);
+      if (arrayVisitor != null) {
+        visitArray(buffer, key, arrayVisitor);
+        continue;
+      }
       Object value = deserializeRecursive(buffer);
       builder.put(key, value);
     }
     return builder.build();
   }
 
+  private void visitArray(ByteBuffer buffer, String key, BserArrayVisitor visitor)
+      throws IOException {
+    byte type = buffer.get();
+    switch (type) {
+      case BSER_ARRAY:
+        {
+          int numItems = deserializeIntLen(buffer, buffer.get());
+          boolean visit = visitor.visitSize(numItems);
+          for (int i = 0; i < numItems; i++) {
+            if (visit) {
+              visitor.visitElement(deserializeRecursive(buffer));
+            } else {
+              skipRecursive(buffer, buffer.get());
+            }
+          }
+          break;
+        }
+      case BSER_TEMPLATE:
+        {
+          byte arrayType = buffer.get();
+          if (arrayType != BSER_ARRAY) {
+            throw new IOException(
+                String.format("Expected ARRAY to follow TEMPLATE, got %d", arrayType));
+          }
+          List<Object> keys = deserializeArray(buffer);
+          int numItems = deserializeIntLen(buffer, buffer.get());
+          boolean visit = visitor.visitSize(numItems);
+          for (int i = 0; i < numItems; i++) {
+            if (visit) {
+              visitor.visitElement(deserializeTemplateItem(buffer, keys));
+            } else {
+              for (int keyIdx = 0; keyIdx < keys.size(); keyIdx++) {
+                skipRecursive(buffer, buffer.get());
+              }
+            }
+          }
+          break;
+        }
+      default:
+        throw new IOException(
+            String.format("Expected BSER array for key %s, got value type %d", key, type));
+    }
+  }
+
+  /** Moves the position of the buffer past the value of the given type, without decoding it. */
+  private void skipRecursive(ByteBuffer buffer, byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        skipBytes(buffer, 1);
+        return;
+      case BSER_INT16:
+        skipBytes(buffer, 2);
+        return;
+      case BSER_INT32:
+        skipBytes(buffer, 4);
+        return;
+      case BSER_INT64:
+      case BSER_REAL:
+        skipBytes(buffer, 8);
+        return;
+      case BSER_TRUE:
+      case BSER_FALSE:
+      case BSER_NULL:
+      case BSER_SKIP:
+        return;
+      case BSER_STRING:
+        skipBytes(buffer, deserializeIntLen(buffer, buffer.get()));
+        return;
+      case BSER_ARRAY:
+        {
+          int numItems = deserializeIntLen(buffer, buffer.get());
+          for (int i = 0; i < numItems; i++) {
+            skipRecursive(buffer, buffer.get());
+          }
+          return;
+        }
+      case BSER_OBJECT:
+        {
+          int numItems = deserializeIntLen(buffer, buffer.get());
+          for (int i = 0; i < numItems; i++) {
+            skipRecursive(buffer, buffer.get());
+            skipRecursive(buffer, buffer.get());
+          }
+          return;
+        }
+      case BSER_TEMPLATE:
+        {
+          byte arrayType = buffer.get();
+          if (arrayType != BSER_ARRAY) {
+            throw new IOException(
+                String.format("Expected ARRAY to follow TEMPLATE, got %d", arrayType));
+          }
+          int numKeys = deserializeIntLen(buffer, buffer.get());
+          for (int i = 0; i < numKeys; i++) {
+            skipRecursive(buffer, buffer.get());
+          }
+          int numItems = deserializeIntLen(buffer, buffer.get());
+          for (long i = 0; i < (long) numItems * numKeys; i++) {
+            skipRecursive(buffer, buffer.get());
+          }
+          return;
+        }
+      default:
+        throw new IOException(String.format("Unrecognized BSER value type %d", type));
+    }
+  }
+
+  private static void skipBytes(ByteBuffer buffer, int length) {
+    if (length > buffer.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    buffer.position(buffer.position() + length);
+  }
+
   private List<Map<String, Object>> deserializeTemplate(ByteBuffer buffer) throws IOException {
     byte arrayType = buffer.get();
     if (arrayType != BSER_ARRAY) {
@@ -261,24 +472,29 @@ public class BserDeserializer {
     int numItems = deserializeIntLen(buffer, numItemsType);
     ArrayList<Map<String, Object>> result = new ArrayList<>();
     for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-      Map<String, Object> obj;
-      if (keyOrdering == KeyOrdering.UNSORTED) {
-        obj = new LinkedHashMap<>();
-      } else {
-        obj = new TreeMap<>();
-      }
-      for (int keyIdx = 0; keyIdx < keys.size(); keyIdx++) {
-        byte keyValueType = buffer.get();
-        if (keyValueType != BSER_SKIP) {
-          String key = (String) keys.get(keyIdx);
-          obj.put(key, deserializeRecursiveWithType(buffer, keyValueType));
-        }
-      }
-      result.add(obj);
+      result.add(deserializeTemplateItem(buffer, keys));
     }
     return result;
   }
 
+  private Map<String, Object> deserializeTemplateItem(ByteBuffer buffer, List<Object> keys)
+      throws IOException {
+    Map<String, Object> obj;
+    if (keyOrdering == KeyOrdering.UNSORTED) {
+      obj = new LinkedHashMap<>();
+    } else {
+      obj = new TreeMap<>();
+    }
+    for (int keyIdx = 0; keyIdx < keys.size(); keyIdx++) {
+      byte keyValueType = buffer.get();
+      if (keyValueType != BSER_SKIP) {
+        String key = (String) keys.get(keyIdx);
+        obj.put(key, deserializeRecursiveWithType(buffer, keyValueType));
+      }
+    }
+    return obj;
+  }
+
   @Nullable
   private Object deserializeRecursive(ByteBuffer buffer) throws IOException {
     byte type = buffer.get();
@@ -306,7 +522,7 @@ public class BserDeserializer {
       case BSER_ARRAY:
         return deserializeArray(buffer);
       case BSER_OBJECT:
-        return deserializeObject(buffer);
+        return deserializeObject(buffer, ImmutableMap.of());
       case BSER_TEMPLATE:
         return deserializeTemplate(buffer);
       default:
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.util.cache.impl;
+
+import com.facebook.buck.core.util.log.Logger;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.util.cache.FileHashCacheEngine;
+import com.facebook.buck.util.cache.HashCodeAndFileType;
+import com.facebook.buck.util.cache.JarHashCodeAndFileType;
+import com.google.common.hash.HashCode;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * On-disk snapshot of the file hashes held by a {@link WatchedFileHashCache}.
+ *
+ * <p>The snapshot records, for each cached file, its size and modification time together with
+ * its {@link HashCodeAndFileType}, plus the Watchman clock the cache was in sync with when the
+ * snapshot was taken. A new daemon maps the snapshot into memory, re-seeds the cache with the
+ * entries whose size and modification time still match, and resumes its Watchman cursor from the
+ * recorded clock so that any file changed since then is invalidated by the regular file change
+ * events.
+ *
+ * <p>Directory hashes are not recorded since they are cheap to recompute from cached children.
+ */
+public class FileHashCacheSnapshot {
+
+  private static final Logger LOG = Logger.get(FileHashCacheSnapshot.class);
+
+  private static final int MAGIC = 0x42464843; // "BFHC"
+  private static final int VERSION = 1;
+
+  private FileHashCacheSnapshot() {}
+
+  /** @return the default location of the snapshot for the cell owning {@code filesystem}. */
+  public static Path getDefaultSnapshotPath(ProjectFilesystem filesystem) {
+    return filesystem.getBuckPaths().getBuckOut().resolve("filehashcache").resolve("snapshot");
+  }
+
+  /**
+   * Writes all file entries of {@code engine} to {@code snapshotPath}. The file is written to a
+   * temporary location first and atomically moved in place.
+   *
+   * @return the number of entries written
+   */
+  static int write(
+      ProjectFilesystem filesystem,
+      FileHashCacheEngine engine,
+      Path snapshotPath,
+      String watchmanClock)
+      throws IOException {
+    filesystem.createParentDirs(snapshotPath);
+    Path tmpPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+    int count = 0;
+    try (DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(filesystem.newFileOutputStream(tmpPath, false)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, watchmanClock);
+      for (Map.Entry<Path, HashCodeAndFileType> entry : engine.asMap().entrySet()) {
+        HashCodeAndFileType value = entry.getValue();
+        if (value.getType() == HashCodeAndFileType.TYPE_DIRECTORY) {
+          continue;
+        }
+        Path path = entry.getKey();
+        BasicFileAttributes attributes;
+        try {
+          attributes = filesystem.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+          continue;
+        }
+        if (!attributes.isRegularFile()) {
+          continue;
+        }
+        out.writeBoolean(true);
+        writeString(out, path.toString());
+        out.writeByte(value.getType());
+        out.writeLong(attributes.size());
+        out.writeLong(attributes.lastModifiedTime().toMillis());
+        byte[] hash = value.getHashCode().asBytes();
+        out.writeByte(hash.length);
+        out.write(hash);
+        count++;
+      }
+      out.writeBoolean(false);
+    }
+    filesystem.move(
+        tmpPath,
+        snapshotPath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    return count;
+  }
+
+  /**
+   * Loads the entries of the snapshot at {@code snapshotPath} into {@code engine}, skipping the
+   * ones whose size or modification time changed since the snapshot was written.
+   *
+   * @return the Watchman clock recorded in the snapshot, or empty if there is no usable snapshot
+   */
+  static Optional<String> read(
+      ProjectFilesystem filesystem, FileHashCacheEngine engine, Path snapshotPath)
+      throws IOException {
+    if (!filesystem.isFile(snapshotPath)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel =
+        FileChannel.open(filesystem.resolve(snapshotPath), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        LOG.info("Ignoring file hash cache snapshot %s with unknown format", snapshotPath);
+        return Optional.empty();
+      }
+      String clock = readString(buffer);
+      int loaded = 0;
+      int stale = 0;
+      while (buffer.get() != 0) {
+        Path path = filesystem.getPath(readString(buffer));
+        byte type = buffer.get();
+        long size = buffer.getLong();
+        long lastModified = buffer.getLong();
+        byte[] hash = new byte[buffer.get()];
+        buffer.get(hash);
+        if (!isUnchanged(filesystem, path, size, lastModified)) {
+          stale++;
+          continue;
+        }
+        HashCode hashCode = HashCode.fromBytes(hash);
+        engine.put(
+            path,
+            type == HashCodeAndFileType.TYPE_ARCHIVE
+                ? JarHashCodeAndFileType.ofArchive(
+                    hashCode, new DefaultJarContentHasher(filesystem, path))
+                : HashCodeAndFileType.ofFile(hashCode));
+        loaded++;
+      }
+      LOG.info(
+          "Loaded %d file hashes from snapshot %s at clock %s (%d stale)",
+          loaded, snapshotPath, clock, stale);
+      return Optional.of(clock);
+    } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      LOG.warn(e, "Ignoring truncated or corrupt file hash cache snapshot %s", snapshotPath);
+      engine.invalidateAll();
+      return Optional.empty();
+    }
+  }
+
+  private static boolean isUnchanged(
+      ProjectFilesystem filesystem, Path path, long size, long lastModified) throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = filesystem.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+    return attributes.isRegularFile()
+        && attributes.size() == size
+        && attributes.lastModifiedTime().toMillis() == lastModified;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
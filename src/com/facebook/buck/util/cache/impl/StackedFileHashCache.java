@@ -111,6 +111,25 @@ public class StackedFileHashCache implements FileHashCache {
     return Optional.empty();
   }
 
+  /**
+   * Like {@link #lookup(ProjectFilesystem, Path)}, but also finds the cache of paths which don't
+   * exist (yet), so that the hashes of outputs which weren't written to disk can be recorded.
+   */
+  private Optional<? extends ProjectFileHashCache> lookupForSet(
+      ProjectFilesystem filesystem, Path path) {
+    Optional<? extends ProjectFileHashCache> found = lookup(filesystem, path);
+    if (found.isPresent()) {
+      return found;
+    }
+    for (ProjectFileHashCache cache : caches) {
+      if (cache.getFilesystem().getRootPath().equals(filesystem.getRootPath())
+          && !cache.isIgnored(path)) {
+        return Optional.of(cache);
+      }
+    }
+    return Optional.empty();
+  }
+
   private Optional<Pair<ProjectFileHashCache, Path>> lookup(Path path) {
     Preconditions.checkArgument(path.isAbsolute());
     for (ProjectFileHashCache cache : caches) {
@@ -122,6 +141,21 @@ public class StackedFileHashCache implements FileHashCache {
     return Optional.empty();
   }
 
+  /** Like {@link #lookupForSet(ProjectFilesystem, Path)}, for absolute paths. */
+  private Optional<Pair<ProjectFileHashCache, Path>> lookupForSet(Path path) {
+    Optional<Pair<ProjectFileHashCache, Path>> found = lookup(path);
+    if (found.isPresent()) {
+      return found;
+    }
+    for (ProjectFileHashCache cache : caches) {
+      Optional<Path> relativePath = cache.getFilesystem().getPathRelativeToProjectRoot(path);
+      if (relativePath.isPresent() && !cache.isIgnored(relativePath.get())) {
+        return Optional.of(new Pair<>(cache, relativePath.get()));
+      }
+    }
+    return Optional.empty();
+  }
+
   @Override
   public void invalidate(Path path) {
     for (ProjectFileHashCache cache : caches) {
@@ -169,7 +203,7 @@ public class StackedFileHashCache implements FileHashCache {
 
   @Override
   public void set(Path path, HashCode hashCode) throws IOException {
-    Optional<Pair<ProjectFileHashCache, Path>> found = lookup(path);
+    Optional<Pair<ProjectFileHashCache, Path>> found = lookupForSet(path);
     if (found.isPresent()) {
       found.get().getFirst().set(found.get().getSecond(), hashCode);
     }
@@ -221,7 +255,7 @@ public class StackedFileHashCache implements FileHashCache {
 
   @Override
   public void set(ProjectFilesystem filesystem, Path path, HashCode hashCode) throws IOException {
-    Optional<? extends ProjectFileHashCache> cache = lookup(filesystem, path);
+    Optional<? extends ProjectFileHashCache> cache = lookupForSet(filesystem, path);
     if (cache.isPresent()) {
       cache.get().set(path, hashCode);
     }
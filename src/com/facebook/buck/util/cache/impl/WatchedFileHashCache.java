@@ -22,7 +22,9 @@ import com.facebook.buck.io.watchman.WatchmanOverflowEvent;
 import com.facebook.buck.io.watchman.WatchmanPathEvent;
 import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.google.common.eventbus.Subscribe;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Optional;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
@@ -53,4 +55,35 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     LOG.debug("Invalidating all");
     invalidateAll();
   }
+
+  /**
+   * Seeds the cache from a snapshot previously written by {@link #saveSnapshot}. Entries for files
+   * whose size or modification time changed since are skipped.
+   *
+   * @return the Watchman clock the snapshot was taken at, or empty if no snapshot was loaded
+   */
+  public synchronized Optional<String> loadSnapshot(Path snapshotPath) {
+    try {
+      return FileHashCacheSnapshot.read(getFilesystem(), fileHashCacheEngine, snapshotPath);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to load file hash cache snapshot %s", snapshotPath);
+      invalidateAll();
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Writes the current file hashes to {@code snapshotPath}, recording {@code watchmanClock} as the
+   * point in time up to which file changes have been applied to this cache.
+   */
+  public synchronized void saveSnapshot(Path snapshotPath, String watchmanClock) {
+    try {
+      int count =
+          FileHashCacheSnapshot.write(
+              getFilesystem(), fileHashCacheEngine, snapshotPath, watchmanClock);
+      LOG.debug("Saved %d file hashes to snapshot %s", count, snapshotPath);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to save file hash cache snapshot %s", snapshotPath);
+    }
+  }
 }
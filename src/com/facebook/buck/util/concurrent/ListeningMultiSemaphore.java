@@ -22,19 +22,28 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 /**
  * A semaphore using {@link ListenableFuture}s for acquisition of different resource types rather
  * than blocking.
+ *
+ * <p>Pending acquisitions are processed by decreasing priority, and in the order they were made
+ * among those of the same priority.
  */
 public class ListeningMultiSemaphore {
 
   private ResourceAmounts usedValues;
   private final ResourceAmounts maximumValues;
-  private final List<ListeningSemaphoreArrayPendingItem> pending = new LinkedList<>();
+  // Pending items by decreasing priority, each in the order they were added.
+  private final NavigableMap<Long, Deque<ListeningSemaphoreArrayPendingItem>> pending =
+      new TreeMap<>(Comparator.reverseOrder());
+  private int pendingCount = 0;
   private final ResourceAllocationFairness fairness;
 
   public ListeningMultiSemaphore(
@@ -54,7 +63,17 @@ public class ListeningMultiSemaphore {
    *     amounts, they will be capped to them.
    * @return Future that will be completed once resource will be acquired.
    */
-  public synchronized ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+  public ListenableFuture<Unit> acquire(ResourceAmounts resources) {
+    return acquire(resources, 0);
+  }
+
+  /**
+   * Same as {@link #acquire(ResourceAmounts)}, but if the resources have to be waited for, they go
+   * to this acquisition before they go to the pending ones with a lower priority.
+   *
+   * @param priority Priority of the acquisition, the higher the sooner.
+   */
+  public synchronized ListenableFuture<Unit> acquire(ResourceAmounts resources, long priority) {
     if (resources.equals(ResourceAmounts.zero())) {
       return Futures.immediateFuture(Unit.UNIT);
     }
@@ -62,13 +81,20 @@ public class ListeningMultiSemaphore {
     resources = capResourceAmounts(resources);
     if (!checkIfResourcesAvailable(resources)) {
       SettableFuture<Unit> pendingFuture = SettableFuture.create();
-      pending.add(ImmutableListeningSemaphoreArrayPendingItem.of(pendingFuture, resources));
+      addPendingItem(
+          ImmutableListeningSemaphoreArrayPendingItem.of(pendingFuture, resources, priority));
       return pendingFuture;
     }
     increaseUsedResources(resources);
     return Futures.immediateFuture(null);
   }
 
+  /** Queues the item after all the pending items with a priority higher or equal to its own. */
+  private void addPendingItem(ListeningSemaphoreArrayPendingItem item) {
+    pending.computeIfAbsent(item.getPriority(), priority -> new ArrayDeque<>()).add(item);
+    pendingCount++;
+  }
+
   /**
    * Releases previously acquired resources.
    *
@@ -89,18 +115,41 @@ public class ListeningMultiSemaphore {
       getPendingItemsThatCanBeProcessed() {
     ImmutableList.Builder<ListeningSemaphoreArrayPendingItem> builder = ImmutableList.builder();
 
-    Iterator<ListeningSemaphoreArrayPendingItem> iterator = pending.iterator();
+    Iterator<Deque<ListeningSemaphoreArrayPendingItem>> queues = pending.values().iterator();
+    while (!getAvailableResources().equals(ResourceAmounts.zero()) && queues.hasNext()) {
+      Deque<ListeningSemaphoreArrayPendingItem> queue = queues.next();
+      boolean blocked = takeItemsThatCanBeProcessed(queue, builder);
+      if (queue.isEmpty()) {
+        queues.remove();
+      }
+      if (blocked) {
+        break;
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Moves the items of {@code queue} whose resources are available to {@code builder}.
+   *
+   * @return whether the items of lower priority have to wait for those left in {@code queue}
+   */
+  private boolean takeItemsThatCanBeProcessed(
+      Deque<ListeningSemaphoreArrayPendingItem> queue,
+      ImmutableList.Builder<ListeningSemaphoreArrayPendingItem> builder) {
+    Iterator<ListeningSemaphoreArrayPendingItem> iterator = queue.iterator();
     while (!getAvailableResources().equals(ResourceAmounts.zero()) && iterator.hasNext()) {
       ListeningSemaphoreArrayPendingItem item = iterator.next();
       if (checkIfResourcesAvailable(item.getResources())) {
         builder.add(item);
         increaseUsedResources(item.getResources());
         iterator.remove();
+        pendingCount--;
       } else if (!fairnessAllowsReordering()) {
-        break;
+        return true;
       }
     }
-    return builder.build();
+    return false;
   }
 
   public synchronized ResourceAmounts getAvailableResources() {
@@ -112,7 +161,7 @@ public class ListeningMultiSemaphore {
   }
 
   public synchronized int getQueueLength() {
-    return pending.size();
+    return pendingCount;
   }
 
   /**
@@ -37,14 +37,24 @@ import javax.annotation.Nullable;
 public class WeightedListeningExecutorService extends AbstractListeningExecutorService {
   private final ListeningMultiSemaphore semaphore;
   private final ResourceAmounts defaultValues;
+  private final long priority;
   private final ListeningExecutorService delegate;
 
   public WeightedListeningExecutorService(
       ListeningMultiSemaphore semaphore,
       ResourceAmounts defaultValues,
       ListeningExecutorService delegate) {
+    this(semaphore, defaultValues, 0, delegate);
+  }
+
+  private WeightedListeningExecutorService(
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultValues,
+      long priority,
+      ListeningExecutorService delegate) {
     this.semaphore = semaphore;
     this.defaultValues = defaultValues;
+    this.priority = priority;
     this.delegate = delegate;
   }
 
@@ -61,14 +71,34 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
     if (newDefaultAmounts.equals(defaultValues)) {
       return this;
     }
-    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, delegate);
+    return new WeightedListeningExecutorService(semaphore, newDefaultAmounts, priority, delegate);
+  }
+
+  /**
+   * Creates a new service whose tasks acquire their resources with the given priority, so that
+   * they start before the tasks of services with a lower priority when they have to wait for
+   * resources.
+   *
+   * @param newPriority priority of the tasks, the higher the sooner.
+   * @return Service that uses the same semaphore, delegate and default resource amounts but with
+   *     the given priority.
+   */
+  public WeightedListeningExecutorService withPriority(long newPriority) {
+    if (newPriority == priority) {
+      return this;
+    }
+    return new WeightedListeningExecutorService(semaphore, defaultValues, newPriority, delegate);
+  }
+
+  public long getPriority() {
+    return priority;
   }
 
   private <T> ListenableFuture<T> submitWithSemaphore(
       Callable<T> callable, ResourceAmounts amounts) {
     ListenableFuture<T> future =
         Futures.transformAsync(
-            semaphore.acquire(amounts),
+            semaphore.acquire(amounts, priority),
             input -> {
               try {
                 return Futures.immediateFuture(callable.call());
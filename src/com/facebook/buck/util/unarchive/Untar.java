@@ -27,6 +27,7 @@ import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
@@ -42,6 +43,7 @@ import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.CompressorException;
@@ -105,6 +107,77 @@ public class Untar extends Unarchiver {
       PatternsMatcher entriesToExclude,
       boolean writeSymlinksAfterCreatingFiles)
       throws IOException {
+    try {
+      return extractArchive(
+          getArchiveInputStream(new BufferedInputStream(Files.newInputStream(archiveFile))),
+          filesystem,
+          filesystemRelativePath,
+          stripPath,
+          existingFileMode,
+          entriesToExclude,
+          writeSymlinksAfterCreatingFiles,
+          path -> {});
+    } catch (CompressorException e) {
+      throw new IOException(
+          String.format("Could not get decompressor for archive at %s", archiveFile), e);
+    }
+  }
+
+  /**
+   * Extracts an archive read from a stream into the root of a filesystem, as the archive is being
+   * downloaded for instance, without writing it to a file first.
+   *
+   * @param archiveStream The stream of the archive, compressed in the format of this unarchiver. It
+   *     is closed once the archive has been extracted.
+   * @param filesystem The filesystem that will be extracted into
+   * @param existingFileMode How to handle existing files
+   * @return A list of paths to files that were created (not directories)
+   * @throws IOException If the archive could not be extracted for any reason
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream, ProjectFilesystem filesystem, ExistingFileMode existingFileMode)
+      throws IOException {
+    return extractArchive(archiveStream, filesystem, existingFileMode, path -> {});
+  }
+
+  /**
+   * Like {@link #extractArchive(InputStream, ProjectFilesystem, ExistingFileMode)}, reporting each
+   * file before it is written, so that callers can clean up after archives which fail to extract.
+   *
+   * @param onFileWritten called with the path of each file (not directory) about to be written
+   */
+  public ImmutableSet<Path> extractArchive(
+      InputStream archiveStream,
+      ProjectFilesystem filesystem,
+      ExistingFileMode existingFileMode,
+      Consumer<Path> onFileWritten)
+      throws IOException {
+    try {
+      return extractArchive(
+          getArchiveInputStream(new BufferedInputStream(archiveStream)),
+          filesystem,
+          filesystem.getPath(""),
+          Optional.empty(),
+          existingFileMode,
+          PatternsMatcher.NONE,
+          Platform.detect() == Platform.WINDOWS,
+          onFileWritten);
+    } catch (CompressorException e) {
+      archiveStream.close();
+      throw new IOException("Could not get decompressor for archive stream", e);
+    }
+  }
+
+  private ImmutableSet<Path> extractArchive(
+      TarArchiveInputStream tarArchiveStream,
+      ProjectFilesystem filesystem,
+      Path filesystemRelativePath,
+      Optional<Path> stripPath,
+      ExistingFileMode existingFileMode,
+      PatternsMatcher entriesToExclude,
+      boolean writeSymlinksAfterCreatingFiles,
+      Consumer<Path> onFileWritten)
+      throws IOException {
 
     ImmutableSet.Builder<Path> paths = ImmutableSet.builder();
     HashSet<Path> dirsToTidy = new HashSet<>();
@@ -116,7 +189,7 @@ public class Untar extends Unarchiver {
     // all files are extracted, and /then/ try to do the links
     Map<Path, Path> windowsSymlinkMap = new HashMap<>();
 
-    try (TarArchiveInputStream archiveStream = getArchiveInputStream(archiveFile)) {
+    try (TarArchiveInputStream archiveStream = tarArchiveStream) {
       TarArchiveEntry entry;
       while ((entry = archiveStream.getNextTarEntry()) != null) {
         String entryName = entry.getName();
@@ -140,6 +213,7 @@ public class Untar extends Unarchiver {
           mkdirs(creator, destPath);
           dirCreationTimes.put(destPath, entry.getModTime().getTime());
         } else if (entry.isSymbolicLink()) {
+          onFileWritten.accept(destPath);
           if (writeSymlinksAfterCreatingFiles) {
             recordSymbolicLinkForWindows(creator, destPath, entry, windowsSymlinkMap);
           } else {
@@ -148,6 +222,7 @@ public class Untar extends Unarchiver {
           paths.add(destPath);
           setAttributes(filesystem, destPath, entry);
         } else if (entry.isFile()) {
+          onFileWritten.accept(destPath);
           writeFile(creator, archiveStream, destPath);
           paths.add(destPath);
           setAttributes(filesystem, destPath, entry);
@@ -155,9 +230,6 @@ public class Untar extends Unarchiver {
       }
 
       writeWindowsSymlinks(creator, windowsSymlinkMap);
-    } catch (CompressorException e) {
-      throw new IOException(
-          String.format("Could not get decompressor for archive at %s", archiveFile), e);
     }
 
     setDirectoryModificationTimes(filesystem, dirCreationTimes);
@@ -170,9 +242,8 @@ public class Untar extends Unarchiver {
     return filePaths;
   }
 
-  private TarArchiveInputStream getArchiveInputStream(Path tarFile)
-      throws IOException, CompressorException {
-    BufferedInputStream inputStream = new BufferedInputStream(Files.newInputStream(tarFile));
+  private TarArchiveInputStream getArchiveInputStream(BufferedInputStream inputStream)
+      throws CompressorException {
     if (compressorType.isPresent()) {
       return new TarArchiveInputStream(
           new CompressorStreamFactory()
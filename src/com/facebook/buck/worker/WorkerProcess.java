@@ -25,13 +25,19 @@ import com.facebook.buck.util.string.MoreStrings;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 public class WorkerProcess implements Closeable {
@@ -43,9 +49,15 @@ public class WorkerProcess implements Closeable {
   private final ProjectFilesystem filesystem;
   private final Path tmpPath;
   private final Path stdErr;
+  private final int maxJobs;
   private final AtomicInteger currentMessageID = new AtomicInteger();
+  // Guards the election of the thread reading the responses of a multiplexed protocol, and is
+  // notified whenever a response was read. It is never held while reading.
+  private final Object responseLock = new Object();
+  private final Map<Integer, SettableFuture<Integer>> pendingResponses = new ConcurrentHashMap<>();
+  private boolean readingResponse = false;
   private boolean handshakePerformed = false;
-  @Nullable private WorkerProcessProtocol.CommandSender protocol;
+  @Nullable private volatile WorkerProcessProtocol.CommandSender protocol;
   @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
 
   /**
@@ -67,12 +79,29 @@ public class WorkerProcess implements Closeable {
       ProjectFilesystem filesystem,
       Path stdErr,
       Path tmpPath) {
+    this(executor, processParams, filesystem, stdErr, tmpPath, 1);
+  }
+
+  /**
+   * @param maxJobs Number of jobs the worker process can run concurrently. When greater than 1, the
+   *     worker process must understand {@link WorkerProcessProtocolOne}, and jobs may be submitted
+   *     from several threads at once.
+   */
+  public WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams processParams,
+      ProjectFilesystem filesystem,
+      Path stdErr,
+      Path tmpPath,
+      int maxJobs) {
+    Preconditions.checkArgument(maxJobs > 0, "A worker process must be able to run a job.");
     this.executor = executor;
     this.stdErr = stdErr;
     this.processParams =
         processParams.withRedirectError(ProcessBuilder.Redirect.to(stdErr.toFile()));
     this.filesystem = filesystem;
     this.tmpPath = tmpPath;
+    this.maxJobs = maxJobs;
   }
 
   public boolean isAlive() {
@@ -87,24 +116,36 @@ public class WorkerProcess implements Closeable {
         "Starting up process %d using command: \'%s\'",
         this.hashCode(), Joiner.on(' ').join(processParams.getCommand()));
     launchedProcess = executor.launchProcess(processParams);
-    protocol =
-        new WorkerProcessProtocolZero.CommandSender(
-            launchedProcess.getStdin(),
-            launchedProcess.getStdout(),
-            stdErr,
-            () -> {
-              if (launchedProcess != null) {
-                executor.destroyLaunchedProcess(launchedProcess);
-              }
-            },
-            () -> launchedProcess != null && launchedProcess.isAlive());
+    Runnable onClose =
+        () -> {
+          if (launchedProcess != null) {
+            executor.destroyLaunchedProcess(launchedProcess);
+          }
+        };
+    Supplier<Boolean> isAlive = () -> launchedProcess != null && launchedProcess.isAlive();
+    WorkerProcessProtocol.CommandSender protocol;
+    if (maxJobs > 1) {
+      protocol =
+          new WorkerProcessProtocolOne.CommandSender(
+              launchedProcess.getStdin(), launchedProcess.getStdout(), stdErr, onClose, isAlive);
+    } else {
+      protocol =
+          new WorkerProcessProtocolZero.CommandSender(
+              launchedProcess.getStdin(), launchedProcess.getStdout(), stdErr, onClose, isAlive);
+    }
 
     LOG.debug("Handshaking with process %d", this.hashCode());
     protocol.handshake(currentMessageID.getAndIncrement());
+    this.protocol = protocol;
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  /**
+   * Submits a job and waits for its result. Unless the worker process speaks a multiplexed
+   * protocol, jobs submitted concurrently are sent one after the other.
+   */
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+    WorkerProcessProtocol.CommandSender protocol = this.protocol;
     Preconditions.checkState(
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
@@ -120,9 +161,20 @@ public class WorkerProcess implements Closeable {
     LOG.debug(
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
         messageID, this.hashCode(), jobArgs);
-    protocol.send(messageID, ImmutableWorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
-    LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
-    int exitCode = protocol.receiveCommandResponse(messageID);
+    WorkerProcessCommand command =
+        ImmutableWorkerProcessCommand.of(argsPath, stdoutPath, stderrPath);
+    int exitCode;
+    if (protocol instanceof WorkerProcessProtocol.MultiplexedCommandSender) {
+      exitCode =
+          sendAndWaitForResponse(
+              (WorkerProcessProtocol.MultiplexedCommandSender) protocol, messageID, command);
+    } else {
+      synchronized (this) {
+        protocol.send(messageID, command);
+        LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
+        exitCode = protocol.receiveCommandResponse(messageID);
+      }
+    }
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
     Optional<String> stderr = filesystem.readFileIfItExists(stderrPath);
     LOG.debug(
@@ -135,6 +187,62 @@ public class WorkerProcess implements Closeable {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  /**
+   * Sends a command without waiting for the responses to the commands already in flight. The
+   * threads waiting for responses take turns reading them, and hand over the responses to other
+   * commands to the threads waiting for them, so no thread is dedicated to reading. Only one of
+   * them reads at a time, and the others are woken up as soon as their response was read, even if
+   * the reading thread then goes on waiting for its own.
+   */
+  private int sendAndWaitForResponse(
+      WorkerProcessProtocol.MultiplexedCommandSender protocol,
+      int messageID,
+      WorkerProcessCommand command)
+      throws IOException {
+    SettableFuture<Integer> response = SettableFuture.create();
+    pendingResponses.put(messageID, response);
+    try {
+      synchronized (this) {
+        protocol.send(messageID, command);
+      }
+      LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
+      while (true) {
+        synchronized (responseLock) {
+          while (!response.isDone() && readingResponse) {
+            try {
+              responseLock.wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new InterruptedIOException(
+                  String.format("Interrupted while waiting for the response to job %d", messageID));
+            }
+          }
+          if (response.isDone()) {
+            return Futures.getUnchecked(response);
+          }
+          readingResponse = true;
+        }
+        try {
+          WorkerProcessProtocol.CommandResponse next = protocol.receiveNextCommandResponse();
+          SettableFuture<Integer> nextResponse = pendingResponses.remove(next.getMessageId());
+          if (nextResponse == null) {
+            throw new HumanReadableException(
+                "Received a response for job %d, which is not running in worker process %s.",
+                next.getMessageId(), Joiner.on(' ').join(processParams.getCommand()));
+          }
+          nextResponse.set(next.getExitCode());
+        } finally {
+          synchronized (responseLock) {
+            readingResponse = false;
+            responseLock.notifyAll();
+          }
+        }
+      }
+    } finally {
+      pendingResponses.remove(messageID, response);
+    }
+  }
+
   @Override
   public synchronized void close() {
     LOG.debug("Closing process %d", this.hashCode());
@@ -44,6 +44,12 @@ public interface WorkerProcessParams {
   /** Maximum number of tools that pool can have. */
   int getMaxWorkers();
 
+  /**
+   * Maximum number of jobs each tool runs concurrently. Tools running more than one job must
+   * understand the multiplexed version of the worker protocol.
+   */
+  int getMaxJobsPerWorker();
+
   /**
    * Identifies the instance of the persisted worker process pool. Defines when worker process pool
    * should be invalidated.
@@ -59,7 +65,22 @@ public interface WorkerProcessParams {
       ImmutableMap<String, String> startupEnvironment,
       int maxWorkers,
       Optional<WorkerProcessIdentity> workerProcessIdentity) {
+    return of(tempDir, startupCommand, startupEnvironment, maxWorkers, 1, workerProcessIdentity);
+  }
+
+  static WorkerProcessParams of(
+      Path tempDir,
+      ImmutableList<String> startupCommand,
+      ImmutableMap<String, String> startupEnvironment,
+      int maxWorkers,
+      int maxJobsPerWorker,
+      Optional<WorkerProcessIdentity> workerProcessIdentity) {
     return ImmutableWorkerProcessParams.of(
-        tempDir, startupCommand, startupEnvironment, maxWorkers, workerProcessIdentity);
+        tempDir,
+        startupCommand,
+        startupEnvironment,
+        maxWorkers,
+        maxJobsPerWorker,
+        workerProcessIdentity);
   }
 }
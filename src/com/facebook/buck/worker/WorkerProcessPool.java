@@ -26,7 +26,6 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
@@ -46,6 +45,8 @@ public class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
   private final int capacity;
+  private final int maxJobsPerWorker;
+  // Holds each worker once per job it can run concurrently.
   private final BlockingQueue<WorkerLifecycle> availableWorkers;
   private final WorkerLifecycle[] workerLifecycles;
   private final HashCode poolHash;
@@ -54,7 +55,22 @@ public class WorkerProcessPool implements Closeable {
       int maxWorkers,
       HashCode poolHash,
       ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    this(maxWorkers, 1, poolHash, startWorkerProcess);
+  }
+
+  /**
+   * @param maxJobsPerWorker Number of jobs each worker process can run concurrently. Jobs are
+   *     dispatched to the workers which are already running jobs, up to that number, before other
+   *     workers are started.
+   */
+  public WorkerProcessPool(
+      int maxWorkers,
+      int maxJobsPerWorker,
+      HashCode poolHash,
+      ThrowingSupplier<WorkerProcess, IOException> startWorkerProcess) {
+    Preconditions.checkArgument(maxJobsPerWorker > 0, "Workers must be able to run a job.");
     capacity = maxWorkers;
+    this.maxJobsPerWorker = maxJobsPerWorker;
     availableWorkers = new LinkedBlockingStack<>();
     workerLifecycles = new WorkerLifecycle[maxWorkers];
     this.poolHash = poolHash;
@@ -62,7 +78,12 @@ public class WorkerProcessPool implements Closeable {
     Arrays.setAll(
         workerLifecycles,
         ignored -> new WorkerLifecycle(startWorkerProcess, availableWorkers::add));
-    Collections.addAll(availableWorkers, workerLifecycles);
+    // availableWorkers is a stack, so all the slots of a worker are taken before the next one.
+    for (WorkerLifecycle lifecycle : workerLifecycles) {
+      for (int i = 0; i < maxJobsPerWorker; i++) {
+        availableWorkers.add(lifecycle);
+      }
+    }
   }
 
   /**
@@ -86,7 +107,8 @@ public class WorkerProcessPool implements Closeable {
     Throwable caughtWhileClosing = null;
 
     // remove all available workers
-    int numAvailableWorkers = availableWorkers.drainTo(new ArrayList<>(capacity));
+    int numAvailableWorkers =
+        availableWorkers.drainTo(new ArrayList<>(capacity * maxJobsPerWorker));
     for (WorkerLifecycle lifecycle : this.workerLifecycles) {
       try {
         lifecycle.close();
@@ -96,7 +118,7 @@ public class WorkerProcessPool implements Closeable {
     }
 
     Preconditions.checkState(
-        numAvailableWorkers == capacity,
+        numAvailableWorkers == capacity * maxJobsPerWorker,
         "WorkerProcessPool was still running when shutdown was called.");
     if (caughtWhileClosing != null) {
       throw new RuntimeException(caughtWhileClosing);
@@ -184,6 +206,7 @@ public class WorkerProcessPool implements Closeable {
    *
    * <p>BorrowedWorkerProcess is not threadsafe, and is expected to be used by one thread at a time
    * only. Concurrency control is handled by {@link WorkerProcessPool} and {@link WorkerLifecycle}.
+   * A worker process which can run several jobs concurrently is lent to that many borrowers.
    */
   public static class BorrowedWorkerProcess implements Closeable {
     @Nullable private WorkerLifecycle lifecycle;
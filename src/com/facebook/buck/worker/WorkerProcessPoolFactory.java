@@ -117,11 +117,14 @@ public class WorkerProcessPoolFactory {
     WorkerProcessPool newPool =
         new WorkerProcessPool(
             paramsToUse.getMaxWorkers(),
+            paramsToUse.getMaxJobsPerWorker(),
             workerHash,
             () -> {
               Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
               filesystem.mkdirs(tmpDir);
-              WorkerProcess process = createWorkerProcess(processParams, context, tmpDir);
+              WorkerProcess process =
+                  createWorkerProcess(
+                      processParams, context, tmpDir, paramsToUse.getMaxJobsPerWorker());
               process.ensureLaunchAndHandshake();
               return process;
             });
@@ -160,10 +163,10 @@ public class WorkerProcessPoolFactory {
 
   @VisibleForTesting
   public WorkerProcess createWorkerProcess(
-      ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir)
+      ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir, int maxJobs)
       throws IOException {
     Path stdErr = Files.createTempFile("buck-worker-", "-stderr.log");
     return new WorkerProcess(
-        context.getProcessExecutor(), processParams, filesystem, stdErr, tmpDir);
+        context.getProcessExecutor(), processParams, filesystem, stdErr, tmpDir, maxJobs);
   }
 }
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.worker;
 
+import com.facebook.buck.core.util.immutables.BuckStyleValue;
 import java.io.Closeable;
 import java.io.IOException;
 
@@ -32,4 +33,21 @@ public interface WorkerProcessProtocol {
     @Override
     void close() throws IOException;
   }
+
+  /**
+   * A {@link CommandSender} which can send commands before the responses to the previous ones are
+   * received. The worker process responds to them in the order it completes them.
+   */
+  interface MultiplexedCommandSender extends CommandSender {
+    /** Receives the response to whichever command the worker process completes next. */
+    CommandResponse receiveNextCommandResponse() throws IOException;
+  }
+
+  /** The exit code of the command whose message had the given id. */
+  @BuckStyleValue
+  interface CommandResponse {
+    int getMessageId();
+
+    int getExitCode();
+  }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Version 1 of the worker process protocol. It exchanges the same messages as {@link
+ * WorkerProcessProtocolZero}, but Buck may send several commands without waiting for the responses
+ * to the previous ones, and the worker process sends each response as soon as its command is done,
+ * in any order. Worker processes opt into it by answering the handshake with the same protocol
+ * version.
+ */
+public class WorkerProcessProtocolOne {
+
+  private static final String PROTOCOL_VERSION = "1";
+
+  public static class CommandSender extends WorkerProcessProtocolZero.CommandSender
+      implements WorkerProcessProtocol.MultiplexedCommandSender {
+
+    public CommandSender(
+        OutputStream processStdin,
+        InputStream processStdout,
+        Path stdErr,
+        Runnable onClose,
+        Supplier<Boolean> isAlive) {
+      super(processStdin, processStdout, stdErr, onClose, isAlive, PROTOCOL_VERSION);
+    }
+
+    @Override
+    public WorkerProcessProtocol.CommandResponse receiveNextCommandResponse() throws IOException {
+      return readCommandResponse();
+    }
+  }
+}
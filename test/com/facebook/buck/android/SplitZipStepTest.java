@@ -33,6 +33,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterables;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -177,7 +178,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            MoreExecutors.newDirectExecutorService());
 
     Predicate<String> requiredInPrimaryZipPredicate =
         splitZipStep.createRequiredInPrimaryZipPredicate(
@@ -268,7 +270,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            MoreExecutors.newDirectExecutorService());
 
     ProguardTranslatorFactory translatorFactory =
         ProguardTranslatorFactory.create(
@@ -344,7 +347,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            MoreExecutors.newDirectExecutorService());
 
     ProguardTranslatorFactory translatorFactory =
         ProguardTranslatorFactory.create(
@@ -419,7 +423,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            MoreExecutors.newDirectExecutorService());
 
     Predicate<String> requiredInPrimaryZipPredicate =
         splitZipStep.createRequiredInPrimaryZipPredicate(
@@ -503,7 +508,8 @@ public class SplitZipStepTest {
             /* pathToReportDir */
             ImmutableSortedMap.of(),
             null,
-            Paths.get(""));
+            Paths.get(""),
+            MoreExecutors.newDirectExecutorService());
 
     ProguardTranslatorFactory translatorFactory =
         ProguardTranslatorFactory.create(
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.android.dalvik;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.jvm.java.classes.AbstractFileLike;
+import com.facebook.buck.jvm.java.classes.ClasspathTraversal;
+import com.facebook.buck.jvm.java.classes.FileLike;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class DalvikStatsCacheTest {
+
+  private static final int CLASS_COUNT = 50;
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws IOException {
+    executor = Executors.newFixedThreadPool(4);
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    for (String dir : ImmutableList.of("first", "second")) {
+      Path packageDir = tmp.newFolder(dir, "com", "example");
+      for (int i = 0; i < CLASS_COUNT; i++) {
+        Files.write(packageDir.resolve("Class" + i + ".class"), createClass(i));
+      }
+      Files.write(packageDir.resolve("resource.txt"), new byte[] {1, 2, 3});
+    }
+  }
+
+  @Test
+  public void precomputedStatsMatchTheEstimates() throws IOException {
+    DalvikStatsCache cache = new DalvikStatsCache();
+    cache.precompute(
+        filesystem, ImmutableList.of(tmp.getRoot().resolve("first")), executor);
+
+    for (FileLike entry : listEntries("first")) {
+      DalvikStatsTool.Stats stats = cache.getStats(entry);
+      if (entry.getRelativePath().endsWith(".class")) {
+        DalvikStatsTool.Stats expected;
+        try (InputStream input = entry.getInput()) {
+          expected = DalvikStatsTool.getEstimate(input);
+        }
+        assertEquals(expected.estimatedLinearAllocSize, stats.estimatedLinearAllocSize);
+        assertEquals(expected.methodReferences, stats.methodReferences);
+        assertEquals(expected.fieldReferences, stats.fieldReferences);
+      } else {
+        assertSame(DalvikStatsTool.Stats.ZERO, stats);
+      }
+    }
+  }
+
+  @Test
+  public void classesWithTheSameContentsShareTheirStats() throws IOException {
+    List<FileLike> firstEntries = listEntries("first");
+    List<FileLike> secondEntries = listEntries("second");
+    DalvikStatsCache firstCache = new DalvikStatsCache();
+    firstCache.precompute(
+        filesystem, ImmutableList.of(tmp.getRoot().resolve("first")), executor);
+
+    // A new cache, as used by a later build, finds the stats of classes whose contents it has
+    // seen before, even in another location.
+    DalvikStatsCache secondCache = new DalvikStatsCache();
+    for (int i = 0; i < firstEntries.size(); i++) {
+      assertEquals(firstEntries.get(i).getRelativePath(), secondEntries.get(i).getRelativePath());
+      assertSame(
+          firstCache.getStats(firstEntries.get(i)), secondCache.getStats(secondEntries.get(i)));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void statsOfJarsArePersistedAcrossDaemons() throws IOException {
+    Path jar = tmp.getRoot().resolve("first.jar");
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+      for (FileLike entry : listEntries("first")) {
+        out.putNextEntry(new JarEntry(entry.getRelativePath()));
+        try (InputStream input = entry.getInput()) {
+          ByteStreams.copy(input, out);
+        }
+        out.closeEntry();
+      }
+    }
+    DalvikStatsCache firstCache = new DalvikStatsCache(filesystem);
+    firstCache.precompute(filesystem, ImmutableList.of(jar), executor);
+    List<FileLike> entries = listEntries(jar);
+    List<DalvikStatsTool.Stats> expected = new ArrayList<>();
+    for (FileLike entry : entries) {
+      expected.add(firstCache.getStats(entry));
+    }
+
+    // A new daemon finds the stats of the jar without reading its classes again.
+    DalvikStatsCache.clearSharedStats();
+    DalvikStatsCache secondCache = new DalvikStatsCache(filesystem);
+    secondCache.precompute(filesystem, ImmutableList.of(jar), executor);
+    for (int i = 0; i < entries.size(); i++) {
+      FileLike entry = entries.get(i);
+      DalvikStatsTool.Stats stats =
+          secondCache.getStats(
+              new AbstractFileLike() {
+                @Override
+                public Path getContainer() {
+                  return entry.getContainer();
+                }
+
+                @Override
+                public String getRelativePath() {
+                  return entry.getRelativePath();
+                }
+
+                @Override
+                public long getSize() {
+                  throw new AssertionError();
+                }
+
+                @Override
+                public InputStream getInput() {
+                  throw new AssertionError("Read " + entry.getRelativePath());
+                }
+              });
+      assertEquals(expected.get(i).estimatedLinearAllocSize, stats.estimatedLinearAllocSize);
+      assertEquals(expected.get(i).methodReferences, stats.methodReferences);
+      assertEquals(expected.get(i).fieldReferences, stats.fieldReferences);
+    }
+  }
+
+  private List<FileLike> listEntries(String dir) throws IOException {
+    return listEntries(tmp.getRoot().resolve(dir));
+  }
+
+  private List<FileLike> listEntries(Path path) throws IOException {
+    List<FileLike> entries = new ArrayList<>();
+    new ClasspathTraversal(ImmutableList.of(path), filesystem) {
+      @Override
+      public void visit(FileLike fileLike) {
+        entries.add(fileLike);
+      }
+    }.traverse();
+    entries.sort((a, b) -> a.getRelativePath().compareTo(b.getRelativePath()));
+    return entries;
+  }
+
+  private static byte[] createClass(int index) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(
+        Opcodes.V1_7,
+        Opcodes.ACC_PUBLIC,
+        "com/example/Class" + index,
+        null,
+        "java/lang/Object",
+        null);
+    writer.visitField(Opcodes.ACC_PUBLIC, "field" + index, "I", null, null).visitEnd();
+    for (int i = 0; i <= index % 5; i++) {
+      MethodVisitor method =
+          writer.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "()V", null, null);
+      method.visitCode();
+      method.visitMethodInsn(
+          Opcodes.INVOKESTATIC, "com/example/Class" + i, "method" + i, "()V", false);
+      method.visitInsn(Opcodes.RETURN);
+      method.visitMaxs(0, 1);
+      method.visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
@@ -25,6 +25,7 @@ import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
 import com.facebook.buck.artifact_cache.config.DirCacheEntry;
 import com.facebook.buck.artifact_cache.config.HttpCacheEntry;
+import com.facebook.buck.artifact_cache.config.MultiCacheFetchPolicy;
 import com.facebook.buck.core.config.BuckConfig;
 import com.facebook.buck.core.config.BuckConfigTestUtils;
 import com.facebook.buck.core.config.FakeBuckConfig;
@@ -80,6 +81,16 @@ public class ArtifactCacheBuckConfigTest {
         cacheEntry.isWifiUsableForDistributedCache(Optional.of("yolocoaster")), Matchers.is(true));
   }
 
+  @Test
+  public void testMultiCacheFetchPolicy() throws IOException {
+    assertThat(
+        createFromText("[cache]", "mode = dir, http").getMultiCacheFetchPolicy(),
+        Matchers.is(MultiCacheFetchPolicy.SEQUENTIAL));
+    assertThat(
+        createFromText("[cache]", "fetch_policy = probe").getMultiCacheFetchPolicy(),
+        Matchers.is(MultiCacheFetchPolicy.PROBE));
+  }
+
   @Test
   public void testMode() throws IOException {
     ArtifactCacheBuckConfig config = createFromText("[cache]", "mode = http");
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DirArtifactCacheIndexTest {
+  @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  @Test
+  public void evictsLeastRecentlyUsedAcrossShards() throws IOException {
+    DirArtifactCacheIndex index = DirArtifactCacheIndex.open(tmpDir.getRoot().resolve("index"));
+
+    index.recordStore("0a", 10);
+    index.recordStore("1b", 10);
+    index.recordStore("2c", 10);
+    index.recordAccess("0a");
+
+    assertEquals(30, index.getTotalBytes());
+    assertEquals(ImmutableList.of("1b", "2c"), index.selectEvictionVictims(10));
+    assertEquals(10, index.getTotalBytes());
+  }
+
+  @Test
+  public void replaysRecordsOfOtherInstances() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    DirArtifactCacheIndex first = DirArtifactCacheIndex.open(indexDir);
+    DirArtifactCacheIndex second = DirArtifactCacheIndex.open(indexDir);
+
+    first.recordStore("0a", 10);
+    first.recordStore("1b", 20);
+    first.flush();
+    second.recordStore("2c", 30);
+    second.flush();
+    first.recordRemove("0a");
+    first.flush();
+
+    second.sync();
+    assertEquals(50, second.getTotalBytes());
+    assertEquals(2, second.getEntryCount());
+
+    DirArtifactCacheIndex reopened = DirArtifactCacheIndex.open(indexDir);
+    assertEquals(50, reopened.getTotalBytes());
+  }
+
+  @Test
+  public void replayedRecordsAreEvictedByLastAccess() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    DirArtifactCacheIndex first = DirArtifactCacheIndex.open(indexDir);
+    // Records of the same shard, appended in another order than their access times.
+    first.seed("0b", 10, 3000);
+    first.seed("0a", 10, 1000);
+    first.seed("0c", 10, 2000);
+    first.flush();
+
+    DirArtifactCacheIndex second = DirArtifactCacheIndex.open(indexDir);
+    assertEquals(ImmutableList.of("0a", "0c"), second.selectEvictionVictims(10));
+    assertEquals(ImmutableList.of("0a", "0c"), first.selectEvictionVictims(10));
+  }
+
+  @Test
+  public void seededEntriesAreEvictedByLastAccess() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    DirArtifactCacheIndex index = DirArtifactCacheIndex.open(indexDir);
+    assertFalse(index.isSeeded());
+
+    index.seed("0c", 10, 3000);
+    index.seed("0a", 10, 1000);
+    index.seed("0b", 10, 2000);
+    index.markSeeded();
+
+    assertTrue(DirArtifactCacheIndex.open(indexDir).isSeeded());
+    assertEquals(ImmutableList.of("0a", "0b"), index.selectEvictionVictims(10));
+  }
+
+  @Test
+  public void instancesOfTheSameProcessShareTheDirectory() throws Exception {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    DirArtifactCacheIndex first = DirArtifactCacheIndex.open(indexDir);
+    DirArtifactCacheIndex second = DirArtifactCacheIndex.open(indexDir);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        String key = String.format("%x%d", i % 16, i);
+        futures.add(
+            executor.submit(
+                () -> {
+                  first.recordStore(key, 1);
+                  first.flush();
+                  return null;
+                }));
+        futures.add(
+            executor.submit(
+                () -> {
+                  second.sync();
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    second.sync();
+    assertEquals(100, second.getTotalBytes());
+  }
+
+  @Test
+  public void corruptJournalIsRewritten() throws IOException {
+    Path indexDir = tmpDir.getRoot().resolve("index");
+    DirArtifactCacheIndex index = DirArtifactCacheIndex.open(indexDir);
+    index.recordStore("0a", 10);
+    index.flush();
+    Files.write(indexDir.resolve("journal-0"), new byte[] {42}, StandardOpenOption.APPEND);
+
+    DirArtifactCacheIndex reopened = DirArtifactCacheIndex.open(indexDir);
+    assertEquals(10, reopened.getTotalBytes());
+    reopened.recordStore("0b", 5);
+    reopened.flush();
+
+    assertEquals(15, DirArtifactCacheIndex.open(indexDir).getTotalBytes());
+  }
+}
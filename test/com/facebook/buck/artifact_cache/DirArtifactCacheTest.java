@@ -57,6 +57,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import org.hamcrest.Matchers;
@@ -826,6 +827,51 @@ public class DirArtifactCacheTest {
             .getType());
   }
 
+  @Test
+  public void testIndexedCacheEvictsLeastRecentlyUsed() throws Exception {
+    // An entry takes 4 bytes of metadata plus its contents, so the third store exceeds the limit
+    // and the cache is trimmed down to 16 bytes. Evicting the large, least recently used entry is
+    // enough for that.
+    dirArtifactCache = newDirArtifactCache(Optional.of(24L), CacheReadMode.READWRITE, true);
+
+    RuleKey[] ruleKeys = storeArtifacts(dirArtifactCache, "x", "yyyyyyyyyyy");
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeys[0]));
+    RuleKey ruleKeyZ = storeArtifacts(dirArtifactCache, "z")[0];
+    dirArtifactCache.waitForIndexWork();
+
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeys[0]));
+    assertEquals(CacheResultType.MISS, fetch(dirArtifactCache, ruleKeys[1]));
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeyZ));
+  }
+
+  @Test
+  public void testIndexIsPersistedAcrossInstances() throws Exception {
+    dirArtifactCache = newDirArtifactCache(Optional.of(1024L), CacheReadMode.READWRITE, true);
+    RuleKey[] ruleKeys = storeArtifacts(dirArtifactCache, "xxxxxxxxxxx", "y");
+    dirArtifactCache.close();
+
+    dirArtifactCache = newDirArtifactCache(Optional.of(24L), CacheReadMode.READWRITE, true);
+    RuleKey ruleKeyZ = storeArtifacts(dirArtifactCache, "z")[0];
+    dirArtifactCache.waitForIndexWork();
+
+    assertEquals(CacheResultType.MISS, fetch(dirArtifactCache, ruleKeys[0]));
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeys[1]));
+    assertEquals(CacheResultType.HIT, fetch(dirArtifactCache, ruleKeyZ));
+  }
+
+  @Test
+  public void testIndexIsSeededFromExistingEntries() throws Exception {
+    dirArtifactCache = newDirArtifactCache(Optional.empty(), CacheReadMode.READWRITE);
+    storeArtifacts(dirArtifactCache, "x", "y", "z");
+    dirArtifactCache.close();
+    assertEquals(6, dirArtifactCache.getAllFilesInCache().size());
+
+    dirArtifactCache = newDirArtifactCache(Optional.of(9L), CacheReadMode.READWRITE, true);
+    dirArtifactCache.waitForIndexWork();
+
+    assertEquals(2, dirArtifactCache.getAllFilesInCache().size());
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws IOException {
     Path fileX = tmpDir.newFile("x");
@@ -912,12 +958,51 @@ public class DirArtifactCacheTest {
 
   private DirArtifactCache newDirArtifactCache(
       Optional<Long> maxCacheSizeBytes, CacheReadMode cacheReadMode) throws IOException {
+    return newDirArtifactCache(maxCacheSizeBytes, cacheReadMode, false);
+  }
+
+  private DirArtifactCache newDirArtifactCache(
+      Optional<Long> maxCacheSizeBytes, CacheReadMode cacheReadMode, boolean indexed)
+      throws IOException {
     return new DirArtifactCache(
         "dir",
         projectFilesystem,
         cacheDir,
         cacheReadMode,
         maxCacheSizeBytes,
-        MoreExecutors.newDirectExecutorService());
+        MoreExecutors.newDirectExecutorService(),
+        indexed);
+  }
+
+  private RuleKey[] storeArtifacts(DirArtifactCache cache, String... names)
+      throws IOException {
+    ImmutableMap.Builder<Path, HashCode> hashes = ImmutableMap.builder();
+    List<Path> files = new ArrayList<>();
+    for (int i = 0; i < names.length; i++) {
+      Path file = tmpDir.newFile(names[i]);
+      Files.write(file, names[i].getBytes(UTF_8));
+      hashes.put(file, HashCode.fromInt(i));
+      files.add(file);
+    }
+    fileHashLoader = new FakeFileHashCache(hashes.build());
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    DefaultRuleKeyFactory ruleKeyFactory =
+        new TestDefaultRuleKeyFactory(fileHashLoader, graphBuilder);
+    RuleKey[] ruleKeys = new RuleKey[names.length];
+    for (int i = 0; i < names.length; i++) {
+      BuildRule rule = new BuildRuleForTest(files.get(i));
+      graphBuilder.addToIndex(rule);
+      ruleKeys[i] = ruleKeyFactory.build(rule);
+      cache.store(
+          ArtifactInfo.builder().addRuleKeys(ruleKeys[i]).build(),
+          BorrowablePath.notBorrowablePath(files.get(i)));
+    }
+    return ruleKeys;
+  }
+
+  private CacheResultType fetch(DirArtifactCache cache, RuleKey ruleKey) throws IOException {
+    return Futures.getUnchecked(
+            cache.fetchAsync(null, ruleKey, LazyPath.ofInstance(tmpDir.newFile())))
+        .getType();
   }
 }
@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -49,6 +50,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -57,6 +59,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -330,6 +333,90 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchStreamsPayloadToStreamingOutput() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    String data = "test";
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    List<Response> responseList = new ArrayList<>();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setStreamingFetchEnabled(true);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              Response response =
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of("key", "value"),
+                              ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+                              data))
+                      .message("")
+                      .build();
+              responseList.add(response);
+              return new OkHttpResponseWrapper(response);
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    Path output = Paths.get("output/file");
+    RecordingStreamingLazyPath streamingOutput = new RecordingStreamingLazyPath(output, 2);
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, ruleKey, streamingOutput));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals("te", streamingOutput.consumed.toString(Charsets.UTF_8.name()));
+    assertFalse(streamingOutput.rejected);
+    assertFalse(filesystem.exists(output));
+    assertTrue("response wasn't fully read!", responseList.get(0).body().source().exhausted());
+
+    // When the output requires it, the payload is also written to it.
+    streamingOutput = new RecordingStreamingLazyPath(output, 2);
+    result =
+        Futures.getUnchecked(cache.fetchAsync(null, ruleKey, streamingOutput.withPathRequired()));
+    assertEquals(result.cacheError().orElse(""), CacheResultType.HIT, result.getType());
+    assertEquals("te", streamingOutput.consumed.toString(Charsets.UTF_8.name()));
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    cache.close();
+  }
+
+  @Test
+  public void testFetchBadChecksumRejectsStreamedPayload() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setStreamingFetchEnabled(true);
+    argsBuilder.setFetchClient(
+        withMakeRequest(
+            (path, requestBuilder) -> {
+              Request request = requestBuilder.url(SERVER + path).build();
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          createResponseBody(
+                              ImmutableSet.of(ruleKey),
+                              ImmutableMap.of(),
+                              ByteSource.wrap(new byte[0]),
+                              "data"))
+                      .message("")
+                      .build());
+            }));
+    HttpArtifactCache cache = new HttpArtifactCache(argsBuilder.build());
+    Path output = Paths.get("output/file");
+    RecordingStreamingLazyPath streamingOutput =
+        new RecordingStreamingLazyPath(output, Integer.MAX_VALUE);
+    CacheResult result = Futures.getUnchecked(cache.fetchAsync(null, ruleKey, streamingOutput));
+    assertEquals(CacheResultType.ERROR, result.getType());
+    assertEquals("data", streamingOutput.consumed.toString(Charsets.UTF_8.name()));
+    assertTrue(streamingOutput.rejected);
+    assertFalse(filesystem.exists(output));
+    cache.close();
+  }
+
   @Test
   public void testFetchExtraPayload() throws Exception {
     FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
@@ -668,6 +755,40 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  /** Accepts all artifacts, and records the beginning of their payload. */
+  private static class RecordingStreamingLazyPath extends StreamingLazyPath {
+    private final Path path;
+    private final int bytesToConsume;
+    private final ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+    private boolean rejected = false;
+
+    private RecordingStreamingLazyPath(Path path, int bytesToConsume) {
+      this.path = path;
+      this.bytesToConsume = bytesToConsume;
+    }
+
+    @Override
+    protected Path create() {
+      return path;
+    }
+
+    @Override
+    public boolean accepts(ImmutableMap<String, String> metadata) {
+      return true;
+    }
+
+    @Override
+    public void consume(InputStream payload) throws IOException {
+      ByteStreams.copy(ByteStreams.limit(payload, bytesToConsume), consumed);
+      payload.close();
+    }
+
+    @Override
+    public void onPayloadRejected() {
+      rejected = true;
+    }
+  }
+
   private static ResponseBody createDummyBody() {
     return ResponseBody.create(MediaType.parse("text/plain"), "SUCCESS");
   }
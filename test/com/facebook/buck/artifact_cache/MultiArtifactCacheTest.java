@@ -19,9 +19,11 @@ package com.facebook.buck.artifact_cache;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.config.ArtifactCacheMode;
 import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.artifact_cache.config.MultiCacheFetchPolicy;
 import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.rulekey.RuleKey;
 import com.facebook.buck.io.file.BorrowablePath;
@@ -37,6 +39,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -44,6 +47,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import org.hamcrest.Matchers;
@@ -429,4 +433,132 @@ public class MultiArtifactCacheTest {
 
     multiArtifactCache.close();
   }
+
+  @Test
+  public void probePolicyFetchesFromTheFirstCacheToAnswer() throws IOException {
+    DummyArtifactCache local = new DummyArtifactCache();
+    AtomicInteger slowCacheFetches = new AtomicInteger();
+    DummyArtifactCache slowCache =
+        new DummyArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              BuildTarget target, RuleKey ruleKey, LazyPath output) {
+            slowCacheFetches.incrementAndGet();
+            return super.fetchAsync(target, ruleKey, output);
+          }
+
+          @Override
+          public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+              ImmutableSet<RuleKey> ruleKeys) {
+            // Never answers.
+            return SettableFuture.create();
+          }
+        };
+    DummyArtifactCache fastCache = new DummyArtifactCache();
+    fastCache.store(
+        ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+        BorrowablePath.notBorrowablePath(dummyFile.get()));
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(
+            ImmutableList.of(local, slowCache, fastCache), MultiCacheFetchPolicy.PROBE);
+
+    CacheResult result =
+        Futures.getUnchecked(multiArtifactCache.fetchAsync(null, dummyRuleKey, dummyFile));
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(0, slowCacheFetches.get());
+    assertEquals("The artifact is propagated to the first cache.", dummyRuleKey, local.storeKey);
+    ImmutableList<MultiArtifactCacheLatencyEvent.TierLatencies> tierLatencies =
+        multiArtifactCache.getTierLatencies();
+    assertEquals(3, tierLatencies.size());
+    assertEquals(1L, sum(tierLatencies.get(0).getFetchLatencyBuckets()));
+    assertEquals(0L, sum(tierLatencies.get(1).getProbeLatencyBuckets()));
+    assertEquals(1L, sum(tierLatencies.get(2).getProbeLatencyBuckets()));
+    assertEquals(1L, sum(tierLatencies.get(2).getFetchLatencyBuckets()));
+    multiArtifactCache.close();
+  }
+
+  @Test
+  public void probePolicyFallsBackToFetchingFromCachesThatCantBeProbed() throws IOException {
+    DummyArtifactCache local = new DummyArtifactCache();
+    DummyArtifactCache unprobeableCache =
+        new DummyArtifactCache() {
+          @Override
+          public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+              ImmutableSet<RuleKey> ruleKeys) {
+            throw new AssertionError("multiContains is not supported");
+          }
+
+          @Override
+          public boolean isMultiContainsSupported() {
+            return false;
+          }
+        };
+    unprobeableCache.store(
+        ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+        BorrowablePath.notBorrowablePath(dummyFile.get()));
+    AtomicInteger missingCacheFetches = new AtomicInteger();
+    DummyArtifactCache missingCache =
+        new DummyArtifactCache() {
+          @Override
+          public ListenableFuture<CacheResult> fetchAsync(
+              BuildTarget target, RuleKey ruleKey, LazyPath output) {
+            missingCacheFetches.incrementAndGet();
+            return super.fetchAsync(target, ruleKey, output);
+          }
+        };
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(
+            ImmutableList.of(local, unprobeableCache, missingCache), MultiCacheFetchPolicy.PROBE);
+
+    assertEquals(
+        CacheResultType.HIT,
+        Futures.getUnchecked(multiArtifactCache.fetchAsync(null, dummyRuleKey, dummyFile))
+            .getType());
+    assertEquals(
+        CacheResultType.MISS,
+        Futures.getUnchecked(multiArtifactCache.fetchAsync(null, dummyRuleKey2, dummyFile))
+            .getType());
+    assertEquals("The probe of the last cache was negative.", 0, missingCacheFetches.get());
+    multiArtifactCache.close();
+  }
+
+  @Test
+  public void probePolicyDoesNotWaitForProbesToFetchFromCachesThatCantBeProbed()
+      throws IOException {
+    DummyArtifactCache local = new DummyArtifactCache();
+    DummyArtifactCache slowCache =
+        new DummyArtifactCache() {
+          @Override
+          public ListenableFuture<ImmutableMap<RuleKey, CacheResult>> multiContainsAsync(
+              ImmutableSet<RuleKey> ruleKeys) {
+            // Never answers.
+            return SettableFuture.create();
+          }
+        };
+    DummyArtifactCache unprobeableCache =
+        new DummyArtifactCache() {
+          @Override
+          public boolean isMultiContainsSupported() {
+            return false;
+          }
+        };
+    unprobeableCache.store(
+        ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+        BorrowablePath.notBorrowablePath(dummyFile.get()));
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(
+            ImmutableList.of(local, slowCache, unprobeableCache), MultiCacheFetchPolicy.PROBE);
+
+    ListenableFuture<CacheResult> result =
+        multiArtifactCache.fetchAsync(null, dummyRuleKey, dummyFile);
+
+    assertTrue(result.isDone());
+    assertEquals(CacheResultType.HIT, Futures.getUnchecked(result).getType());
+    multiArtifactCache.close();
+  }
+
+  private static long sum(ImmutableList<Long> buckets) {
+    return buckets.stream().mapToLong(Long::longValue).sum();
+  }
 }
@@ -137,7 +137,8 @@ public class SQLiteArtifactCacheBenchmark {
         BuckEventBusForTests.newInstance(),
         maxCacheSizeBytes,
         Optional.of(MAX_INLINED_BYTES),
-        CacheReadMode.READWRITE);
+        CacheReadMode.READWRITE,
+        false);
   }
 
   @Ignore
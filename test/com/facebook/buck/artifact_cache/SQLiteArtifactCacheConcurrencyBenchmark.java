@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.artifact_cache.config.CacheReadMode;
+import com.facebook.buck.core.build.engine.buildinfo.BuildInfo;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.io.file.BorrowablePath;
+import com.facebook.buck.io.file.LazyPath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.Futures;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Measures {@link SQLiteArtifactCache} fetch and store throughput when many build threads share
+ * one cache, comparing the single connection backend with pooled connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class SQLiteArtifactCacheConcurrencyBenchmark {
+  private static final long MAX_INLINED_BYTES = 1024;
+
+  @Param({"false", "true"})
+  public boolean pooledConnections;
+
+  @Param({"10000"})
+  public int artifactCount;
+
+  private TemporaryPaths temporaryPaths = new TemporaryPaths();
+  private SQLiteArtifactCache artifactCache;
+  private List<RuleKey> contentHashes;
+  private List<RuleKey> ruleKeys;
+  private Path artifactFile;
+  private Path emptyFile;
+  private Path outputDir;
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    private LazyPath output;
+
+    @Setup(Level.Trial)
+    public void setUp(SQLiteArtifactCacheConcurrencyBenchmark benchmark) {
+      output =
+          LazyPath.ofInstance(
+              benchmark.outputDir.resolve("output-" + Thread.currentThread().getId()));
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    temporaryPaths.before();
+    ProjectFilesystem filesystem =
+        TestProjectFilesystems.createProjectFilesystem(temporaryPaths.getRoot());
+    artifactFile = temporaryPaths.newFile("artifact");
+    Files.write(artifactFile, new byte[] {'a', 'r', 't', 'i', 'f', 'a', 'c', 't'});
+    emptyFile = temporaryPaths.newFile(".empty");
+    outputDir = temporaryPaths.newFolder("outputs");
+
+    artifactCache =
+        new SQLiteArtifactCache(
+            "sqlite",
+            filesystem,
+            temporaryPaths.newFolder("cache"),
+            BuckEventBusForTests.newInstance(),
+            Optional.empty(),
+            Optional.of(MAX_INLINED_BYTES),
+            CacheReadMode.READWRITE,
+            pooledConnections);
+
+    Random random = new Random(12345);
+    contentHashes = new ArrayList<>(artifactCount);
+    ruleKeys = new ArrayList<>(artifactCount);
+    for (int i = 0; i < artifactCount; i++) {
+      RuleKey contentHash = randomRuleKey(random);
+      contentHashes.add(contentHash);
+      artifactCache.store(
+          ArtifactInfo.builder().addRuleKeys(contentHash).build(),
+          BorrowablePath.notBorrowablePath(artifactFile));
+
+      RuleKey ruleKey = randomRuleKey(random);
+      ruleKeys.add(ruleKey);
+      artifactCache.store(
+          ArtifactInfo.builder()
+              .addRuleKeys(ruleKey)
+              .putMetadata(TwoLevelArtifactCacheDecorator.METADATA_KEY, contentHash.toString())
+              .putMetadata(BuildInfo.MetadataKey.RULE_KEY, ruleKey.toString())
+              .build(),
+          BorrowablePath.notBorrowablePath(emptyFile));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    artifactCache.close();
+    temporaryPaths.after();
+  }
+
+  @Benchmark
+  public CacheResult fetchMetadata(ThreadState state) {
+    RuleKey ruleKey = ruleKeys.get(ThreadLocalRandom.current().nextInt(ruleKeys.size()));
+    return Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKey, state.output));
+  }
+
+  @Benchmark
+  public CacheResult fetchContent(ThreadState state) {
+    RuleKey contentHash =
+        contentHashes.get(ThreadLocalRandom.current().nextInt(contentHashes.size()));
+    return Futures.getUnchecked(artifactCache.fetchAsync(null, contentHash, state.output));
+  }
+
+  @Benchmark
+  public Object storeContent() {
+    RuleKey contentHash = randomRuleKey(ThreadLocalRandom.current());
+    return artifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(contentHash).build(),
+        BorrowablePath.notBorrowablePath(artifactFile));
+  }
+
+  private static RuleKey randomRuleKey(Random random) {
+    byte[] bytes = new byte[16];
+    random.nextBytes(bytes);
+    return new RuleKey(HashCode.fromBytes(bytes));
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
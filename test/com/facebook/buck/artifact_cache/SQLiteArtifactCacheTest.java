@@ -46,16 +46,37 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
+@RunWith(Parameterized.class)
 public class SQLiteArtifactCacheTest {
   @Rule public TemporaryPaths tmpDir = new TemporaryPaths();
 
+  @Parameterized.Parameters(name = "pooledConnections={0}")
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[] {false}, new Object[] {true});
+  }
+
+  private final boolean pooledConnections;
+
+  public SQLiteArtifactCacheTest(boolean pooledConnections) {
+    this.pooledConnections = pooledConnections;
+  }
+
   private static final long MAX_INLINED_BYTES = 1024;
 
   private ProjectFilesystem filesystem;
@@ -109,7 +130,8 @@ public class SQLiteArtifactCacheTest {
         BuckEventBusForTests.newInstance(),
         maxCacheSizeBytes,
         Optional.of(MAX_INLINED_BYTES),
-        CacheReadMode.READWRITE);
+        CacheReadMode.READWRITE,
+        pooledConnections);
   }
 
   /**
@@ -291,6 +313,50 @@ public class SQLiteArtifactCacheTest {
     assertThat(artifactCache.metadataRuleKeys(), Matchers.contains(ruleKeyC));
   }
 
+  @Test
+  public void testFetchedMetadataIsNotDeleted() throws Exception {
+    artifactCache = cache(Optional.of(0L));
+    Timestamp time = Timestamp.from(Instant.now().minus(Duration.ofDays(8)));
+
+    artifactCache.insertMetadata(ruleKeyA, ImmutableMap.of(), time);
+    artifactCache.insertMetadata(ruleKeyB, ImmutableMap.of(), time);
+
+    CacheResult result = Futures.getUnchecked(artifactCache.fetchAsync(null, ruleKeyA, output));
+    assertEquals(CacheResultType.HIT, result.getType());
+
+    artifactCache.flushAccessTimes();
+    artifactCache.removeOldMetadata().get();
+    assertThat(artifactCache.metadataRuleKeys(), Matchers.contains(ruleKeyA));
+  }
+
+  @Test
+  public void testConcurrentFetchesHit() throws Exception {
+    artifactCache = cache(Optional.empty());
+    writeInlinedArtifact(fileA);
+    writeFileArtifact(fileB);
+    artifactCache.store(artifactInfoA, BorrowablePath.notBorrowablePath(fileA));
+    artifactCache.store(artifactInfoB, BorrowablePath.notBorrowablePath(fileB));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<CacheResultType>> results = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        RuleKey contentHash = i % 2 == 0 ? contentHashA : contentHashB;
+        LazyPath threadOutput = LazyPath.ofInstance(cacheDir.resolve(".output" + i));
+        results.add(
+            executor.submit(
+                () ->
+                    Futures.getUnchecked(artifactCache.fetchAsync(null, contentHash, threadOutput))
+                        .getType()));
+      }
+      for (Future<CacheResultType> result : results) {
+        assertEquals(CacheResultType.HIT, result.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testNoStoreMisses() throws Exception {
     artifactCache = cache(Optional.of(0L));
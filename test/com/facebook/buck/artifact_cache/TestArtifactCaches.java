@@ -34,6 +34,7 @@ public class TestArtifactCaches {
         cacheDir,
         CacheReadMode.READWRITE,
         Optional.empty(),
-        MoreExecutors.newDirectExecutorService());
+        MoreExecutors.newDirectExecutorService(),
+        false);
   }
 }
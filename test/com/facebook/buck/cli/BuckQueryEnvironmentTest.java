@@ -19,7 +19,9 @@ package com.facebook.buck.cli;
 import static java.util.Collections.singletonList;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.core.cell.Cell;
 import com.facebook.buck.core.cell.TestCellBuilder;
@@ -27,6 +29,7 @@ import com.facebook.buck.core.config.FakeBuckConfig;
 import com.facebook.buck.core.graph.transformation.executor.DepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.executor.impl.DefaultDepsAwareExecutor;
 import com.facebook.buck.core.graph.transformation.model.ComputeResult;
+import com.facebook.buck.core.model.BuildTarget;
 import com.facebook.buck.core.model.BuildTargetFactory;
 import com.facebook.buck.core.model.QueryTarget;
 import com.facebook.buck.core.model.UnconfiguredTargetConfiguration;
@@ -48,6 +51,7 @@ import com.facebook.buck.parser.ParsingContext;
 import com.facebook.buck.parser.PerBuildState;
 import com.facebook.buck.parser.PerBuildStateFactory;
 import com.facebook.buck.parser.SpeculativeParsing;
+import com.facebook.buck.parser.TargetNodeGraphIndex;
 import com.facebook.buck.parser.TestParserFactory;
 import com.facebook.buck.parser.config.ParserConfig;
 import com.facebook.buck.query.QueryBuildTarget;
@@ -90,6 +94,8 @@ public class BuckQueryEnvironmentTest {
       CloseableResource.of(() -> DefaultDepsAwareExecutor.of(4));
 
   private BuckQueryEnvironment buckQueryEnvironment;
+  private Parser parser;
+  private Cell cell;
   private Path cellRoot;
   private ListeningExecutorService executor;
   private PerBuildState parserState;
@@ -114,7 +120,7 @@ public class BuckQueryEnvironmentTest {
     ProjectWorkspace workspace =
         TestDataHelper.createProjectWorkspaceForScenario(this, "query_command", tmp);
     workspace.setUp();
-    Cell cell =
+    cell =
         new TestCellBuilder()
             .setFilesystem(TestProjectFilesystems.createProjectFilesystem(workspace.getDestPath()))
             .build();
@@ -138,7 +144,7 @@ public class BuckQueryEnvironmentTest {
             new FakeFileHashCache(ImmutableMap.of()),
             new ParsingUnconfiguredBuildTargetViewFactory(),
             UnconfiguredTargetConfiguration.INSTANCE);
-    Parser parser =
+    parser =
         TestParserFactory.create(depsAwareExecutor.get(), cell, perBuildStateFactory, eventBus);
     parserState =
         perBuildStateFactory.create(
@@ -147,6 +153,11 @@ public class BuckQueryEnvironmentTest {
                 .build(),
             parser.getPermState());
 
+    buckQueryEnvironment = createQueryEnvironment();
+    cellRoot = workspace.getDestPath();
+  }
+
+  private BuckQueryEnvironment createQueryEnvironment() {
     TargetPatternEvaluator targetPatternEvaluator =
         new TargetPatternEvaluator(
             cell,
@@ -157,16 +168,14 @@ public class BuckQueryEnvironmentTest {
             Optional.empty());
     OwnersReport.Builder ownersReportBuilder =
         OwnersReport.builder(cell, parser, parserState, Optional.empty());
-    buckQueryEnvironment =
-        BuckQueryEnvironment.from(
-            cell,
-            ownersReportBuilder,
-            parser,
-            parserState,
-            targetPatternEvaluator,
-            eventBus,
-            TYPE_COERCER_FACTORY);
-    cellRoot = workspace.getDestPath();
+    return BuckQueryEnvironment.from(
+        cell,
+        ownersReportBuilder,
+        parser,
+        parserState,
+        targetPatternEvaluator,
+        eventBus,
+        TYPE_COERCER_FACTORY);
   }
 
   @After
@@ -227,4 +236,43 @@ public class BuckQueryEnvironmentTest {
         capturingConsoleEventListener.getLogMessages(),
         CoreMatchers.equalTo(singletonList(expectedWarning)));
   }
+
+  @Test
+  public void transitiveClosuresAreIndexedUntilTheirBuildFilesChange() throws Exception {
+    TargetNodeGraphIndex index = parser.getPermState().getTargetNodeGraphIndex();
+    BuildTarget one = BuildTargetFactory.newInstance("//example:one");
+    BuildTarget four = BuildTargetFactory.newInstance("//example:four");
+
+    buckQueryEnvironment.evaluateQuery("deps(//example:one)");
+    assertTrue(index.contains(one));
+    assertTrue(index.contains(four));
+
+    parser.getPermState().invalidatePath(cellRoot.resolve("example/BUCK"));
+    assertFalse(index.contains(one));
+    assertFalse(index.contains(four));
+  }
+
+  @Test
+  public void laterQueriesFindDepsAndReverseDepsInTheIndex() throws Exception {
+    buckQueryEnvironment.evaluateQuery("deps(//example:one)");
+
+    BuckQueryEnvironment laterEnvironment = createQueryEnvironment();
+    assertThat(
+        laterEnvironment.evaluateQuery("deps(//example:one, 1)"),
+        is(
+            equalTo(
+                ImmutableSet.of(
+                    createQueryBuildTarget("//example", "one"),
+                    createQueryBuildTarget("//example", "two"),
+                    createQueryBuildTarget("//example", "three")))));
+    assertThat(
+        laterEnvironment.evaluateQuery("rdeps(//example:one, //example:four)"),
+        is(
+            equalTo(
+                ImmutableSet.of(
+                    createQueryBuildTarget("//example", "four"),
+                    createQueryBuildTarget("//example", "two"),
+                    createQueryBuildTarget("//example", "three"),
+                    createQueryBuildTarget("//example", "one")))));
+  }
 }
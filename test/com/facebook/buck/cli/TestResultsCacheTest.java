@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.rulekey.RuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.BuildRuleResolver;
+import com.facebook.buck.core.rules.attr.HasRuntimeDeps;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.impl.FakeTestRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.rules.keys.FakeRuleKeyFactory;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.TestRunningOptions;
+import com.facebook.buck.test.result.type.ResultType;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class TestResultsCacheTest {
+
+  private final BuildTarget target = BuildTargetFactory.newInstance("//:test");
+  private final FakeTestRule test =
+      new FakeTestRule(ImmutableSet.of("label"), target, ImmutableSortedSet.of());
+  private final InMemoryArtifactCache artifactCache = new InMemoryArtifactCache();
+
+  @Test
+  public void passingResultsAreFetchedAsCached() throws Exception {
+    TestResults results = createResults(ResultType.SUCCESS);
+    createCache(new RuleKey("aa"), TestRunningOptions.builder().build())
+        .store(test, results)
+        .get();
+
+    Optional<TestResults> cached =
+        createCache(new RuleKey("aa"), TestRunningOptions.builder().build()).fetch(test).get();
+    assertTrue(cached.isPresent());
+    assertTrue(cached.get().isCached());
+    assertEquals(target, cached.get().getBuildTarget());
+    assertEquals(ImmutableSet.of("label"), cached.get().getLabels());
+    assertEquals(1, cached.get().getTestCases().size());
+    assertEquals(
+        results.getTestCases().get(0).getTestResults(),
+        cached.get().getTestCases().get(0).getTestResults());
+  }
+
+  @Test
+  public void failingResultsAreNotStored() throws Exception {
+    createCache(new RuleKey("aa"), TestRunningOptions.builder().build())
+        .store(test, createResults(ResultType.FAILURE))
+        .get();
+
+    assertEquals(0, artifactCache.getArtifactCount());
+  }
+
+  @Test
+  public void resultsAreKeyedByRuleKeyAndOptions() throws Exception {
+    createCache(new RuleKey("aa"), TestRunningOptions.builder().build())
+        .store(test, createResults(ResultType.SUCCESS))
+        .get();
+
+    assertFalse(
+        createCache(new RuleKey("bb"), TestRunningOptions.builder().build())
+            .fetch(test)
+            .get()
+            .isPresent());
+    assertFalse(
+        createCache(
+                new RuleKey("aa"),
+                TestRunningOptions.builder()
+                    .setTestSelectorList(
+                        TestSelectorList.builder().addRawSelectors("FooTest").build())
+                    .build())
+            .fetch(test)
+            .get()
+            .isPresent());
+    assertFalse(
+        createCache(
+                new RuleKey("aa"),
+                TestRunningOptions.builder().putEnvironmentOverrides("FOO", "bar").build())
+            .fetch(test)
+            .get()
+            .isPresent());
+  }
+
+  @Test
+  public void resultsAreKeyedByTransitiveRuntimeDeps() throws Exception {
+    FakeBuildRule transitive = new FakeBuildRule("//:transitive");
+    FakeBuildRule direct = new FakeBuildRule("//:direct").setRuntimeDeps(transitive);
+    FakeTestRuleWithRuntimeDeps testWithRuntimeDeps =
+        new FakeTestRuleWithRuntimeDeps(target, ImmutableSortedSet.of(direct));
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    graphBuilder.addToIndex(transitive);
+    graphBuilder.addToIndex(direct);
+    graphBuilder.addToIndex(testWithRuntimeDeps);
+
+    createCache(ruleKeysOf("aa", "bb", "cc"), graphBuilder)
+        .store(testWithRuntimeDeps, createResults(ResultType.SUCCESS))
+        .get();
+
+    assertTrue(
+        createCache(ruleKeysOf("aa", "bb", "cc"), graphBuilder)
+            .fetch(testWithRuntimeDeps)
+            .get()
+            .isPresent());
+    assertFalse(
+        createCache(ruleKeysOf("aa", "bb", "dd"), graphBuilder)
+            .fetch(testWithRuntimeDeps)
+            .get()
+            .isPresent());
+  }
+
+  private TestResultsCache createCache(RuleKey ruleKey, TestRunningOptions options) {
+    return new TestResultsCache(
+        artifactCache,
+        new FakeRuleKeyFactory(ImmutableMap.of(target, ruleKey)),
+        new TestActionGraphBuilder(),
+        options);
+  }
+
+  private TestResultsCache createCache(
+      ImmutableMap<BuildTarget, RuleKey> ruleKeys, BuildRuleResolver ruleResolver) {
+    return new TestResultsCache(
+        artifactCache,
+        new FakeRuleKeyFactory(ruleKeys),
+        ruleResolver,
+        TestRunningOptions.builder().build());
+  }
+
+  /** @return rule keys for the test rule, its direct runtime dep, and their transitive dep. */
+  private ImmutableMap<BuildTarget, RuleKey> ruleKeysOf(
+      String testKey, String directKey, String transitiveKey) {
+    return ImmutableMap.of(
+        target,
+        new RuleKey(testKey),
+        BuildTargetFactory.newInstance("//:direct"),
+        new RuleKey(directKey),
+        BuildTargetFactory.newInstance("//:transitive"),
+        new RuleKey(transitiveKey));
+  }
+
+  private TestResults createResults(ResultType type) {
+    return TestResults.of(
+        target,
+        ImmutableList.of(
+            new TestCaseSummary(
+                "FooTest",
+                ImmutableList.of(
+                    new TestResultSummary(
+                        "FooTest", "testFoo", type, 12L, null, null, "stdout", null)))),
+        ImmutableSet.of(),
+        ImmutableSet.of("label"));
+  }
+
+  private static class FakeTestRuleWithRuntimeDeps extends FakeTestRule
+      implements HasRuntimeDeps {
+    private final ImmutableSortedSet<BuildRule> runtimeDeps;
+
+    private FakeTestRuleWithRuntimeDeps(
+        BuildTarget target, ImmutableSortedSet<BuildRule> runtimeDeps) {
+      super(ImmutableSet.of("label"), target, ImmutableSortedSet.of());
+      this.runtimeDeps = runtimeDeps;
+    }
+
+    @Override
+    public Stream<BuildTarget> getRuntimeDeps(BuildRuleResolver buildRuleResolver) {
+      return runtimeDeps.stream().map(BuildRule::getBuildTarget);
+    }
+  }
+}
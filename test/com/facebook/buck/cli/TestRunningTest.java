@@ -456,7 +456,8 @@ public class TestRunningTest {
             service,
             fakeBuildEngine,
             FakeBuildContext.withSourcePathResolver(ruleFinder.getSourcePathResolver()),
-            ruleFinder);
+            ruleFinder,
+            Optional.empty());
 
     assertThat(ret, equalTo(0));
     assertThat(separateTestStep1.getExecutionBeginOrder(), equalTo(OptionalInt.of(0)));
@@ -619,7 +620,8 @@ public class TestRunningTest {
             service,
             fakeBuildEngine,
             FakeBuildContext.withSourcePathResolver(ruleFinder.getSourcePathResolver()),
-            ruleFinder);
+            ruleFinder,
+            Optional.empty());
 
     assertThat(ret, equalTo(0));
 
@@ -731,7 +733,8 @@ public class TestRunningTest {
             service,
             fakeBuildEngine,
             FakeBuildContext.withSourcePathResolver(ruleFinder.getSourcePathResolver()),
-            ruleFinder);
+            ruleFinder,
+            Optional.empty());
 
     assertThat(ret, equalTo(ExitCode.TEST_ERROR.getCode()));
   }
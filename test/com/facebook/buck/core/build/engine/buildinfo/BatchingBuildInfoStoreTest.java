@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BatchingBuildInfoStoreTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final BuildTarget FOO = BuildTargetFactory.newInstance("//test:foo");
+  private static final BuildTarget BAR = BuildTargetFactory.newInstance("//test:bar");
+  private static final BuildTarget BAZ = BuildTargetFactory.newInstance("//test:baz");
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void bufferedWritesAreVisibleAndCommittedOnClose() throws IOException {
+    try (SQLiteBuildInfoStore committedStore = new SQLiteBuildInfoStore(filesystem)) {
+      BatchingBuildInfoStore store =
+          new BatchingBuildInfoStore(new SQLiteBuildInfoStore(filesystem), 100);
+      store.updateMetadata(FOO, ImmutableMap.of("a", "1", "b", "2"));
+      store.updateMetadata(FOO, ImmutableMap.of("b", "3"));
+
+      assertEquals(Optional.of("3"), store.readMetadata(FOO, "b"));
+      assertEquals(ImmutableMap.of("a", "1", "b", "3"), store.getAllMetadata(FOO));
+      assertEquals(ImmutableMap.of(), committedStore.getAllMetadata(FOO));
+
+      store.close();
+      assertEquals(ImmutableMap.of("a", "1", "b", "3"), committedStore.getAllMetadata(FOO));
+    }
+  }
+
+  @Test
+  public void writesAreCommittedOnceEnoughTargetsAreBuffered() throws IOException {
+    try (SQLiteBuildInfoStore committedStore = new SQLiteBuildInfoStore(filesystem);
+        BatchingBuildInfoStore store =
+            new BatchingBuildInfoStore(new SQLiteBuildInfoStore(filesystem), 2)) {
+      store.updateMetadata(FOO, ImmutableMap.of("a", "1"));
+      assertEquals(Optional.empty(), committedStore.readMetadata(FOO, "a"));
+
+      store.updateMetadata(BAR, ImmutableMap.of("a", "2"));
+      assertEquals(Optional.of("1"), committedStore.readMetadata(FOO, "a"));
+      assertEquals(Optional.of("2"), committedStore.readMetadata(BAR, "a"));
+    }
+  }
+
+  @Test
+  public void deletionIsCommittedBeforeReturning() throws IOException {
+    try (SQLiteBuildInfoStore committedStore = new SQLiteBuildInfoStore(filesystem)) {
+      committedStore.updateMetadata(FOO, ImmutableMap.of("a", "1", "b", "2"));
+
+      BatchingBuildInfoStore store =
+          new BatchingBuildInfoStore(new SQLiteBuildInfoStore(filesystem), 100);
+      store.updateMetadata(FOO, ImmutableMap.of("c", "4"));
+      store.updateMetadata(BAR, ImmutableMap.of("a", "2"));
+      store.deleteMetadata(FOO);
+      assertEquals(ImmutableMap.of(), committedStore.getAllMetadata(FOO));
+      assertEquals(ImmutableMap.of(), store.getAllMetadata(FOO));
+      // Writes to other targets stay buffered.
+      assertEquals(Optional.empty(), committedStore.readMetadata(BAR, "a"));
+      assertEquals(Optional.of("2"), store.readMetadata(BAR, "a"));
+
+      store.updateMetadata(FOO, ImmutableMap.of("b", "3"));
+
+      assertEquals(Optional.empty(), store.readMetadata(FOO, "a"));
+      assertEquals(ImmutableMap.of("b", "3"), store.getAllMetadata(FOO));
+
+      store.close();
+      assertEquals(ImmutableMap.of("b", "3"), committedStore.getAllMetadata(FOO));
+    }
+  }
+
+  @Test
+  public void prefetchedMetadataIncludesLaterWrites() throws IOException {
+    try (SQLiteBuildInfoStore committedStore = new SQLiteBuildInfoStore(filesystem)) {
+      committedStore.updateMetadata(FOO, ImmutableMap.of("a", "1"));
+      committedStore.updateMetadata(BAR, ImmutableMap.of("a", "2"));
+
+      try (BatchingBuildInfoStore store =
+          new BatchingBuildInfoStore(new SQLiteBuildInfoStore(filesystem), 100)) {
+        store.updateMetadata(BAZ, ImmutableMap.of("a", "3"));
+        store.prefetchMetadata(ImmutableList.of(FOO, BAZ));
+
+        // Changes made behind the back of the store are not seen once metadata is prefetched.
+        committedStore.updateMetadata(FOO, ImmutableMap.of("a", "changed"));
+        committedStore.updateMetadata(BAR, ImmutableMap.of("a", "changed"));
+        assertEquals(Optional.of("1"), store.readMetadata(FOO, "a"));
+        assertEquals(Optional.of("changed"), store.readMetadata(BAR, "a"));
+        assertEquals(Optional.of("3"), store.readMetadata(BAZ, "a"));
+
+        store.updateMetadata(FOO, ImmutableMap.of("b", "4"));
+        assertEquals(ImmutableMap.of("a", "1", "b", "4"), store.getAllMetadata(FOO));
+        store.deleteMetadata(BAZ);
+        assertEquals(ImmutableMap.of(), store.getAllMetadata(BAZ));
+      }
+    }
+  }
+}
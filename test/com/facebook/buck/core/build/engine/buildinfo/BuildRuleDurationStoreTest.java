@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.buildinfo;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BuildRuleDurationStoreTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final BuildTarget FOO = BuildTargetFactory.newInstance("//test:foo");
+  private static final BuildTarget BAR = BuildTargetFactory.newInstance("//test:bar");
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void recordedDurationsAreReadByTheNextBuilds() throws IOException {
+    try (BuildRuleDurationStore store = new BuildRuleDurationStore(filesystem)) {
+      assertEquals(ImmutableMap.of(), store.getDurationsMillis(ImmutableList.of(FOO, BAR)));
+      store.recordDurationMillis(FOO, 1200);
+    }
+
+    try (BuildRuleDurationStore store = new BuildRuleDurationStore(filesystem)) {
+      assertEquals(
+          ImmutableMap.of(FOO, 1200L), store.getDurationsMillis(ImmutableList.of(FOO, BAR)));
+      store.recordDurationMillis(FOO, 800);
+      store.recordDurationMillis(BAR, 50);
+    }
+
+    try (BuildRuleDurationStore store = new BuildRuleDurationStore(filesystem)) {
+      assertEquals(
+          ImmutableMap.of(FOO, 800L, BAR, 50L),
+          store.getDurationsMillis(ImmutableList.of(FOO, BAR)));
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CriticalPathPrioritiesTest {
+  private ActionGraphBuilder graphBuilder;
+
+  @Before
+  public void setUp() {
+    graphBuilder = new TestActionGraphBuilder();
+  }
+
+  @Test
+  public void priorityIsTheLongestChainOfDependents() {
+    BuildRule library = addRule("//:library");
+    BuildRule binary = addRule("//:binary", library);
+    BuildRule test = addRule("//:test", binary, library);
+    CriticalPathPriorities priorities =
+        newPriorities(ImmutableMap.of(library, 100L, binary, 200L, test, 50L));
+
+    priorities.addTopLevelRule(test);
+
+    assertEquals(50L, priorities.getPriority(test));
+    assertEquals(250L, priorities.getPriority(binary));
+    assertEquals(350L, priorities.getPriority(library));
+  }
+
+  @Test
+  public void rulesWithoutDurationAreCountedAsUnknown() {
+    BuildRule library = addRule("//:library");
+    BuildRule binary = addRule("//:binary", library);
+    CriticalPathPriorities priorities = newPriorities(ImmutableMap.of(binary, 200L));
+
+    priorities.addTopLevelRule(binary);
+
+    assertEquals(
+        200L + CriticalPathPriorities.UNKNOWN_DURATION_MILLIS, priorities.getPriority(library));
+  }
+
+  @Test
+  public void priorityIsTheHighestAcrossTopLevelRules() {
+    BuildRule library = addRule("//:library");
+    BuildRule shortChain = addRule("//:short", library);
+    BuildRule longChain = addRule("//:long", library);
+    BuildRule other = addRule("//:other");
+    CriticalPathPriorities priorities =
+        newPriorities(ImmutableMap.of(library, 10L, shortChain, 20L, longChain, 300L, other, 5L));
+
+    priorities.addTopLevelRule(shortChain);
+    assertEquals(30L, priorities.getPriority(library));
+    priorities.addTopLevelRule(longChain);
+    assertEquals(310L, priorities.getPriority(library));
+    priorities.addTopLevelRule(shortChain);
+    assertEquals(310L, priorities.getPriority(library));
+
+    assertEquals(0L, priorities.getPriority(other));
+  }
+
+  private BuildRule addRule(String target, BuildRule... deps) {
+    return graphBuilder.addToIndex(new FakeBuildRule(target, deps));
+  }
+
+  private CriticalPathPriorities newPriorities(Map<BuildRule, Long> durations) {
+    return new CriticalPathPriorities(
+        new DefaultRuleDepsCache(graphBuilder, new BuildEngineActionToBuildRuleResolver()),
+        rules -> durations);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.build.engine.impl;
+
+import com.facebook.buck.core.build.action.resolver.BuildEngineActionToBuildRuleResolver;
+import com.facebook.buck.core.build.engine.RuleDepsCache;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.core.rules.resolver.impl.TestActionGraphBuilder;
+import com.facebook.buck.util.concurrent.ListeningMultiSemaphore;
+import com.facebook.buck.util.concurrent.ResourceAllocationFairness;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the wall time of building a synthetic graph made of a chain of rules and of independent
+ * rules, when the rules which are ready to be built are scheduled in the order they became ready,
+ * and when they are scheduled by their estimated critical path.
+ */
+public class CriticalPathSchedulingBenchmark {
+  @Param({"10", "50"})
+  private int chainLength = 10;
+
+  @Param({"100", "500"})
+  private int independentRules = 100;
+
+  @Param({"true", "false"})
+  private boolean criticalPathScheduling = true;
+
+  private static final int THREADS = 4;
+  private static final long RULE_DURATION_MILLIS = 2;
+
+  private RuleDepsCache ruleDeps;
+  private BuildRule topLevelRule;
+  private ListeningExecutorService executor;
+  private WeightedListeningExecutorService service;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    ActionGraphBuilder graphBuilder = new TestActionGraphBuilder();
+    List<BuildRule> topLevelDeps = new ArrayList<>();
+    BuildRule chain = graphBuilder.addToIndex(new FakeBuildRule("//bench:chain0"));
+    for (int i = 1; i < chainLength; i++) {
+      chain = graphBuilder.addToIndex(new FakeBuildRule("//bench:chain" + i, chain));
+    }
+    topLevelDeps.add(chain);
+    for (int i = 0; i < independentRules; i++) {
+      topLevelDeps.add(graphBuilder.addToIndex(new FakeBuildRule("//bench:independent" + i)));
+    }
+    topLevelRule =
+        graphBuilder.addToIndex(
+            new FakeBuildRule("//bench:top", topLevelDeps.toArray(new BuildRule[0])));
+    ruleDeps = new DefaultRuleDepsCache(graphBuilder, new BuildEngineActionToBuildRuleResolver());
+
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(THREADS));
+    service =
+        new WeightedListeningExecutorService(
+            new ListeningMultiSemaphore(
+                ResourceAmounts.of(THREADS, 0, 0, 0), ResourceAllocationFairness.FAIR),
+            ResourceAmounts.of(1, 0, 0, 0),
+            executor);
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void buildSyntheticGraph() throws ExecutionException, InterruptedException {
+    buildGraph();
+  }
+
+  @Benchmark
+  public void buildGraph() throws ExecutionException, InterruptedException {
+    CriticalPathPriorities priorities =
+        new CriticalPathPriorities(
+            ruleDeps,
+            rules -> {
+              Map<BuildRule, Long> durations = new HashMap<>();
+              rules.forEach(rule -> durations.put(rule, RULE_DURATION_MILLIS));
+              return durations;
+            });
+    if (criticalPathScheduling) {
+      priorities.addTopLevelRule(topLevelRule);
+    }
+    build(topLevelRule, priorities, new HashMap<>()).get();
+  }
+
+  private ListenableFuture<?> build(
+      BuildRule rule,
+      CriticalPathPriorities priorities,
+      Map<BuildRule, ListenableFuture<?>> results) {
+    ListenableFuture<?> result = results.get(rule);
+    if (result != null) {
+      return result;
+    }
+    List<ListenableFuture<?>> depResults = new ArrayList<>();
+    for (BuildRule dep : ruleDeps.get(rule)) {
+      depResults.add(build(dep, priorities, results));
+    }
+    WeightedListeningExecutorService ruleService =
+        service.withPriority(priorities.getPriority(rule));
+    result =
+        Futures.transformAsync(
+            Futures.allAsList(depResults),
+            ignored ->
+                ruleService.submit(
+                    () -> {
+                      Thread.sleep(RULE_DURATION_MILLIS);
+                      return null;
+                    }),
+            MoreExecutors.directExecutor());
+    results.put(rule, result);
+    return result;
+  }
+}
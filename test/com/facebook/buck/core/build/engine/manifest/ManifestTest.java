@@ -38,10 +38,13 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Optional;
 import org.hamcrest.Matchers;
@@ -77,6 +80,138 @@ public class ManifestTest {
     assertThat(ManifestUtil.toMap(deserialized), Matchers.equalTo(entries));
   }
 
+  @Test
+  public void lookupInSerializedBuffer() throws IOException {
+    RuleKey key1 = new RuleKey("aa");
+    RuleKey key2 = new RuleKey("bb");
+    SourcePath input = FakeSourcePath.of("input.h");
+    String inputName = RESOLVER.getRelativePath(input).toString();
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                key1, ImmutableMap.of(inputName, HashCode.fromInt(1)),
+                key2, ImmutableMap.of(inputName, HashCode.fromInt(2))))
+        .serialize(byteArrayOutputStream);
+
+    Manifest manifest = new Manifest(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()));
+    FileHashLoader fileHashLoader =
+        new FakeFileHashCache(
+            ImmutableMap.of(RESOLVER.getAbsolutePath(input), HashCode.fromInt(2)));
+
+    assertThat(manifest.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(manifest.size(), Matchers.equalTo(2));
+    assertThat(manifest.getStats().getNumHashes(), Matchers.equalTo(2));
+    assertThat(
+        manifest.lookup(fileHashLoader, RESOLVER, ImmutableSet.of(input)),
+        Matchers.equalTo(Optional.of(key2)));
+  }
+
+  @Test
+  public void lookupInSerializedBufferFindsUnsortedInputs() throws IOException {
+    RuleKey otherKey = new RuleKey("aa");
+    RuleKey key = new RuleKey("bb");
+    SourcePath input = FakeSourcePath.of("m/input.h");
+    SourcePath other = FakeSourcePath.of("other.h");
+    ImmutableMap<String, HashCode> otherHashes =
+        ImmutableMap.of(
+            "z/last.h",
+            HashCode.fromInt(1),
+            "\u00e9/accented.h",
+            HashCode.fromInt(3),
+            "a/first.h",
+            HashCode.fromInt(4));
+    ImmutableMap<String, HashCode> hashes =
+        ImmutableMap.of(RESOLVER.getRelativePath(input).toString(), HashCode.fromInt(2));
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ManifestUtil.fromMap(new RuleKey("cc"), ImmutableMap.of(otherKey, otherHashes, key, hashes))
+        .serialize(byteArrayOutputStream);
+
+    Manifest manifest = new Manifest(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()));
+    FileHashLoader fileHashLoader =
+        new FakeFileHashCache(
+            ImmutableMap.of(
+                RESOLVER.getAbsolutePath(input),
+                HashCode.fromInt(2),
+                RESOLVER.getAbsolutePath(other),
+                HashCode.fromInt(5)));
+
+    assertThat(
+        manifest.lookup(fileHashLoader, RESOLVER, ImmutableSet.of(other, input)),
+        Matchers.equalTo(Optional.of(key)));
+    Manifest deserialized =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    assertThat(
+        ManifestUtil.toMap(deserialized),
+        Matchers.equalTo(ImmutableMap.of(otherKey, otherHashes, key, hashes)));
+  }
+
+  @Test
+  public void addEntryToSerializedBuffer() throws IOException {
+    ImmutableMap<String, HashCode> entry = ImmutableMap.of("foo/bar.h", HashCode.fromInt(20));
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ManifestUtil.fromMap(new RuleKey("cc"), ImmutableMap.of(new RuleKey("aa"), entry))
+        .serialize(byteArrayOutputStream);
+    Manifest manifest = new Manifest(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()));
+
+    SourcePath input = FakeSourcePath.of("input.h");
+    FileHashLoader fileHashLoader =
+        new FakeFileHashCache(
+            ImmutableMap.of(RESOLVER.getAbsolutePath(input), HashCode.fromInt(30)));
+    manifest.addEntry(
+        fileHashLoader, new RuleKey("bb"), RESOLVER, ImmutableSet.of(input), ImmutableSet.of(input));
+
+    assertThat(
+        ManifestUtil.toMap(manifest),
+        Matchers.equalTo(
+            ImmutableMap.of(
+                new RuleKey("aa"),
+                entry,
+                new RuleKey("bb"),
+                ImmutableMap.of(
+                    RESOLVER.getRelativePath(input).toString(), HashCode.fromInt(30)))));
+  }
+
+  @Test
+  public void deserializeLegacyFormat() throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(byteArrayOutputStream);
+    output.writeInt(0);
+    output.writeUTF("cc");
+    output.writeInt(1);
+    output.writeUTF("foo/bar.h");
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeUTF(HashCode.fromInt(20).toString());
+    output.writeInt(1);
+    output.writeInt(1);
+    output.writeInt(0);
+    output.writeUTF("aa");
+
+    Manifest manifest =
+        new Manifest(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+
+    assertThat(manifest.getKey(), Matchers.equalTo(new RuleKey("cc")));
+    assertThat(
+        ManifestUtil.toMap(manifest),
+        Matchers.equalTo(
+            ImmutableMap.of(
+                new RuleKey("aa"), ImmutableMap.of("foo/bar.h", HashCode.fromInt(20)))));
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedManifestIsRejected() throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ManifestUtil.fromMap(
+            new RuleKey("cc"),
+            ImmutableMap.of(
+                new RuleKey("aa"), ImmutableMap.of("foo/bar.h", HashCode.fromInt(20))))
+        .serialize(byteArrayOutputStream);
+    byte[] bytes = byteArrayOutputStream.toByteArray();
+
+    new Manifest(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+  }
+
   @Test
   public void addEntry() throws IOException {
     Manifest manifest = new Manifest(new RuleKey("cc"));
@@ -293,6 +428,22 @@ public class ManifestTest {
         Matchers.equalTo(Optional.of(key2)));
   }
 
+  @Test
+  public void sharedInputHashCacheSeesRebuiltInputs() throws IOException {
+    SourcePath input = FakeSourcePath.of("input.h");
+    FakeFileHashCache fileHashCache =
+        new FakeFileHashCache(
+            new HashMap<>(ImmutableMap.of(RESOLVER.getAbsolutePath(input), HashCode.fromInt(1))));
+    ManifestInputHashCache inputHashCache = new ManifestInputHashCache(fileHashCache);
+    assertThat(
+        inputHashCache.get(RESOLVER, ImmutableList.of(input)),
+        Matchers.equalTo(HashCode.fromInt(1)));
+    fileHashCache.set(RESOLVER.getAbsolutePath(input), HashCode.fromInt(2));
+    assertThat(
+        inputHashCache.get(RESOLVER, ImmutableList.of(input)),
+        Matchers.equalTo(HashCode.fromInt(2)));
+  }
+
   @Test
   public void size() {
     assertThat(new Manifest(new RuleKey("cc")).size(), Matchers.equalTo(0));
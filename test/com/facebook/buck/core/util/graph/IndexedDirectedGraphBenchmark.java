@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * Compares traversals going through the sets of neighbors of a {@link DirectedAcyclicGraph} with
+ * the same traversals on the indices of the {@link IndexedDirectedGraph} backing it, on generated
+ * graphs shaped like large target graphs: each node depends on a few nodes created before it,
+ * mostly close to it.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IndexedDirectedGraphBenchmark {
+  @Param({"100000", "1000000"})
+  public int nodeCount;
+
+  @Param({"5"})
+  public int maxOutDegree;
+
+  private MutableDirectedGraph<String> mutableGraph;
+  private DirectedAcyclicGraph<String> graph;
+  private IndexedDirectedGraph<String> indexedGraph;
+  private ImmutableList<String> roots;
+  private ImmutableList<String> leaves;
+
+  @Setup(Level.Trial)
+  public void setUpGraph() {
+    Random random = new Random(0);
+    mutableGraph = new MutableDirectedGraph<>();
+    String[] nodes = new String[nodeCount];
+    for (int i = 0; i < nodeCount; i++) {
+      nodes[i] = "//package" + (i / 10) + ":target" + i;
+      mutableGraph.addNode(nodes[i]);
+      int outDegree = i == 0 ? 0 : random.nextInt(Math.min(i, maxOutDegree) + 1);
+      for (int j = 0; j < outDegree; j++) {
+        // Most dependencies are on nearby nodes, some are on nodes anywhere in the graph.
+        int dependency =
+            random.nextInt(10) == 0
+                ? random.nextInt(i)
+                : Math.max(0, i - 1 - random.nextInt(Math.min(i, 1000)));
+        mutableGraph.addEdge(nodes[i], nodes[dependency]);
+      }
+    }
+    graph = new DirectedAcyclicGraph<>(mutableGraph);
+    indexedGraph = graph.getIndexedGraph();
+    roots = ImmutableList.of(nodes[nodeCount - 1], nodes[nodeCount / 2]);
+    leaves = ImmutableList.of(nodes[0], nodes[nodeCount / 10]);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public DirectedAcyclicGraph<String> buildDirectedAcyclicGraph() {
+    return new DirectedAcyclicGraph<>(mutableGraph);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableSet<String> transitiveDependencies() {
+    return breadthFirst(roots, true);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableSet<String> transitiveDependenciesIndexed() {
+    return indexedGraph.getTransitiveOutgoingNodes(roots);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableSet<String> reverseDependencies() {
+    return breadthFirst(leaves, false);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableSet<String> reverseDependenciesIndexed() {
+    return indexedGraph.getTransitiveIncomingNodes(leaves);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public Iterable<String> depthFirstPostOrder() throws CycleException {
+    return new AcyclicDepthFirstPostOrderTraversal<String>(
+            node -> graph.getOutgoingNodesFor(node).iterator())
+        .traverse(roots);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableList<String> depthFirstPostOrderIndexed() throws CycleException {
+    return indexedGraph.depthFirstPostOrder(roots);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableList<? extends String> topologicalSortByLevels() {
+    // The level-based sort which TopologicalSort used for all graphs before the indexed one.
+    return TopologicalSort.snowflakeSort(
+        graph.getNodesWithNoIncomingEdges(),
+        node -> graph.getOutgoingNodesFor(node).iterator(),
+        String::compareTo);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  public ImmutableList<String> topologicalSort() {
+    return TopologicalSort.sort(graph);
+  }
+
+  private ImmutableSet<String> breadthFirst(ImmutableList<String> start, boolean outgoing) {
+    Set<String> visited = new HashSet<>(start);
+    Queue<String> queue = new ArrayDeque<>(start);
+    ImmutableSet.Builder<String> result = ImmutableSet.builder();
+    while (!queue.isEmpty()) {
+      String node = queue.remove();
+      result.add(node);
+      for (String next :
+          outgoing ? graph.getOutgoingNodesFor(node) : graph.getIncomingNodesFor(node)) {
+        if (visited.add(next)) {
+          queue.add(next);
+        }
+      }
+    }
+    return result.build();
+  }
+
+  public static void main(String[] args) throws IOException, RunnerException {
+    Main.main(args);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.core.util.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class IndexedDirectedGraphTest {
+
+  //           A
+  //         /  \
+  //       B     C
+  //      /     / \
+  //    D    __/   E
+  //  /  \  /
+  // F    G
+  private MutableDirectedGraph<String> makeGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addNode("C");
+    graph.addNode("B");
+    graph.addNode("E");
+    graph.addNode("A");
+    graph.addNode("F");
+    graph.addNode("G");
+    graph.addNode("D");
+
+    graph.addEdge("D", "G");
+    graph.addEdge("A", "C");
+    graph.addEdge("D", "F");
+    graph.addEdge("B", "D");
+    graph.addEdge("A", "B");
+    graph.addEdge("C", "E");
+    graph.addEdge("C", "G");
+    return graph;
+  }
+
+  @Test
+  public void copiesNodesAndEdges() {
+    MutableDirectedGraph<String> graph = makeGraph();
+    IndexedDirectedGraph<String> indexed = IndexedDirectedGraph.copyOf(graph);
+
+    assertEquals(7, indexed.getNodeCount());
+    assertEquals(7, indexed.getEdgeCount());
+    assertEquals(ImmutableList.copyOf(graph.getNodes()), indexed.getNodes());
+    for (String node : graph.getNodes()) {
+      assertEquals(node, indexed.getNode(indexed.getIndex(node)));
+      assertEquals(
+          ImmutableList.copyOf(graph.getOutgoingNodesFor(node)),
+          ImmutableList.copyOf(indexed.getOutgoingNodesFor(node)));
+      assertEquals(
+          ImmutableList.copyOf(graph.getIncomingNodesFor(node)),
+          ImmutableList.copyOf(indexed.getIncomingNodesFor(node)));
+    }
+    assertEquals(
+        ImmutableList.copyOf(graph.getNodesWithNoIncomingEdges()),
+        indexed.getNodesWithNoIncomingEdges());
+    assertEquals(
+        ImmutableList.copyOf(graph.getNodesWithNoOutgoingEdges()),
+        indexed.getNodesWithNoOutgoingEdges());
+
+    List<String> outgoing = new ArrayList<>();
+    indexed.forEachOutgoing(indexed.getIndex("C"), index -> outgoing.add(indexed.getNode(index)));
+    assertEquals(ImmutableList.of("E", "G"), outgoing);
+  }
+
+  @Test
+  public void directedAcyclicGraphIsBackedByIndexedGraph() {
+    MutableDirectedGraph<String> graph = makeGraph();
+    DirectedAcyclicGraph<String> dag = new DirectedAcyclicGraph<>(graph);
+
+    assertSame(dag.getIndexedGraph(), IndexedDirectedGraph.copyOf(dag));
+    assertEquals(ImmutableList.copyOf(graph.getNodes()), dag.getNodes().asList());
+    for (String node : graph.getNodes()) {
+      assertEquals(
+          ImmutableList.copyOf(graph.getOutgoingNodesFor(node)),
+          dag.getOutgoingNodesFor(node).asList());
+      assertEquals(
+          ImmutableList.copyOf(graph.getIncomingNodesFor(node)),
+          dag.getIncomingNodesFor(node).asList());
+    }
+    assertEquals(ImmutableSet.of(), dag.getOutgoingNodesFor("H"));
+    assertEquals(ImmutableSet.of("A"), dag.getNodesWithNoIncomingEdges());
+    assertEquals(ImmutableSet.of("E", "F", "G"), dag.getNodesWithNoOutgoingEdges());
+    assertEquals(7, dag.getOutgoingEdges().size());
+    assertEquals(new DirectedAcyclicGraph<>(makeGraph()), dag);
+  }
+
+  @Test
+  public void topologicalSortPutsDependenciesFirst() {
+    ImmutableList<String> sorted = IndexedDirectedGraph.copyOf(makeGraph()).topologicalSort();
+
+    assertEquals(ImmutableList.of("E", "F", "G", "D", "C", "B", "A"), sorted);
+  }
+
+  @Test
+  public void topologicalSortLeavesOutCycles() {
+    MutableDirectedGraph<String> graph = makeGraph();
+    graph.addEdge("E", "A");
+
+    ImmutableList<String> sorted = IndexedDirectedGraph.copyOf(graph).topologicalSort();
+
+    assertEquals(ImmutableList.of("F", "G", "D", "B"), sorted);
+  }
+
+  @Test
+  public void depthFirstPostOrderVisitsChildrenFirst() throws CycleException {
+    IndexedDirectedGraph<String> indexed = IndexedDirectedGraph.copyOf(makeGraph());
+
+    assertEquals(
+        ImmutableList.of("E", "G", "C", "F", "D", "B", "A"),
+        indexed.depthFirstPostOrder(ImmutableList.of("A")));
+    assertEquals(
+        ImmutableList.of("G", "F", "D", "E", "C"),
+        indexed.depthFirstPostOrder(ImmutableList.of("D", "C")));
+  }
+
+  @Test
+  public void depthFirstPostOrderReportsCycles() {
+    MutableDirectedGraph<String> graph = makeGraph();
+    graph.addEdge("G", "B");
+
+    try {
+      IndexedDirectedGraph.copyOf(graph).depthFirstPostOrder(ImmutableList.of("A"));
+      fail("Expected a CycleException.");
+    } catch (CycleException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("G -> B -> D -> G"));
+    }
+  }
+
+  @Test
+  public void findsTransitiveNodesInBothDirections() {
+    IndexedDirectedGraph<String> indexed = IndexedDirectedGraph.copyOf(makeGraph());
+
+    assertEquals(
+        ImmutableSet.of("G", "D", "C", "B", "A"),
+        indexed.getTransitiveIncomingNodes(ImmutableList.of("G")));
+    assertEquals(
+        ImmutableSet.of("B", "D", "G", "F"),
+        indexed.getTransitiveOutgoingNodes(ImmutableList.of("B")));
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.event;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -27,8 +28,15 @@ import com.facebook.buck.util.concurrent.MostExecutors;
 import com.facebook.buck.util.concurrent.MostExecutors.NamedThreadFactory;
 import com.facebook.buck.util.timing.DefaultClock;
 import com.facebook.buck.util.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import org.junit.Test;
 
 public class DefaultBuckEventBusTest {
@@ -145,6 +153,196 @@ public class DefaultBuckEventBusTest {
     assertTrue(threadFactory.caught);
   }
 
+  @Test
+  public void slowListenerDoesNotDelayOtherListenersWithPerListenerDispatch()
+      throws InterruptedException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 16);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch received = new CountDownLatch(1);
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void block(TestEvent event) throws InterruptedException {
+            release.await();
+          }
+        });
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void receive(TestEvent event) {
+            received.countDown();
+          }
+        });
+    try {
+      eb.post(new TestEvent());
+      assertTrue(received.await(timeoutMillis, TimeUnit.MILLISECONDS));
+      assertFalse(eb.waitEvents(10));
+    } finally {
+      release.countDown();
+      eb.close();
+    }
+  }
+
+  @Test
+  public void eventsAreDeliveredInOrderWithPerListenerDispatch() {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 4);
+    List<Long> delivered = new ArrayList<>();
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void sleep(SleepEvent event) {
+            delivered.add(event.milliseconds);
+          }
+        });
+    for (long i = 0; i < 100; i++) {
+      eb.post(new SleepEvent(i));
+    }
+    assertTrue(eb.waitEvents(timeoutMillis));
+    eb.close();
+    assertEquals(LongStream.range(0, 100).boxed().collect(Collectors.toList()), delivered);
+  }
+
+  @Test
+  public void progressEventsAreCoalescedWithPerListenerDispatch() throws InterruptedException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 16);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Double> progress = new ArrayList<>();
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void block(TestEvent event) throws InterruptedException {
+            release.await();
+          }
+
+          @Subscribe
+          public void progress(ProgressEvent event) {
+            progress.add(event.getProgressValue());
+          }
+        });
+    eb.post(new TestEvent());
+    eb.post(ProgressEvent.buildProgressUpdated(0.1));
+    eb.post(ProgressEvent.buildProgressUpdated(0.2));
+    eb.post(ProgressEvent.buildProgressUpdated(0.3));
+    release.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis));
+
+    DefaultBuckEventBus.ListenerDispatchStats stats =
+        Iterables.getOnlyElement(eb.flushListenerDispatchStats());
+    eb.close();
+    assertEquals(ImmutableList.of(0.3), progress);
+    assertEquals(2, stats.getDeliveredEvents());
+    assertEquals(2, stats.getCoalescedEvents());
+    assertEquals(0, stats.getQueueDepth());
+  }
+
+  @Test
+  public void postingToAFullQueueDoesNotWaitWithPerListenerDispatch()
+      throws InterruptedException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 2);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void block(TestEvent event) throws InterruptedException {
+            blocked.countDown();
+            release.await();
+          }
+        });
+    eb.post(new TestEvent());
+    assertTrue(blocked.await(timeoutMillis, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 9; i++) {
+      eb.post(new TestEvent());
+    }
+    release.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis));
+
+    DefaultBuckEventBus.ListenerDispatchStats stats =
+        Iterables.getOnlyElement(eb.flushListenerDispatchStats());
+    eb.close();
+    assertEquals(10, stats.getDeliveredEvents());
+    assertEquals(7, stats.getOverflowedEvents());
+    assertEquals(9, stats.getMaxQueueDepth());
+  }
+
+  @Test
+  public void postingToAQueueWithoutRoomWaitsForTheListenerWithPerListenerDispatch()
+      throws InterruptedException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 2);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void block(TestEvent event) throws InterruptedException {
+            blocked.countDown();
+            release.await();
+          }
+        });
+    eb.post(new TestEvent());
+    assertTrue(blocked.await(timeoutMillis, TimeUnit.MILLISECONDS));
+    int maxQueuedEvents = 2 * ListenerEventQueue.OVERFLOW_FACTOR;
+    for (int i = 0; i < maxQueuedEvents; i++) {
+      eb.post(new TestEvent());
+    }
+    Thread poster = new Thread(() -> eb.post(new TestEvent()));
+    poster.start();
+    release.countDown();
+    poster.join();
+    assertTrue(eb.waitEvents(timeoutMillis));
+
+    DefaultBuckEventBus.ListenerDispatchStats stats =
+        Iterables.getOnlyElement(eb.flushListenerDispatchStats());
+    eb.close();
+    assertEquals(maxQueuedEvents + 2, stats.getDeliveredEvents());
+    assertEquals(0, stats.getDroppedEvents());
+    assertEquals(maxQueuedEvents, stats.getMaxQueueDepth());
+  }
+
+  @Test
+  public void eventsToAStuckListenerAreDroppedWithPerListenerDispatch()
+      throws InterruptedException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis, 2);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    eb.register(
+        new Object() {
+          @Subscribe
+          public void block(TestEvent event) throws InterruptedException {
+            blocked.countDown();
+            release.await();
+          }
+        });
+    eb.post(new TestEvent());
+    assertTrue(blocked.await(timeoutMillis, TimeUnit.MILLISECONDS));
+    int maxQueuedEvents = 2 * ListenerEventQueue.OVERFLOW_FACTOR;
+    for (int i = 0; i < maxQueuedEvents + 3; i++) {
+      eb.post(new TestEvent());
+    }
+    release.countDown();
+    assertTrue(eb.waitEvents(timeoutMillis));
+
+    DefaultBuckEventBus.ListenerDispatchStats stats =
+        Iterables.getOnlyElement(eb.flushListenerDispatchStats());
+    eb.close();
+    assertEquals(maxQueuedEvents + 1, stats.getDeliveredEvents());
+    assertEquals(3, stats.getDroppedEvents());
+    assertEquals(1, stats.getThrottledEvents());
+    assertEquals(maxQueuedEvents, stats.getMaxQueueDepth());
+  }
+
   static class TestError extends Error {}
 
   static class SingleErrorCatchingThreadFactory extends NamedThreadFactory {
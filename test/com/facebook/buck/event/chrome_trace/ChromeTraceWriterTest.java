@@ -20,9 +20,13 @@ import com.facebook.buck.event.chrome_trace.ChromeTraceEvent.Phase;
 import com.facebook.buck.util.json.ObjectMappers;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -45,4 +49,69 @@ public class ChromeTraceWriterTest {
     Assert.assertNotNull(node);
     Assert.assertTrue(node.getClass().getName(), node instanceof ArrayNode);
   }
+
+  @Test
+  public void streamingWriterWritesTheSameJson() throws Exception {
+    ImmutableList<ChromeTraceEvent> events =
+        ImmutableList.of(
+            new ChromeTraceEvent("aa", "bb", Phase.BEGIN, 11, 12, 13, 14, ImmutableMap.of()),
+            new ChromeTraceEvent(
+                "cc",
+                "dd",
+                Phase.METADATA,
+                0,
+                1,
+                2,
+                3,
+                ImmutableMap.of(
+                    "string",
+                    "va\"lue",
+                    "int",
+                    1,
+                    "long",
+                    2L,
+                    "bool",
+                    true,
+                    "list",
+                    ImmutableList.of("a", "b"))),
+            new ChromeTraceEvent(null, "ee", Phase.COUNTER, 1, 2, 3, 4, null));
+
+    Assert.assertEquals(write(false, events), write(true, events));
+  }
+
+  @Test
+  public void overheadEventCountsWrittenEvents() throws Exception {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ChromeTraceWriter writer = new StreamingChromeTraceWriter(byteArrayOutputStream);
+    writer.writeStart();
+    writer.writeEvent(
+        new ChromeTraceEvent("aa", "bb", Phase.BEGIN, 11, 12, 13, 14, ImmutableMap.of()));
+    writer.writeOverheadEvent();
+    writer.writeEnd();
+    writer.close();
+
+    JsonNode trace =
+        ObjectMappers.READER.readTree(
+            new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+    JsonNode overhead = trace.get(1);
+    Assert.assertEquals("trace_writer_overhead", overhead.get("name").asText());
+    Assert.assertEquals(1, overhead.get("args").get("events").asLong());
+    Assert.assertTrue(overhead.get("args").get("bytes").asLong() > 0);
+  }
+
+  private static String write(boolean streaming, ImmutableList<ChromeTraceEvent> events)
+      throws Exception {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ChromeTraceWriter writer =
+        streaming
+            ? new StreamingChromeTraceWriter(byteArrayOutputStream)
+            : new ChromeTraceWriter(byteArrayOutputStream);
+    writer.writeStart();
+    for (ChromeTraceEvent event : events) {
+      writer.writeEvent(event);
+    }
+    writer.writeEnd();
+    writer.close();
+    return new String(byteArrayOutputStream.toByteArray(), StandardCharsets.UTF_8);
+  }
 }
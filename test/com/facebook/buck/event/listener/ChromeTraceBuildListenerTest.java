@@ -904,6 +904,51 @@ public class ChromeTraceBuildListenerTest {
     assertThat(elements, not(empty()));
   }
 
+  @Test
+  public void streamingWriterReportsItsOverhead() throws IOException {
+    ProjectFilesystem projectFilesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmpDir.getRoot().toPath());
+
+    ChromeTraceBuildListener listener =
+        new ChromeTraceBuildListener(
+            projectFilesystem,
+            invocationInfo,
+            FAKE_CLOCK,
+            Locale.US,
+            TimeZone.getTimeZone("America/Los_Angeles"),
+            ManagementFactory.getThreadMXBean(),
+            ChromeTraceBuckConfig.of(
+                FakeBuckConfig.builder()
+                    .setSections(
+                        ImmutableMap.of(
+                            "log",
+                            ImmutableMap.of(
+                                "compress_traces",
+                                "true",
+                                "compress_traces_level",
+                                "1",
+                                "streaming_trace_writer",
+                                "true")))
+                    .build()),
+            managerScope,
+            Optional.empty(),
+            criticalPathEventListener);
+    listener.close();
+    managerScope.close();
+
+    Path tracePath = Paths.get(EXPECTED_DIR + "build.2014-09-02.16-55-51.BUILD_ID.trace.gz");
+    BufferedInputStream stream =
+        new BufferedInputStream(
+            new GZIPInputStream(projectFilesystem.newFileInputStream(tracePath)));
+    List<ChromeTraceEvent> events =
+        ObjectMappers.createParser(stream)
+            .readValueAs(new TypeReference<List<ChromeTraceEvent>>() {});
+
+    ChromeTraceEvent overhead = Iterables.getLast(events);
+    assertEquals("trace_writer_overhead", overhead.getName());
+    assertEquals(events.size() - 1, ((Number) overhead.getArgs().get("events")).intValue());
+  }
+
   private static ChromeTraceBuckConfig chromeTraceConfig(int tracesToKeep, boolean compressTraces) {
     return ChromeTraceBuckConfig.of(
         FakeBuckConfig.builder()
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.io.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ParallelFileTreeWalkerTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ParallelFileTreeWalker walker;
+
+  @Before
+  public void setUp() throws IOException {
+    walker = new ParallelFileTreeWalker(new ForkJoinPool(4));
+    tmp.newFolder("a", "b");
+    tmp.newFolder("a", "c");
+    tmp.newFolder("ignored");
+    tmp.newFile("a/b/file1");
+    tmp.newFile("a/b/file2");
+    tmp.newFile("a/c/file3");
+    tmp.newFile("a/file4");
+    tmp.newFile("ignored/file5");
+    tmp.newFile("file6");
+  }
+
+  @Test
+  public void visitsEntriesInSortedDepthFirstOrder() throws IOException {
+    RecordingVisitor visitor = new RecordingVisitor();
+    walker.walk(tmp.getRoot(), ImmutableSet.of(), visitor, path -> true);
+
+    assertEquals(
+        ImmutableList.of(
+            "pre:",
+            "pre:a",
+            "pre:a/b",
+            "file:a/b/file1",
+            "file:a/b/file2",
+            "post:a/b",
+            "pre:a/c",
+            "file:a/c/file3",
+            "post:a/c",
+            "file:a/file4",
+            "post:a",
+            "file:file6",
+            "pre:ignored",
+            "file:ignored/file5",
+            "post:ignored",
+            "post:"),
+        visitor.events);
+  }
+
+  @Test
+  public void pathsRejectedByTheFilterAreNotVisited() throws IOException {
+    RecordingVisitor visitor = new RecordingVisitor();
+    Path ignored = tmp.getRoot().resolve("ignored");
+    walker.walk(tmp.getRoot(), ImmutableSet.of(), visitor, path -> !path.equals(ignored));
+
+    assertTrue(visitor.events.contains("file:file6"));
+    assertTrue(visitor.events.stream().noneMatch(event -> event.contains("ignored")));
+  }
+
+  @Test
+  public void honorsSkipResults() throws IOException {
+    RecordingVisitor visitor =
+        new RecordingVisitor() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            super.preVisitDirectory(dir, attrs);
+            return dir.endsWith("b") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            super.visitFile(file, attrs);
+            return file.endsWith("file3")
+                ? FileVisitResult.SKIP_SIBLINGS
+                : file.endsWith("file6") ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+          }
+        };
+    walker.walk(tmp.getRoot(), ImmutableSet.of(), visitor, path -> true);
+
+    assertEquals(
+        ImmutableList.of(
+            "pre:",
+            "pre:a",
+            "pre:a/b",
+            "pre:a/c",
+            "file:a/c/file3",
+            "post:a/c",
+            "file:a/file4",
+            "post:a",
+            "file:file6"),
+        visitor.events);
+  }
+
+  @Test
+  public void reportsSymlinkLoopsWhenFollowingLinks() throws IOException {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+    Files.createSymbolicLink(tmp.getRoot().resolve("a/c/loop"), tmp.getRoot().resolve("a"));
+    List<Path> failures = new ArrayList<>();
+    RecordingVisitor visitor =
+        new RecordingVisitor() {
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            assertTrue(exc instanceof FileSystemLoopException);
+            failures.add(tmp.getRoot().relativize(file));
+            return FileVisitResult.CONTINUE;
+          }
+        };
+    walker.walk(
+        tmp.getRoot(), ImmutableSet.of(FileVisitOption.FOLLOW_LINKS), visitor, path -> true);
+
+    assertEquals(ImmutableList.of(tmp.getRoot().getFileSystem().getPath("a/c/loop")), failures);
+  }
+
+  private class RecordingVisitor extends SimpleFileVisitor<Path> {
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+      events.add("pre:" + relativize(dir));
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+      events.add("file:" + relativize(file));
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+      events.add("post:" + relativize(dir));
+      return FileVisitResult.CONTINUE;
+    }
+
+    private String relativize(Path path) {
+      return tmp.getRoot().relativize(path).toString();
+    }
+  }
+}
@@ -664,6 +664,26 @@ public class DefaultProjectFilesystemTest {
     assertFalse(found.contains(Paths.get("foo/bar/cake.txt.orig").toString()));
   }
 
+  @Test
+  public void parallelWalkOfFilesUnderPathHonorsIgnoredPaths() throws IOException {
+    Config config =
+        ConfigBuilder.createFromText(
+            "[project]", "ignore = **/*.orig", "file_tree_walk_parallelism = 4");
+
+    ProjectFilesystem filesystem =
+        TestProjectFilesystems.createProjectFilesystem(tmp.getRoot(), config);
+    assertTrue(filesystem.getParallelFileTreeWalker().isPresent());
+    Files.createDirectories(tmp.getRoot().resolve("foo/bar"));
+    filesystem.touch(Paths.get("foo/cake.txt"));
+    filesystem.touch(Paths.get("foo/bar/cake.txt"));
+    filesystem.touch(Paths.get("foo/bar/cake.txt.orig"));
+
+    assertEquals(
+        ImmutableSet.of(Paths.get("foo/bar/cake.txt"), Paths.get("foo/cake.txt")),
+        filesystem.getFilesUnderPath(
+            Paths.get("foo"), x -> true, EnumSet.noneOf(FileVisitOption.class)));
+  }
+
   @Test
   public void twoProjectFilesystemsWithSameIgnoreGlobsShouldBeEqual() {
     Config config = ConfigBuilder.createFromText("[project]", "ignore = **/*.orig");
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests {@link ClasspathJarCachingFileManager} */
+public class ClasspathJarCachingFileManagerTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private static final Set<JavaFileObject.Kind> CLASSES_AND_SOURCES =
+      EnumSet.of(JavaFileObject.Kind.CLASS, JavaFileObject.Kind.SOURCE);
+
+  private JavaCompiler compiler;
+  private ClasspathJarCache cache;
+  private StandardJavaFileManager standardFileManager;
+  private ClasspathJarCachingFileManager cachingFileManager;
+
+  @Before
+  public void setUp() {
+    compiler = ToolProvider.getSystemJavaCompiler();
+    cache = new ClasspathJarCache(Long.MAX_VALUE);
+    standardFileManager = compiler.getStandardFileManager(null, null, null);
+    cachingFileManager =
+        new ClasspathJarCachingFileManager(
+            compiler.getStandardFileManager(null, null, null), cache, Optional.empty());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    standardFileManager.close();
+    cachingFileManager.close();
+  }
+
+  @Test
+  public void listsJarsLikeTheStandardFileManager() throws IOException {
+    File first =
+        createJar(
+            "first.jar", "com/example/A.class", "com/example/A$1.class", "com/example/a.txt");
+    File second = createJar("second.jar", "com/example/B.class", "com/example/sub/C.class");
+    File missing = new File(temp.getRoot(), "missing.jar");
+    setClasspath(first, missing, second);
+
+    assertSameListing("com.example", CLASSES_AND_SOURCES, false);
+    assertSameListing("com.example", CLASSES_AND_SOURCES, true);
+    assertSameListing("com", EnumSet.of(JavaFileObject.Kind.CLASS), true);
+    assertSameListing("org", CLASSES_AND_SOURCES, false);
+    assertTrue(isServedFromCache("com.example", CLASSES_AND_SOURCES));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void fallsBackToTheStandardFileManagerForSourcesAndDirectories() throws IOException {
+    File jar = createJar("first.jar", "com/example/A.class", "com/example/B.java");
+    setClasspath(jar);
+    assertSameListing("com.example", CLASSES_AND_SOURCES, false);
+    assertFalse(isServedFromCache("com.example", CLASSES_AND_SOURCES));
+    assertTrue(isServedFromCache("com.example", EnumSet.of(JavaFileObject.Kind.CLASS)));
+
+    File directory = temp.newFolder("classes");
+    Files.createDirectories(directory.toPath().resolve("com/example"));
+    Files.write(directory.toPath().resolve("com/example/C.class"), new byte[] {0});
+    setClasspath(jar, directory);
+    assertSameListing("com.example", EnumSet.of(JavaFileObject.Kind.CLASS), false);
+    assertFalse(isServedFromCache("com.example", EnumSet.of(JavaFileObject.Kind.CLASS)));
+  }
+
+  @Test
+  public void compilesAgainstCachedJars() throws IOException {
+    Path libraryClasses = temp.newFolder("library").toPath();
+    Path librarySource = writeSource("library-src", "com/example/Library.java");
+    assertTrue(
+        compiler
+            .getTask(
+                null,
+                standardFileManager,
+                null,
+                ImmutableList.of("-d", libraryClasses.toString()),
+                null,
+                standardFileManager.getJavaFileObjects(librarySource.toFile()))
+            .call());
+    File libraryJar =
+        createJar(
+            "library.jar",
+            libraryClasses.resolve("com/example/Library.class"),
+            "com/example/Library.class");
+
+    Path binaryClasses = temp.newFolder("binary").toPath();
+    Path binarySource = writeSource("binary-src", "com/example/Binary.java");
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    assertTrue(
+        diagnostics.getDiagnostics().toString(),
+        compiler
+            .getTask(
+                null,
+                cachingFileManager,
+                diagnostics,
+                ImmutableList.of(
+                    "-d", binaryClasses.toString(), "-classpath", libraryJar.toString()),
+                null,
+                cachingFileManager.getJavaFileObjects(binarySource.toFile()))
+            .call());
+    assertTrue(Files.exists(binaryClasses.resolve("com/example/Binary.class")));
+    assertEquals(1, cache.size());
+  }
+
+  private void setClasspath(File... files) throws IOException {
+    standardFileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.copyOf(files));
+    cachingFileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.copyOf(files));
+  }
+
+  private void assertSameListing(
+      String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+    assertEquals(
+        describe(standardFileManager, packageName, kinds, recurse),
+        describe(cachingFileManager, packageName, kinds, recurse));
+  }
+
+  private boolean isServedFromCache(String packageName, Set<JavaFileObject.Kind> kinds)
+      throws IOException {
+    for (JavaFileObject file :
+        cachingFileManager.list(StandardLocation.CLASS_PATH, packageName, kinds, false)) {
+      if (!(file instanceof CachedJarEntryFileObject)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static ImmutableSortedSet<String> describe(
+      JavaFileManager fileManager,
+      String packageName,
+      Set<JavaFileObject.Kind> kinds,
+      boolean recurse)
+      throws IOException {
+    ImmutableSortedSet.Builder<String> descriptions = ImmutableSortedSet.naturalOrder();
+    for (JavaFileObject file :
+        fileManager.list(StandardLocation.CLASS_PATH, packageName, kinds, recurse)) {
+      descriptions.add(
+          String.format(
+              "%s %s %s %s",
+              fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file),
+              file.getKind(),
+              file.toUri(),
+              file.isNameCompatible("A", JavaFileObject.Kind.CLASS)));
+    }
+    return descriptions.build();
+  }
+
+  private Path writeSource(String directory, String path) throws IOException {
+    Path source = temp.newFolder(directory).toPath().resolve(path);
+    Files.createDirectories(source.getParent());
+    String className = source.getFileName().toString().replace(".java", "");
+    String body =
+        className.equals("Binary")
+            ? "public class Binary { Library library = new Library(); }"
+            : "public class Library {}";
+    Files.write(source, ("package com.example;\n" + body).getBytes(StandardCharsets.UTF_8));
+    return source;
+  }
+
+  private File createJar(String name, String... entries) throws IOException {
+    File jar = new File(temp.getRoot(), name);
+    try (OutputStream out = Files.newOutputStream(jar.toPath());
+        ZipOutputStream zip = new ZipOutputStream(out)) {
+      for (String entry : entries) {
+        zip.putNextEntry(new ZipEntry(entry));
+        zip.write(new byte[] {0});
+        zip.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private File createJar(String name, Path classFile, String entry) throws IOException {
+    File jar = new File(temp.getRoot(), name);
+    try (OutputStream out = Files.newOutputStream(jar.toPath());
+        ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.putNextEntry(new ZipEntry(entry));
+      zip.write(Files.readAllBytes(classFile));
+      zip.closeEntry();
+    }
+    return jar;
+  }
+}
@@ -29,6 +29,7 @@ import com.facebook.buck.parser.exceptions.NoSuchBuildTargetException;
 import com.facebook.buck.rules.macros.StringWithMacros;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import java.nio.file.Paths;
@@ -150,6 +151,35 @@ public class JavaTestRuleTest {
             transitiveDep.getBuildTarget()));
   }
 
+  @Test
+  public void testClassesArePartitionedByDuration() {
+    ImmutableList<ImmutableSet<String>> shards =
+        JavaTest.partitionTestClasses(
+            ImmutableSet.of("A", "B", "C", "D", "E"),
+            ImmutableMap.of("A", 10L, "B", 7L, "C", 5L, "D", 3L, "E", 2L),
+            2);
+
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of("A", "D"), ImmutableSet.of("B", "C", "E")), shards);
+  }
+
+  @Test
+  public void testClassesWithoutDurationTakeTheAverageDuration() {
+    ImmutableList<ImmutableSet<String>> shards =
+        JavaTest.partitionTestClasses(
+            ImmutableSet.of("A", "B", "C", "D"), ImmutableMap.of("A", 30L, "B", 10L), 2);
+
+    assertEquals(ImmutableList.of(ImmutableSet.of("A", "B"), ImmutableSet.of("C", "D")), shards);
+  }
+
+  @Test
+  public void emptyShardsAreDropped() {
+    ImmutableList<ImmutableSet<String>> shards =
+        JavaTest.partitionTestClasses(ImmutableSet.of("A", "B"), ImmutableMap.of(), 4);
+
+    assertEquals(ImmutableList.of(ImmutableSet.of("A"), ImmutableSet.of("B")), shards);
+  }
+
   private JavaTest newRule(ImmutableList<String> vmArgs) throws NoSuchBuildTargetException {
     ImmutableList<StringWithMacros> vmArgMacros =
         vmArgs.stream()
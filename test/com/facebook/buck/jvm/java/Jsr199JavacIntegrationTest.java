@@ -128,7 +128,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext.getClasspathJarCache(),
+            executionContext.getFileHashLoader());
 
     int exitCode =
         javac
@@ -183,7 +185,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext.getClasspathJarCache(),
+            executionContext.getFileHashLoader());
 
     int exitCode =
         javac
@@ -290,7 +294,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext.getClasspathJarCache(),
+            executionContext.getFileHashLoader());
 
     boolean caught = false;
 
@@ -383,7 +389,9 @@ public class Jsr199JavacIntegrationTest {
             createProjectFilesystem(),
             executionContext.getProjectFilesystemFactory(),
             executionContext.getEnvironment(),
-            executionContext.getProcessExecutor());
+            executionContext.getProcessExecutor(),
+            executionContext.getClasspathJarCache(),
+            executionContext.getFileHashLoader());
 
     Invocation buildInvocation =
         javac.newBuildInvocation(
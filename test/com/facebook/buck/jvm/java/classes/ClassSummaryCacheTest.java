@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.jvm.java.classes.ClassSummaryCache.ClassSummary;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassSummaryCacheTest {
+  @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+  private static final ImmutableList<ClassSummary> EXPECTED_SUMMARIES =
+      ImmutableList.of(
+          new ClassSummary(
+              "com/example/A", 5, Hashing.sha1().hashString("A.cls", StandardCharsets.UTF_8)),
+          new ClassSummary(
+              "com/example/B$1", 7, Hashing.sha1().hashString("B$1.cls", StandardCharsets.UTF_8)));
+
+  private ProjectFilesystem filesystem;
+  private Path cacheDir;
+  private Map<Path, HashCode> fileHashes;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tempDir.getRoot().toPath());
+    cacheDir = tempDir.getRoot().toPath().resolve("cache");
+    fileHashes = new HashMap<>();
+    ClassSummaryCache.flushStats();
+  }
+
+  @Test
+  public void jarsWithTheSameContentsAreOnlySummarizedOnce() throws IOException {
+    Path jar = createJar("first.jar");
+    assertEquals(EXPECTED_SUMMARIES, newCache().getClassSummaries(jar));
+    assertStats(0, 1);
+
+    Path copy = Files.copy(jar, jar.resolveSibling("copy.jar"));
+    fileHashes.put(copy, fileHashes.get(jar));
+    assertEquals(EXPECTED_SUMMARIES, newCache().getClassSummaries(copy));
+    assertStats(1, 0);
+  }
+
+  @Test
+  public void jarsRewrittenSinceTheBuildHashedThemAreSummarizedAgain() throws IOException {
+    Path jar = createJar("first.jar");
+    ClassSummaryCache cache = newCache();
+    assertEquals(EXPECTED_SUMMARIES, cache.getClassSummaries(jar));
+
+    // The build still knows the hash of the previous jar, as it does while a rule rewrites its
+    // output.
+    HashCode staleHash = fileHashes.get(jar);
+    try (OutputStream out = Files.newOutputStream(jar);
+        ZipOutputStream zip = new ZipOutputStream(out)) {
+      writeEntry(zip, "com/example/C.class", "C.cls");
+    }
+    assertEquals(staleHash, fileHashes.get(jar));
+
+    ImmutableList<ClassSummary> expected =
+        ImmutableList.of(
+            new ClassSummary(
+                "com/example/C", 5, Hashing.sha1().hashString("C.cls", StandardCharsets.UTF_8)));
+    assertEquals(expected, cache.getClassSummaries(jar));
+    // The summaries of the previous jar are still stored under its own hash.
+    assertEquals(Optional.of(EXPECTED_SUMMARIES), cache.getCachedClassSummaries(jar));
+  }
+
+  @Test
+  public void cachedSummariesAreOnlyLookedUp() throws IOException {
+    Path jar = createJar("first.jar");
+    assertEquals(Optional.empty(), newCache().getCachedClassSummaries(jar));
+    assertStats(0, 1);
+    assertFalse(Files.exists(cacheDir));
+
+    newCache().getClassSummaries(jar);
+    assertEquals(Optional.of(EXPECTED_SUMMARIES), newCache().getCachedClassSummaries(jar));
+  }
+
+  @Test
+  public void jarsWithoutAKnownHashAreNotLookedUp() throws IOException {
+    Path jar = createJar("first.jar");
+    newCache().getClassSummaries(jar);
+    fileHashes.clear();
+    ClassSummaryCache.flushStats();
+
+    assertEquals(Optional.empty(), newCache().getCachedClassSummaries(jar));
+    assertStats(0, 0);
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreTrimmed() throws IOException {
+    Path first = createJar("first.jar");
+    Path second = createJar("second.jar", "second");
+    Path third = createJar("third.jar", "third");
+    long time = 0;
+    for (Path jar : ImmutableList.of(first, second, third)) {
+      newCache().getClassSummaries(jar);
+      Files.setLastModifiedTime(getEntryPath(jar), FileTime.fromMillis(++time * 1000));
+    }
+    // Reading the oldest entry makes it the most recently used one.
+    newCache().getCachedClassSummaries(first);
+    long entrySize = Files.size(getEntryPath(first));
+
+    new ClassSummaryCache(
+            filesystem, Optional.of(new FakeFileHashCache(fileHashes)), cacheDir, 2 * entrySize)
+        .trim();
+
+    assertTrue(Files.exists(getEntryPath(first)));
+    assertFalse(Files.exists(getEntryPath(second)));
+    assertFalse(Files.exists(getEntryPath(third)));
+  }
+
+  @Test
+  public void corruptEntriesAreIgnored() throws IOException {
+    Path jar = createJar("first.jar");
+    newCache().getClassSummaries(jar);
+    try (Stream<Path> entries = Files.walk(cacheDir)) {
+      for (Path entry : (Iterable<Path>) entries.filter(Files::isRegularFile)::iterator) {
+        Files.write(entry, new byte[] {0x42, 0x43, 0x53, 0x43, 0, 0, 0, 1, 0});
+      }
+    }
+    ClassSummaryCache.flushStats();
+
+    assertEquals(EXPECTED_SUMMARIES, newCache().getClassSummaries(jar));
+    assertStats(0, 1);
+  }
+
+  @Test
+  public void directoriesAreNotCached() throws IOException {
+    Path dir = tempDir.newFolder("classes", "com", "example").toPath();
+    Files.write(dir.resolve("A.class"), "A.cls".getBytes(StandardCharsets.UTF_8));
+    Files.write(dir.resolve("B$1.class"), "B$1.cls".getBytes(StandardCharsets.UTF_8));
+    Files.write(dir.resolve("resource.txt"), "text".getBytes(StandardCharsets.UTF_8));
+
+    ImmutableList<ClassSummary> summaries =
+        newCache().getClassSummaries(tempDir.getRoot().toPath().resolve("classes"));
+    assertEquals(
+        ImmutableList.sortedCopyOf(
+            (a, b) -> a.getName().compareTo(b.getName()), EXPECTED_SUMMARIES),
+        ImmutableList.sortedCopyOf((a, b) -> a.getName().compareTo(b.getName()), summaries));
+    assertStats(0, 0);
+  }
+
+  private ClassSummaryCache newCache() {
+    return new ClassSummaryCache(
+        filesystem,
+        Optional.of(new FakeFileHashCache(fileHashes)),
+        cacheDir,
+        ClassSummaryCache.DEFAULT_MAX_SIZE_BYTES);
+  }
+
+  private Path getEntryPath(Path jar) {
+    String hash = fileHashes.get(jar).toString();
+    return cacheDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+  }
+
+  private static void assertStats(long hits, long misses) {
+    ClassSummaryCache.Stats stats = ClassSummaryCache.flushStats();
+    assertEquals(hits, stats.hits);
+    assertEquals(misses, stats.misses);
+  }
+
+  private Path createJar(String name) throws IOException {
+    return createJar(name, "text");
+  }
+
+  /** Creates a jar of the expected classes, and records its hash as the build would. */
+  private Path createJar(String name, String resource) throws IOException {
+    Path jar = tempDir.getRoot().toPath().resolve(name);
+    try (OutputStream out = Files.newOutputStream(jar);
+        ZipOutputStream zip = new ZipOutputStream(out)) {
+      writeEntry(zip, "com/example/A.class", "A.cls");
+      writeEntry(zip, "com/example/", "");
+      writeEntry(zip, "com/example/B$1.class", "B$1.cls");
+      writeEntry(zip, "com/example/resource.txt", resource);
+    }
+    fileHashes.put(jar, filesystem.computeSha1(jar).asHashCode());
+    return jar;
+  }
+
+  private static void writeEntry(ZipOutputStream zip, String name, String contents)
+      throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(contents.getBytes(StandardCharsets.UTF_8));
+    zip.closeEntry();
+  }
+}
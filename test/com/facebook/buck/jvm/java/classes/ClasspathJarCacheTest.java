@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.jvm.java.classes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.jvm.java.classes.ClasspathJarCache.JarIndex;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClasspathJarCacheTest {
+  @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+  @Test
+  public void listsEntriesByDirectory() throws IOException {
+    Path jar = createJar("lib.jar", "A.class", "com/example/B.class", "com/example/sub/C.class");
+    ClasspathJarCache cache = new ClasspathJarCache(Long.MAX_VALUE);
+    JarIndex index = cache.acquire(jar).get();
+
+    assertEquals(ImmutableList.of("A.class"), ImmutableList.copyOf(index.getEntries("", false)));
+    assertEquals(
+        ImmutableList.of("com/example/B.class"),
+        ImmutableList.copyOf(index.getEntries("com/example", false)));
+    assertEquals(
+        ImmutableSet.of("com/example/B.class", "com/example/sub/C.class"),
+        ImmutableSet.copyOf(index.getEntries("com/example", true)));
+    assertEquals(ImmutableList.of(), ImmutableList.copyOf(index.getEntries("com/ex", true)));
+    assertEquals("com/example/B.class", read(index, "com/example/B.class"));
+    index.release();
+  }
+
+  @Test
+  public void jarsAreOpenedOnceUntilTheyChange() throws IOException {
+    Path jar = createJar("lib.jar", "A.class");
+    ClasspathJarCache cache = new ClasspathJarCache(Long.MAX_VALUE);
+    JarIndex first = cache.acquire(jar).get();
+    first.release();
+    JarIndex second = cache.acquire(jar).get();
+    second.release();
+    assertSame(first, second);
+
+    createJar("lib.jar", "A.class", "B.class");
+    Files.setLastModifiedTime(jar, FileTime.fromMillis(0));
+    JarIndex third = cache.acquire(jar).get();
+    assertNotSame(first, third);
+    assertEquals(
+        ImmutableSet.of("A.class", "B.class"), ImmutableSet.copyOf(third.getEntries("", false)));
+    third.release();
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void jarsKnownToTheBuildAreIdentifiedByTheirHash() throws IOException {
+    Path jar = createJar("lib.jar", "A.class");
+    FakeFileHashCache fileHashCache =
+        new FakeFileHashCache(new HashMap<>(ImmutableMap.of(jar, HashCode.fromInt(1))));
+    ClasspathJarCache cache = new ClasspathJarCache(Long.MAX_VALUE);
+    JarIndex first = cache.acquire(jar, Optional.of(fileHashCache)).get();
+    first.release();
+
+    // Rewritten with the same contents.
+    createJar("lib.jar", "A.class");
+    Files.setLastModifiedTime(jar, FileTime.fromMillis(0));
+    JarIndex second = cache.acquire(jar, Optional.of(fileHashCache)).get();
+    second.release();
+    assertSame(first, second);
+
+    createJar("lib.jar", "A.class", "B.class");
+    fileHashCache.set(jar, HashCode.fromInt(2));
+    JarIndex third = cache.acquire(jar, Optional.of(fileHashCache)).get();
+    assertNotSame(first, third);
+    assertEquals(
+        ImmutableSet.of("A.class", "B.class"), ImmutableSet.copyOf(third.getEntries("", false)));
+    third.release();
+  }
+
+  @Test
+  public void evictedJarsStayReadableUntilReleased() throws IOException {
+    Path first = createJar("first.jar", "com/example/A.class");
+    Path second = createJar("second.jar", "com/example/B.class");
+    // Only leaves room for one of the jars.
+    ClasspathJarCache cache = new ClasspathJarCache(200);
+
+    JarIndex firstIndex = cache.acquire(first).get();
+    JarIndex secondIndex = cache.acquire(second).get();
+    assertEquals(1, cache.size());
+    assertEquals("com/example/A.class", read(firstIndex, "com/example/A.class"));
+    firstIndex.release();
+    secondIndex.release();
+
+    assertNotSame(firstIndex, cache.acquire(first).get());
+  }
+
+  @Test
+  public void onlyReadableJarsAreCached() throws IOException {
+    ClasspathJarCache cache = new ClasspathJarCache(Long.MAX_VALUE);
+    Path notAJar = tempDir.newFile("not-a.jar").toPath();
+    Files.write(notAJar, "text".getBytes(StandardCharsets.UTF_8));
+
+    assertFalse(cache.acquire(notAJar).isPresent());
+    assertFalse(cache.acquire(tempDir.getRoot().toPath()).isPresent());
+    assertFalse(cache.acquire(tempDir.getRoot().toPath().resolve("missing.jar")).isPresent());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void closingEvictsAllJars() throws IOException {
+    Path jar = createJar("lib.jar", "A.class");
+    ClasspathJarCache cache = new ClasspathJarCache(Long.MAX_VALUE);
+    JarIndex index = cache.acquire(jar).get();
+    cache.close();
+
+    assertEquals(0, cache.size());
+    assertEquals("A.class", read(index, "A.class"));
+    index.release();
+  }
+
+  private Path createJar(String name, String... entries) throws IOException {
+    Path jar = tempDir.getRoot().toPath().resolve(name);
+    try (OutputStream out = Files.newOutputStream(jar);
+        ZipOutputStream zip = new ZipOutputStream(out)) {
+      for (String entry : entries) {
+        zip.putNextEntry(new ZipEntry(entry));
+        zip.write(entry.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private static String read(JarIndex index, String entry) throws IOException {
+    try (InputStream in = index.openEntry(entry)) {
+      return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.cell.name.CanonicalCellName;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TargetNodeGraphIndexTest {
+
+  private static final BuildTarget LIBRARY = BuildTargetFactory.newInstance("//lib:lib");
+  private static final BuildTarget UTIL = BuildTargetFactory.newInstance("//lib:util");
+  private static final BuildTarget BINARY = BuildTargetFactory.newInstance("//app:bin");
+  private static final BuildTarget TEST = BuildTargetFactory.newInstance("//app:test");
+
+  private TargetNode<?> library;
+  private TargetNode<?> util;
+  private TargetNode<?> binary;
+  private TargetNode<?> test;
+  private TargetNodeGraphIndex index;
+
+  @Before
+  public void setUp() {
+    util = FakeTargetNodeBuilder.newBuilder(UTIL).build();
+    library = FakeTargetNodeBuilder.newBuilder(LIBRARY).setDeps(UTIL).build();
+    binary = FakeTargetNodeBuilder.newBuilder(BINARY).setDeps(LIBRARY).build();
+    test = FakeTargetNodeBuilder.newBuilder(TEST).setDeps(BINARY, UTIL).build();
+    index = new TargetNodeGraphIndex();
+    index.addAll(index.getGeneration(), ImmutableList.of(util, library, binary, test));
+  }
+
+  @Test
+  public void returnsTransitiveClosureWithTheDistanceOfEachNode() {
+    assertEquals(
+        ImmutableMap.of(binary, 0, library, 1, util, 2),
+        index.getTransitiveClosure(ImmutableList.of(BINARY), Integer.MAX_VALUE));
+    assertEquals(
+        ImmutableMap.of(test, 0, library, 0, binary, 1, util, 1),
+        index.getTransitiveClosure(ImmutableList.of(TEST, LIBRARY), Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void transitiveClosureStopsAtTheMaximumDepth() {
+    assertEquals(
+        ImmutableList.of(test, binary, util),
+        index.getTransitiveClosure(ImmutableList.of(TEST), 1).keySet().asList());
+    assertEquals(
+        ImmutableList.of(test),
+        index.getTransitiveClosure(ImmutableList.of(TEST), 0).keySet().asList());
+  }
+
+  @Test
+  public void returnsReverseDeps() {
+    assertEquals(ImmutableSet.of(LIBRARY, TEST), index.getReverseDeps(UTIL));
+    assertEquals(ImmutableSet.of(), index.getReverseDeps(TEST));
+  }
+
+  @Test
+  public void nodesWithoutIndexedDepsAreNotAdded() {
+    TargetNodeGraphIndex emptyIndex = new TargetNodeGraphIndex();
+    emptyIndex.addAll(emptyIndex.getGeneration(), ImmutableList.of(library, util));
+
+    assertTrue(emptyIndex.contains(UTIL));
+    assertFalse(emptyIndex.contains(LIBRARY));
+  }
+
+  @Test
+  public void invalidationDropsTargetAndItsDependents() {
+    index.invalidate(LIBRARY.getUnflavoredBuildTarget());
+
+    assertEquals(1, index.size());
+    assertTrue(index.contains(UTIL));
+    assertEquals(
+        ImmutableMap.of(util, 0),
+        index.getTransitiveClosure(ImmutableList.of(TEST, UTIL), Integer.MAX_VALUE));
+    assertEquals(ImmutableSet.of(), index.getReverseDeps(UTIL));
+  }
+
+  @Test
+  public void invalidationFollowsTheReverseDepsOfReaddedNodes() {
+    index.invalidate(LIBRARY.getUnflavoredBuildTarget());
+    index.addAll(index.getGeneration(), ImmutableList.of(library, binary));
+    index.invalidate(UTIL.getUnflavoredBuildTarget());
+
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void cellInvalidationDropsItsTargetsAndTheirDependents() {
+    index.invalidateCell(CanonicalCellName.rootCell());
+
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void nodesLoadedBeforeAnInvalidationAreNotAdded() {
+    TargetNodeGraphIndex emptyIndex = new TargetNodeGraphIndex();
+    long generation = emptyIndex.getGeneration();
+    emptyIndex.invalidate(UTIL.getUnflavoredBuildTarget());
+    emptyIndex.addAll(generation, ImmutableList.of(util));
+
+    assertFalse(emptyIndex.contains(UTIL));
+  }
+}
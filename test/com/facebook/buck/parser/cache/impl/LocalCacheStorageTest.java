@@ -20,6 +20,7 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -48,12 +49,14 @@ import com.google.common.hash.HashCode;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -99,6 +102,28 @@ public class LocalCacheStorageTest {
     return builder.build().getView(ParserCacheConfig.class);
   }
 
+  private ParserCacheConfig getPackedParserCacheConfig(Path location) {
+    return FakeBuckConfig.builder()
+        .setSections(
+            "[" + ParserCacheConfig.PARSER_CACHE_SECTION_NAME + "]",
+            ParserCacheConfig.PARSER_CACHE_LOCAL_LOCATION_NAME + " = " + location.toString(),
+            "dir_mode = readwrite",
+            ParserCacheConfig.PARSER_CACHE_LOCAL_FORMAT_NAME + " = packed")
+        .setFilesystem(filesystem)
+        .build()
+        .getView(ParserCacheConfig.class);
+  }
+
+  private BuildFileManifest createBuildFileManifest(String targetName) {
+    return ImmutableBuildFileManifest.of(
+        ImmutableMap.of(targetName, ImmutableMap.of("name", targetName)),
+        ImmutableSortedSet.of(),
+        ImmutableMap.of(),
+        Optional.empty(),
+        ImmutableList.of(),
+        ImmutableList.of());
+  }
+
   private BuckConfig getConfig() {
     FakeBuckConfig.Builder builder =
         getBaseBuckConfigBuilder(filesystem.getPath("foobar"), false, true);
@@ -131,6 +156,11 @@ public class LocalCacheStorageTest {
     Logger.get(LocalCacheStorage.class).addHandler(localHandler);
   }
 
+  @After
+  public void tearDown() throws IOException {
+    PackedManifestStore.clearStores();
+  }
+
   @Test
   public void createLocalCacheStorageWithAbsolutePathAndException() throws IOException {
     expectedException.expect(BuckUncheckedExecutionException.class);
@@ -344,6 +374,144 @@ public class LocalCacheStorageTest {
     assertEquals(buildFileManifest, buildFileManifestResult);
   }
 
+  @Test
+  public void packedFormatStoresManifestsInASingleSegment() throws IOException {
+    Path location = filesystem.getPath(tempDir.getRoot().resolve(FOO_BAR_PATH).toString());
+    LocalCacheStorage localCacheStorage =
+        LocalCacheStorage.of(getPackedParserCacheConfig(location), filesystem);
+    HashCode weakFingerprint = HashCode.fromInt(1);
+    BuildFileManifest first = createBuildFileManifest("first");
+    BuildFileManifest second = createBuildFileManifest("second");
+
+    localCacheStorage.storeBuildFileManifest(
+        weakFingerprint, HashCode.fromInt(2), BuildFileManifestSerializer.serialize(first));
+    localCacheStorage.storeBuildFileManifest(
+        weakFingerprint, HashCode.fromInt(3), BuildFileManifestSerializer.serialize(second));
+
+    assertEquals(
+        first, localCacheStorage.getBuildFileManifest(weakFingerprint, HashCode.fromInt(2)).get());
+    assertEquals(
+        second, localCacheStorage.getBuildFileManifest(weakFingerprint, HashCode.fromInt(3)).get());
+    assertFalse(
+        localCacheStorage.getBuildFileManifest(weakFingerprint, HashCode.fromInt(4)).isPresent());
+    assertTrue(filesystem.exists(location.resolve(PackedManifestStore.SEGMENT_FILE_NAME)));
+    assertFalse(filesystem.exists(location.resolve(weakFingerprint.toString())));
+
+    LocalCacheStorage.Stats stats = localCacheStorage.getStats();
+    assertEquals(2, stats.getHits());
+    assertEquals(1, stats.getMisses());
+    assertEquals(stats.getBytesWritten(), stats.getBytesRead());
+  }
+
+  @Test
+  public void packedFormatDeduplicatesIdenticalManifests() throws IOException {
+    Path location = filesystem.getPath(tempDir.getRoot().resolve(FOO_BAR_PATH).toString());
+    LocalCacheStorage localCacheStorage =
+        LocalCacheStorage.of(getPackedParserCacheConfig(location), filesystem);
+    byte[] serializedManifest =
+        BuildFileManifestSerializer.serialize(createBuildFileManifest("target"));
+
+    localCacheStorage.storeBuildFileManifest(
+        HashCode.fromInt(1), HashCode.fromInt(2), serializedManifest);
+    localCacheStorage.storeBuildFileManifest(
+        HashCode.fromInt(3), HashCode.fromInt(4), serializedManifest);
+
+    assertEquals(serializedManifest.length, localCacheStorage.getStats().getBytesWritten());
+    assertEquals(
+        serializedManifest.length,
+        filesystem.getFileSize(location.resolve(PackedManifestStore.SEGMENT_FILE_NAME)));
+    assertTrue(
+        localCacheStorage
+            .getBuildFileManifest(HashCode.fromInt(3), HashCode.fromInt(4))
+            .isPresent());
+  }
+
+  @Test
+  public void packedFormatIsReadBackAndHonorsDeletions() throws IOException {
+    Path location = filesystem.getPath(tempDir.getRoot().resolve(FOO_BAR_PATH).toString());
+    LocalCacheStorage localCacheStorage =
+        LocalCacheStorage.of(getPackedParserCacheConfig(location), filesystem);
+    BuildFileManifest kept = createBuildFileManifest("kept");
+    localCacheStorage.storeBuildFileManifest(
+        HashCode.fromInt(1), HashCode.fromInt(2), BuildFileManifestSerializer.serialize(kept));
+    localCacheStorage.storeBuildFileManifest(
+        HashCode.fromInt(3),
+        HashCode.fromInt(4),
+        BuildFileManifestSerializer.serialize(createBuildFileManifest("deleted")));
+    localCacheStorage.deleteCacheEntries(HashCode.fromInt(3), HashCode.fromInt(4));
+
+    // Start over from what is on disk, as a new instance of Buck would.
+    PackedManifestStore.clearStores();
+    LocalCacheStorage newLocalCacheStorage =
+        LocalCacheStorage.of(getPackedParserCacheConfig(location), filesystem);
+
+    assertEquals(
+        kept,
+        newLocalCacheStorage.getBuildFileManifest(HashCode.fromInt(1), HashCode.fromInt(2)).get());
+    assertFalse(
+        newLocalCacheStorage
+            .getBuildFileManifest(HashCode.fromInt(3), HashCode.fromInt(4))
+            .isPresent());
+  }
+
+  @Test
+  public void packedFormatTreatsCorruptedManifestsAsMisses() throws IOException {
+    Path location = filesystem.getPath(tempDir.getRoot().resolve(FOO_BAR_PATH).toString());
+    LocalCacheStorage localCacheStorage =
+        LocalCacheStorage.of(getPackedParserCacheConfig(location), filesystem);
+    byte[] serializedManifest =
+        BuildFileManifestSerializer.serialize(createBuildFileManifest("target"));
+    localCacheStorage.storeBuildFileManifest(
+        HashCode.fromInt(1), HashCode.fromInt(2), serializedManifest);
+    PackedManifestStore.clearStores();
+
+    Path segmentPath = location.resolve(PackedManifestStore.SEGMENT_FILE_NAME);
+    byte[] segment = Files.readAllBytes(segmentPath);
+    segment[segment.length / 2] ^= 0xFF;
+    Files.write(segmentPath, segment);
+
+    LocalCacheStorage newLocalCacheStorage =
+        LocalCacheStorage.of(getPackedParserCacheConfig(location), filesystem);
+    assertFalse(
+        newLocalCacheStorage
+            .getBuildFileManifest(HashCode.fromInt(1), HashCode.fromInt(2))
+            .isPresent());
+    assertEquals(1, newLocalCacheStorage.getStats().getMisses());
+  }
+
+  @Test
+  public void packedFormatSkipsCorruptedIndexRecords() throws IOException {
+    Path location = filesystem.getPath(tempDir.getRoot().resolve(FOO_BAR_PATH).toString());
+    LocalCacheStorage localCacheStorage =
+        LocalCacheStorage.of(getPackedParserCacheConfig(location), filesystem);
+    BuildFileManifest kept = createBuildFileManifest("kept");
+    localCacheStorage.storeBuildFileManifest(
+        HashCode.fromInt(1),
+        HashCode.fromInt(2),
+        BuildFileManifestSerializer.serialize(createBuildFileManifest("torn")));
+    Path indexPath = location.resolve(PackedManifestStore.INDEX_FILE_NAME);
+    long firstRecordSize = Files.size(indexPath);
+    localCacheStorage.storeBuildFileManifest(
+        HashCode.fromInt(3), HashCode.fromInt(4), BuildFileManifestSerializer.serialize(kept));
+    PackedManifestStore.clearStores();
+
+    // Zero the tail of the first record, as a write torn by a crash would leave it.
+    byte[] index = Files.readAllBytes(indexPath);
+    index[Math.toIntExact(firstRecordSize) - 1] = 0;
+    index[Math.toIntExact(firstRecordSize) - 2] = 0;
+    Files.write(indexPath, index);
+
+    LocalCacheStorage newLocalCacheStorage =
+        LocalCacheStorage.of(getPackedParserCacheConfig(location), filesystem);
+    assertFalse(
+        newLocalCacheStorage
+            .getBuildFileManifest(HashCode.fromInt(1), HashCode.fromInt(2))
+            .isPresent());
+    assertEquals(
+        kept,
+        newLocalCacheStorage.getBuildFileManifest(HashCode.fromInt(3), HashCode.fromInt(4)).get());
+  }
+
   private boolean checkExistsAfterConvertingToProperFilesystem(
       Path buildPath, Path serializedDataFile) {
     return filesystem.exists(
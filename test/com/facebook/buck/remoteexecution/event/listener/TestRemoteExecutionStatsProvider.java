@@ -66,6 +66,16 @@ public class TestRemoteExecutionStatsProvider implements RemoteExecutionStatsPro
     return 0;
   }
 
+  @Override
+  public long getLocalCasLinkedSizeBytes() {
+    return 0;
+  }
+
+  @Override
+  public long getLocalCasCopiedSizeBytes() {
+    return 0;
+  }
+
   @Override
   public int getTotalRulesBuilt() {
     return 0;
@@ -18,6 +18,7 @@ package com.facebook.buck.remoteexecution.util;
 
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -71,6 +72,25 @@ public class MerkleTreeNodeCacheTest {
     assertSame(node, nodeCache.createNode(ImmutableMap.of(), ImmutableMap.of(), ImmutableMap.of()));
   }
 
+  @Test
+  public void retainedTreesAreBoundedByTheirNumberOfEntries() {
+    Digest digest = protocol.computeDigest("data".getBytes(Charsets.UTF_8));
+    Map<Path, FileNode> files =
+        ImmutableMap.of(
+            Paths.get("a/file"),
+            protocol.newFileNode(digest, "file", false),
+            Paths.get("a/b/file"),
+            protocol.newFileNode(digest, "file", false));
+
+    MerkleTreeNodeCache largeCache = new MerkleTreeNodeCache(protocol, 100);
+    MerkleTreeNode node = largeCache.createNode(files, ImmutableMap.of(), ImmutableMap.of());
+    assertTrue(largeCache.isRetained(node));
+
+    MerkleTreeNodeCache smallCache = new MerkleTreeNodeCache(protocol, 3);
+    node = smallCache.createNode(files, ImmutableMap.of(), ImmutableMap.of());
+    assertFalse(smallCache.isRetained(node));
+  }
+
   @Test
   public void testCreatedTreeIsCorrect() {
     MerkleTreeNodeCache nodeCache = new MerkleTreeNodeCache(protocol);
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.remoteexecution.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.MerkleTreeNode;
+import com.facebook.buck.remoteexecution.util.RemoteExecutionInputsCache.ConfirmedDigests;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RemoteExecutionInputsCacheTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final Protocol protocol = new GrpcProtocol();
+  private final AtomicLong clock = new AtomicLong(1000);
+  private final RemoteExecutionInputsCache cache = new RemoteExecutionInputsCache(clock::get);
+
+  @Test
+  public void nodesAreRetainedAcrossCommands() {
+    MerkleTreeNodeCache nodeCache = cache.getNodeCache(protocol);
+    Digest digest = protocol.computeDigest("file".getBytes(Charsets.UTF_8));
+    MerkleTreeNode node =
+        nodeCache.createNode(
+            ImmutableMap.of(Paths.get("a/file"), protocol.newFileNode(digest, "file", false)),
+            ImmutableMap.of(),
+            ImmutableMap.of());
+
+    MerkleTreeNodeCache nextNodeCache = cache.getNodeCache(protocol);
+    assertSame(nodeCache, nextNodeCache);
+    assertSame(
+        node,
+        nextNodeCache.createNode(
+            ImmutableMap.of(Paths.get("a/file"), protocol.newFileNode(digest, "file", false)),
+            ImmutableMap.of(),
+            ImmutableMap.of()));
+  }
+
+  @Test
+  public void changingTheProtocolDropsEverything() {
+    MerkleTreeNodeCache nodeCache = cache.getNodeCache(protocol);
+    Digest digest = protocol.computeDigest("file".getBytes(Charsets.UTF_8));
+    ConfirmedDigests confirmed = cache.getConfirmedDigests("cas", 100);
+    confirmed.add(ImmutableList.of(digest));
+
+    Protocol otherProtocol = new GrpcProtocol() {};
+    assertNotSame(nodeCache, cache.getNodeCache(otherProtocol));
+    assertFalse(cache.getConfirmedDigests("cas", 100).contains(digest));
+  }
+
+  @Test
+  public void fileDigestsAreOnlyRecomputedWhenTheFileChanges() throws Exception {
+    Path file = tmp.newFile("classpath.jar");
+    Files.write(file, "first".getBytes(Charsets.UTF_8));
+    FileTime lastModified = Files.getLastModifiedTime(file);
+
+    Digest digest = cache.getFileDigest(protocol, file);
+    assertEquals(protocol.computeDigest("first".getBytes(Charsets.UTF_8)), digest);
+    assertSame(digest, cache.getFileDigest(protocol, file));
+
+    Files.write(file, "second".getBytes(Charsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified.toMillis() + 2000));
+    assertEquals(
+        protocol.computeDigest("second".getBytes(Charsets.UTF_8)),
+        cache.getFileDigest(protocol, file));
+  }
+
+  @Test
+  public void confirmedDigestsExpire() {
+    Digest digest = protocol.computeDigest("blob".getBytes(Charsets.UTF_8));
+    ConfirmedDigests confirmed = cache.getConfirmedDigests("cas", 100);
+    assertFalse(confirmed.contains(digest));
+
+    confirmed.add(ImmutableList.of(digest));
+    assertTrue(confirmed.contains(digest));
+    assertTrue(cache.getConfirmedDigests("cas", 100).contains(digest));
+
+    clock.addAndGet(100);
+    assertFalse(confirmed.contains(digest));
+  }
+
+  @Test
+  public void confirmedDigestsAreForgottenForAnotherStorage() {
+    Digest digest = protocol.computeDigest("blob".getBytes(Charsets.UTF_8));
+    cache.getConfirmedDigests("cas", 100).add(ImmutableList.of(digest));
+
+    assertFalse(cache.getConfirmedDigests("other_cas", 100).contains(digest));
+    assertFalse(cache.getConfirmedDigests("cas", 100).contains(digest));
+  }
+}
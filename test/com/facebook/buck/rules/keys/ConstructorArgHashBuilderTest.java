@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.sourcepath.DefaultBuildTargetSourcePath;
+import com.facebook.buck.core.sourcepath.FakeSourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.impl.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.nio.file.Paths;
+import java.util.Optional;
+import org.junit.Test;
+
+public class ConstructorArgHashBuilderTest {
+
+  @Test
+  public void equalAttributesHaveEqualHashes() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    assertEquals(
+        hash(
+            "srcs",
+            ImmutableList.of(
+                FakeSourcePath.of(filesystem, "Foo.java"),
+                DefaultBuildTargetSourcePath.of(BuildTargetFactory.newInstance("//foo:gen")))),
+        hash(
+            "srcs",
+            ImmutableList.of(
+                FakeSourcePath.of(filesystem, "Foo.java"),
+                DefaultBuildTargetSourcePath.of(BuildTargetFactory.newInstance("//foo:gen")))));
+  }
+
+  @Test
+  public void hashCoversStructureOfValues() {
+    assertNotEquals(
+        hash("args", ImmutableList.of(ImmutableList.of("a"), ImmutableList.of("b"))),
+        hash("args", ImmutableList.of(ImmutableList.of("a", "b"))));
+    assertNotEquals(hash("args", Optional.empty()), hash("args", Optional.of("")));
+    assertNotEquals(hash("args", "a"), hash("other_args", "a"));
+  }
+
+  @Test
+  public void pathsAreHashedByName() {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    assertNotEquals(
+        hash("srcs", FakeSourcePath.of(filesystem, "Foo.java")),
+        hash("srcs", FakeSourcePath.of(filesystem, "Bar.java")));
+    assertNotEquals(hash("path", Paths.get("foo")), hash("path", Paths.get("bar")));
+  }
+
+  @Test
+  public void unsupportedValuesProduceNoHash() {
+    ConstructorArgHashBuilder builder = new ConstructorArgHashBuilder();
+    builder.setReflectively("name", "foo");
+    builder.setReflectively("value", new Object());
+    assertFalse(builder.build().isPresent());
+  }
+
+  private static HashCode hash(String key, Object value) {
+    ConstructorArgHashBuilder builder = new ConstructorArgHashBuilder();
+    builder.setReflectively(key, value);
+    return builder.build().get();
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.modern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.core.build.context.BuildContext;
+import com.facebook.buck.core.cell.Cell;
+import com.facebook.buck.core.cell.TestCellBuilder;
+import com.facebook.buck.core.model.BuildTarget;
+import com.facebook.buck.core.model.BuildTargetFactory;
+import com.facebook.buck.core.model.targetgraph.FakeTargetNodeBuilder;
+import com.facebook.buck.core.model.targetgraph.TargetGraph;
+import com.facebook.buck.core.model.targetgraph.TargetGraphFactory;
+import com.facebook.buck.core.model.targetgraph.TargetNode;
+import com.facebook.buck.core.rulekey.AddToRuleKey;
+import com.facebook.buck.core.rules.ActionGraphBuilder;
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.SourcePathRuleFinder;
+import com.facebook.buck.core.rules.config.registry.impl.ConfigurationRuleRegistryFactory;
+import com.facebook.buck.core.rules.resolver.impl.MultiThreadedActionGraphBuilder;
+import com.facebook.buck.core.rules.transformer.impl.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.core.sourcepath.SourcePath;
+import com.facebook.buck.io.filesystem.ProjectFilesystem;
+import com.facebook.buck.io.filesystem.TestProjectFilesystems;
+import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
+import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ModernBuildRuleSnapshotStoreTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final BuildTarget LIBRARY = BuildTargetFactory.newInstance("//test:library");
+  private static final BuildTarget BINARY = BuildTargetFactory.newInstance("//test:binary");
+  private static final TypeCoercerFactory TYPE_COERCER_FACTORY = new DefaultTypeCoercerFactory();
+
+  private Cell cell;
+  private ProjectFilesystem filesystem;
+  private Path snapshotPath;
+
+  @Before
+  public void setUp() {
+    filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    cell = new TestCellBuilder().setFilesystem(filesystem).build();
+    snapshotPath = ModernBuildRuleSnapshotStore.getDefaultSnapshotPath(filesystem);
+  }
+
+  @Test
+  public void restoresRulesOfUnchangedTargets() throws IOException {
+    TargetGraph targetGraph = createTargetGraph("library");
+    ActionGraphBuilder graphBuilder = createActionGraphBuilder(targetGraph);
+    WriteRule library =
+        graphBuilder.addToIndex(
+            new WriteRule(LIBRARY, filesystem, graphBuilder, "library", Optional.empty()));
+    WriteRule binary =
+        graphBuilder.addToIndex(
+            new WriteRule(
+                BINARY,
+                filesystem,
+                graphBuilder,
+                "binary",
+                Optional.of(library.getSourcePathToOutput())));
+    newStore().save(targetGraph, graphBuilder);
+
+    ActionGraphBuilder newGraphBuilder = createActionGraphBuilder(targetGraph);
+    assertEquals(2, newStore().restore(targetGraph, newGraphBuilder));
+
+    BuildRule restoredLibrary = newGraphBuilder.getRule(LIBRARY);
+    BuildRule restoredBinary = newGraphBuilder.getRule(BINARY);
+    assertNotSame(library, restoredLibrary);
+    assertEquals("library", ((WriteRule) restoredLibrary).content);
+    assertEquals("binary", ((WriteRule) restoredBinary).content);
+    assertEquals(binary.getSourcePathToOutput(), restoredBinary.getSourcePathToOutput());
+    assertSame(restoredLibrary, restoredBinary.getBuildDeps().first());
+  }
+
+  @Test
+  public void changedDependencyInvalidatesDependents() throws IOException {
+    TargetGraph targetGraph = createTargetGraph("library");
+    ActionGraphBuilder graphBuilder = createActionGraphBuilder(targetGraph);
+    WriteRule library =
+        graphBuilder.addToIndex(
+            new WriteRule(LIBRARY, filesystem, graphBuilder, "library", Optional.empty()));
+    graphBuilder.addToIndex(
+        new WriteRule(
+            BINARY,
+            filesystem,
+            graphBuilder,
+            "binary",
+            Optional.of(library.getSourcePathToOutput())));
+    newStore().save(targetGraph, graphBuilder);
+
+    TargetGraph changedTargetGraph = createTargetGraph("changed");
+    assertEquals(
+        0,
+        newStore().restore(changedTargetGraph, createActionGraphBuilder(changedTargetGraph)));
+  }
+
+  @Test
+  public void rulesWithStateOutsideOfTheirBuildableAreNotSaved() throws IOException {
+    TargetGraph targetGraph = createTargetGraph("library");
+    ActionGraphBuilder graphBuilder = createActionGraphBuilder(targetGraph);
+    StatefulRule library =
+        graphBuilder.addToIndex(new StatefulRule(LIBRARY, filesystem, graphBuilder));
+    graphBuilder.addToIndex(
+        new WriteRule(
+            BINARY,
+            filesystem,
+            graphBuilder,
+            "binary",
+            Optional.of(library.getSourcePathToOutput())));
+    newStore().save(targetGraph, graphBuilder);
+
+    // The binary depends on a rule that can't be restored, so it can't be restored either.
+    assertEquals(0, newStore().restore(targetGraph, createActionGraphBuilder(targetGraph)));
+  }
+
+  @Test
+  public void snapshotOfAnotherConfigIsIgnored() throws IOException {
+    TargetGraph targetGraph = createTargetGraph("library");
+    ActionGraphBuilder graphBuilder = createActionGraphBuilder(targetGraph);
+    graphBuilder.addToIndex(
+        new WriteRule(LIBRARY, filesystem, graphBuilder, "library", Optional.empty()));
+    newStore().save(targetGraph, graphBuilder);
+
+    assertEquals(
+        0,
+        new ModernBuildRuleSnapshotStore(cell, TYPE_COERCER_FACTORY, snapshotPath, "other")
+            .restore(targetGraph, createActionGraphBuilder(targetGraph)));
+  }
+
+  private ModernBuildRuleSnapshotStore newStore() {
+    return new ModernBuildRuleSnapshotStore(cell, TYPE_COERCER_FACTORY, snapshotPath, "salt");
+  }
+
+  private static TargetGraph createTargetGraph(String libraryLabel) {
+    FakeTargetNodeBuilder libraryBuilder =
+        FakeTargetNodeBuilder.newBuilder(LIBRARY).setProducesCacheableSubgraph(true);
+    libraryBuilder.getArgForPopulating().addLabels(libraryLabel);
+    TargetNode<?> library = libraryBuilder.build();
+    FakeTargetNodeBuilder binaryBuilder =
+        FakeTargetNodeBuilder.newBuilder(BINARY).setProducesCacheableSubgraph(true);
+    binaryBuilder.getArgForPopulating().addDeps(LIBRARY);
+    return TargetGraphFactory.newInstanceExact(library, binaryBuilder.build());
+  }
+
+  private ActionGraphBuilder createActionGraphBuilder(TargetGraph targetGraph) {
+    return new MultiThreadedActionGraphBuilder(
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor()),
+        targetGraph,
+        ConfigurationRuleRegistryFactory.createRegistry(TargetGraph.EMPTY),
+        new DefaultTargetNodeToBuildRuleTransformer(),
+        cell.getCellProvider());
+  }
+
+  private static class WriteRule extends ModernBuildRule<WriteRule> implements Buildable {
+    @AddToRuleKey private final String content;
+    @AddToRuleKey private final Optional<SourcePath> input;
+    @AddToRuleKey private final OutputPath output;
+
+    WriteRule(
+        BuildTarget buildTarget,
+        ProjectFilesystem filesystem,
+        SourcePathRuleFinder finder,
+        String content,
+        Optional<SourcePath> input) {
+      super(buildTarget, filesystem, finder, WriteRule.class);
+      this.content = content;
+      this.input = input;
+      this.output = new OutputPath("out");
+    }
+
+    @Override
+    public SourcePath getSourcePathToOutput() {
+      return getSourcePath(output);
+    }
+
+    @Override
+    public ImmutableList<Step> getBuildSteps(
+        BuildContext buildContext,
+        ProjectFilesystem filesystem,
+        OutputPathResolver outputPathResolver,
+        BuildCellRelativePathFactory buildCellPathFactory) {
+      return ImmutableList.of();
+    }
+  }
+
+  private static class StatefulRule extends ModernBuildRule<StatefulBuildable> {
+    private final ImmutableSortedSet<String> notInBuildable = ImmutableSortedSet.of("state");
+
+    StatefulRule(
+        BuildTarget buildTarget, ProjectFilesystem filesystem, SourcePathRuleFinder finder) {
+      super(buildTarget, filesystem, finder, new StatefulBuildable());
+    }
+
+    @Override
+    public SourcePath getSourcePathToOutput() {
+      return getSourcePath(getBuildable().output);
+    }
+  }
+
+  private static class StatefulBuildable implements Buildable {
+    @AddToRuleKey private final OutputPath output = new OutputPath("out");
+
+    @Override
+    public ImmutableList<Step> getBuildSteps(
+        BuildContext buildContext,
+        ProjectFilesystem filesystem,
+        OutputPathResolver outputPathResolver,
+        BuildCellRelativePathFactory buildCellPathFactory) {
+      return ImmutableList.of();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) Facebook, Inc. and its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.facebook.buck.rules.modern.builders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.core.rules.BuildRule;
+import com.facebook.buck.core.rules.build.strategy.UnmaterializedOutput;
+import com.facebook.buck.core.rules.impl.FakeBuildRule;
+import com.facebook.buck.event.BuckEventBusForTests;
+import com.facebook.buck.remoteexecution.UploadDataSupplier;
+import com.facebook.buck.remoteexecution.grpc.GrpcProtocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.Digest;
+import com.facebook.buck.remoteexecution.interfaces.Protocol.OutputFile;
+import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
+import com.facebook.buck.testutil.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LazyOutputsMaterializerTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private final Protocol protocol = new GrpcProtocol();
+  private LocalContentAddressedStorage storage;
+  private LazyOutputsMaterializer materializer;
+  private Path root;
+
+  @Before
+  public void setUp() {
+    storage =
+        new LocalContentAddressedStorage(
+            tmp.getRoot().resolve("__storage__"), protocol, BuckEventBusForTests.newInstance());
+    materializer = new LazyOutputsMaterializer(storage);
+    root = tmp.getRoot().resolve("root");
+  }
+
+  @Test
+  public void registeredOutputsAreReportedAsUnmaterialized() throws Exception {
+    BuildRule rule = new FakeBuildRule("//:rule");
+    OutputFile file = addOutputFile(Paths.get("out/rule.txt"), "rule");
+    materializer.register(rule, root, ImmutableList.of(file));
+
+    Path absolutePath = root.resolve("out/rule.txt");
+    ImmutableMap<Path, UnmaterializedOutput> outputs =
+        materializer.getUnmaterializedOutputs(rule);
+    assertEquals(ImmutableList.of(absolutePath), outputs.keySet().asList());
+    assertEquals(file.getDigest().getHash(), outputs.get(absolutePath).getHash().toString());
+    assertEquals(file.getDigest().getSize(), outputs.get(absolutePath).getSize());
+    assertSame(file, materializer.getUnmaterializedFile(absolutePath).get());
+    assertFalse(Files.exists(absolutePath));
+  }
+
+  @Test
+  public void materializingARuleWritesItsOutputsOnly() throws Exception {
+    BuildRule dep = new FakeBuildRule("//:dep");
+    BuildRule rule = new FakeBuildRule("//:rule", dep);
+    materializer.register(
+        dep, root, ImmutableList.of(addOutputFile(Paths.get("out/dep.txt"), "dep")));
+    materializer.register(
+        rule, root, ImmutableList.of(addOutputFile(Paths.get("out/rule.txt"), "rule")));
+
+    materializer.materialize(rule, false).get();
+
+    assertEquals("rule", readFile(root.resolve("out/rule.txt")));
+    assertTrue(materializer.getUnmaterializedOutputs(rule).isEmpty());
+    assertFalse(materializer.getUnmaterializedFile(root.resolve("out/rule.txt")).isPresent());
+    assertFalse(Files.exists(root.resolve("out/dep.txt")));
+    assertEquals(1, materializer.getUnmaterializedOutputs(dep).size());
+  }
+
+  @Test
+  public void materializingTransitiveDepsWritesTheirOutputsOnce() throws Exception {
+    BuildRule dep = new FakeBuildRule("//:dep");
+    BuildRule rule = new FakeBuildRule("//:rule", dep);
+    BuildRule other = new FakeBuildRule("//:other", dep);
+    materializer.register(
+        dep, root, ImmutableList.of(addOutputFile(Paths.get("out/dep.txt"), "dep")));
+    materializer.register(
+        rule, root, ImmutableList.of(addOutputFile(Paths.get("out/rule.txt"), "rule")));
+
+    ListenableFuture<?> future = materializer.materialize(rule, true);
+    future.get();
+
+    assertEquals("rule", readFile(root.resolve("out/rule.txt")));
+    assertEquals("dep", readFile(root.resolve("out/dep.txt")));
+    assertTrue(materializer.getUnmaterializedOutputs(dep).isEmpty());
+    assertSame(future, materializer.materialize(rule, true));
+
+    // Rules without lazy outputs are trivially materialized.
+    materializer.materialize(other, true).get();
+  }
+
+  private OutputFile addOutputFile(Path path, String content) throws IOException {
+    byte[] data = content.getBytes(Charsets.UTF_8);
+    Digest digest = protocol.computeDigest(data);
+    Futures.getUnchecked(
+        storage.addMissing(
+            ImmutableList.of(
+                UploadDataSupplier.of(
+                    path.toString(), digest, () -> new ByteArrayInputStream(data)))));
+    return protocol.newOutputFile(path, digest, false);
+  }
+
+  private static String readFile(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), Charsets.UTF_8);
+  }
+}
@@ -17,6 +17,9 @@
 package com.facebook.buck.rules.modern.builders;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeThat;
 
 import com.facebook.buck.event.BuckEventBusForTests;
 import com.facebook.buck.remoteexecution.UploadDataSupplier;
@@ -27,7 +30,9 @@ import com.facebook.buck.remoteexecution.interfaces.Protocol.FileNode;
 import com.facebook.buck.remoteexecution.util.LocalContentAddressedStorage;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache;
 import com.facebook.buck.remoteexecution.util.MerkleTreeNodeCache.MerkleTreeNode;
+import com.facebook.buck.remoteexecution.util.OutputsMaterializer.FilesystemFileMaterializer;
 import com.facebook.buck.testutil.TemporaryPaths;
+import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -39,9 +44,11 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -145,6 +152,42 @@ public class LocalContentAddressedStorageTest {
     assertDataEquals(otherData, Files.readAllBytes(inputsDir.resolve(otherPath)));
   }
 
+  @Test
+  public void materializedOutputsAreReadOnlyLinksToTheStoredData() throws Exception {
+    assumeThat(Platform.detect(), Matchers.not(Platform.WINDOWS));
+    byte[] data = "hello world!".getBytes(Charsets.UTF_8);
+    Digest digest = protocol.computeDigest(data);
+    Futures.getUnchecked(
+        storage.addMissing(
+            ImmutableList.of(
+                UploadDataSupplier.of("data", digest, () -> new ByteArrayInputStream(data)))));
+
+    Path outputsDir = tmp.getRoot().resolve("outputs");
+    storage
+        .materializeOutputs(
+            ImmutableList.of(),
+            ImmutableList.of(
+                protocol.newOutputFile(Paths.get("dir/file"), digest, false),
+                protocol.newOutputFile(Paths.get("dir/exe"), digest, true)),
+            new FilesystemFileMaterializer(outputsDir))
+        .get();
+
+    Path file = outputsDir.resolve("dir/file");
+    Path exe = outputsDir.resolve("dir/exe");
+    assertDataEquals(data, Files.readAllBytes(file));
+    assertDataEquals(data, Files.readAllBytes(exe));
+    assertEquals(2, Files.getAttribute(file, "unix:nlink"));
+    assertFalse(Files.getPosixFilePermissions(file).contains(PosixFilePermission.OWNER_WRITE));
+    assertFalse(Files.getPosixFilePermissions(exe).contains(PosixFilePermission.OWNER_WRITE));
+    assertFalse(Files.isExecutable(file));
+    assertTrue(Files.isExecutable(exe));
+
+    // Rules delete their outputs before building them again, which leaves the blob as it was.
+    Files.delete(file);
+    Files.write(file, "goodbye".getBytes(Charsets.UTF_8));
+    assertDataEquals(data, ByteStreams.toByteArray(storage.getData(digest)));
+  }
+
   private FileNode newFileNode(byte[] bytes, Path path, boolean isExecutable) {
     return protocol.newFileNode(
         protocol.computeDigest(bytes), path.getFileName().toString(), isExecutable);
@@ -123,7 +123,9 @@ public class RemoteExecutionStrategyTest {
             new TestRemoteExecutionHelper(),
             new NoOpWorkerRequirementsProvider(),
             service,
-            "" /* auxiliaryBuildTag */);
+            "" /* auxiliaryBuildTag */,
+            Optional.empty(),
+            Optional.empty());
 
     ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
     SourcePathRuleFinder ruleFinder = new TestActionGraphBuilder();
@@ -243,7 +245,9 @@ public class RemoteExecutionStrategyTest {
             new TestRemoteExecutionHelper(),
             new NoOpWorkerRequirementsProvider(),
             service,
-            "" /* auxiliaryBuildTag */);
+            "" /* auxiliaryBuildTag */,
+            Optional.empty(),
+            Optional.empty());
 
     StrategyBuildResult result = beginCustomStrategyBuild();
     result.cancelIfNotComplete(new CancellationException("Job is being stolen"));
@@ -348,6 +352,11 @@ public class RemoteExecutionStrategyTest {
     public ImmutableSet<PathMatcher> getIgnorePaths() {
       return ImmutableSet.of();
     }
+
+    @Override
+    public boolean isLazyOutputMaterializationEnabled() {
+      return false;
+    }
   }
 
   private class TestRemoteExecutionHelper implements RemoteExecutionHelper {
@@ -93,6 +93,11 @@ public class FakeWorkerBuilder
       return 0;
     }
 
+    @Override
+    public int getMaxJobsPerWorker() {
+      return 1;
+    }
+
     @Override
     public boolean isPersistent() {
       return false;
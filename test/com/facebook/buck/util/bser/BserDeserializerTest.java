@@ -28,11 +28,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.BaseEncoding;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteOrder;
 import java.nio.charset.CharacterCodingException;
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.hamcrest.Matchers;
@@ -353,4 +356,116 @@ public class BserDeserializerTest {
     BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
     deserializer.deserializeBserValue(getByteStream("0001030701030103030323"));
   }
+
+  @Test
+  public void visitorReceivesArrayElementsInsteadOfResponse() throws IOException {
+    Map<String, Object> value = new LinkedHashMap<>();
+    value.put("files", ImmutableList.of(ImmutableMap.of("name", "foo"), "bar", 42));
+    value.put("clock", "c:1");
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    new BserSerializer().serializeToStream(value, serialized);
+
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    CollectingVisitor visitor = new CollectingVisitor(true);
+    Map<String, Object> deserialized =
+        (Map<String, Object>)
+            deserializer.deserializeBserValue(
+                new ByteArrayInputStream(serialized.toByteArray()),
+                ImmutableMap.of("files", visitor));
+
+    assertThat(deserialized, equalTo(ImmutableMap.of("clock", "c:1")));
+    assertThat(visitor.size, equalTo(3));
+    assertThat(
+        visitor.elements,
+        contains(ImmutableMap.of("name", "foo"), "bar", (Object) (byte) 42));
+  }
+
+  @Test
+  public void declinedArrayElementsAreSkipped() throws IOException {
+    Map<String, Object> value = new LinkedHashMap<>();
+    value.put(
+        "files",
+        ImmutableList.of(
+            ImmutableMap.of("name", "foo", "size", 123456789L),
+            ImmutableList.of(true, 0.5, "baz"),
+            "bar"));
+    value.put("clock", "c:1");
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    new BserSerializer().serializeToStream(value, serialized);
+
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    CollectingVisitor visitor = new CollectingVisitor(false);
+    Map<String, Object> deserialized =
+        (Map<String, Object>)
+            deserializer.deserializeBserValue(
+                new ByteArrayInputStream(serialized.toByteArray()),
+                ImmutableMap.of("files", visitor));
+
+    assertThat(deserialized, equalTo(ImmutableMap.of("clock", "c:1")));
+    assertThat(visitor.size, equalTo(3));
+    assertThat(visitor.elements, Matchers.empty());
+  }
+
+  @Test
+  public void visitorReceivesTemplateElements() throws IOException {
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    CollectingVisitor visitor = new CollectingVisitor(true);
+    Map<String, Object> deserialized =
+        (Map<String, Object>)
+            deserializer.deserializeBserValue(
+                getByteStream(
+                    "0001033901030202030566696C65730B0003020203046E616D65020303616765030302"
+                        + "030466726564031402030470657465031E0C0319020301780301"),
+                ImmutableMap.of("files", visitor));
+
+    assertThat(deserialized, equalTo(ImmutableMap.of("x", (byte) 1)));
+    assertThat(visitor.size, equalTo(3));
+    assertThat(
+        visitor.elements,
+        contains(
+            ImmutableMap.of("name", "fred", "age", (byte) 20),
+            ImmutableMap.of("name", "pete", "age", (byte) 30),
+            ImmutableMap.of("age", (byte) 25)));
+  }
+
+  @Test
+  public void consecutiveValuesOfDifferentSizesAreDeserialized() throws IOException {
+    ImmutableList.Builder<Object> largeValue = ImmutableList.builder();
+    for (int i = 0; i < 100000; i++) {
+      largeValue.add("file" + i);
+    }
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    BserSerializer serializer = new BserSerializer();
+    serializer.serializeToStream(largeValue.build(), serialized);
+    serializer.serializeToStream("hello world", serialized);
+    serializer.serializeToStream(ImmutableList.of("file1", "file2"), serialized);
+
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    InputStream input = new ByteArrayInputStream(serialized.toByteArray());
+    assertThat(deserializer.deserializeBserValue(input), equalTo(largeValue.build()));
+    assertThat(deserializer.deserializeBserValue(input), equalTo("hello world"));
+    assertThat(
+        deserializer.deserializeBserValue(input), equalTo(ImmutableList.of("file1", "file2")));
+  }
+
+  private static class CollectingVisitor implements BserArrayVisitor {
+    private final boolean visit;
+    private final List<Object> elements = new ArrayList<>();
+    private int size = -1;
+
+    private CollectingVisitor(boolean visit) {
+      this.visit = visit;
+    }
+
+    @Override
+    public boolean visitSize(int size) {
+      this.size = size;
+      return visit;
+    }
+
+    @Override
+    public void visitElement(Object element) {
+      elements.add(element);
+    }
+  }
 }
@@ -17,6 +17,7 @@
 package com.facebook.buck.util.cache.impl;
 
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
@@ -41,6 +42,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Optional;
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Rule;
 import org.junit.Test;
@@ -239,4 +241,38 @@ public class WatchedFileHashCacheTest {
     assertFalse(cache.willGet(filesystem.getPath("buck-out/file.txt")));
     assertTrue(cache.willGet(filesystem.getPath("file.txt")));
   }
+
+  @Test
+  public void snapshotRestoresUnchangedFileHashesAndClock() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path unchanged = Paths.get("unchanged.txt");
+    Path modified = Paths.get("modified.txt");
+    filesystem.writeContentsToPath("unchanged", unchanged);
+    filesystem.writeContentsToPath("modified", modified);
+    Path snapshot = FileHashCacheSnapshot.getDefaultSnapshotPath(filesystem);
+
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    HashCode unchangedHash = cache.get(unchanged);
+    cache.get(modified);
+    cache.saveSnapshot(snapshot, "c:123:456");
+
+    filesystem.writeContentsToPath("modified with a different size", modified);
+
+    WatchedFileHashCache restored = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    assertEquals(Optional.of("c:123:456"), restored.loadSnapshot(snapshot));
+    assertEquals(Optional.of(unchangedHash), restored.getIfPresent(unchanged));
+    assertFalse(restored.getIfPresent(modified).isPresent());
+  }
+
+  @Test
+  public void corruptSnapshotIsIgnored() throws IOException {
+    ProjectFilesystem filesystem = TestProjectFilesystems.createProjectFilesystem(tmp.getRoot());
+    Path snapshot = FileHashCacheSnapshot.getDefaultSnapshotPath(filesystem);
+    filesystem.createParentDirs(snapshot);
+    filesystem.writeContentsToPath("not a snapshot", snapshot);
+
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem, fileHashCacheMode);
+    assertFalse(cache.loadSnapshot(snapshot).isPresent());
+    assertTrue(cache.fileHashCacheEngine.asMap().isEmpty());
+  }
 }
@@ -204,6 +204,56 @@ public class ListeningMultiSemaphoreTest {
     assertThat(second.isDone(), Matchers.equalTo(true));
   }
 
+  @Test
+  public void pendingItemsAreProcessedByDecreasingPriority() {
+    ListeningMultiSemaphore semaphore = getFairListeningMultiSemaphore(amountsOfCpu(1));
+    semaphore.acquire(amountsOfCpu(1));
+
+    ListenableFuture<Unit> low = semaphore.acquire(amountsOfCpu(1), 1);
+    ListenableFuture<Unit> firstHigh = semaphore.acquire(amountsOfCpu(1), 5);
+    ListenableFuture<Unit> unprioritized = semaphore.acquire(amountsOfCpu(1));
+    ListenableFuture<Unit> secondHigh = semaphore.acquire(amountsOfCpu(1), 5);
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(4));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(firstHigh.isDone(), Matchers.equalTo(true));
+    assertThat(secondHigh.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(secondHigh.isDone(), Matchers.equalTo(true));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(low.isDone(), Matchers.equalTo(true));
+    assertThat(unprioritized.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(unprioritized.isDone(), Matchers.equalTo(true));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
+  @Test
+  public void fastFairnessProcessesLowerPriorityItemsWhichFit() {
+    ListeningMultiSemaphore semaphore =
+        new ListeningMultiSemaphore(amountsOfCpu(4), ResourceAllocationFairness.FAST);
+    semaphore.acquire(amountsOfCpu(4));
+
+    ListenableFuture<Unit> high = semaphore.acquire(amountsOfCpu(4), Long.MAX_VALUE);
+    ListenableFuture<Unit> firstLow = semaphore.acquire(amountsOfCpu(1));
+    ListenableFuture<Unit> secondLow = semaphore.acquire(amountsOfCpu(1));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(3));
+
+    semaphore.release(amountsOfCpu(2));
+    assertThat(high.isDone(), Matchers.equalTo(false));
+    assertThat(firstLow.isDone(), Matchers.equalTo(true));
+    assertThat(secondLow.isDone(), Matchers.equalTo(true));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(1));
+
+    semaphore.release(amountsOfCpu(4));
+    assertThat(high.isDone(), Matchers.equalTo(true));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
   private ListeningMultiSemaphore getFairListeningMultiSemaphore(ResourceAmounts values) {
     return new ListeningMultiSemaphore(values, ResourceAllocationFairness.FAIR);
   }
@@ -30,16 +30,23 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.hamcrest.Matchers;
@@ -324,6 +331,52 @@ public class UntarTest {
     assertExecutable(expectedPaths.subList(1, expectedPaths.size()), false);
   }
 
+  @Test
+  public void extractsTarGzFilesFromStream() throws IOException {
+    ImmutableSet<Path> unarchivedFiles;
+    try (InputStream archiveStream =
+        Files.newInputStream(getTestFilePath(ArchiveFormat.TAR_GZ.getExtension()))) {
+      unarchivedFiles =
+          Untar.gzipUnarchiver()
+              .extractArchive(
+                  archiveStream, filesystem, ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+    }
+
+    Path echoDotShPath = Paths.get("root", "echo.sh");
+    Path otherDotJavaPath = Paths.get("root_sibling", "Other.java");
+    Assert.assertThat(unarchivedFiles, Matchers.hasItems(echoDotShPath, otherDotJavaPath));
+    Assert.assertEquals(5, unarchivedFiles.size());
+    assertOutputFileExists(echoDotShPath, echoDotSh);
+    assertOutputFileExists(otherDotJavaPath, otherDotJava);
+    assertExecutable(echoDotShPath, true);
+  }
+
+  @Test
+  public void reportsFilesWrittenBeforeAStreamFailsToExtract() throws IOException {
+    byte[] archive = Files.readAllBytes(getTestFilePath(ArchiveFormat.TAR.getExtension()));
+    Set<Path> writtenFiles = new HashSet<>();
+    try {
+      Untar.tarUnarchiver()
+          .extractArchive(
+              // Ends in the middle of root/src/com/facebook/buck/Main.java.
+              new ByteArrayInputStream(Arrays.copyOf(archive, 6144 + 30)),
+              filesystem,
+              ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES,
+              writtenFiles::add);
+      Assert.fail("Expected a truncated archive to fail to extract.");
+    } catch (IOException e) {
+      // Expected.
+    }
+
+    Assert.assertThat(writtenFiles, Matchers.not(Matchers.empty()));
+    Assert.assertEquals(
+        ImmutableSet.copyOf(
+            filesystem
+                .asView()
+                .getFilesUnderPath(filesystem.getPath(""), EnumSet.noneOf(FileVisitOption.class))),
+        ImmutableSet.copyOf(writtenFiles));
+  }
+
   @Test
   public void extractsFilesWithStrippedPrefix() throws IOException {
     ArchiveFormat format = ArchiveFormat.TAR;
@@ -102,6 +102,38 @@ public class WorkerProcessPoolTest {
     assertThat(usedWorkers.size(), equalTo(maxWorkers));
   }
 
+  @Test(timeout = WAIT_FOR_TEST_THREADS_TIMEOUT)
+  public void testFillsWorkersUpToTheirJobCapacityBeforeStartingOthers() throws Exception {
+    int maxWorkers = 2;
+    int maxJobsPerWorker = 3;
+    Set<WorkerProcess> createdWorkers = new HashSet<>();
+    WorkerProcessPool pool =
+        new WorkerProcessPool(
+            maxWorkers,
+            maxJobsPerWorker,
+            Hashing.sha1().hashLong(0),
+            () -> {
+              FakeWorkerProcess worker = new FakeWorkerProcess(ImmutableMap.of());
+              createdWorkers.add(worker);
+              worker.ensureLaunchAndHandshake();
+              return worker;
+            });
+
+    acquireWorkersThenRunActionThenRelease(
+        pool, maxJobsPerWorker, () -> assertThat(createdWorkers.size(), is(1)));
+
+    AtomicReference<BorrowedWorkerProcess> extraWorkerProcess = new AtomicReference<>();
+    acquireWorkersThenRunActionThenRelease(
+        pool,
+        maxWorkers * maxJobsPerWorker,
+        () ->
+            pool.borrowWorkerProcess(1, TimeUnit.MILLISECONDS).ifPresent(extraWorkerProcess::set));
+
+    assertThat(createdWorkers.size(), is(maxWorkers));
+    assertThat(extraWorkerProcess.get(), is(nullValue()));
+    pool.close();
+  }
+
   @Test
   public void testLargePool() throws Exception {
     int numConcurrentConsumers = 128;
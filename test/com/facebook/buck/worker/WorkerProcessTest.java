@@ -42,7 +42,16 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import org.hamcrest.Matchers;
 import org.junit.Rule;
 import org.junit.Test;
@@ -89,6 +98,116 @@ public class WorkerProcessTest {
     }
   }
 
+  @Test(timeout = 20 * 1000)
+  public void testMultiplexedJobsReceiveTheirOwnResponses() throws Exception {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(),
+            createDummyParams(),
+            filesystem,
+            Paths.get(tmpPath.toString(), "stderr"),
+            tmpPath,
+            2)) {
+      // Waits for both jobs to be in flight, then responds to the most recent one first.
+      process.setProtocol(
+          new MultiplexedFakeCommandSender() {
+            private final Deque<WorkerProcessProtocol.CommandResponse> responses =
+                new ArrayDeque<>();
+            private int sentCommands = 0;
+
+            @Override
+            public synchronized void send(int messageId, WorkerProcessCommand command) {
+              int exitCode =
+                  Integer.parseInt(filesystem.readFileIfItExists(command.getArgsPath()).get());
+              responses.push(ImmutableCommandResponse.of(messageId, exitCode));
+              sentCommands++;
+              notifyAll();
+            }
+
+            @Override
+            public synchronized WorkerProcessProtocol.CommandResponse receiveNextCommandResponse()
+                throws IOException {
+              try {
+                while (sentCommands < 2 || responses.isEmpty()) {
+                  wait();
+                }
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              return responses.pop();
+            }
+          });
+
+      Future<WorkerJobResult> first = executor.submit(() -> process.submitAndWaitForJob("3"));
+      Future<WorkerJobResult> second = executor.submit(() -> process.submitAndWaitForJob("4"));
+
+      assertThat(first.get().getExitCode(), is(3));
+      assertThat(second.get().getExitCode(), is(4));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 20 * 1000)
+  public void testMultiplexedJobsDoNotWaitForTheJobOfTheReadingThread() throws Exception {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    Map<String, Integer> sentMessageIds = new ConcurrentHashMap<>();
+    BlockingQueue<WorkerProcessProtocol.CommandResponse> responses = new LinkedBlockingQueue<>();
+
+    try (WorkerProcess process =
+        new WorkerProcess(
+            new FakeProcessExecutor(),
+            createDummyParams(),
+            filesystem,
+            Paths.get(tmpPath.toString(), "stderr"),
+            tmpPath,
+            2)) {
+      // Responds to jobs only when the test says so.
+      process.setProtocol(
+          new MultiplexedFakeCommandSender() {
+            @Override
+            public void send(int messageId, WorkerProcessCommand command) {
+              sentMessageIds.put(
+                  filesystem.readFileIfItExists(command.getArgsPath()).get(), messageId);
+            }
+
+            @Override
+            public WorkerProcessProtocol.CommandResponse receiveNextCommandResponse()
+                throws IOException {
+              try {
+                return responses.take();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+          });
+
+      Future<WorkerJobResult> slow = executor.submit(() -> process.submitAndWaitForJob("3"));
+      while (!sentMessageIds.containsKey("3")) {
+        Thread.sleep(10);
+      }
+      Future<WorkerJobResult> fast = executor.submit(() -> process.submitAndWaitForJob("4"));
+      while (!sentMessageIds.containsKey("4")) {
+        Thread.sleep(10);
+      }
+
+      responses.add(ImmutableCommandResponse.of(sentMessageIds.get("4"), 4));
+      assertThat(fast.get().getExitCode(), is(4));
+      assertFalse(slow.isDone());
+
+      responses.add(ImmutableCommandResponse.of(sentMessageIds.get("3"), 3));
+      assertThat(slow.get().getExitCode(), is(3));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test
   public void testClose() {
     FakeWorkerProcessProtocol.FakeCommandSender protocol =
@@ -140,4 +259,8 @@ public class WorkerProcessTest {
       assertThat(e.getMessage().length(), is(greaterThan(1024 * 1024)));
     }
   }
+
+  private abstract static class MultiplexedFakeCommandSender
+      extends FakeWorkerProcessProtocol.FakeCommandSender
+      implements WorkerProcessProtocol.MultiplexedCommandSender {}
 }